@@ -76,10 +76,14 @@ public class MiniClusterBase {
   private static C5Server server;
 
   String getCreateTabletSubCommand(ByteString tableNameBytes) {
+    return getCreateTabletSubCommand(tableNameBytes, new byte[]{0}, new byte[]{});
+  }
+
+  String getCreateTabletSubCommand(ByteString tableNameBytes, byte[] startKey, byte[] endKey) {
     TableName tableName = TableName.valueOf(tableNameBytes.toByteArray());
     HTableDescriptor testDesc = new HTableDescriptor(tableName);
     testDesc.addFamily(new HColumnDescriptor("cf"));
-    HRegionInfo testRegion = new HRegionInfo(tableName, new byte[]{0}, new byte[]{}, false, 1);
+    HRegionInfo testRegion = new HRegionInfo(tableName, startKey, endKey, false, 1);
     String peerString = String.valueOf(server.getNodeId());
     BASE64Encoder encoder = new BASE64Encoder();
 
@@ -99,8 +103,8 @@ public class MiniClusterBase {
 
     Callback<TabletStateChange> onMsg = message -> {
       System.out.println(message);
-      if (message.state.equals(Tablet.State.Open)
-          || message.state.equals(Tablet.State.Leader)) {
+      // Reads are served by the leader unless the client accepts stale reads
+      if (message.state.equals(Tablet.State.Leader)) {
         latch.countDown();
       }
     };
@@ -124,6 +128,37 @@ public class MiniClusterBase {
     receiver.dispose();
   }
 
+  /**
+   * Create a table with one region for each range between its split keys, the first starting at the empty row and
+   * the last ending at the end of the table, and wait until this node leads every one of them.
+   */
+  protected C5Table createSplitTable(ByteString tableName, byte[]... splitKeys)
+      throws InterruptedException, IOException {
+    Fiber receiver = new ThreadFiber();
+    receiver.start();
+
+    final CountDownLatch latch = new CountDownLatch(splitKeys.length + 1);
+    stateChanges.subscribe(receiver, message -> {
+      if (message.state.equals(Tablet.State.Leader)
+          && Bytes.equals(message.tablet.getRegionInfo().getTable().getName(), tableName.toByteArray())) {
+        latch.countDown();
+      }
+    });
+
+    byte[] startKey = new byte[]{};
+    for (int i = 0; i <= splitKeys.length; i++) {
+      final byte[] endKey = i < splitKeys.length ? splitKeys[i] : new byte[]{};
+      ModuleSubCommand createRegionSubCommand = new ModuleSubCommand(ModuleType.Tablet,
+          getCreateTabletSubCommand(tableName, startKey, endKey));
+      server.getCommandChannel().publish(new CommandRpcRequest<>(server.getNodeId(), createRegionSubCommand));
+      startKey = endKey;
+    }
+    latch.await();
+    receiver.dispose();
+
+    return new C5Table(tableName, getRegionServerPort());
+  }
+
   @After
   public void after() {
     table.close();
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.client;
+
+import c5db.MiniClusterBase;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static c5db.testing.BytesMatchers.equalTo;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class TestAsyncTable extends MiniClusterBase {
+  private static final byte[] CF = Bytes.toBytes("cf");
+  private static final byte[] CQ = Bytes.toBytes("cq");
+  private static final int IN_FLIGHT = 1000;
+
+  @Test(timeout = 10000)
+  public void oneThreadCanKeepManyOperationsInFlight() throws ExecutionException, InterruptedException {
+    final List<ListenableFuture<Void>> puts = new ArrayList<>();
+    for (int i = 0; i < IN_FLIGHT; i++) {
+      puts.add(table.putAsync(new Put(Bytes.toBytes(i)).add(CF, CQ, value)));
+    }
+    Futures.allAsList(puts).get();
+
+    final List<ListenableFuture<Result>> gets = new ArrayList<>();
+    for (int i = 0; i < IN_FLIGHT; i++) {
+      gets.add(table.getAsync(new Get(Bytes.toBytes(i)).addColumn(CF, CQ)));
+    }
+    for (Result result : Futures.allAsList(gets).get()) {
+      assertThat(result.getValue(CF, CQ), is(equalTo(value)));
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void completesOnTheCallbackExecutor() throws ExecutionException, InterruptedException {
+    final ExecutorService callbackExecutor = Executors.newSingleThreadExecutor((runnable) -> {
+      final Thread thread = new Thread(runnable, "callbacks");
+      thread.setDaemon(true);
+      return thread;
+    });
+    table.setCallbackExecutor(callbackExecutor);
+
+    final ListenableFuture<String> completedOn = Futures.transform(table.putAsync(new Put(row).add(CF, CQ, value)),
+        (Function<Void, String>) (ignored) -> Thread.currentThread().getName());
+
+    assertThat(completedOn.get(), is("callbacks"));
+    callbackExecutor.shutdown();
+  }
+}
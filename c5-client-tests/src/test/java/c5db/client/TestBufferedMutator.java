@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.client;
+
+import c5db.MiniClusterBase;
+import io.protostuff.ByteString;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static c5db.testing.BytesMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class TestBufferedMutator extends MiniClusterBase {
+  private static final byte[] CF = Bytes.toBytes("cf");
+  private static final byte[] CQ = Bytes.toBytes("cq");
+
+  private final AtomicInteger failures = new AtomicInteger();
+  private final C5BufferedMutator.ExceptionListener countFailures =
+      (mutation, exception) -> failures.incrementAndGet();
+
+  @Test(timeout = 10000)
+  public void appliesBufferedPutsAndDeletesOnClose() throws IOException {
+    final byte[] row1 = Bytes.toBytes("row1");
+    final byte[] row2 = Bytes.toBytes("row2");
+    DataHelper.putRowInDB(table, row2);
+
+    try (C5BufferedMutator mutator = new C5BufferedMutator(table, countFailures)) {
+      mutator.mutate(new Put(row1).add(CF, CQ, value));
+      mutator.mutate(new Delete(row2));
+      assertThat(DataHelper.valueReadFromDB(table, row1), is(not(equalTo(value))));
+    }
+
+    assertThat(DataHelper.valueReadFromDB(table, row1), is(equalTo(value)));
+    assertThat(DataHelper.valueReadFromDB(table, row2), is(not(equalTo(value))));
+    assertThat(failures.get(), is(0));
+  }
+
+  @Test(timeout = 10000)
+  public void flushesOnceTheBufferHoldsEnoughMutations() throws Exception {
+    try (C5BufferedMutator mutator = new C5BufferedMutator(table, Long.MAX_VALUE, 2, Long.MAX_VALUE, countFailures)) {
+      mutator.mutate(new Put(Bytes.toBytes("row1")).add(CF, CQ, value));
+      mutator.mutate(new Put(Bytes.toBytes("row2")).add(CF, CQ, value));
+      assertThat(mutator.getBufferedBytes(), is(0L));
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void flushesOnceTheOldestMutationHasWaitedTheFlushInterval() throws Exception {
+    try (C5BufferedMutator mutator = new C5BufferedMutator(table, Long.MAX_VALUE, Integer.MAX_VALUE, 50,
+        countFailures)) {
+      mutator.mutate(new Put(row).add(CF, CQ, value));
+      while (!Bytes.equals(DataHelper.valueReadFromDB(table, row), value)) {
+        Thread.sleep(10);
+      }
+      assertThat(mutator.getBufferedBytes(), is(0L));
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void flushWaitsUntilItsMutationsHaveBeenApplied() throws Exception {
+    try (C5BufferedMutator mutator = new C5BufferedMutator(table, countFailures)) {
+      mutator.mutate(new Put(row).add(CF, CQ, value));
+      mutator.flush().get();
+      assertThat(DataHelper.valueReadFromDB(table, row), is(equalTo(value)));
+    }
+    assertThat(failures.get(), is(0));
+  }
+
+  @Test(timeout = 10000)
+  public void appliesTheMutationsOfARowInTheOrderTheyWereBuffered() throws Exception {
+    try (C5BufferedMutator mutator = new C5BufferedMutator(table, countFailures)) {
+      mutator.mutate(new Put(row).add(CF, CQ, notEqualToValue));
+      mutator.flush();
+      mutator.mutate(new Delete(row));
+      mutator.flush();
+      mutator.mutate(new Put(row).add(CF, CQ, value));
+      mutator.flush().get();
+      assertThat(DataHelper.valueReadFromDB(table, row), is(equalTo(value)));
+    }
+    assertThat(failures.get(), is(0));
+  }
+
+  @Test(timeout = 20000)
+  public void appliesMutationsToEveryRegionOfASplitTable() throws Exception {
+    final byte[][] rows = {Bytes.toBytes("a"), Bytes.toBytes("h"), Bytes.toBytes("n"), Bytes.toBytes("t")};
+    try (C5Table splitTable = createSplitTable(ByteString.copyFrom(Bytes.toBytes(name.getMethodName() + "_split")),
+        Bytes.toBytes("g"), Bytes.toBytes("p"))) {
+      try (C5BufferedMutator mutator = new C5BufferedMutator(splitTable, countFailures)) {
+        for (byte[] splitRow : rows) {
+          mutator.mutate(new Put(splitRow).add(CF, CQ, value));
+        }
+        mutator.flush().get();
+      }
+      for (byte[] splitRow : rows) {
+        assertThat(DataHelper.valueReadFromDB(splitTable, splitRow), is(equalTo(value)));
+      }
+    }
+    assertThat(failures.get(), is(0));
+  }
+}
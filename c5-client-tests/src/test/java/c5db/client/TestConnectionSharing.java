@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.client;
+
+import c5db.MiniClusterBase;
+import io.protostuff.ByteString;
+import org.junit.Test;
+
+import static c5db.testing.BytesMatchers.equalTo;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class TestConnectionSharing extends MiniClusterBase {
+
+  @Test(timeout = 10000)
+  public void closingOneTableLeavesTheConnectionsItSharedOpenForTheOthers() throws Exception {
+    final C5Table otherTable = new C5Table(ByteString.copyFrom(table.getTableName()), getRegionServerPort());
+    otherTable.close();
+
+    DataHelper.putRowInDB(table, row);
+    assertThat(DataHelper.valueReadFromDB(table, row), is(equalTo(value)));
+  }
+
+  @Test(timeout = 10000)
+  public void tablesSharingConnectionsGetEachOthersResponsesRight() throws Exception {
+    try (C5Table otherTable = new C5Table(ByteString.copyFrom(table.getTableName()), getRegionServerPort())) {
+      DataHelper.putRowInDB(table, row);
+      for (int i = 0; i < 100; i++) {
+        assertThat(DataHelper.valueReadFromDB(otherTable, row), is(equalTo(value)));
+        assertThat(DataHelper.valueReadFromDB(table, row), is(equalTo(value)));
+      }
+    }
+  }
+}
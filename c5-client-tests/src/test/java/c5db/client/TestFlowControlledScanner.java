@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.client;
+
+import c5db.MiniClusterBase;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class TestFlowControlledScanner extends MiniClusterBase {
+  private static final int ROWS = 5 * C5Constants.DEFAULT_INIT_SCAN;
+
+  @Test(timeout = 20000)
+  public void readsEveryRowInOrderWhenThereAreMoreThanTheFirstGrant() throws IOException {
+    putRows();
+
+    try (ResultScanner scanner = table.getScanner(new Scan())) {
+      for (int i = 0; i < ROWS; i++) {
+        assertThat(Bytes.toInt(scanner.next().getRow()), is(i));
+      }
+      assertThat(scanner.next(), is(nullValue()));
+    }
+  }
+
+  @Test(timeout = 20000)
+  public void aSlowReaderIsNotOverrun() throws IOException, InterruptedException {
+    putRows();
+
+    try (ResultScanner scanner = table.getScanner(new Scan())) {
+      int rowsRead = 0;
+      while (scanner.next() != null) {
+        if (++rowsRead % C5Constants.DEFAULT_INIT_SCAN == 0) {
+          Thread.sleep(100);
+        }
+      }
+      assertThat(rowsRead, is(ROWS));
+    }
+  }
+
+  @Test(timeout = 20000)
+  public void returnsNoMoreRowsOnceClosed() throws IOException {
+    putRows();
+
+    final ResultScanner scanner = table.getScanner(new Scan());
+    final Result first = scanner.next();
+    scanner.close();
+
+    assertThat(Bytes.toInt(first.getRow()), is(0));
+    assertThat(scanner.next(), is(nullValue()));
+  }
+
+  private void putRows() throws IOException {
+    final byte[][] rows = new byte[ROWS][];
+    for (int i = 0; i < ROWS; i++) {
+      rows[i] = Bytes.toBytes(i);
+    }
+    DataHelper.putsRowInDB(table, rows, value);
+  }
+}
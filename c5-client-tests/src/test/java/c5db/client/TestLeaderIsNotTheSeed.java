@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.client;
+
+import c5db.C5ServerConstants;
+import c5db.Main;
+import c5db.interfaces.C5Module;
+import c5db.interfaces.C5Server;
+import c5db.interfaces.TabletModule;
+import c5db.interfaces.server.CommandRpcRequest;
+import c5db.interfaces.tablet.RegionDescription;
+import c5db.interfaces.tablet.Tablet;
+import c5db.messages.generated.ModuleSubCommand;
+import c5db.messages.generated.ModuleType;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Service;
+import io.protostuff.ByteString;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.jetlang.fibers.Fiber;
+import org.jetlang.fibers.ThreadFiber;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+import sun.misc.BASE64Encoder;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static c5db.testing.BytesMatchers.equalTo;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Runs a cluster of several nodes in this JVM, and sends a client's requests to a follower of the region they are for,
+ * as its seed server; they must find their way to the leader from the follower's answers.
+ */
+public class TestLeaderIsNotTheSeed {
+  private static final int NODES = 3;
+  private static final int ROWS = 100;
+  private static final byte[] CF = Bytes.toBytes("cf");
+  private static final byte[] CQ = Bytes.toBytes("cq");
+  private static final byte[] VALUE = Bytes.toBytes("value");
+  private static final Random rnd = new Random();
+
+  private static final List<C5Server> servers = new ArrayList<>();
+  private static final List<TabletModule> tabletModules = new ArrayList<>();
+  private static final List<Integer> regionServerPorts = new ArrayList<>();
+
+  @Rule
+  public TestName name = new TestName();
+  private C5Table table;
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    System.setProperty(C5ServerConstants.CLUSTER_NAME_PROPERTY_NAME, "c5-test-" + rnd.nextInt(Integer.MAX_VALUE));
+    final int firstPort = 8080 + rnd.nextInt(1000);
+    for (int i = 0; i < NODES; i++) {
+      final int regionServerPort = firstPort + i;
+      System.setProperty("regionServerPort", String.valueOf(regionServerPort));
+      System.setProperty("webAdminPort", String.valueOf(regionServerPort + 1000));
+      final C5Server server = Main.startC5Server(new String[]{String.valueOf(1 + rnd.nextInt(Integer.MAX_VALUE))});
+      servers.add(server);
+      regionServerPorts.add(regionServerPort);
+    }
+
+    for (C5Server server : servers) {
+      final C5Module regionServer = server.getModule(ModuleType.RegionServer).get();
+      final TabletModule tabletServer = (TabletModule) server.getModule(ModuleType.Tablet).get();
+      final C5Module replicationServer = server.getModule(ModuleType.Replication).get();
+      while (!regionServer.isRunning() || !tabletServer.isRunning() || !replicationServer.isRunning()) {
+        Thread.sleep(600);
+      }
+      tabletModules.add(tabletServer);
+    }
+  }
+
+  @AfterClass
+  public static void afterClass() {
+    for (C5Server server : servers) {
+      final List<ListenableFuture<Service.State>> states = new ArrayList<>();
+      for (C5Module module : server.getModules().values()) {
+        states.add(module.stop());
+      }
+      for (ListenableFuture<Service.State> state : states) {
+        try {
+          state.get(10000, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+          e.printStackTrace();
+        }
+      }
+      server.stopAndWait();
+    }
+    System.clearProperty(C5ServerConstants.CLUSTER_NAME_PROPERTY_NAME);
+    System.clearProperty("webAdminPort");
+  }
+
+  /**
+   * Create a table of one region replicated on every node, and seed the client with a node which follows it, once
+   * that node knows where the leader is.
+   */
+  @Before
+  public void before() throws Exception {
+    final ByteString tableName = ByteString.copyFrom(Bytes.toBytes(name.getMethodName()));
+    final HRegionInfo regionInfo =
+        new HRegionInfo(TableName.valueOf(tableName.toByteArray()), new byte[]{}, new byte[]{}, false, 1);
+
+    final Fiber receiver = new ThreadFiber();
+    receiver.start();
+    final CountDownLatch elected = new CountDownLatch(1);
+    final AtomicInteger leaderIndex = new AtomicInteger(-1);
+    for (int i = 0; i < NODES; i++) {
+      final int index = i;
+      tabletModules.get(i).getTabletStateChanges().subscribe(receiver, message -> {
+        if (message.state.equals(Tablet.State.Leader)
+            && Bytes.equals(message.tablet.getRegionInfo().getRegionName(), regionInfo.getRegionName())
+            && leaderIndex.compareAndSet(-1, index)) {
+          elected.countDown();
+        }
+      });
+    }
+
+    final String createTable = getCreateTabletSubCommand(tableName, regionInfo);
+    for (C5Server server : servers) {
+      server.getCommandChannel().publish(new CommandRpcRequest<>(server.getNodeId(),
+          new ModuleSubCommand(ModuleType.Tablet, createTable)));
+    }
+    elected.await();
+    receiver.dispose();
+
+    final int followerIndex = (leaderIndex.get() + 1) % NODES;
+    final ByteBuffer encodedName = ByteBuffer.wrap(regionInfo.getEncodedNameAsBytes());
+    while (!knowsLeaderAddress(tabletModules.get(followerIndex).getOnlineRegionDescription(encodedName))) {
+      Thread.sleep(50);
+    }
+
+    table = new C5Table(tableName, "localhost", regionServerPorts.get(followerIndex));
+  }
+
+  @After
+  public void after() {
+    table.close();
+  }
+
+  @Test(timeout = 60000)
+  public void bufferedMutationsSentToAFollowerAreAppliedByTheLeader() throws Exception {
+    final AtomicInteger failures = new AtomicInteger();
+    try (C5BufferedMutator mutator = new C5BufferedMutator(table,
+        (mutation, exception) -> failures.incrementAndGet())) {
+      for (int i = 0; i < ROWS; i++) {
+        mutator.mutate(new Put(Bytes.toBytes(i)).add(CF, CQ, VALUE));
+      }
+      mutator.flush().get();
+    }
+
+    assertThat(failures.get(), is(0));
+    for (int i = 0; i < ROWS; i++) {
+      assertThat(DataHelper.valueReadFromDB(table, Bytes.toBytes(i)), is(equalTo(VALUE)));
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void listsOfPutsAndGetsSentToAFollowerAreRunByTheLeader() throws Exception {
+    final List<Put> puts = new ArrayList<>();
+    final List<Get> gets = new ArrayList<>();
+    for (int i = 0; i < ROWS; i++) {
+      puts.add(new Put(Bytes.toBytes(i)).add(CF, CQ, VALUE));
+      gets.add(new Get(Bytes.toBytes(i)));
+    }
+    table.put(puts);
+
+    final Result[] results = table.get(gets);
+    for (int i = 0; i < ROWS; i++) {
+      assertThat(results[i].getValue(CF, CQ), is(equalTo(VALUE)));
+    }
+  }
+
+  private static boolean knowsLeaderAddress(RegionDescription description) {
+    return description != null
+        && description.getRegionInfo().getLeaderHost() != null
+        && !description.getRegionInfo().getLeaderHost().isEmpty();
+  }
+
+  private String getCreateTabletSubCommand(ByteString tableName, HRegionInfo regionInfo) {
+    final HTableDescriptor tableDescriptor = new HTableDescriptor(TableName.valueOf(tableName.toByteArray()));
+    tableDescriptor.addFamily(new HColumnDescriptor(CF));
+    final StringBuilder peers = new StringBuilder();
+    for (C5Server server : servers) {
+      peers.append(",").append(server.getNodeId());
+    }
+
+    final BASE64Encoder encoder = new BASE64Encoder();
+    return C5ServerConstants.CREATE_TABLE + ":" + encoder.encodeBuffer(tableDescriptor.toByteArray()) + ","
+        + encoder.encodeBuffer(regionInfo.toByteArray()) + peers;
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.client;
+
+import c5db.MiniClusterBase;
+import io.protostuff.ByteString;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class TestMultiRegionScan extends MiniClusterBase {
+  private static final int ROWS = 300;
+  private static final byte[][] REGION_SPLITS = {Bytes.toBytes(100), Bytes.toBytes(200)};
+
+  private C5Table splitTable;
+
+  @Before
+  public void putRowsInASplitTable() throws InterruptedException, IOException {
+    splitTable = createSplitTable(ByteString.copyFrom(Bytes.toBytes(name.getMethodName() + "_split")), REGION_SPLITS);
+
+    final byte[][] rows = new byte[ROWS][];
+    for (int i = 0; i < ROWS; i++) {
+      rows[i] = Bytes.toBytes(i);
+    }
+    DataHelper.putsRowInDB(splitTable, rows, value);
+  }
+
+  @After
+  public void closeSplitTable() {
+    splitTable.close();
+  }
+
+  @Test(timeout = 20000)
+  public void scansOnPastTheEndOfEachRegion() throws IOException {
+    try (ResultScanner scanner = splitTable.getScanner(new Scan())) {
+      for (int i = 0; i < ROWS; i++) {
+        assertThat(Bytes.toInt(scanner.next().getRow()), is(i));
+      }
+      assertThat(scanner.next(), is(nullValue()));
+    }
+  }
+
+  @Test(timeout = 20000)
+  public void stopsAtTheStopRowInALaterRegion() throws IOException {
+    final Scan scan = new Scan().setStartRow(Bytes.toBytes(50)).setStopRow(Bytes.toBytes(150));
+    try (ResultScanner scanner = splitTable.getScanner(scan)) {
+      for (int i = 50; i < 150; i++) {
+        assertThat(Bytes.toInt(scanner.next().getRow()), is(i));
+      }
+      assertThat(scanner.next(), is(nullValue()));
+    }
+  }
+
+  @Test(timeout = 20000)
+  public void scansEachParallelPartAcrossTheRegionsItSpans() throws IOException {
+    // One part spans all three regions, the other starts partway into the last
+    try (C5ParallelScanner scanner = new C5ParallelScanner(splitTable, new Scan(),
+        Arrays.asList(Bytes.toBytes(250)), 2, C5ParallelScanner.Order.ORDERED)) {
+      for (int i = 0; i < ROWS; i++) {
+        assertThat(Bytes.toInt(scanner.next().getRow()), is(i));
+      }
+      assertThat(scanner.next(), is(nullValue()));
+    }
+  }
+}
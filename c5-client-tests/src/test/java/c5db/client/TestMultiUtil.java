@@ -43,6 +43,15 @@ public class TestMultiUtil extends MiniClusterBase {
     assertThat(DataHelper.valueReadFromDB(table, row2), is(equalTo(value)));
   }
 
+  @Test(timeout = 1000)
+  public void testMultiGet() throws IOException {
+    DataHelper.putsRowInDB(table, new byte[][]{row1, row2}, value);
+    byte[][] values = DataHelper.valuesReadFromDB(table, new byte[][]{row2, row, row1});
+    assertThat(values[0], is(equalTo(value)));
+    assertThat(values[1], is(not(equalTo(value))));
+    assertThat(values[2], is(equalTo(value)));
+  }
+
   @Test(timeout = 1000)
   public void testScan() throws IOException {
     DataHelper.putsRowInDB(table, new byte[][]{row1, row2}, value);
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.client;
+
+import c5db.MiniClusterBase;
+import io.protostuff.ByteString;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class TestParallelScanner extends MiniClusterBase {
+  private static final int ROWS = 1000;
+  private static final int PARTS = 10;
+
+  @Test(timeout = 20000)
+  public void returnsEveryRowInOrderWhenOrdered() throws IOException {
+    putRows();
+
+    try (C5ParallelScanner scanner = new C5ParallelScanner(table, new Scan(), splitKeys(), 3,
+        C5ParallelScanner.Order.ORDERED)) {
+      for (int i = 0; i < ROWS; i++) {
+        assertThat(Bytes.toInt(scanner.next().getRow()), is(i));
+      }
+      assertThat(scanner.next(), is(nullValue()));
+    }
+  }
+
+  @Test(timeout = 20000)
+  public void returnsEveryRowOnceWhenUnordered() throws IOException {
+    putRows();
+
+    final Set<Integer> rowsRead = new HashSet<>();
+    try (C5ParallelScanner scanner = new C5ParallelScanner(table, new Scan(), splitKeys(), 3,
+        C5ParallelScanner.Order.UNORDERED)) {
+      for (Result result = scanner.next(); result != null; result = scanner.next()) {
+        assertThat(rowsRead.add(Bytes.toInt(result.getRow())), is(true));
+      }
+    }
+    assertThat(rowsRead.size(), is(ROWS));
+  }
+
+  @Test(timeout = 20000)
+  public void keepsWithinTheScansRange() throws IOException {
+    putRows();
+
+    final Scan scan = new Scan().setStartRow(Bytes.toBytes(150)).setStopRow(Bytes.toBytes(450));
+    try (C5ParallelScanner scanner = new C5ParallelScanner(table, scan, splitKeys(), 3,
+        C5ParallelScanner.Order.ORDERED)) {
+      for (int i = 150; i < 450; i++) {
+        assertThat(Bytes.toInt(scanner.next().getRow()), is(i));
+      }
+      assertThat(scanner.next(), is(nullValue()));
+    }
+  }
+
+  @Test(timeout = 20000)
+  public void locatesTheRegionsOfTheRangeBeforeSplittingItAtThem() throws Exception {
+    try (C5Table splitTable = createSplitTable(ByteString.copyFrom(Bytes.toBytes(name.getMethodName() + "_split")),
+        Bytes.toBytes(300), Bytes.toBytes(600))) {
+      final byte[] everyRow = new byte[]{};
+      assertThat(splitTable.regionSplitKeys(everyRow, everyRow).isEmpty(), is(true));
+
+      final List<Integer> splitRows = new ArrayList<>();
+      for (byte[] key : splitTable.locateRegionSplitKeys(everyRow, everyRow)) {
+        splitRows.add(Bytes.toInt(key));
+      }
+      assertThat(splitRows, is(Arrays.asList(300, 600)));
+    }
+  }
+
+  private void putRows() throws IOException {
+    final byte[][] rows = new byte[ROWS][];
+    for (int i = 0; i < ROWS; i++) {
+      rows[i] = Bytes.toBytes(i);
+    }
+    DataHelper.putsRowInDB(table, rows, value);
+  }
+
+  private static List<byte[]> splitKeys() {
+    final List<byte[]> splitKeys = new ArrayList<>();
+    for (int i = 1; i < PARTS; i++) {
+      splitKeys.add(Bytes.toBytes(i * ROWS / PARTS));
+    }
+    return splitKeys;
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.client;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.RowMutations;
+import org.apache.hadoop.hbase.client.Scan;
+
+import java.util.List;
+
+/**
+ * The operations of TableInterface, without blocking: each sends its request and returns at once, with a future
+ * which completes when the response arrives, or fails with the IOException the blocking version would have thrown.
+ * A request which gets no response in time fails with a TimeoutException.
+ */
+public interface AsyncTableInterface {
+
+  ListenableFuture<Result> getAsync(Get get);
+
+  ListenableFuture<Result[]> getAsync(List<Get> gets);
+
+  ListenableFuture<Boolean> existsAsync(Get get);
+
+  ListenableFuture<Boolean[]> existsAsync(List<Get> gets);
+
+  ListenableFuture<ResultScanner> scanAsync(Scan scan);
+
+  ListenableFuture<Void> putAsync(Put put);
+
+  ListenableFuture<Void> putAsync(List<Put> puts);
+
+  ListenableFuture<Boolean> checkAndPutAsync(byte[] row, byte[] family, byte[] qualifier, byte[] value, Put put);
+
+  ListenableFuture<Void> deleteAsync(Delete delete);
+
+  ListenableFuture<Void> deleteAsync(List<Delete> deletes);
+
+  ListenableFuture<Boolean> checkAndDeleteAsync(byte[] row, byte[] family, byte[] qualifier, byte[] value,
+                                                Delete delete);
+
+  ListenableFuture<Void> mutateRowAsync(RowMutations rm);
+}
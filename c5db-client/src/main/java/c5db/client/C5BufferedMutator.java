@@ -0,0 +1,384 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.client;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.apache.hadoop.hbase.DoNotRetryIOException;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Buffers puts and deletes for a table, and sends them in batches: one MULTI call for each region, as far as the
+ * table knows where its regions are. The buffer is flushed once it holds writeBufferSize bytes of mutations, or
+ * maxBufferedMutations of them, or once its oldest mutation has waited flushIntervalMs; or when flush() is called.
+ * <p>
+ * Mutations are grouped by region when they are sent, not when they are buffered, so each goes where the table last
+ * learned its region is. Each region has at most one batch in flight; a region's mutations flushed meanwhile stay in
+ * the buffer until that batch is answered. Nor is a mutation sent while an earlier one of the same row is in flight
+ * to any region, so the mutations of a row are applied in the order they were buffered. A writer which fills the
+ * buffer waits until enough of it has been sent to make room.
+ * <p>
+ * A mutation refused because it was sent to a server which does not serve its region, or to the wrong region, is
+ * located again and sent again, up to WRITE_BUFFER_MAX_ATTEMPTS times in all. Writers do not wait for their
+ * mutations to be applied. A mutation which fails is passed to the ExceptionListener, on the buffer's flush thread.
+ */
+public class C5BufferedMutator implements AutoCloseable {
+  private final C5Table table;
+  private final long writeBufferSize;
+  private final int maxBufferedMutations;
+  private final long flushIntervalMs;
+  private final ExceptionListener exceptionListener;
+  private final ScheduledExecutorService flushTimer;
+
+  // Guarded by this
+  private final List<Buffered> buffer = new ArrayList<>();
+  private final TreeSet<Long> unanswered = new TreeSet<>();
+  private final Set<RegionLocation> regionsInFlight = new HashSet<>();
+  private final Map<ByteBuffer, Integer> rowsInFlight = new HashMap<>();
+  private final Queue<FlushWaiter> flushWaiters = new ArrayDeque<>();
+  private long nextSequence = 0;
+  private long flushedUpTo = -1;
+  private long bufferedBytes = 0;
+  private int bufferedMutations = 0;
+  private ScheduledFuture<?> scheduledFlush = null;
+  private boolean closed = false;
+
+  /**
+   * Told of each mutation which could not be applied.
+   */
+  public interface ExceptionListener {
+    void onException(Mutation mutation, IOException exception);
+  }
+
+  /**
+   * A mutation, numbered in the order it was buffered.
+   */
+  private static final class Buffered {
+    final Mutation mutation;
+    final long sequence;
+    final ByteBuffer row;
+    int attempts = 0;
+
+    Buffered(Mutation mutation, long sequence) {
+      this.mutation = mutation;
+      this.sequence = sequence;
+      this.row = ByteBuffer.wrap(mutation.getRow());
+    }
+  }
+
+  /**
+   * A flush, answered once every mutation buffered before it has been.
+   */
+  private static final class FlushWaiter {
+    final long upTo;
+    final SettableFuture<Void> answered = SettableFuture.create();
+
+    FlushWaiter(long upTo) {
+      this.upTo = upTo;
+    }
+  }
+
+  public C5BufferedMutator(C5Table table, ExceptionListener exceptionListener) {
+    this(table,
+        C5Constants.DEFAULT_WRITE_BUFFER_SIZE,
+        C5Constants.DEFAULT_WRITE_BUFFER_MAX_MUTATIONS,
+        C5Constants.DEFAULT_WRITE_BUFFER_FLUSH_INTERVAL_MS,
+        exceptionListener);
+  }
+
+  /**
+   * @param table                The table to apply mutations to
+   * @param writeBufferSize      How many bytes of mutations, by their heap size, to buffer before flushing
+   * @param maxBufferedMutations How many mutations to buffer before flushing
+   * @param flushIntervalMs      How long a mutation may wait in the buffer before it is flushed
+   * @param exceptionListener    Told of each mutation which fails
+   */
+  public C5BufferedMutator(C5Table table,
+                           long writeBufferSize,
+                           int maxBufferedMutations,
+                           long flushIntervalMs,
+                           ExceptionListener exceptionListener) {
+    if (writeBufferSize <= 0 || maxBufferedMutations <= 0 || flushIntervalMs <= 0) {
+      throw new IllegalArgumentException("Write buffer thresholds must be positive");
+    }
+    this.table = table;
+    this.writeBufferSize = writeBufferSize;
+    this.maxBufferedMutations = maxBufferedMutations;
+    this.flushIntervalMs = flushIntervalMs;
+    this.exceptionListener = exceptionListener;
+    this.flushTimer = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+      final Thread thread = new Thread(runnable, "c5-write-buffer-flush");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Buffer a put or a delete, flushing the buffer if that fills it, and then waiting until enough of it has been sent
+   * to make room.
+   *
+   * @throws IOException if the mutation is neither a put nor a delete, or this has been closed
+   */
+  public void mutate(Mutation mutation) throws IOException {
+    if (!(mutation instanceof Put || mutation instanceof Delete)) {
+      throw new DoNotRetryIOException("Only put and delete are supported, not " + mutation.getClass().getName());
+    }
+
+    synchronized (this) {
+      if (closed) {
+        throw new IOException("Buffered mutator is closed");
+      }
+      final Buffered buffered = new Buffered(mutation, nextSequence++);
+      buffer.add(buffered);
+      unanswered.add(buffered.sequence);
+      bufferedBytes += mutation.heapSize();
+      bufferedMutations++;
+      if (scheduledFlush == null) {
+        scheduledFlush = flushTimer.schedule(this::flush, flushIntervalMs, TimeUnit.MILLISECONDS);
+      }
+      if (!isFull()) {
+        return;
+      }
+    }
+
+    flush();
+    awaitRoom();
+  }
+
+  public void mutate(List<? extends Mutation> mutations) throws IOException {
+    for (Mutation mutation : mutations) {
+      mutate(mutation);
+    }
+  }
+
+  /**
+   * Send every buffered mutation, or, for a region which already has a batch in flight, send its mutations once that
+   * batch has been answered.
+   *
+   * @return A future which completes once every mutation buffered before this flush has been answered, or has
+   * failed; failures having been passed to the ExceptionListener
+   */
+  public ListenableFuture<Void> flush() {
+    final FlushWaiter waiter;
+    synchronized (this) {
+      flushedUpTo = nextSequence - 1;
+      if (scheduledFlush != null) {
+        scheduledFlush.cancel(false);
+        scheduledFlush = null;
+      }
+      waiter = new FlushWaiter(flushedUpTo);
+      flushWaiters.add(waiter);
+    }
+
+    sendFlushed();
+    answerFlushWaiters();
+    return waiter.answered;
+  }
+
+  private synchronized boolean isFull() {
+    return bufferedBytes >= writeBufferSize || bufferedMutations >= maxBufferedMutations;
+  }
+
+  private synchronized void awaitRoom() throws InterruptedIOException {
+    try {
+      // With nothing in flight, nothing will make room; which happens only if the buffer is full of unflushed mutations
+      while (isFull() && !regionsInFlight.isEmpty()) {
+        wait();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(e.toString());
+    }
+  }
+
+  /**
+   * Send each region with no batch in flight the flushed mutations buffered for it. A row's mutations are left in the
+   * buffer behind any earlier one which is in flight or left in the buffer, so no batch holds two of the same row.
+   */
+  private void sendFlushed() {
+    final Map<RegionLocation, List<Buffered>> batches = new LinkedHashMap<>();
+    synchronized (this) {
+      final Set<ByteBuffer> rowsHeld = new HashSet<>();
+      final List<Buffered> held = new ArrayList<>();
+      for (Buffered buffered : buffer) {
+        if (buffered.sequence > flushedUpTo) {
+          held.add(buffered);
+          continue;
+        }
+        if (rowsHeld.contains(buffered.row) || rowsInFlight.containsKey(buffered.row)) {
+          rowsHeld.add(buffered.row);
+          held.add(buffered);
+          continue;
+        }
+        final RegionLocation location = table.locate(buffered.mutation.getRow());
+        if (regionsInFlight.contains(location)) {
+          rowsHeld.add(buffered.row);
+          held.add(buffered);
+          continue;
+        }
+        batches.computeIfAbsent(location, (region) -> new ArrayList<>()).add(buffered);
+        rowsInFlight.merge(buffered.row, 1, Integer::sum);
+        bufferedBytes -= buffered.mutation.heapSize();
+        bufferedMutations--;
+      }
+      buffer.clear();
+      buffer.addAll(held);
+      regionsInFlight.addAll(batches.keySet());
+      notifyAll();
+    }
+
+    batches.forEach(this::send);
+  }
+
+  private void send(RegionLocation location, List<Buffered> batch) {
+    final List<Mutation> mutations = new ArrayList<>(batch.size());
+    for (Buffered buffered : batch) {
+      buffered.attempts++;
+      mutations.add(buffered.mutation);
+    }
+    // Answers are handled on the flush thread, since sending the next batch may connect
+    Futures.addCallback(table.mutateAsync(mutations), new FutureCallback<List<IOException>>() {
+      @Override
+      public void onSuccess(List<IOException> failures) {
+        answered(location, batch, failures);
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        final IOException exception = t instanceof IOException ? (IOException) t : new IOException(t);
+        final List<IOException> failures = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+          failures.add(exception);
+        }
+        answered(location, batch, failures);
+      }
+    }, flushTimer);
+  }
+
+  /**
+   * Put back in the buffer those mutations of a batch which went to the wrong place and may be sent again, report the
+   * rest of those which failed, then send whatever the batch was holding back.
+   *
+   * @param failures For each mutation of the batch, by position, null if it was applied, or why it was not
+   */
+  private void answered(RegionLocation location, List<Buffered> batch, List<IOException> failures) {
+    final List<Buffered> failed = new ArrayList<>();
+    final List<IOException> exceptions = new ArrayList<>();
+    synchronized (this) {
+      regionsInFlight.remove(location);
+      for (int i = 0; i < batch.size(); i++) {
+        final Buffered buffered = batch.get(i);
+        final IOException failure = failures.get(i);
+        rowsInFlight.computeIfPresent(buffered.row, (row, count) -> count == 1 ? null : count - 1);
+        if (failure != null
+            && RegionLocator.isMisrouted(failure)
+            && buffered.attempts < C5Constants.WRITE_BUFFER_MAX_ATTEMPTS) {
+          table.forgetRegion(buffered.mutation.getRow(), location);
+          putBack(buffered);
+        } else {
+          unanswered.remove(buffered.sequence);
+          if (failure != null) {
+            failed.add(buffered);
+            exceptions.add(failure);
+          }
+        }
+      }
+    }
+
+    for (int i = 0; i < failed.size(); i++) {
+      exceptionListener.onException(failed.get(i).mutation, exceptions.get(i));
+    }
+    sendFlushed();
+    answerFlushWaiters();
+  }
+
+  /**
+   * Return a mutation to the buffer, ahead of any mutation buffered after it.
+   */
+  private synchronized void putBack(Buffered buffered) {
+    int position = buffer.size();
+    while (position > 0 && buffer.get(position - 1).sequence > buffered.sequence) {
+      position--;
+    }
+    buffer.add(position, buffered);
+    bufferedBytes += buffered.mutation.heapSize();
+    bufferedMutations++;
+  }
+
+  private void answerFlushWaiters() {
+    final List<FlushWaiter> done = new ArrayList<>();
+    synchronized (this) {
+      while (!flushWaiters.isEmpty()
+          && (unanswered.isEmpty() || unanswered.first() > flushWaiters.peek().upTo)) {
+        done.add(flushWaiters.remove());
+      }
+    }
+    for (FlushWaiter waiter : done) {
+      waiter.answered.set(null);
+    }
+  }
+
+  /**
+   * @return The number of bytes of mutations, by their heap size, waiting to be sent
+   */
+  public synchronized long getBufferedBytes() {
+    return bufferedBytes;
+  }
+
+  /**
+   * Flush, and wait for every buffered mutation to be answered. Mutations may not be added afterwards.
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (this) {
+      closed = true;
+    }
+    try {
+      flush().get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(e.toString());
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    } finally {
+      flushTimer.shutdown();
+    }
+  }
+}
@@ -27,6 +27,7 @@ import io.netty.handler.codec.http.websocketx.WebSocketClientHandshaker;
 import io.netty.handler.codec.http.websocketx.WebSocketFrameAggregator;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
+import io.netty.util.Timer;
 
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeoutException;
@@ -38,11 +39,13 @@ import java.util.concurrent.TimeoutException;
 class C5ConnectionInitializer extends ChannelInitializer<SocketChannel> {
 
   private final WebSocketClientHandshaker handShaker;
+  private final Timer timer;
   private WebsocketProtostuffDecoder decoder;
 
-  public C5ConnectionInitializer(WebSocketClientHandshaker handShaker) {
+  public C5ConnectionInitializer(WebSocketClientHandshaker handShaker, Timer timer) {
     super();
     this.handShaker = handShaker;
+    this.timer = timer;
   }
 
   @Override
@@ -54,7 +57,7 @@ class C5ConnectionInitializer extends ChannelInitializer<SocketChannel> {
     pipeline.addLast("websec-codec", new WebsocketProtostuffEncoder(handShaker));
     pipeline.addLast("websocket-aggregator", new WebSocketFrameAggregator(C5Constants.MAX_RESPONSE_SIZE));
     pipeline.addLast("message-codec", decoder);
-    pipeline.addLast("message-handler", new MessageHandler());
+    pipeline.addLast("message-handler", new MessageHandler(timer, C5Constants.TIMEOUT));
   }
 
   public void syncOnHandshake() throws InterruptedException, TimeoutException, ExecutionException {
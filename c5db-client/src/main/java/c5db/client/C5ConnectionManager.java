@@ -20,14 +20,15 @@ import c5db.client.codec.WebsocketProtostuffEncoder;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
-import io.netty.channel.ChannelPipeline;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketClientHandshaker;
 import io.netty.handler.codec.http.websocketx.WebSocketClientHandshakerFactory;
 import io.netty.handler.codec.http.websocketx.WebSocketVersion;
+import io.netty.util.HashedWheelTimer;
 import org.mortbay.log.Log;
 
 import java.io.IOException;
@@ -35,95 +36,217 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * A class which manages all of the outbound connections from a client to a set of regions/tablets.
+ * The outbound connections from this client JVM to region servers, shared by every C5Table in it. Tables acquire the
+ * manager when they open and release it when they close; the last release closes the connections and the event loop
+ * group they run on, and the next acquire starts afresh.
+ * <p>
+ * Each server gets a pool of channels, c5.client.channelsPerServer of them, handed out round-robin so that
+ * concurrent callers are spread over several TCP streams. A channel found closed, or not done with its websocket
+ * handshake, is replaced when its turn comes.
+ * <p>
+ * Calls' deadlines are kept on one hashed wheel timer, shared by every channel; a call which times out is failed and
+ * forgotten, as are the calls outstanding on a channel which closes.
+ * <p>
+ * Connecting blocks until the websocket handshake is done, which would deadlock a netty thread, so work which may
+ * connect in reaction to a response, such as retrying a call elsewhere, runs on the connect executor instead.
  */
 class C5ConnectionManager {
-  private final RegionChannelMap regionChannelMap = RegionChannelMap.INSTANCE;
-  private final Bootstrap bootstrap = new Bootstrap();
+  private static final int CHANNELS_PER_SERVER = Integer.getInteger(C5Constants.CHANNELS_PER_SERVER_PROPERTY_NAME,
+      C5Constants.DEFAULT_CHANNELS_PER_SERVER);
+
+  private static C5ConnectionManager shared = null;
+  private static int references = 0;
+
   private final EventLoopGroup group = new NioEventLoopGroup();
-  private URI uri;
+  private final ConcurrentHashMap<String, ServerChannels> servers = new ConcurrentHashMap<>();
+  private final AtomicLong commandId = new AtomicLong(0);
+  private final HashedWheelTimer timer = new HashedWheelTimer((runnable) -> {
+    final Thread thread = new Thread(runnable, "c5-call-timeouts");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private final ExecutorService connectExecutor = Executors.newCachedThreadPool((runnable) -> {
+    final Thread thread = new Thread(runnable, "c5-connect");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  /**
+   * The pool of channels to one server.
+   */
+  private class ServerChannels {
+    private final String host;
+    private final int port;
+    private final Channel[] channels = new Channel[CHANNELS_PER_SERVER];
+    private final AtomicInteger next = new AtomicInteger(0);
+
+    ServerChannels(String host, int port) {
+      this.host = host;
+      this.port = port;
+    }
 
-  public C5ConnectionManager() {
-    bootstrap.group(group);
+    Channel next() throws InterruptedException, TimeoutException, ExecutionException, IOException {
+      final int slot = Math.abs(next.getAndIncrement() % channels.length);
+      final Channel channel = channels[slot];
+      if (channel != null && isHealthy(channel)) {
+        return channel;
+      }
+      return reconnect(slot);
+    }
 
+    private synchronized Channel reconnect(int slot)
+        throws InterruptedException, TimeoutException, ExecutionException, IOException {
+      final Channel stale = channels[slot];
+      if (stale != null) {
+        if (isHealthy(stale)) {
+          return stale;
+        }
+        Log.warn("Replacing channel " + stale + " to " + host + ":" + port);
+        stale.close();
+      }
+      channels[slot] = connect(host, port);
+      return channels[slot];
+    }
 
-    try {
-      uri = new URI("ws://0.0.0.0:8080/websocket");
-    } catch (URISyntaxException e) {
-      e.printStackTrace();
+    synchronized List<ChannelFuture> close() {
+      final List<ChannelFuture> closeFutures = new ArrayList<>();
+      for (Channel channel : channels) {
+        if (channel != null && channel.isOpen()) {
+          channel.writeAndFlush(new CloseWebSocketFrame());
+          closeFutures.add(channel.close());
+        }
+      }
+      return closeFutures;
     }
 
+    int getInFlightCount() {
+      int inFlight = 0;
+      for (Channel channel : channels) {
+        final MessageHandler handler = channel == null ? null : channel.pipeline().get(MessageHandler.class);
+        if (handler != null) {
+          inFlight += handler.getInFlightCount();
+        }
+      }
+      return inFlight;
+    }
   }
 
-  String getHostPortHash(String host, int port) {
-    return host + ":" + port;
+  private C5ConnectionManager() {
   }
 
-  Channel connect(String host, int port) throws InterruptedException, TimeoutException, ExecutionException {
-    final WebSocketClientHandshaker handShaker = WebSocketClientHandshakerFactory.newHandshaker(uri,
-        WebSocketVersion.V13,
-        null,
-        false,
-        new DefaultHttpHeaders());
-    final C5ConnectionInitializer initializer = new C5ConnectionInitializer(handShaker);
-    bootstrap.channel(NioSocketChannel.class).handler(initializer);
+  /**
+   * Take a reference to the shared connection manager, creating it if there is none. Each acquire must be matched by
+   * a release.
+   */
+  static synchronized C5ConnectionManager acquire() {
+    if (shared == null) {
+      shared = new C5ConnectionManager();
+    }
+    references++;
+    return shared;
+  }
 
-    final ChannelFuture future = bootstrap.connect(host, port);
-    final Channel channel = future.sync().channel();
-    initializer.syncOnHandshake();
-    return channel;
+  /**
+   * Give up a reference taken by acquire; closing every connection if it was the last.
+   */
+  static synchronized void release(C5ConnectionManager connectionManager) throws InterruptedException {
+    if (connectionManager != shared || references == 0) {
+      return;
+    }
+    references--;
+    if (references == 0) {
+      shared = null;
+      connectionManager.close();
+    }
   }
 
+  /**
+   * @return An id for a call unique among those sent by this client JVM, since calls from different tables share
+   * channels, and responses are matched to calls by id
+   */
+  long nextCommandId() {
+    return commandId.incrementAndGet();
+  }
+
+  /**
+   * @return The next channel of the pool to the given server, connecting it if it is not yet connected or has failed
+   */
   public Channel getOrCreateChannel(String host, int port)
       throws IOException, InterruptedException, TimeoutException, ExecutionException {
-    final String hash = getHostPortHash(host, port);
+    return servers.computeIfAbsent(host + ":" + port, (server) -> new ServerChannels(host, port)).next();
+  }
 
-    if (!regionChannelMap.containsKey(hash)) {
-      final Channel channel = connect(host, port);
-      regionChannelMap.put(hash, channel);
-      Log.warn("Channel" + channel);
-      return channel;
-    }
+  /**
+   * @return An executor on which work may block to connect, unlike the netty threads which complete calls' futures
+   */
+  Executor getConnectExecutor() {
+    return connectExecutor;
+  }
 
-    Channel channel = regionChannelMap.get(hash);
+  /**
+   * @return The number of calls sent to any server which are still waiting for a response
+   */
+  int getInFlightCount() {
+    int inFlight = 0;
+    for (ServerChannels serverChannels : servers.values()) {
+      inFlight += serverChannels.getInFlightCount();
+    }
+    return inFlight;
+  }
 
-    // Clear stale channels
-    if (!(channel.isOpen() && channel.isActive() && isHandShakeConnected(channel))) {
-      closeChannel(host, port);
-      channel.disconnect();
-      channel = getOrCreateChannel(host, port);
+  private Channel connect(String host, int port)
+      throws InterruptedException, TimeoutException, ExecutionException, IOException {
+    final URI uri;
+    try {
+      uri = new URI("ws://" + host + ":" + port + "/websocket");
+    } catch (URISyntaxException e) {
+      throw new IOException(e);
     }
+    final WebSocketClientHandshaker handShaker = WebSocketClientHandshakerFactory.newHandshaker(uri,
+        WebSocketVersion.V13,
+        null,
+        false,
+        new DefaultHttpHeaders());
+    final C5ConnectionInitializer initializer = new C5ConnectionInitializer(handShaker, timer);
+    final Bootstrap bootstrap = new Bootstrap()
+        .group(group)
+        .channel(NioSocketChannel.class)
+        .handler(initializer);
 
+    final Channel channel = bootstrap.connect(host, port).sync().channel();
+    initializer.syncOnHandshake();
     return channel;
   }
 
-  private boolean isHandShakeConnected(Channel channel) {
-    final ChannelPipeline pipeline = channel.pipeline();
-    final WebsocketProtostuffEncoder encoder = pipeline.get(WebsocketProtostuffEncoder.class);
-    return encoder.getHandShaker().isHandshakeComplete();
-  }
-
-  public void closeChannel(String host, int port)
-      throws InterruptedException, ExecutionException, TimeoutException {
-    final String hash = getHostPortHash(host, port);
-    regionChannelMap.remove(hash);
+  private static boolean isHealthy(Channel channel) {
+    if (!(channel.isOpen() && channel.isActive())) {
+      return false;
+    }
+    final WebsocketProtostuffEncoder encoder = channel.pipeline().get(WebsocketProtostuffEncoder.class);
+    return encoder != null && encoder.getHandShaker().isHandshakeComplete();
   }
 
-  public void close() throws InterruptedException {
-    final List<ChannelFuture> channels = new ArrayList<>();
-    for (Channel channel : regionChannelMap.getValues()) {
-      final ChannelFuture channelFuture = channel.close();
-      channels.add(channelFuture);
+  private void close() throws InterruptedException {
+    final List<ChannelFuture> closeFutures = new ArrayList<>();
+    for (ServerChannels serverChannels : servers.values()) {
+      closeFutures.addAll(serverChannels.close());
     }
-
-    regionChannelMap.clear();
-    for (ChannelFuture future : channels) {
+    servers.clear();
+    for (ChannelFuture future : closeFutures) {
       future.sync();
     }
     group.shutdownGracefully();
+    timer.stop();
+    connectExecutor.shutdown();
   }
 }
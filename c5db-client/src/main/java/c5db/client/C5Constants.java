@@ -31,4 +31,12 @@ public final class C5Constants {
   public static final long TIMEOUT = 10000;
   public static final int MAX_CONTENT_LENGTH_HTTP_AGG = 8192;
   public static final int MAX_RESPONSE_SIZE = Integer.MAX_VALUE;
+  public static final long DEFAULT_WRITE_BUFFER_SIZE = 2 * 1024 * 1024;
+  public static final int DEFAULT_WRITE_BUFFER_MAX_MUTATIONS = 1000;
+  public static final long DEFAULT_WRITE_BUFFER_FLUSH_INTERVAL_MS = 1000;
+  public static final int WRITE_BUFFER_MAX_ATTEMPTS = 3;
+  public static final String CHANNELS_PER_SERVER_PROPERTY_NAME = "c5.client.channelsPerServer";
+  public static final int DEFAULT_CHANNELS_PER_SERVER = 4;
+  public static final int DEFAULT_PARALLEL_SCANS = 8;
+  public static final int PARALLEL_SCAN_QUEUE_ROWS = 1000;
 }
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.client;
+
+import org.apache.hadoop.hbase.client.AbstractClientScanner;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Scans a range of a table as several scans, one for each part of the range, run concurrently. The range is split at
+ * the boundaries of the table's regions, which are located first if the table does not know them yet, or at split
+ * keys given by the caller; each part is scanned from the leader of its region, at most maxConcurrentScans of them at
+ * once.
+ * <p>
+ * In ORDERED mode rows are returned in row order, as a single scan would return them: the parts do not overlap, so
+ * this is each part's rows in turn, while the parts after it are read ahead. In UNORDERED mode rows are returned as
+ * soon as any part has read them, so a slow region does not hold back the others.
+ * <p>
+ * Each part buffers at most PARALLEL_SCAN_QUEUE_ROWS rows ahead of the reader, and then stops reading from its
+ * scanner, which stops granting its server credit; so the whole scan is flow controlled end to end.
+ */
+public class C5ParallelScanner extends AbstractClientScanner {
+  /**
+   * The order to return rows in.
+   */
+  public enum Order {
+    ORDERED,
+    UNORDERED
+  }
+
+  /**
+   * Put in a part's queue once it has read its last row.
+   */
+  private static final Object END_OF_PART = new Object();
+
+  private final Order order;
+  private final ExecutorService scanThreads;
+  /**
+   * One queue for each part in ORDERED mode, in row order; a single queue shared by every part in UNORDERED mode.
+   * Each holds Results, then END_OF_PART, or the IOException which ended the part.
+   */
+  private final List<BlockingQueue<Object>> queues = new ArrayList<>();
+  private final int parts;
+  private volatile boolean closed = false;
+
+  // Only touched by the reader
+  private int currentQueue = 0;
+  private int partsEnded = 0;
+
+  /**
+   * Scan a table in parallel, split by the boundaries of its regions, at most DEFAULT_PARALLEL_SCANS parts at once.
+   * Before the scan starts, each region of the range which the table has not yet located is located with one request,
+   * one region after another; so the first parallel scan of a range a table has not used costs a round trip per
+   * region of it.
+   */
+  public C5ParallelScanner(C5Table table, Scan scan, Order order) throws IOException {
+    this(table, scan, table.locateRegionSplitKeys(scan.getStartRow(), scan.getStopRow()),
+        C5Constants.DEFAULT_PARALLEL_SCANS, order);
+  }
+
+  /**
+   * @param table              The table to scan
+   * @param scan               The scan to run; its start and stop rows bound every part
+   * @param splitKeys          The rows to split the scan's range at; those outside the range are ignored
+   * @param maxConcurrentScans How many parts to scan at once
+   * @param order              Whether to return rows in row order, or as soon as they are read
+   */
+  public C5ParallelScanner(C5Table table, Scan scan, List<byte[]> splitKeys, int maxConcurrentScans, Order order)
+      throws IOException {
+    if (maxConcurrentScans <= 0) {
+      throw new IllegalArgumentException("maxConcurrentScans must be positive");
+    }
+    this.order = order;
+
+    final List<Scan> partScans = split(scan, splitKeys);
+    this.parts = partScans.size();
+    this.scanThreads = Executors.newFixedThreadPool(Math.min(maxConcurrentScans, parts), (runnable) -> {
+      final Thread thread = new Thread(runnable, "c5-parallel-scan");
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    if (order == Order.UNORDERED) {
+      queues.add(new ArrayBlockingQueue<>(C5Constants.PARALLEL_SCAN_QUEUE_ROWS));
+    }
+    // The pool runs parts in the order they are submitted, so in ORDERED mode the parts the reader needs next run first
+    for (Scan partScan : partScans) {
+      final BlockingQueue<Object> queue;
+      if (order == Order.ORDERED) {
+        queue = new ArrayBlockingQueue<>(C5Constants.PARALLEL_SCAN_QUEUE_ROWS);
+        queues.add(queue);
+      } else {
+        queue = queues.get(0);
+      }
+      scanThreads.execute(() -> scanPart(table, partScan, queue));
+    }
+    scanThreads.shutdown();
+  }
+
+  /**
+   * Split a scan into scans of consecutive parts of its range.
+   */
+  private static List<Scan> split(Scan scan, List<byte[]> splitKeys) throws IOException {
+    final byte[] startRow = scan.getStartRow();
+    final byte[] stopRow = scan.getStopRow();
+    final TreeSet<byte[]> keys = new TreeSet<>(Bytes.BYTES_COMPARATOR);
+    for (byte[] key : splitKeys) {
+      if (Bytes.compareTo(key, startRow) > 0 && (stopRow.length == 0 || Bytes.compareTo(key, stopRow) < 0)) {
+        keys.add(key);
+      }
+    }
+
+    final List<Scan> partScans = new ArrayList<>(keys.size() + 1);
+    byte[] partStart = startRow;
+    for (byte[] key : keys) {
+      partScans.add(new Scan(scan).setStartRow(partStart).setStopRow(key));
+      partStart = key;
+    }
+    partScans.add(new Scan(scan).setStartRow(partStart).setStopRow(stopRow));
+    return partScans;
+  }
+
+  /**
+   * Read every row of one part into its queue; run on a scan thread.
+   */
+  private void scanPart(C5Table table, Scan partScan, BlockingQueue<Object> queue) {
+    try {
+      if (closed) {
+        return;
+      }
+      try (ResultScanner scanner = table.getScanner(partScan)) {
+        for (Result result = scanner.next(); result != null && !closed; result = scanner.next()) {
+          queue.put(result);
+        }
+      }
+      queue.put(END_OF_PART);
+    } catch (IOException | RuntimeException e) {
+      final IOException failure = e instanceof IOException ? (IOException) e : new IOException(e);
+      try {
+        queue.put(failure);
+      } catch (InterruptedException interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    } catch (InterruptedException e) {
+      // Closed; the reader wants no more rows
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public Result next() throws IOException {
+    while (!closed) {
+      final Object next;
+      if (order == Order.ORDERED) {
+        if (currentQueue == queues.size()) {
+          return null;
+        }
+        next = take(queues.get(currentQueue));
+        if (next == END_OF_PART) {
+          currentQueue++;
+          continue;
+        }
+      } else {
+        if (partsEnded == parts) {
+          return null;
+        }
+        next = take(queues.get(0));
+        if (next == END_OF_PART) {
+          partsEnded++;
+          continue;
+        }
+      }
+
+      if (next instanceof IOException) {
+        close();
+        throw (IOException) next;
+      }
+      return (Result) next;
+    }
+    return null;
+  }
+
+  private static Object take(BlockingQueue<Object> queue) throws IOException {
+    try {
+      return queue.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(e.toString());
+    }
+  }
+
+  @Override
+  public Result[] next(int nbRows) throws IOException {
+    final List<Result> results = new ArrayList<>(nbRows);
+    for (int i = 0; i < nbRows; i++) {
+      final Result next = next();
+      if (next == null) {
+        break;
+      }
+      results.add(next);
+    }
+    return results.toArray(new Result[results.size()]);
+  }
+
+  /**
+   * Stop every part, closing their scanners, and drop the rows they have read ahead.
+   */
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    scanThreads.shutdownNow();
+    for (BlockingQueue<Object> queue : queues) {
+      queue.clear();
+    }
+  }
+}
@@ -44,8 +44,10 @@ public abstract class C5Shim implements TableInterface {
     return tableName;
   }
 
+  /**
+   * Requests name the table, and the server picks the region from the row each request is for.
+   */
   byte[] getRegionName() {
-    // TODO add support for multiple regions
     return tableName;
   }
 
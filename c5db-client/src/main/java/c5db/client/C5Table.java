@@ -16,28 +16,40 @@
  */
 package c5db.client;
 
+import c5db.client.generated.Action;
 import c5db.client.generated.ByteArrayComparable;
+import c5db.client.generated.Call;
 import c5db.client.generated.CompareType;
 import c5db.client.generated.Condition;
 import c5db.client.generated.GetRequest;
-import c5db.client.generated.GetResponse;
 import c5db.client.generated.MultiRequest;
+import c5db.client.generated.MultiResponse;
 import c5db.client.generated.MutateRequest;
 import c5db.client.generated.MutationProto;
 import c5db.client.generated.RegionAction;
+import c5db.client.generated.RegionActionResult;
+import c5db.client.generated.RegionInfo;
 import c5db.client.generated.RegionSpecifier;
 import c5db.client.generated.Response;
+import c5db.client.generated.ResultOrException;
 import c5db.client.generated.ScanRequest;
-import c5db.client.scanner.ClientScannerManager;
+import c5db.client.scanner.ClientScanner;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
 import io.netty.channel.Channel;
-import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
 import io.protostuff.ByteString;
 import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Mutation;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Row;
 import org.apache.hadoop.hbase.client.RowMutations;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.util.Bytes;
@@ -47,116 +59,286 @@ import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeoutException;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 /**
  * The main client entry point for putting data into C5. Equivalent to HTablet from HBase.
+ * <p>
+ * Every operation is sent without blocking, and completes when its response arrives; the blocking operations of
+ * TableInterface wait for the asynchronous ones of AsyncTableInterface. So one thread can keep any number of
+ * operations in flight.
  */
-public class C5Table extends C5Shim implements AutoCloseable {
-  private final C5ConnectionManager c5ConnectionManager = new C5ConnectionManager();
-  private final ClientScannerManager clientScannerManager = ClientScannerManager.INSTANCE;
+public class C5Table extends C5Shim implements AsyncTableInterface, AutoCloseable {
+  private final C5ConnectionManager c5ConnectionManager;
   private final int port;
-  private final AtomicLong commandId = new AtomicLong(0);
-  private final Channel channel;
+  private final AtomicBoolean closed = new AtomicBoolean(false);
   private final String hostname;
-  private MessageHandler handler;
+  private final RegionLocator regionLocator;
+  private volatile long maxReadStalenessMs = 0;
+  private volatile Executor callbackExecutor = MoreExecutors.sameThreadExecutor();
+
+  /**
+   * Turns the response to a call, or the results of a list of actions, into the value of the operation which made
+   * it; failing the operation if it throws.
+   */
+  private interface ResponseConverter<R, T> {
+    T convert(R response) throws IOException;
+  }
+
+  /**
+   * Builds the RegionAction for those of a list of gets or mutations which go to one region, indexing each action by
+   * its position within the group.
+   */
+  private interface RegionActionBuilder<T> {
+    RegionAction build(List<T> group) throws IOException;
+  }
+
+  /**
+   * The outcome of each of a list of actions sent by multi(), by the action's position in the list. An action whose
+   * whole group failed has that failure instead of a result.
+   */
+  private static final class MultiResults {
+    private final ResultOrException[] resultOrExceptions;
+    private final IOException[] groupFailures;
+
+    MultiResults(int actionCount) {
+      resultOrExceptions = new ResultOrException[actionCount];
+      groupFailures = new IOException[actionCount];
+    }
+
+    int size() {
+      return resultOrExceptions.length;
+    }
+
+    /**
+     * @throws IOException The exception the action, or its whole group, failed with
+     */
+    c5db.client.generated.Result resultOf(int position) throws IOException {
+      if (groupFailures[position] != null) {
+        throw groupFailures[position];
+      }
+      return C5Table.resultOf(resultOrExceptions[position]);
+    }
+
+    /**
+     * @return Whether the action failed because it went to a server or region which does not hold its row
+     */
+    boolean isMisrouted(int position) {
+      try {
+        resultOf(position);
+        return false;
+      } catch (IOException e) {
+        return RegionLocator.isMisrouted(e);
+      }
+    }
+
+    void copy(int position, MultiResults from, int fromPosition) {
+      resultOrExceptions[position] = from.resultOrExceptions[fromPosition];
+      groupFailures[position] = from.groupFailures[fromPosition];
+    }
+  }
 
   public C5Table(ByteString tableName) throws IOException, InterruptedException, TimeoutException, ExecutionException {
     this(tableName, C5Constants.TEST_PORT);
   }
 
+  public C5Table(ByteString tableName, int port)
+      throws IOException, InterruptedException, TimeoutException, ExecutionException {
+    this(tableName, "localhost", port);
+  }
+
   /**
    * C5Table is the main entry points for clients of C5DB
    *
    * @param tableName The name of the table to connect to.
+   * @param hostname  The region server to send requests to until the table learns which servers lead its regions;
+   *                  it need not lead any of them itself
+   * @param port      Its port
    */
-  public C5Table(ByteString tableName, int port)
+  public C5Table(ByteString tableName, String hostname, int port)
       throws IOException, InterruptedException, TimeoutException, ExecutionException {
     super(tableName);
-    this.hostname = "localhost";
+    this.hostname = hostname;
     this.port = port;
-    channel = c5ConnectionManager.getOrCreateChannel(this.hostname, this.port);
-    handler = channel.pipeline().get(MessageHandler.class);
+    this.regionLocator = new RegionLocator(this.hostname, this.port);
+    this.c5ConnectionManager = C5ConnectionManager.acquire();
+    try {
+      c5ConnectionManager.getOrCreateChannel(this.hostname, this.port);
+    } catch (IOException | InterruptedException | TimeoutException | ExecutionException e) {
+      C5ConnectionManager.release(c5ConnectionManager);
+      throw e;
+    }
+  }
+
+  /**
+   * Allow gets and scans to be served by a follower replica, so long as that replica has heard
+   * from its leader within the given bound.  A value of 0 (the default) sends every read to the leader.
+   *
+   * @param maxReadStalenessMs the maximum staleness, in milliseconds, this table will accept on reads
+   */
+  public void setMaxReadStalenessMs(long maxReadStalenessMs) {
+    if (maxReadStalenessMs < 0) {
+      throw new IllegalArgumentException("maxReadStalenessMs must not be negative");
+    }
+    this.maxReadStalenessMs = maxReadStalenessMs;
   }
 
-  // TODO actually make this work
-  public static ByteBuffer getRegion(byte[] row) {
-    return ByteBuffer.wrap(new byte[]{});
+  public long getMaxReadStalenessMs() {
+    return maxReadStalenessMs;
+  }
+
+  /**
+   * Set the executor which completes the futures of asynchronous operations, and so runs their listeners. By
+   * default they complete on the netty thread which read the response, so listeners must not block.
+   */
+  public void setCallbackExecutor(Executor callbackExecutor) {
+    if (callbackExecutor == null) {
+      throw new IllegalArgumentException("callbackExecutor must not be null");
+    }
+    this.callbackExecutor = callbackExecutor;
   }
 
   @Override
   public Result get(final Get get) throws IOException {
+    return await(getAsync(get));
+  }
 
-    final SettableFuture<Response> resultFuture = SettableFuture.create();
-    final GetRequest getRequest = RequestConverter.buildGetRequest(getRegionName(), get, false);
+  @Override
+  public ListenableFuture<Result> getAsync(final Get get) {
+    final GetRequest getRequest;
     try {
-      handler.call(ProtobufUtil.getGetCall(commandId.incrementAndGet(), getRequest), resultFuture, channel);
-      return ProtobufUtil.toResult(resultFuture.get(C5Constants.TIMEOUT, TimeUnit.MILLISECONDS).getGet().getResult());
-    } catch (InterruptedException | ExecutionException | TimeoutException e) {
-      throw new IOException(e);
+      getRequest = RequestConverter.buildGetRequest(getRegionName(), get, false, maxReadStalenessMs);
+    } catch (IOException e) {
+      return Futures.immediateFailedFuture(e);
     }
+    return convert(callRegion(get.getRow(), ProtobufUtil.getGetCall(nextCommandId(), getRequest)),
+        (response) -> ProtobufUtil.toResult(response.getGet().getResult()));
   }
 
   @Override
   public Result[] get(List<Get> gets) throws IOException {
-    //TODO Batch get
-    final List<Result> results = new ArrayList<>();
-    for (Get get : gets) {
-      results.add(this.get(get));
+    return await(getAsync(gets));
+  }
+
+  @Override
+  public ListenableFuture<Result[]> getAsync(final List<Get> gets) {
+    if (gets.isEmpty()) {
+      return Futures.immediateFuture(new Result[0]);
     }
-    return results.toArray(new Result[results.size()]);
+    return convert(multi(gets,
+        (group) -> RequestConverter.buildGetRegionAction(getRegionName(), group, false, maxReadStalenessMs)),
+        (multiResults) -> {
+          final Result[] results = new Result[gets.size()];
+          for (int i = 0; i < results.length; i++) {
+            results[i] = ProtobufUtil.toResult(multiResults.resultOf(i));
+          }
+          return results;
+        });
   }
 
   @Override
   public boolean exists(final Get get) throws IOException {
-    final SettableFuture<Response> resultFuture = SettableFuture.create();
-    final GetRequest getRequest = RequestConverter.buildGetRequest(getRegionName(),
-        get,
-        true);
+    return await(existsAsync(get));
+  }
 
+  @Override
+  public ListenableFuture<Boolean> existsAsync(final Get get) {
+    final GetRequest getRequest;
     try {
-      handler.call(ProtobufUtil.getGetCall(commandId.incrementAndGet(), getRequest), resultFuture, channel);
-      final GetResponse getResponse = resultFuture.get(C5Constants.TIMEOUT, TimeUnit.MILLISECONDS).getGet();
-      final c5db.client.generated.Result result = getResponse.getResult();
-      return result.getExists();
-    } catch (InterruptedException | ExecutionException | TimeoutException e) {
-      throw new IOException(e);
+      getRequest = RequestConverter.buildGetRequest(getRegionName(), get, true, maxReadStalenessMs);
+    } catch (IOException e) {
+      return Futures.immediateFailedFuture(e);
     }
+    return convert(callRegion(get.getRow(), ProtobufUtil.getGetCall(nextCommandId(), getRequest)),
+        (response) -> response.getGet().getResult().getExists());
+  }
 
+  @Override
+  public Boolean[] exists(List<Get> gets) throws IOException {
+    return await(existsAsync(gets));
+  }
+
+  @Override
+  public ListenableFuture<Boolean[]> existsAsync(final List<Get> gets) {
+    if (gets.isEmpty()) {
+      return Futures.immediateFuture(new Boolean[0]);
+    }
+    return convert(multi(gets,
+        (group) -> RequestConverter.buildGetRegionAction(getRegionName(), group, true, maxReadStalenessMs)),
+        (multiResults) -> {
+          final Boolean[] results = new Boolean[gets.size()];
+          for (int i = 0; i < results.length; i++) {
+            results[i] = multiResults.resultOf(i).getExists();
+          }
+          return results;
+        });
   }
 
   @Override
   public ResultScanner getScanner(final Scan scan) throws IOException {
+    return await(scanAsync(scan));
+  }
+
+  /**
+   * A scan which crosses several regions is read from each of them in turn.
+   */
+  @Override
+  public ListenableFuture<ResultScanner> scanAsync(final Scan scan) {
     if (scan.getStartRow() != null && scan.getStartRow().length > 0
         && scan.getStopRow() != null && scan.getStopRow().length > 0
         && Bytes.compareTo(scan.getStartRow(), scan.getStopRow()) > 0) {
-      throw new IOException("StopRow needs to be greater than StartRow");
+      return Futures.immediateFailedFuture(new IOException("StopRow needs to be greater than StartRow"));
     }
+    return Futures.transform(openScannerAsync(scan),
+        (Function<ClientScanner, ResultScanner>) (scanner) -> new RegionSpanningScanner(this, scan, scanner),
+        callbackExecutor);
+  }
 
-    final SettableFuture<Long> future = SettableFuture.create();
-    final RegionSpecifier regionSpecifier = new RegionSpecifier(RegionSpecifier.RegionSpecifierType.REGION_NAME,
-        ByteBuffer.wrap(getTableName()));
-
-    final ScanRequest scanRequest = new ScanRequest(regionSpecifier,
-        ProtobufUtil.toScan(scan),
-        0L,
-        C5Constants.DEFAULT_INIT_SCAN,
-        false,
-        0L);
+  /**
+   * Open a scanner on the region holding the scan's start row; it reads no further than that region's end.
+   */
+  ClientScanner openScanner(final Scan scan) throws IOException {
+    return await(openScannerAsync(scan));
+  }
 
+  private ListenableFuture<ClientScanner> openScannerAsync(final Scan scan) {
+    final RegionSpecifier regionSpecifier = new RegionSpecifier(RegionSpecifier.RegionSpecifierType.TABLE_NAME,
+        ByteBuffer.wrap(getTableName()));
+    final ScanRequest scanRequest;
     try {
-      handler.callScan(ProtobufUtil.getScanCall(commandId.incrementAndGet(), scanRequest), future, channel);
-      final long scannerId = future.get(C5Constants.TIMEOUT, TimeUnit.MILLISECONDS);
-      /// TODO ADD A CREATE as well
-      return clientScannerManager.get(scannerId);
-    } catch (InterruptedException | ExecutionException | TimeoutException e) {
-      throw new IOException(e);
+      scanRequest = new ScanRequest(regionSpecifier,
+          ProtobufUtil.toScan(scan),
+          0L,
+          C5Constants.DEFAULT_INIT_SCAN,
+          false,
+          0L,
+          maxReadStalenessMs);
+    } catch (IOException e) {
+      return Futures.immediateFailedFuture(e);
     }
+
+    final Call call = ProtobufUtil.getScanCall(nextCommandId(), scanRequest);
+    return callRegion(scan.getStartRow(), (location) -> {
+      final Channel regionChannel;
+      try {
+        regionChannel = c5ConnectionManager.getOrCreateChannel(location.getHost(), location.getPort());
+      } catch (IOException | InterruptedException | ExecutionException | TimeoutException e) {
+        return Futures.immediateFailedFuture(e);
+      }
+      final SettableFuture<ClientScanner> openFuture = SettableFuture.create();
+      regionChannel.pipeline().get(MessageHandler.class).callScan(call, openFuture, regionChannel);
+      return Futures.transform(openFuture, (Function<ClientScanner, ClientScanner>) (scanner) -> {
+        regionLocator.cacheRegion(getTableName(), scanner.getRegion(), location.getHost(), location.getPort());
+        return scanner;
+      });
+    });
   }
 
   @Override
@@ -175,149 +357,495 @@ public class C5Table extends C5Shim implements AutoCloseable {
 
   @Override
   public void put(Put put) throws IOException {
-    doPut(put);
+    await(putAsync(put));
   }
 
   @Override
-  public Boolean[] exists(List<Get> gets) throws IOException {
-    //TODO Batch get
-    final List<Boolean> results = new ArrayList<>();
-    for (Get get : gets) {
-      results.add(this.exists(get));
-    }
-    return results.toArray(new Boolean[results.size()]);
-  }
-
-  private void doPut(Put put) throws InterruptedIOException {
-    final SettableFuture<Response> resultFuture = SettableFuture.create();
+  public ListenableFuture<Void> putAsync(final Put put) {
     final MutateRequest mutateRequest = RequestConverter.buildMutateRequest(getRegionName(),
         MutationProto.MutationType.PUT,
         put);
-
-    try {
-      handler.call(ProtobufUtil.getMutateCall(commandId.incrementAndGet(), mutateRequest), resultFuture, channel);
-      resultFuture.get(C5Constants.TIMEOUT, TimeUnit.MILLISECONDS);
-    } catch (InterruptedException | ExecutionException | TimeoutException e) {
-      throw new InterruptedIOException(e.toString());
-    }
+    return convert(callRegion(put.getRow(), ProtobufUtil.getMutateCall(nextCommandId(), mutateRequest)),
+        (response) -> null);
   }
 
-
   @Override
   public void put(List<Put> puts) throws IOException {
-    for (Put put : puts) {
-      doPut(put);
+    await(putAsync(puts));
+  }
+
+  @Override
+  public ListenableFuture<Void> putAsync(final List<Put> puts) {
+    if (puts.isEmpty()) {
+      return Futures.immediateFuture(null);
     }
+    return convert(multi(puts, (group) -> RequestConverter.buildRegionAction(getRegionName(), group)),
+        (multiResults) -> {
+          checkAllSucceeded(multiResults);
+          return null;
+        });
   }
 
   @Override
   public void delete(Delete delete) throws IOException {
-    final SettableFuture<Response> resultFuture = SettableFuture.create();
+    await(deleteAsync(delete));
+  }
+
+  @Override
+  public ListenableFuture<Void> deleteAsync(final Delete delete) {
     final MutateRequest mutateRequest = RequestConverter.buildMutateRequest(getRegionName(),
         MutationProto.MutationType.DELETE,
         delete);
-
-    try {
-      handler.call(ProtobufUtil.getMutateCall(commandId.incrementAndGet(), mutateRequest), resultFuture, channel);
-      resultFuture.get(C5Constants.TIMEOUT, TimeUnit.MILLISECONDS);
-    } catch (InterruptedException | ExecutionException | TimeoutException e) {
-      throw new IOException(e);
-    }
+    return convert(callRegion(delete.getRow(), ProtobufUtil.getMutateCall(nextCommandId(), mutateRequest)),
+        (response) -> null);
   }
 
   @Override
   public void delete(List<Delete> deletes) throws IOException {
-    for (Delete delete : deletes) {
-      delete(delete);
+    await(deleteAsync(deletes));
+  }
+
+  @Override
+  public ListenableFuture<Void> deleteAsync(final List<Delete> deletes) {
+    if (deletes.isEmpty()) {
+      return Futures.immediateFuture(null);
     }
+    return convert(multi(deletes, (group) -> RequestConverter.buildRegionAction(getRegionName(), group)),
+        (multiResults) -> {
+          checkAllSucceeded(multiResults);
+          return null;
+        });
   }
 
   @Override
   public void mutateRow(RowMutations rm) throws IOException {
-    final SettableFuture<Response> resultFuture = SettableFuture.create();
-    final List<RegionAction> regionActions = new ArrayList<>();
-    try {
-      final RegionAction regionAction = RequestConverter.buildRegionAction(getRegionName(), false, rm);
-      regionActions.add(regionAction);
-
-      handler.call(ProtobufUtil.getMultiCall(commandId.incrementAndGet(),
-              new MultiRequest(regionActions)),
-          resultFuture,
-          channel
-      );
-      resultFuture.get(C5Constants.TIMEOUT, TimeUnit.MILLISECONDS);
-    } catch (InterruptedException | IOException | ExecutionException | TimeoutException e) {
-      throw new IOException(e);
-    }
+    await(mutateRowAsync(rm));
   }
 
   @Override
-  public void close() {
-    channel.writeAndFlush(new CloseWebSocketFrame());
+  public ListenableFuture<Void> mutateRowAsync(final RowMutations rm) {
+    final RegionAction regionAction;
     try {
-      channel.closeFuture().sync();
-      c5ConnectionManager.closeChannel(this.hostname, this.port);
-    } catch (InterruptedException | ExecutionException | TimeoutException e) {
-      Log.warn(e);
+      regionAction = RequestConverter.buildRegionAction(getRegionName(), true, rm);
+    } catch (IOException e) {
+      return Futures.immediateFailedFuture(e);
     }
+    return convert(multiRegionAction(regionAction), (response) -> null);
   }
 
   @Override
   public boolean checkAndPut(byte[] row, byte[] family, byte[] qualifier, byte[] value, Put put)
       throws IOException {
-    final SettableFuture<Response> resultFuture = SettableFuture.create();
-    ByteArrayComparable byteArrayComparable = new ByteArrayComparable(ByteBuffer.wrap(value));
-
-    final Condition condition = new Condition(ByteBuffer.wrap(row),
-        ByteBuffer.wrap(family),
-        ByteBuffer.wrap(qualifier),
-        CompareType.EQUAL,
-        ProtobufUtil.toComparator(byteArrayComparable));
+    return await(checkAndPutAsync(row, family, qualifier, value, put));
+  }
 
-    MutateRequest mutateRequest = RequestConverter.buildMutateRequest(getRegionName(),
+  @Override
+  public ListenableFuture<Boolean> checkAndPutAsync(byte[] row, byte[] family, byte[] qualifier, byte[] value,
+                                                    Put put) {
+    final MutateRequest mutateRequest = RequestConverter.buildMutateRequest(getRegionName(),
         MutationProto.MutationType.PUT,
         put,
-        condition);
-
-    try {
-      handler.call(ProtobufUtil.getMutateCall(commandId.incrementAndGet(), mutateRequest), resultFuture, channel);
-      Response result = resultFuture.get(C5Constants.TIMEOUT, TimeUnit.MILLISECONDS);
-      if (result.getMutate().getProcessed()) {
-        return true;
-      }
-    } catch (InterruptedException | ExecutionException | TimeoutException e) {
-      throw new IOException(e.toString());
-    }
-    return false;
+        equalsCondition(row, family, qualifier, value));
+    return convert(callRegion(row, ProtobufUtil.getMutateCall(nextCommandId(), mutateRequest)),
+        (response) -> response.getMutate().getProcessed());
   }
 
   @Override
   public boolean checkAndDelete(byte[] row, byte[] family, byte[] qualifier, byte[] value, Delete delete)
       throws IOException {
-    final SettableFuture<Response> resultFuture = SettableFuture.create();
-    ByteArrayComparable byteArrayComparable = new ByteArrayComparable(ByteBuffer.wrap(value));
+    return await(checkAndDeleteAsync(row, family, qualifier, value, delete));
+  }
+
+  @Override
+  public ListenableFuture<Boolean> checkAndDeleteAsync(byte[] row, byte[] family, byte[] qualifier, byte[] value,
+                                                       Delete delete) {
+    final MutateRequest mutateRequest = RequestConverter.buildMutateRequest(getRegionName(),
+        MutationProto.MutationType.DELETE,
+        delete,
+        equalsCondition(row, family, qualifier, value));
+    return convert(callRegion(row, ProtobufUtil.getMutateCall(nextCommandId(), mutateRequest)),
+        (response) -> response.getMutate().getProcessed());
+  }
 
-    final Condition condition = new Condition(ByteBuffer.wrap(row),
+  private static Condition equalsCondition(byte[] row, byte[] family, byte[] qualifier, byte[] value) {
+    final ByteArrayComparable byteArrayComparable = new ByteArrayComparable(ByteBuffer.wrap(value));
+    return new Condition(ByteBuffer.wrap(row),
         ByteBuffer.wrap(family),
         ByteBuffer.wrap(qualifier),
         CompareType.EQUAL,
         ProtobufUtil.toComparator(byteArrayComparable));
+  }
 
-    MutateRequest mutateRequest = RequestConverter.buildMutateRequest(getRegionName(),
-        MutationProto.MutationType.DELETE,
-        delete,
-        condition);
+  /**
+   * Release this table's hold on the connections it shares with the other tables of this client; they are closed
+   * once the last table is.
+   */
+  @Override
+  public void close() {
+    if (!closed.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      C5ConnectionManager.release(c5ConnectionManager);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      Log.warn(e);
+    }
+  }
+
+  /**
+   * @return The number of calls, from this table or any other of this client, still waiting for a response
+   */
+  public int getInFlightCount() {
+    return c5ConnectionManager.getInFlightCount();
+  }
+
+  private long nextCommandId() {
+    return c5ConnectionManager.nextCommandId();
+  }
+
+  /**
+   * Apply puts and deletes, not atomically, with one MULTI call for each region they fall in, as multi() does.
+   *
+   * @return For each mutation, by position, null if it was applied, or the exception it failed with
+   */
+  ListenableFuture<List<IOException>> mutateAsync(final List<? extends Mutation> mutations) {
+    return convert(multi(mutations, (group) -> RequestConverter.buildRegionAction(getRegionName(), group)),
+        (multiResults) -> {
+          final List<IOException> failures = new ArrayList<>(multiResults.size());
+          for (int i = 0; i < multiResults.size(); i++) {
+            try {
+              multiResults.resultOf(i);
+              failures.add(null);
+            } catch (IOException e) {
+              failures.add(e);
+            }
+          }
+          return failures;
+        });
+  }
+
+  /**
+   * @return Where this table sends requests for a row
+   */
+  RegionLocation locate(byte[] row) {
+    return regionLocator.locate(getTableName(), row);
+  }
+
+  /**
+   * Forget where the region holding a row is, after a request for the row was refused there; unless the answer to
+   * the request said where the region's leader is, in which case that has already replaced it.
+   *
+   * @param refusedAt Where the request was sent, as located then
+   */
+  void forgetRegion(byte[] row, RegionLocation refusedAt) {
+    if (regionLocator.locate(getTableName(), row) == refusedAt) {
+      regionLocator.invalidate(getTableName(), row);
+    }
+  }
+
+  /**
+   * @return The boundaries of this table's regions which fall within a range of rows, as far as this table knows them
+   */
+  List<byte[]> regionSplitKeys(byte[] startRow, byte[] stopRow) {
+    return regionLocator.splitKeys(getTableName(), startRow, stopRow);
+  }
+
+  /**
+   * Find where every region of a range of rows is, walking the range from its start row: the first row of the range
+   * in each region this table does not know is checked for existence, and the answer describes its region and that
+   * region's end, the next row to look at. Regions already known cost nothing.
+   *
+   * @return The boundaries of this table's regions which fall within the range
+   */
+  List<byte[]> locateRegionSplitKeys(byte[] startRow, byte[] stopRow) throws IOException {
+    byte[] row = startRow;
+    while (true) {
+      RegionLocation location = regionLocator.locate(getTableName(), row);
+      if (location.getLeaderId() == 0) {
+        // A Get needs a non-empty row; the smallest one is in the same region as the empty start row
+        exists(new Get(row.length == 0 ? new byte[]{0} : row));
+        location = regionLocator.locate(getTableName(), row);
+        if (location.getLeaderId() == 0) {
+          // The server did not describe the region; split the range where its regions are known
+          break;
+        }
+      }
+      final byte[] endKey = location.getEndKey();
+      if (endKey.length == 0 || (stopRow.length > 0 && Bytes.compareTo(endKey, stopRow) >= 0)) {
+        break;
+      }
+      row = endKey;
+    }
+    return regionSplitKeys(startRow, stopRow);
+  }
+
+  /**
+   * Run a list of gets or mutations on the regions holding their rows. The list is grouped by the region this table
+   * knows each row to be in, each group is sent in a MULTI call of its own to its region's leader, and the groups'
+   * results are put back together in the order of the list. Rows in no known region go to the seed server together,
+   * which runs each on its own region, and whose answer describes those regions for next time.
+   * <p>
+   * Actions refused because they went to a server which does not serve or lead their region, or to the wrong region,
+   * are sent once more, as callRegion sends a single call once more, to wherever the answers said their regions are.
+   *
+   * @param rows    The gets or mutations
+   * @param builder Builds the RegionAction for each group
+   */
+  private <T extends Row> ListenableFuture<MultiResults> multi(List<T> rows, RegionActionBuilder<T> builder) {
+    return multi(rows, builder, true);
+  }
+
+  private <T extends Row> ListenableFuture<MultiResults> multi(List<T> rows,
+                                                               RegionActionBuilder<T> builder,
+                                                               boolean mayResend) {
+    final RegionLocation[] sentTo = new RegionLocation[rows.size()];
+    final Map<RegionLocation, List<Integer>> positionsByRegion = new LinkedHashMap<>();
+    for (int i = 0; i < rows.size(); i++) {
+      sentTo[i] = locate(rows.get(i).getRow());
+      positionsByRegion.computeIfAbsent(sentTo[i], (location) -> new ArrayList<>()).add(i);
+    }
+
+    final MultiResults multiResults = new MultiResults(rows.size());
+    final List<ListenableFuture<Void>> groupsAnswered = new ArrayList<>(positionsByRegion.size());
+    for (List<Integer> positions : positionsByRegion.values()) {
+      final List<T> group = new ArrayList<>(positions.size());
+      for (int position : positions) {
+        group.add(rows.get(position));
+      }
+      final RegionAction regionAction;
+      try {
+        regionAction = builder.build(group);
+      } catch (IOException e) {
+        return Futures.immediateFailedFuture(e);
+      }
+
+      final SettableFuture<Void> answered = SettableFuture.create();
+      Futures.addCallback(multiRegionAction(regionAction), new FutureCallback<Response>() {
+        @Override
+        public void onSuccess(Response response) {
+          try {
+            final ResultOrException[] groupResults = resultsOf(response, positions.size());
+            for (int g = 0; g < positions.size(); g++) {
+              multiResults.resultOrExceptions[positions.get(g)] = groupResults[g];
+            }
+          } catch (IOException e) {
+            onFailure(e);
+            return;
+          }
+          answered.set(null);
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+          final IOException failure = t instanceof IOException ? (IOException) t : new IOException(t);
+          for (int position : positions) {
+            multiResults.groupFailures[position] = failure;
+          }
+          answered.set(null);
+        }
+      });
+      groupsAnswered.add(answered);
+    }
+
+    final ListenableFuture<MultiResults> answered = Futures.transform(Futures.allAsList(groupsAnswered),
+        (Function<List<Void>, MultiResults>) (allAnswered) -> multiResults);
+    if (!mayResend) {
+      return answered;
+    }
+    // Sending again may connect, so it is not done on the netty thread which completed the first attempt
+    return Futures.transform(answered,
+        (AsyncFunction<MultiResults, MultiResults>) (results) -> resendMisrouted(rows, builder, sentTo, results),
+        c5ConnectionManager.getConnectExecutor());
+  }
+
+  /**
+   * Send once more those of a list's actions which went to a server or region not holding their rows, and put their
+   * outcomes in place of the refusals.
+   *
+   * @param sentTo Where each action was sent
+   */
+  private <T extends Row> ListenableFuture<MultiResults> resendMisrouted(List<T> rows,
+                                                                         RegionActionBuilder<T> builder,
+                                                                         RegionLocation[] sentTo,
+                                                                         MultiResults multiResults) {
+    final List<Integer> misrouted = new ArrayList<>();
+    final List<T> resend = new ArrayList<>();
+    for (int i = 0; i < rows.size(); i++) {
+      if (multiResults.isMisrouted(i)) {
+        forgetRegion(rows.get(i).getRow(), sentTo[i]);
+        misrouted.add(i);
+        resend.add(rows.get(i));
+      }
+    }
+    if (resend.isEmpty()) {
+      return Futures.immediateFuture(multiResults);
+    }
+    return Futures.transform(multi(resend, builder, false), (Function<MultiResults, MultiResults>) (resent) -> {
+      for (int r = 0; r < misrouted.size(); r++) {
+        multiResults.copy(misrouted.get(r), resent, r);
+      }
+      return multiResults;
+    });
+  }
+
+  /**
+   * Send a single RegionAction to the server in one MULTI call, routed by the row of its first action.
+   */
+  private ListenableFuture<Response> multiRegionAction(RegionAction regionAction) {
+    final List<RegionAction> regionActions = new ArrayList<>();
+    regionActions.add(regionAction);
+    return callRegion(rowOf(regionAction),
+        ProtobufUtil.getMultiCall(nextCommandId(), new MultiRequest(regionActions)));
+  }
+
+  /**
+   * @param response    The response to a MULTI call sent by multiRegionAction()
+   * @param actionCount The number of actions in the call's RegionAction, which are indexed from 0
+   * @return The result or exception of each action, by index
+   */
+  private static ResultOrException[] resultsOf(Response response, int actionCount) throws IOException {
+    final MultiResponse multiResponse = response.getMulti();
+    final RegionActionResult regionActionResult = multiResponse.getRegionActionResultList().get(0);
+    if (regionActionResult.getException() != null) {
+      throw ProtobufUtil.toIOException(regionActionResult.getException());
+    }
+    final ResultOrException[] resultOrExceptions = new ResultOrException[actionCount];
+    for (ResultOrException resultOrException : regionActionResult.getResultOrExceptionList()) {
+      resultOrExceptions[resultOrException.getIndex()] = resultOrException;
+    }
+    return resultOrExceptions;
+  }
+
+  /**
+   * Send a call for a row to the leader of the row's region, or to the seed server if this table does not know where
+   * that region is, and cache the region named in the answer.
+   */
+  private ListenableFuture<Response> callRegion(final byte[] row, final Call call) {
+    return callRegion(row, (location) -> callRegion(location, call));
+  }
+
+  /**
+   * Send something for a row to the leader of the row's region, as callRegion does a call. If the server no longer
+   * serves or leads the region, its location is forgotten and it is sent once more: to the leader, if the server
+   * said where that is, or else to the seed server. Sending again may connect, so it is not done on the netty thread
+   * which completed the first attempt.
+   *
+   * @param send Sends to a location; it may be asked to send a second time
+   */
+  private <T> ListenableFuture<T> callRegion(final byte[] row,
+                                             final Function<RegionLocation, ListenableFuture<T>> send) {
+    final RegionLocation location = regionLocator.locate(getTableName(), row);
+    return Futures.withFallback(send.apply(location), (t) -> {
+      if (!RegionLocator.isRegionMoved(t)) {
+        return Futures.immediateFailedFuture(t);
+      }
+      regionLocator.invalidate(getTableName(), row);
+      if (t instanceof NotLeaderException) {
+        regionLocator.cacheRegion(getTableName(), ((NotLeaderException) t).getRegion(), location.getHost(),
+            location.getPort());
+      }
+      final RegionLocation newLocation = regionLocator.locate(getTableName(), row);
+      if (newLocation.getHost().equals(location.getHost()) && newLocation.getPort() == location.getPort()) {
+        return Futures.immediateFailedFuture(t);
+      }
+      return send.apply(newLocation);
+    }, c5ConnectionManager.getConnectExecutor());
+  }
+
+  private ListenableFuture<Response> callRegion(final RegionLocation location, final Call call) {
+    final Channel regionChannel;
+    try {
+      regionChannel = c5ConnectionManager.getOrCreateChannel(location.getHost(), location.getPort());
+    } catch (IOException | InterruptedException | ExecutionException | TimeoutException e) {
+      return Futures.immediateFailedFuture(e);
+    }
+    final SettableFuture<Response> resultFuture = SettableFuture.create();
+    Futures.addCallback(resultFuture, new FutureCallback<Response>() {
+      @Override
+      public void onSuccess(Response response) {
+        regionLocator.cacheRegion(getTableName(), response.getRegion(), location.getHost(), location.getPort());
+        if (response.getMulti() == null || response.getMulti().getRegionActionResultList() == null) {
+          return;
+        }
+        // Each region a MULTI's actions went to, including those which refused them for not being their leader
+        for (RegionActionResult result : response.getMulti().getRegionActionResultList()) {
+          if (result.getRegionList() != null) {
+            for (RegionInfo region : result.getRegionList()) {
+              regionLocator.cacheRegion(getTableName(), region, location.getHost(), location.getPort());
+            }
+          }
+        }
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        // Failures reach the caller; the callRegion taking a row handles those of regions which have moved.
+      }
+    });
+    regionChannel.pipeline().get(MessageHandler.class).call(call, resultFuture, regionChannel);
+    return resultFuture;
+  }
+
+  private <R, T> ListenableFuture<T> convert(ListenableFuture<R> responseFuture, ResponseConverter<R, T> converter) {
+    return Futures.transform(responseFuture,
+        (AsyncFunction<R, T>) (response) -> Futures.immediateFuture(converter.convert(response)),
+        callbackExecutor);
+  }
+
+  /**
+   * Wait for an asynchronous operation, for the blocking operations; failing as it did.
+   */
+  private static <T> T await(ListenableFuture<T> future) throws IOException {
     try {
-      handler.call(ProtobufUtil.getMutateCall(commandId.incrementAndGet(), mutateRequest), resultFuture, channel);
-      Response result = resultFuture.get(C5Constants.TIMEOUT, TimeUnit.MILLISECONDS);
-      if (result.getMutate().getProcessed()) {
-        return true;
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(e.toString());
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
       }
-    } catch (InterruptedException | ExecutionException | TimeoutException e) {
-      throw new IOException(e.toString());
+      throw new IOException(e.getCause());
     }
-    return false;
   }
 
+  /**
+   * The row a RegionAction is routed by: that of its first action, as on the server.
+   */
+  private static byte[] rowOf(RegionAction regionAction) {
+    final Action action = regionAction.getActionList().get(0);
+    final ByteBuffer row = action.getMutation() != null ? action.getMutation().getRow() : action.getGet().getRow();
+    final byte[] rowBytes = new byte[row.remaining()];
+    row.duplicate().get(rowBytes);
+    return rowBytes;
+  }
 
+  private static c5db.client.generated.Result resultOf(ResultOrException resultOrException) throws IOException {
+    if (resultOrException == null) {
+      throw new IOException("No result returned for an action");
+    }
+    if (resultOrException.getException() != null) {
+      throw ProtobufUtil.toIOException(resultOrException.getException());
+    }
+    return resultOrException.getResult();
+  }
+
+  private static void checkAllSucceeded(MultiResults multiResults) throws IOException {
+    int failures = 0;
+    IOException firstFailure = null;
+    for (int i = 0; i < multiResults.size(); i++) {
+      try {
+        multiResults.resultOf(i);
+      } catch (IOException e) {
+        failures++;
+        if (firstFailure == null) {
+          firstFailure = e;
+        }
+      }
+    }
+    if (firstFailure != null) {
+      throw new IOException(failures + " of " + multiResults.size() + " mutations failed", firstFailure);
+    }
+  }
 }
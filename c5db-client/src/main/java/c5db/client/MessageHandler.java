@@ -22,57 +22,191 @@ import c5db.client.scanner.ClientScanner;
 import c5db.client.scanner.ClientScannerManager;
 import com.google.common.util.concurrent.SettableFuture;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import org.apache.hadoop.hbase.NotServingRegionException;
 
+import java.io.IOException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * A simple handler to handle inbound responses from the C5 server.
+ * <p>
+ * Each call sent is registered by its command id until its response arrives, it times out, its write fails, or the
+ * channel closes; whichever happens first completes the call's future and removes it, so calls never outlive their
+ * deadline. For a
+ * scan, that is the response which opens the scanner; the scanner takes the rest, and responses for a scanner which
+ * is no longer open are dropped.
  */
 public class MessageHandler extends SimpleChannelInboundHandler<Response> {
   private static final ClientScannerManager CLIENT_SCANNER_MANAGER = ClientScannerManager.INSTANCE;
-  private final ConcurrentHashMap<Long, SettableFuture<Response>> futures = new ConcurrentHashMap<>();
-  private final ConcurrentHashMap<Long, SettableFuture<Long>> scannerFutures = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<Long, PendingCall<Response>> pendingCalls = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<Long, PendingCall<ClientScanner>> pendingScans = new ConcurrentHashMap<>();
+  private final Timer timer;
+  private final long timeoutMillis;
 
+  /**
+   * A call waiting for its response, and the timeout which fails it if none comes.
+   */
+  private static final class PendingCall<T> {
+    private final SettableFuture<T> future;
+    private volatile Timeout timeout;
+
+    PendingCall(SettableFuture<T> future) {
+      this.future = future;
+    }
+
+    void cancelTimeout() {
+      if (timeout != null) {
+        timeout.cancel();
+      }
+    }
+  }
+
+  /**
+   * @param timer         The timer to run calls' timeouts on; shared by every handler of a client
+   * @param timeoutMillis How long a call may wait for its response
+   */
+  public MessageHandler(Timer timer, long timeoutMillis) {
+    this.timer = timer;
+    this.timeoutMillis = timeoutMillis;
+  }
 
   @Override
   protected void channelRead0(ChannelHandlerContext ctx, Response msg) throws Exception {
+    if (msg.getException() != null) {
+      failCall(msg);
+      return;
+    }
     switch (msg.getCommand()) {
-      case MUTATE:
-        final SettableFuture<Response> f = futures.get(msg.getCommandId());
-        f.set(msg);
-        break;
       case SCAN:
-        final long scannerId = msg.getScan().getScannerId();
-        ClientScanner clientScanner;
-
-        if (CLIENT_SCANNER_MANAGER.hasScanner(scannerId)) {
-          clientScanner = CLIENT_SCANNER_MANAGER.get(scannerId);
-        } else {
-          clientScanner = CLIENT_SCANNER_MANAGER.createAndGet(ctx.channel(), scannerId, msg.getCommandId());
-          scannerFutures.get(msg.getCommandId()).set(scannerId);
+        ClientScanner clientScanner = CLIENT_SCANNER_MANAGER.get(msg.getCommandId());
+
+        if (clientScanner == null) {
+          final PendingCall<ClientScanner> pendingScan = pendingScans.remove(msg.getCommandId());
+          if (pendingScan == null) {
+            // Closed, or given up on before it opened; the server drops a scanner nobody reads once its lease runs out
+            return;
+          }
+          pendingScan.cancelTimeout();
+          clientScanner = CLIENT_SCANNER_MANAGER.createAndGet(ctx.channel(), msg.getScan().getScannerId(),
+              msg.getCommandId(), msg.getRegion());
+          pendingScan.future.set(clientScanner);
         }
 
         clientScanner.add(msg.getScan());
 
         if (!msg.getScan().getMoreResults()) {
-          clientScanner.close();
+          clientScanner.exhausted();
         }
         break;
       default:
-        futures.get(msg.getCommandId()).set(msg);
+        final PendingCall<Response> pendingCall = pendingCalls.remove(msg.getCommandId());
+        if (pendingCall != null) {
+          pendingCall.cancelTimeout();
+          pendingCall.future.set(msg);
+        }
         break;
     }
   }
 
+  /**
+   * Fail every call still waiting on this channel, since no response can now arrive for it.
+   */
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+    final IOException cause = new IOException("Connection to " + ctx.channel().remoteAddress() + " closed");
+    failAll(pendingCalls, cause);
+    failAll(pendingScans, cause);
+    CLIENT_SCANNER_MANAGER.failScanners(ctx.channel(), cause);
+    super.channelInactive(ctx);
+  }
+
+  private static <T> void failAll(ConcurrentHashMap<Long, PendingCall<T>> pending, IOException cause) {
+    for (Long commandId : pending.keySet()) {
+      final PendingCall<T> pendingCall = pending.remove(commandId);
+      if (pendingCall != null) {
+        pendingCall.cancelTimeout();
+        pendingCall.future.setException(cause);
+      }
+    }
+  }
+
+  /**
+   * A server which is not the leader of the region a call needs describes the region in its answer, so that the call
+   * can be sent on to the leader; the failure carries the description.
+   */
+  private void failCall(Response msg) {
+    IOException cause = ProtobufUtil.toIOException(msg.getException());
+    if (cause instanceof NotServingRegionException && msg.getRegion() != null) {
+      cause = new NotLeaderException(cause.getMessage(), msg.getRegion());
+    }
+
+    final PendingCall<?> pendingCall;
+    if (msg.getCommand() == Response.Command.SCAN) {
+      pendingCall = pendingScans.remove(msg.getCommandId());
+      final ClientScanner clientScanner = CLIENT_SCANNER_MANAGER.get(msg.getCommandId());
+      if (clientScanner != null) {
+        clientScanner.fail(cause);
+      }
+    } else {
+      pendingCall = pendingCalls.remove(msg.getCommandId());
+    }
+    if (pendingCall != null) {
+      pendingCall.cancelTimeout();
+      pendingCall.future.setException(cause);
+    }
+  }
+
   public void call(final Call request, final SettableFuture<Response> future, final Channel channel) {
-    futures.put(request.getCommandId(), future);
-    channel.writeAndFlush(request);
+    send(pendingCalls, request, future, channel);
+  }
+
+  public void callScan(final Call request, final SettableFuture<ClientScanner> future, final Channel channel) {
+    send(pendingScans, request, future, channel);
+  }
+
+  /**
+   * Register a call, then write it; if the write fails no response can come, so the call fails at once with the
+   * write's cause rather than waiting out its timeout.
+   */
+  private <T> void send(ConcurrentHashMap<Long, PendingCall<T>> pending,
+                        Call request,
+                        SettableFuture<T> future,
+                        Channel channel) {
+    final long commandId = request.getCommandId();
+    final PendingCall<T> pendingCall = register(pending, commandId, future);
+    channel.writeAndFlush(request).addListener((ChannelFutureListener) (writeFuture) -> {
+      if (!writeFuture.isSuccess() && pending.remove(commandId, pendingCall)) {
+        pendingCall.cancelTimeout();
+        future.setException(new IOException("Unable to send call " + commandId, writeFuture.cause()));
+      }
+    });
+  }
+
+  private <T> PendingCall<T> register(ConcurrentHashMap<Long, PendingCall<T>> pending,
+                                      long commandId,
+                                      SettableFuture<T> future) {
+    final PendingCall<T> pendingCall = new PendingCall<>(future);
+    pending.put(commandId, pendingCall);
+    pendingCall.timeout = timer.newTimeout((timeout) -> {
+      if (pending.remove(commandId, pendingCall)) {
+        future.setException(new TimeoutException(
+            "No response to call " + commandId + " within " + timeoutMillis + "ms"));
+      }
+    }, timeoutMillis, TimeUnit.MILLISECONDS);
+    return pendingCall;
   }
 
-  public void callScan(final Call request, final SettableFuture<Long> future, final Channel channel) {
-    scannerFutures.put(request.getCommandId(), future);
-    channel.writeAndFlush(request);
+  /**
+   * @return The number of calls sent on this channel which are still waiting for a response
+   */
+  public int getInFlightCount() {
+    return pendingCalls.size() + pendingScans.size();
   }
 }
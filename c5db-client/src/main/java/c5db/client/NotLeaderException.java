@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.client;
+
+import c5db.client.generated.RegionInfo;
+import org.apache.hadoop.hbase.NotServingRegionException;
+
+/**
+ * A call failed because the server it went to serves the region only as a follower, and the call needs the leader.
+ * The server described the region in its answer, naming the leader where it knew it.
+ */
+public class NotLeaderException extends NotServingRegionException {
+  private final RegionInfo region;
+
+  public NotLeaderException(String message, RegionInfo region) {
+    super(message);
+    this.region = region;
+  }
+
+  public RegionInfo getRegion() {
+    return region;
+  }
+}
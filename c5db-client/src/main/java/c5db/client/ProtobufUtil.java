@@ -52,11 +52,14 @@ import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.CellUtil;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.KeyValueUtil;
+import org.apache.hadoop.hbase.NotServingRegionException;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.Mutation;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.regionserver.WrongRegionException;
+import org.apache.hadoop.hbase.util.Bytes;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -364,6 +367,25 @@ public class ProtobufUtil {
     return new Comparator(comparator.getClass().getName(), comparator.getValue());
   }
 
+  /**
+   * Convert a protocol buffer NameBytesPair, naming an exception thrown on the server and holding its message,
+   * to an IOException. A NotServingRegionException keeps its type, so that callers can tell that the region has
+   * moved and look it up again.
+   *
+   * @param exception the protocol buffer NameBytesPair to convert
+   * @return the converted IOException
+   */
+  public static IOException toIOException(final NameBytesPair exception) {
+    final String message = exception.getValue() == null ? "" : Bytes.toString(exception.getValue().array());
+    if (NotServingRegionException.class.getName().equals(exception.getName())) {
+      return new NotServingRegionException(message);
+    }
+    if (WrongRegionException.class.getName().equals(exception.getName())) {
+      return new WrongRegionException(message);
+    }
+    return new IOException(exception.getName() + ": " + message);
+  }
+
 
 }
 
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.client;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Where a key range of a table is served: the range, the node id of the region's leader, and the address of that
+ * leader's region server.
+ */
+public final class RegionLocation {
+  private static final byte[] EMPTY = new byte[0];
+
+  private final byte[] startKey;
+  private final byte[] endKey;
+  private final long leaderId;
+  private final String host;
+  private final int port;
+
+  /**
+   * @param startKey The first row of the range, or an empty array if the range is unbounded below
+   * @param endKey   The row after the last row of the range, or an empty array if the range is unbounded above
+   * @param leaderId The node id of the region's leader, or 0 if it is not known
+   * @param host     The host of the region server to send requests for the range to
+   * @param port     Its port
+   */
+  public RegionLocation(byte[] startKey, byte[] endKey, long leaderId, String host, int port) {
+    this.startKey = startKey == null ? EMPTY : startKey;
+    this.endKey = endKey == null ? EMPTY : endKey;
+    this.leaderId = leaderId;
+    this.host = host;
+    this.port = port;
+  }
+
+  public byte[] getStartKey() {
+    return startKey;
+  }
+
+  public byte[] getEndKey() {
+    return endKey;
+  }
+
+  public long getLeaderId() {
+    return leaderId;
+  }
+
+  public String getHost() {
+    return host;
+  }
+
+  public int getPort() {
+    return port;
+  }
+
+  public boolean containsRow(byte[] row) {
+    return Bytes.compareTo(startKey, row) <= 0
+        && (endKey.length == 0 || Bytes.compareTo(row, endKey) < 0);
+  }
+
+  @Override
+  public String toString() {
+    return "RegionLocation{"
+        + "startKey=" + Bytes.toStringBinary(startKey)
+        + ", endKey=" + Bytes.toStringBinary(endKey)
+        + ", leaderId=" + leaderId
+        + ", address=" + host + ":" + port
+        + '}';
+  }
+}
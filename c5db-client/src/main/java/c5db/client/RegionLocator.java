@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.client;
+
+import c5db.client.generated.RegionInfo;
+import org.apache.hadoop.hbase.NotServingRegionException;
+import org.apache.hadoop.hbase.regionserver.WrongRegionException;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Caches which region server leads each key range of each table, so that requests go straight to the leader of the
+ * region holding their row.
+ * <p>
+ * Requests name their table and the server routes them by row, answering with the region which served them and the
+ * address of the region's leader, which need not be the server which answered; the region's key range is cached
+ * against that address. Rows in no cached range go to the seed server, which routes them itself, and whose answer
+ * fills the cache. A follower which is asked for something only the leader can do answers with the region too, so
+ * the request can be sent on to the leader. A location is dropped when its server reports that it no longer serves,
+ * or no longer leads, the region, without saying who does; the request is then sent on to the seed server again.
+ */
+public class RegionLocator {
+  private final Map<ByteBuffer, ConcurrentNavigableMap<byte[], RegionLocation>> tables = new ConcurrentHashMap<>();
+  private final RegionLocation seed;
+
+  /**
+   * @param seedHost The host of the region server to send requests to for rows whose region is not known
+   * @param seedPort Its port
+   */
+  public RegionLocator(String seedHost, int seedPort) {
+    this.seed = new RegionLocation(null, null, 0, seedHost, seedPort);
+  }
+
+  /**
+   * @return The cached location of the region of the table holding the row; or, if there is none, the seed server's,
+   * covering every row
+   */
+  public RegionLocation locate(byte[] tableName, byte[] row) {
+    final ConcurrentNavigableMap<byte[], RegionLocation> regions = tables.get(ByteBuffer.wrap(tableName));
+    if (regions == null) {
+      return seed;
+    }
+    final Map.Entry<byte[], RegionLocation> entry = regions.floorEntry(row);
+    return entry != null && entry.getValue().containsRow(row) ? entry.getValue() : seed;
+  }
+
+  /**
+   * Cache the region a server said served a request, against the address of its leader, if the server knew it. Any
+   * cached ranges which overlap it, left from before a split or a move, are dropped.
+   *
+   * @param tableName The table the request was for
+   * @param region    The region from the server's response. A region naming its leader but not the leader's address
+   *                  was described by the leader itself.
+   * @param host      The host the request was sent to
+   * @param port      Its port
+   */
+  public void cacheRegion(byte[] tableName, RegionInfo region, String host, int port) {
+    if (region == null || region.getLeader() == 0) {
+      return;
+    }
+    final boolean elsewhere = region.getLeaderHost() != null && !region.getLeaderHost().isEmpty();
+    final RegionLocation location = new RegionLocation(toBytes(region.getStartKey()),
+        toBytes(region.getEndKey()),
+        region.getLeader(),
+        elsewhere ? region.getLeaderHost() : host,
+        elsewhere ? region.getLeaderPort() : port);
+    final ConcurrentNavigableMap<byte[], RegionLocation> regions = tables.computeIfAbsent(ByteBuffer.wrap(tableName),
+        (table) -> new ConcurrentSkipListMap<>(Bytes.BYTES_COMPARATOR));
+
+    final Map.Entry<byte[], RegionLocation> before = regions.lowerEntry(location.getStartKey());
+    if (before != null && before.getValue().containsRow(location.getStartKey())) {
+      regions.remove(before.getKey(), before.getValue());
+    }
+    final byte[] endKey = location.getEndKey();
+    (endKey.length == 0 ? regions.tailMap(location.getStartKey()) : regions.subMap(location.getStartKey(), endKey))
+        .clear();
+    regions.put(location.getStartKey(), location);
+  }
+
+  /**
+   * @param tableName The table
+   * @param startRow  The first row of the range, or empty for the start of the table
+   * @param stopRow   The row after the range, or empty for the end of the table
+   * @return In order, the start and end keys of the table's cached regions which fall strictly within the range; the
+   * points at which a scan of the range would cross from one known region to another
+   */
+  public List<byte[]> splitKeys(byte[] tableName, byte[] startRow, byte[] stopRow) {
+    final ConcurrentNavigableMap<byte[], RegionLocation> regions = tables.get(ByteBuffer.wrap(tableName));
+    if (regions == null) {
+      return new ArrayList<>();
+    }
+    final NavigableSet<byte[]> keys = new TreeSet<>(Bytes.BYTES_COMPARATOR);
+    for (RegionLocation location : regions.values()) {
+      keys.add(location.getStartKey());
+      keys.add(location.getEndKey());
+    }
+    final List<byte[]> splitKeys = new ArrayList<>();
+    for (byte[] key : keys) {
+      if (key.length > 0
+          && Bytes.compareTo(key, startRow) > 0
+          && (stopRow.length == 0 || Bytes.compareTo(key, stopRow) < 0)) {
+        splitKeys.add(key);
+      }
+    }
+    return splitKeys;
+  }
+
+  /**
+   * Forget the cached location of the region holding a row, so that the next request for it goes to the seed.
+   */
+  public void invalidate(byte[] tableName, byte[] row) {
+    final ConcurrentNavigableMap<byte[], RegionLocation> regions = tables.get(ByteBuffer.wrap(tableName));
+    if (regions == null) {
+      return;
+    }
+    final Map.Entry<byte[], RegionLocation> entry = regions.floorEntry(row);
+    if (entry != null && entry.getValue().containsRow(row)) {
+      regions.remove(entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * @return Whether a failed call, or anything which caused it to fail, says that the server it was sent to does
+   * not serve, or does not lead, the region it was sent to
+   */
+  public static boolean isRegionMoved(Throwable t) {
+    for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+      if (cause instanceof NotServingRegionException) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return Whether a failed call or action was sent to a server or region which does not hold its row: as well as
+   * those for which isRegionMoved, those the region itself rejected as outside its key range
+   */
+  public static boolean isMisrouted(Throwable t) {
+    return isRegionMoved(t) || t instanceof WrongRegionException;
+  }
+
+  private static byte[] toBytes(ByteBuffer buffer) {
+    if (buffer == null) {
+      return null;
+    }
+    final byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return bytes;
+  }
+}
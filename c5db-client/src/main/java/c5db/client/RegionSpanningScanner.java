@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.client;
+
+import c5db.client.generated.RegionInfo;
+import c5db.client.scanner.ClientScanner;
+import org.apache.hadoop.hbase.client.AbstractClientScanner;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Scans a range of a table which may cross several regions. A server scans only the region it was asked for, and
+ * stops at that region's end key; so once one region's scanner runs out, the scan is opened again from that end key,
+ * on the leader of the region which starts there, until the scan's stop row or the end of the table is reached.
+ * <p>
+ * If a server does not describe its region, the scan ends with that region, as there is no telling where it ended.
+ */
+class RegionSpanningScanner extends AbstractClientScanner {
+  private final C5Table table;
+  private final Scan scan;
+  private ClientScanner current;
+  private boolean closed = false;
+
+  /**
+   * @param table The table being scanned
+   * @param scan  The whole scan
+   * @param first The scanner of the region holding the scan's start row, already open
+   */
+  RegionSpanningScanner(C5Table table, Scan scan, ClientScanner first) {
+    this.table = table;
+    this.scan = scan;
+    this.current = first;
+  }
+
+  @Override
+  public Result next() throws IOException {
+    while (!closed) {
+      final Result result = current.next();
+      if (result != null) {
+        return result;
+      }
+      final byte[] nextStartRow = nextStartRow(current.getRegion());
+      current.close();
+      if (nextStartRow == null) {
+        return null;
+      }
+      current = table.openScanner(new Scan(scan).setStartRow(nextStartRow));
+    }
+    return null;
+  }
+
+  /**
+   * @return The row to continue the scan from once the given region has been scanned, or null if the scan ends there
+   */
+  private byte[] nextStartRow(RegionInfo region) {
+    if (region == null || region.getEndKey() == null || !region.getEndKey().hasRemaining()) {
+      return null;
+    }
+    final ByteBuffer endKeyBuffer = region.getEndKey();
+    final byte[] endKey = new byte[endKeyBuffer.remaining()];
+    endKeyBuffer.duplicate().get(endKey);
+
+    final byte[] stopRow = scan.getStopRow();
+    if (stopRow != null && stopRow.length > 0 && Bytes.compareTo(endKey, stopRow) >= 0) {
+      return null;
+    }
+    return endKey;
+  }
+
+  @Override
+  public Result[] next(int nbRows) throws IOException {
+    final List<Result> results = new ArrayList<>(nbRows);
+    for (int i = 0; i < nbRows; i++) {
+      final Result next = next();
+      if (next == null) {
+        break;
+      }
+      results.add(next);
+    }
+    return results.toArray(new Result[results.size()]);
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    current.close();
+  }
+}
@@ -75,8 +75,25 @@ public final class RequestConverter {
   public static GetRequest buildGetRequest(final byte[] regionName,
                                            final Get get,
                                            final boolean existenceOnly) throws IOException {
+    return buildGetRequest(regionName, get, existenceOnly, 0);
+  }
+
+  /**
+   * Create a protocol buffer GetRequest for a client Get which may be served by a follower.
+   *
+   * @param regionName     the name of the region to get
+   * @param get            the client Get
+   * @param existenceOnly  indicate if check row existence only
+   * @param maxStalenessMs how far behind the leader a replica may be and still serve the read;
+   *                       0 means the read must go to the leader
+   * @return a protocol buffer GetRequest
+   */
+  public static GetRequest buildGetRequest(final byte[] regionName,
+                                           final Get get,
+                                           final boolean existenceOnly,
+                                           final long maxStalenessMs) throws IOException {
     final RegionSpecifier region = buildRegionSpecifier(regionName);
-    return new GetRequest(region, ProtobufUtil.toGet(get, existenceOnly));
+    return new GetRequest(region, ProtobufUtil.toGet(get, existenceOnly), maxStalenessMs);
   }
 
   /**
@@ -86,7 +103,7 @@ public final class RequestConverter {
    * @return a protocol buffer RegionSpecifier
    */
   private static RegionSpecifier buildRegionSpecifier(final byte[] value) {
-    return new RegionSpecifier(RegionSpecifier.RegionSpecifierType.REGION_NAME, ByteBuffer.wrap(value));
+    return new RegionSpecifier(RegionSpecifier.RegionSpecifierType.TABLE_NAME, ByteBuffer.wrap(value));
   }
 
   /**
@@ -123,6 +140,63 @@ public final class RequestConverter {
         condition);
   }
 
+  /**
+   * Create a protocol buffer RegionAction applying a list of puts and/or deletes, not atomically. Each Action's
+   * index is the position of its mutation in the list.
+   *
+   * @param regionName The region name the actions apply to.
+   * @param mutations  The puts and deletes to apply to the region
+   * @return a data-laden RegionAction
+   */
+  public static RegionAction buildRegionAction(final byte[] regionName,
+                                               final List<? extends Mutation> mutations)
+      throws IOException {
+    final RegionSpecifier region = buildRegionSpecifier(regionName);
+    final List<Action> actions = new ArrayList<>();
+    int index = 0;
+    for (Mutation mutation : mutations) {
+      final MutationProto mp = ProtobufUtil.toMutation(toMutationType(mutation), mutation);
+      actions.add(new Action(index++, mp, null));
+    }
+    return new RegionAction(region, false, actions, 0L);
+  }
+
+  /**
+   * Create a protocol buffer RegionAction running a list of gets. Each Action's index is the position of its get
+   * in the list.
+   *
+   * @param regionName     The region name the gets apply to.
+   * @param gets           The gets to run against the region
+   * @param existenceOnly  indicate if check row existence only
+   * @param maxStalenessMs how far behind the leader a replica may be and still serve the gets;
+   *                       0 means they must go to the leader
+   * @return a data-laden RegionAction
+   */
+  public static RegionAction buildGetRegionAction(final byte[] regionName,
+                                                  final List<Get> gets,
+                                                  final boolean existenceOnly,
+                                                  final long maxStalenessMs)
+      throws IOException {
+    final RegionSpecifier region = buildRegionSpecifier(regionName);
+    final List<Action> actions = new ArrayList<>();
+    int index = 0;
+    for (Get get : gets) {
+      actions.add(new Action(index++, null, ProtobufUtil.toGet(get, existenceOnly)));
+    }
+    return new RegionAction(region, false, actions, maxStalenessMs);
+  }
+
+  private static MutationProto.MutationType toMutationType(final Mutation mutation) throws DoNotRetryIOException {
+    if (mutation instanceof Put) {
+      return MutationProto.MutationType.PUT;
+    } else if (mutation instanceof Delete) {
+      return MutationProto.MutationType.DELETE;
+    } else {
+      throw new DoNotRetryIOException("Only put and delete are supported, not "
+          + mutation.getClass().getName());
+    }
+  }
+
   /**
    * Create a protocol buffer MultiRequest for row mutations.
    * Does not propagate Action absolute position.
@@ -154,6 +228,6 @@ public final class RequestConverter {
       actions.add(action);
 
     }
-    return new RegionAction(region, atomic, actions);
+    return new RegionAction(region, atomic, actions, 0L);
   }
 }
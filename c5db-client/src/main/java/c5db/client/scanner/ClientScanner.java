@@ -37,83 +37,136 @@
 package c5db.client.scanner;
 
 import c5db.client.C5Constants;
-import c5db.client.C5Table;
 import c5db.client.ProtobufUtil;
+import c5db.client.generated.RegionInfo;
 import c5db.client.generated.RegionSpecifier;
 import c5db.client.generated.ScanRequest;
 import c5db.client.generated.ScanResponse;
-import c5db.client.queue.WickedQueue;
 import io.netty.channel.Channel;
 import org.apache.hadoop.hbase.client.AbstractClientScanner;
 import org.apache.hadoop.hbase.client.Result;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Reads the rows a server streams for one of its scanners.
+ * <p>
+ * The server sends only as many rows as the client has granted it credit for. The scanner keeps the rows it holds
+ * plus those it has granted within a window, granting more whenever half the window is free, so its buffer can never
+ * overflow; and the window doubles, up to MAX_REQUEST_SIZE rows, each time the reader finds the buffer empty.
+ * <p>
+ * A reader with no rows to take waits, without spinning, until rows arrive, the scan ends or fails, or the server has
+ * gone TIMEOUT ms without a response. The server only answers once granted credit, so that time is measured from the
+ * later of its last response and the last grant: a reader which stops reading for a while is not timed out for it.
+ */
 public class ClientScanner extends AbstractClientScanner {
   private final Channel ch;
   private final long scannerId;
-  private final WickedQueue<c5db.client.generated.Result> scanResults = new WickedQueue<>(C5Constants.MAX_CACHE_SZ);
   private final long commandId;
-  private boolean isClosed = true;
-
-  private int requestSize = C5Constants.DEFAULT_INIT_SCAN;
-  private int outStandingRequests = C5Constants.DEFAULT_INIT_SCAN;
+  private final RegionInfo region;
 
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition rowsArrived = lock.newCondition();
+  // Guarded by lock
+  private final Queue<c5db.client.generated.Result> scanResults = new ArrayDeque<>();
+  private int window = C5Constants.DEFAULT_INIT_SCAN;
+  private int outstandingRows = C5Constants.DEFAULT_INIT_SCAN;
+  private long lastResponseNanos = System.nanoTime();
+  private long lastGrantNanos = lastResponseNanos;
+  private boolean isClosed = false;
+  private boolean isExhausted = false;
+  private IOException failure = null;
 
   /**
-   * Create a new ClientScanner for the specified table
-   * Note that the passed {@link org.apache.hadoop.hbase.client.Scan}'s start row maybe changed changed.
+   * Create a new ClientScanner for a scanner the server has opened, having been granted DEFAULT_INIT_SCAN rows.
    */
-  ClientScanner(Channel channel, final long scannerId, final long commandId) {
+  ClientScanner(Channel channel, final long scannerId, final long commandId, final RegionInfo region) {
     ch = channel;
     this.scannerId = scannerId;
     this.commandId = commandId;
-    this.isClosed = false;
+    this.region = region;
+  }
+
+  /**
+   * @return The region the scanner reads, as described by the server when it opened the scanner; or null, if it did
+   * not describe it
+   */
+  public RegionInfo getRegion() {
+    return region;
   }
 
   @Override
   public Result next() throws IOException {
-
-    if (this.isClosed && this.scanResults.isEmpty()) {
-      return null;
+    final c5db.client.generated.Result result;
+    lock.lock();
+    try {
+      result = takeRow();
+    } finally {
+      lock.unlock();
     }
 
-    c5db.client.generated.Result result;
-    do {
-      result = scanResults.poll();
-
-      if (!this.isClosed) {
-        // If we don't have enough pending outstanding increase our rate
-        if (this.outStandingRequests < .5 * requestSize && requestSize < C5Constants.MAX_REQUEST_SIZE) {
-          requestSize = requestSize * 2;
-        }
-        final int queueSpace = C5Constants.MAX_CACHE_SZ - this.scanResults.size();
-
-        // If we have plenty of room for another request
-        if (queueSpace * 1.5 > (requestSize + this.outStandingRequests)
-            // And we have less than two requests worth in the queue
-            && 2 * this.outStandingRequests < requestSize) {
-          getMoreRows();
-        }
-      }
-    } while (result == null && !this.isClosed);
-
     if (result == null) {
       return null;
     }
-
     return ProtobufUtil.toResult(result);
   }
 
-  private void getMoreRows() throws IOException {
-    //TODO getRegion shouldn't be needed and currently is hardcoded
-    final RegionSpecifier regionSpecifier = new RegionSpecifier(RegionSpecifier.RegionSpecifierType.REGION_NAME,
-        C5Table.getRegion(new byte[]{}));
+  private c5db.client.generated.Result takeRow() throws IOException {
+    if (scanResults.isEmpty() && !isClosed && !isExhausted && window < C5Constants.MAX_REQUEST_SIZE) {
+      // The reader is keeping up with the server, so let the server get further ahead.
+      window = Math.min(window * 2, C5Constants.MAX_REQUEST_SIZE);
+      grantMoreRows();
+    }
+
+    while (scanResults.isEmpty()) {
+      if (failure != null) {
+        throw failure;
+      }
+      if (isClosed || isExhausted) {
+        return null;
+      }
+      // nanoTime values may only be compared by their difference
+      final long waitingSinceNanos = lastGrantNanos - lastResponseNanos > 0 ? lastGrantNanos : lastResponseNanos;
+      final long nanosLeft = TimeUnit.MILLISECONDS.toNanos(C5Constants.TIMEOUT) - (System.nanoTime() - waitingSinceNanos);
+      if (nanosLeft <= 0) {
+        throw new IOException("No response from scanner " + scannerId + " within " + C5Constants.TIMEOUT + "ms");
+      }
+      try {
+        rowsArrived.awaitNanos(nanosLeft);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException(e.toString());
+      }
+    }
 
-    final ScanRequest scanRequest = new ScanRequest(regionSpecifier, null, scannerId, requestSize, false, 0);
-    this.outStandingRequests += requestSize;
-    ch.write(ProtobufUtil.getScanCall(commandId, scanRequest));
+    final c5db.client.generated.Result result = scanResults.poll();
+    if (scanResults.size() + outstandingRows <= window / 2) {
+      grantMoreRows();
+    }
+    return result;
+  }
+
+  /**
+   * Grant the server credit for as many rows as the window has room for. Must be called holding the lock.
+   */
+  private void grantMoreRows() {
+    final int rows = window - scanResults.size() - outstandingRows;
+    if (rows <= 0 || isExhausted || isClosed || failure != null) {
+      return;
+    }
+    outstandingRows += rows;
+    lastGrantNanos = System.nanoTime();
+    final ScanRequest scanRequest = new ScanRequest(openScannerRegion(), null, scannerId, rows, false, 0L, 0L);
+    ch.writeAndFlush(ProtobufUtil.getScanCall(commandId, scanRequest));
   }
 
   @Override
@@ -130,15 +183,94 @@ public class ClientScanner extends AbstractClientScanner {
     return resultSets.toArray(new Result[resultSets.size()]);
   }
 
+  /**
+   * Close the scanner, dropping any rows it holds. If the server still has rows left for it, tell the server to close
+   * its end too, rather than leave it holding the scanner open until its lease runs out.
+   */
   @Override
   public void close() {
-    this.isClosed = true;
+    final boolean serverScannerOpen;
+    lock.lock();
+    try {
+      if (this.isClosed) {
+        return;
+      }
+      this.isClosed = true;
+      serverScannerOpen = !isExhausted && failure == null;
+      scanResults.clear();
+      rowsArrived.signalAll();
+    } finally {
+      lock.unlock();
+    }
+
+    ClientScannerManager.INSTANCE.remove(commandId);
+    if (serverScannerOpen) {
+      final ScanRequest scanRequest = new ScanRequest(openScannerRegion(), null, scannerId, 0, true, 0L, 0L);
+      ch.writeAndFlush(ProtobufUtil.getScanCall(commandId, scanRequest));
+    }
   }
 
+  /**
+   * The server finds an open scanner by its id, and ignores the region named by calls to it; but the field is
+   * required, so name none.
+   */
+  private static RegionSpecifier openScannerRegion() {
+    return new RegionSpecifier(RegionSpecifier.RegionSpecifierType.REGION_NAME, ByteBuffer.allocate(0));
+  }
+
+  Channel getChannel() {
+    return ch;
+  }
+
+  /**
+   * Called once the server has sent the last of the scanner's rows, and has closed its end.
+   */
+  public void exhausted() {
+    lock.lock();
+    try {
+      this.isExhausted = true;
+      rowsArrived.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    ClientScannerManager.INSTANCE.remove(commandId);
+  }
+
+  /**
+   * Called if the scanner can get no more rows, because the server could not continue it, or the connection closed.
+   * The reader is given the rows already received, then the failure.
+   */
+  public void fail(IOException cause) {
+    lock.lock();
+    try {
+      if (this.failure == null) {
+        this.failure = cause;
+      }
+      rowsArrived.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    ClientScannerManager.INSTANCE.remove(commandId);
+  }
+
+  /**
+   * Called on the connection's event loop with each response for this scanner; never blocks.
+   */
   public void add(ScanResponse response) {
-    for (c5db.client.generated.Result result : response.getResultsList()) {
-      scanResults.add(result);
-      this.outStandingRequests--;
+    lock.lock();
+    try {
+      lastResponseNanos = System.nanoTime();
+      if (this.isClosed) {
+        return;
+      }
+      final List<c5db.client.generated.Result> results = response.getResultsList();
+      if (results != null) {
+        scanResults.addAll(results);
+        outstandingRows = Math.max(0, outstandingRows - results.size());
+      }
+      rowsArrived.signalAll();
+    } finally {
+      lock.unlock();
     }
   }
 }
@@ -16,31 +16,54 @@
  */
 package c5db.client.scanner;
 
+import c5db.client.generated.RegionInfo;
 import io.netty.channel.Channel;
 
 import java.io.IOException;
 import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * The scanners open on this client, by the command id of the call which opened each. Scanner ids are only unique
+ * within the server which issued them, but command ids are unique within the client, and the server answers every
+ * call to a scanner with the id of the call which opened it.
+ */
 public enum ClientScannerManager {
   INSTANCE;
 
   private final ConcurrentHashMap<Long, ClientScanner> scannerMap = new ConcurrentHashMap<>();
 
-  public ClientScanner createAndGet(Channel channel, long scannerId, long commandId) throws IOException {
-    if (hasScanner(scannerId)) {
+  public ClientScanner createAndGet(Channel channel, long scannerId, long commandId, RegionInfo region)
+      throws IOException {
+    final ClientScanner scanner = new ClientScanner(channel, scannerId, commandId, region);
+    if (scannerMap.putIfAbsent(commandId, scanner) != null) {
       throw new IOException("Scanner already created");
     }
-
-    final ClientScanner scanner = new ClientScanner(channel, scannerId, commandId);
-    scannerMap.put(scannerId, scanner);
     return scanner;
   }
 
-  public ClientScanner get(long scannerId) {
-    return scannerMap.get(scannerId);
+  public ClientScanner get(long commandId) {
+    return scannerMap.get(commandId);
+  }
+
+  public boolean hasScanner(long commandId) {
+    return scannerMap.containsKey(commandId);
   }
 
-  public boolean hasScanner(long scannerId) {
-    return scannerMap.containsKey(scannerId);
+  /**
+   * Forget a scanner, once it is closed or the server has sent its last row.
+   */
+  void remove(long commandId) {
+    scannerMap.remove(commandId);
+  }
+
+  /**
+   * Fail every scanner reading from a channel, since no more of their rows can now arrive.
+   */
+  public void failScanners(Channel channel, IOException cause) {
+    for (ClientScanner scanner : scannerMap.values()) {
+      if (scanner.getChannel() == channel) {
+        scanner.fail(cause);
+      }
+    }
   }
 }
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.client;
+
+import c5db.client.generated.Call;
+import c5db.client.generated.MutateResponse;
+import c5db.client.generated.NameBytesPair;
+import c5db.client.generated.RegionInfo;
+import c5db.client.generated.Response;
+import c5db.client.generated.TableName;
+import com.google.common.util.concurrent.SettableFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.HashedWheelTimer;
+import org.apache.hadoop.hbase.NotServingRegionException;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class MessageHandlerTest {
+  private static final long TIMEOUT_MILLIS = 50;
+
+  private final HashedWheelTimer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+  private final MessageHandler messageHandler = new MessageHandler(timer, TIMEOUT_MILLIS);
+  private final EmbeddedChannel channel = new EmbeddedChannel(messageHandler);
+
+  @After
+  public void stopTimer() {
+    timer.stop();
+  }
+
+  @Test(timeout = 1000)
+  public void forgetsACallOnceItIsAnswered() throws Exception {
+    final SettableFuture<Response> future = SettableFuture.create();
+    messageHandler.call(mutateCall(1), future, channel);
+    assertThat(messageHandler.getInFlightCount(), is(1));
+
+    channel.writeInbound(mutateResponse(1));
+
+    assertThat(future.get().getCommandId(), is(1L));
+    assertThat(messageHandler.getInFlightCount(), is(0));
+  }
+
+  @Test(timeout = 1000)
+  public void failsAndForgetsACallWhichIsNotAnsweredInTime() throws Exception {
+    final SettableFuture<Response> future = SettableFuture.create();
+    messageHandler.call(mutateCall(1), future, channel);
+
+    assertThat(causeOfFailure(future), is(instanceOf(TimeoutException.class)));
+    assertThat(messageHandler.getInFlightCount(), is(0));
+
+    channel.writeInbound(mutateResponse(1));
+  }
+
+  @Test(timeout = 1000)
+  public void failsEveryOutstandingCallWhenTheChannelCloses() throws Exception {
+    final SettableFuture<Response> first = SettableFuture.create();
+    final SettableFuture<Response> second = SettableFuture.create();
+    messageHandler.call(mutateCall(1), first, channel);
+    messageHandler.call(mutateCall(2), second, channel);
+
+    channel.close();
+
+    assertThat(causeOfFailure(first), is(instanceOf(IOException.class)));
+    assertThat(causeOfFailure(second), is(instanceOf(IOException.class)));
+    assertThat(messageHandler.getInFlightCount(), is(0));
+  }
+
+  @Test(timeout = 1000)
+  public void failsACallRefusedByAFollowerWithTheRegionItDescribed() throws Exception {
+    final SettableFuture<Response> future = SettableFuture.create();
+    messageHandler.call(mutateCall(1), future, channel);
+    final RegionInfo region = new RegionInfo(1L,
+        new TableName(ByteBuffer.wrap(Bytes.toBytes("default")), ByteBuffer.wrap(Bytes.toBytes("aTable"))),
+        new ArrayList<>(), 2L, null, null, false, false, "leader", 31337);
+
+    channel.writeInbound(new Response(Response.Command.MUTATE, 1L, null, null, null, null,
+        new NameBytesPair(NotServingRegionException.class.getName(), ByteBuffer.wrap(Bytes.toBytes("Not the leader"))),
+        region));
+
+    final Throwable cause = causeOfFailure(future);
+    assertThat(cause, is(instanceOf(NotLeaderException.class)));
+    assertThat(((NotLeaderException) cause).getRegion().getLeaderHost(), is("leader"));
+  }
+
+  @Test(timeout = 1000)
+  public void failsAndForgetsACallWhichCanNotBeWritten() throws Exception {
+    final MessageHandler handler = new MessageHandler(timer, TIMEOUT_MILLIS);
+    final EmbeddedChannel refusingChannel = new EmbeddedChannel(new ChannelOutboundHandlerAdapter() {
+      @Override
+      public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        promise.setFailure(new IOException("refused"));
+      }
+    }, handler);
+    final SettableFuture<Response> future = SettableFuture.create();
+
+    handler.call(mutateCall(1), future, refusingChannel);
+
+    final Throwable cause = causeOfFailure(future);
+    assertThat(cause, is(instanceOf(IOException.class)));
+    assertThat(cause.getCause().getMessage(), is("refused"));
+    assertThat(handler.getInFlightCount(), is(0));
+  }
+
+  private static Call mutateCall(long commandId) {
+    return new Call(Call.Command.MUTATE, commandId, null, null, null, null);
+  }
+
+  private static Response mutateResponse(long commandId) {
+    return new Response(Response.Command.MUTATE, commandId, null, new MutateResponse(null, true), null, null, null,
+        null);
+  }
+
+  private static Throwable causeOfFailure(SettableFuture<Response> future) throws InterruptedException {
+    try {
+      future.get();
+    } catch (ExecutionException e) {
+      return e.getCause();
+    }
+    fail("Expected the call to fail");
+    return null;
+  }
+}
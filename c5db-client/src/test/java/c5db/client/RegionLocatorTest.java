@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.client;
+
+import c5db.client.generated.RegionInfo;
+import c5db.client.generated.TableName;
+import org.apache.hadoop.hbase.NotServingRegionException;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class RegionLocatorTest {
+  private static final byte[] TABLE = Bytes.toBytes("aTable");
+  private static final String SEED_HOST = "seed";
+  private static final int PORT = 31337;
+
+  private final RegionLocator regionLocator = new RegionLocator(SEED_HOST, PORT);
+
+  @Test
+  public void sendsRowsOfUnknownRegionsToTheSeed() {
+    assertThat(regionLocator.locate(TABLE, row("a")).getHost(), is(equalTo(SEED_HOST)));
+  }
+
+  @Test
+  public void sendsRowsInACachedRangeToItsLeader() {
+    regionLocator.cacheRegion(TABLE, region("", "m", 1), "first", PORT);
+    regionLocator.cacheRegion(TABLE, region("m", "", 2), "second", PORT);
+
+    assertThat(regionLocator.locate(TABLE, row("a")).getHost(), is(equalTo("first")));
+    assertThat(regionLocator.locate(TABLE, row("m")).getHost(), is(equalTo("second")));
+    assertThat(regionLocator.locate(TABLE, row("z")).getLeaderId(), is(equalTo(2L)));
+    assertThat(regionLocator.locate(Bytes.toBytes("anotherTable"), row("a")).getHost(), is(equalTo(SEED_HOST)));
+  }
+
+  @Test
+  public void doesNotCacheRegionsServedByAFollower() {
+    regionLocator.cacheRegion(TABLE, region("", "", 0), "follower", PORT);
+
+    assertThat(regionLocator.locate(TABLE, row("a")).getHost(), is(equalTo(SEED_HOST)));
+  }
+
+  @Test
+  public void sendsRowsToTheLeaderNamedByTheSeedWhenTheSeedIsNotTheLeader() {
+    regionLocator.cacheRegion(TABLE, region("", "m", 2, "leader", PORT + 1), SEED_HOST, PORT);
+
+    final RegionLocation location = regionLocator.locate(TABLE, row("a"));
+    assertThat(location.getHost(), is(equalTo("leader")));
+    assertThat(location.getPort(), is(equalTo(PORT + 1)));
+    assertThat(location.getLeaderId(), is(equalTo(2L)));
+    assertThat(regionLocator.locate(TABLE, row("m")).getHost(), is(equalTo(SEED_HOST)));
+  }
+
+  @Test
+  public void sendsRowsToTheLeaderNamedInAFollowersRefusal() {
+    final NotLeaderException refusal = new NotLeaderException("Not the leader", region("", "", 2, "leader", PORT));
+    assertThat(RegionLocator.isRegionMoved(new ExecutionException(refusal)), is(true));
+
+    regionLocator.cacheRegion(TABLE, refusal.getRegion(), SEED_HOST, PORT);
+
+    assertThat(regionLocator.locate(TABLE, row("a")).getHost(), is(equalTo("leader")));
+  }
+
+  @Test
+  public void replacesRangesOverlappedByANewerRegion() {
+    regionLocator.cacheRegion(TABLE, region("", "", 1), "beforeSplit", PORT);
+    regionLocator.cacheRegion(TABLE, region("m", "", 2), "afterSplit", PORT);
+
+    assertThat(regionLocator.locate(TABLE, row("z")).getHost(), is(equalTo("afterSplit")));
+    assertThat(regionLocator.locate(TABLE, row("a")).getHost(), is(equalTo(SEED_HOST)));
+  }
+
+  @Test
+  public void forgetsAnInvalidatedRegion() {
+    regionLocator.cacheRegion(TABLE, region("", "m", 1), "first", PORT);
+    regionLocator.cacheRegion(TABLE, region("m", "", 2), "second", PORT);
+
+    regionLocator.invalidate(TABLE, row("b"));
+
+    assertThat(regionLocator.locate(TABLE, row("b")).getHost(), is(equalTo(SEED_HOST)));
+    assertThat(regionLocator.locate(TABLE, row("n")).getHost(), is(equalTo("second")));
+  }
+
+  @Test
+  public void splitsARangeAtTheBoundariesOfTheRegionsItCrosses() {
+    regionLocator.cacheRegion(TABLE, region("", "g", 1), "first", PORT);
+    regionLocator.cacheRegion(TABLE, region("g", "p", 2), "second", PORT);
+    regionLocator.cacheRegion(TABLE, region("t", "", 3), "fourth", PORT);
+
+    final List<byte[]> splitKeys = regionLocator.splitKeys(TABLE, row("c"), row("u"));
+
+    assertThat(splitKeys.size(), is(equalTo(3)));
+    assertThat(Bytes.toString(splitKeys.get(0)), is(equalTo("g")));
+    assertThat(Bytes.toString(splitKeys.get(1)), is(equalTo("p")));
+    assertThat(Bytes.toString(splitKeys.get(2)), is(equalTo("t")));
+    assertThat(regionLocator.splitKeys(TABLE, row("h"), row("")).size(), is(equalTo(2)));
+    assertThat(regionLocator.splitKeys(Bytes.toBytes("anotherTable"), row(""), row("")).isEmpty(), is(true));
+  }
+
+  @Test
+  public void recognizesACallFailedBecauseTheRegionMoved() {
+    assertThat(RegionLocator.isRegionMoved(new ExecutionException(new NotServingRegionException("moved"))), is(true));
+    assertThat(RegionLocator.isRegionMoved(new ExecutionException(new IOException("busy"))), is(false));
+  }
+
+  private static byte[] row(String row) {
+    return Bytes.toBytes(row);
+  }
+
+  /**
+   * A region as described by its leader, which does not give its own address.
+   */
+  private static RegionInfo region(String startKey, String endKey, long leader) {
+    return region(startKey, endKey, leader, null, 0);
+  }
+
+  private static RegionInfo region(String startKey, String endKey, long leader, String leaderHost, int leaderPort) {
+    return new RegionInfo(1L,
+        new TableName(ByteBuffer.wrap(Bytes.toBytes("default")), ByteBuffer.wrap(TABLE)),
+        new ArrayList<>(),
+        leader,
+        ByteBuffer.wrap(Bytes.toBytes(startKey)),
+        ByteBuffer.wrap(Bytes.toBytes(endKey)),
+        false,
+        false,
+        leaderHost,
+        leaderPort);
+  }
+}
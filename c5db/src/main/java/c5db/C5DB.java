@@ -36,6 +36,7 @@ import c5db.tablet.TabletService;
 import c5db.util.C5FiberFactory;
 import c5db.util.ExceptionHandlingBatchExecutor;
 import c5db.util.FiberOnly;
+import c5db.util.NettyTransport;
 import c5db.util.PoolFiberFactoryWithExecutor;
 import c5db.webadmin.WebAdminService;
 import com.google.common.collect.ImmutableMap;
@@ -43,6 +44,7 @@ import com.google.common.util.concurrent.AbstractService;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.Service;
 import com.google.common.util.concurrent.SettableFuture;
+import io.netty.channel.EventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.protostuff.Message;
 import org.jetlang.channels.Channel;
@@ -83,8 +85,10 @@ public class C5DB extends AbstractService implements C5Server {
 
   private Fiber serverFiber;
   private PoolFiberFactory fiberPool;
-  private NioEventLoopGroup bossGroup;
-  private NioEventLoopGroup workerGroup;
+  private EventLoopGroup acceptGroup;
+  private EventLoopGroup regionServerGroup;
+  private EventLoopGroup replicationGroup;
+  private NioEventLoopGroup datagramGroup;
 
   private final Map<ModuleType, C5Module> allModules = new HashMap<>();
 
@@ -224,8 +228,14 @@ public class C5DB extends AbstractService implements C5Server {
     try {
       serverFiber = new ThreadFiber(new RunnableExecutorImpl(), "C5-Server", false);
       fiberPool = new PoolFiberFactory(Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()));
-      bossGroup = new NioEventLoopGroup(1);
-      workerGroup = new NioEventLoopGroup();
+      acceptGroup = NettyTransport.newEventLoopGroup(1);
+      // Client RPCs and replication get event loops of their own, so that neither can starve the other.
+      regionServerGroup = NettyTransport.newEventLoopGroup(
+          Integer.getInteger(C5ServerConstants.REGION_SERVER_IO_THREADS_PROPERTY_NAME, 0));
+      replicationGroup = NettyTransport.newEventLoopGroup(
+          Integer.getInteger(C5ServerConstants.REPLICATION_IO_THREADS_PROPERTY_NAME,
+              Runtime.getRuntime().availableProcessors()));
+      datagramGroup = new NioEventLoopGroup(1);
 
       commandChannel.subscribe(serverFiber, message -> {
         try {
@@ -249,6 +259,10 @@ public class C5DB extends AbstractService implements C5Server {
   protected void doStop() {
     serverFiber.dispose();
     fiberPool.dispose();
+    acceptGroup.shutdownGracefully();
+    regionServerGroup.shutdownGracefully();
+    replicationGroup.shutdownGracefully();
+    datagramGroup.shutdownGracefully();
 
     notifyStopped();
   }
@@ -350,12 +364,12 @@ public class C5DB extends AbstractService implements C5Server {
           l.put(name, allModules.get(name).port());
         }
 
-        C5Module module = new BeaconService(this.nodeId, modulePort, fiberPool.create(), workerGroup, l, this);
+        C5Module module = new BeaconService(this.nodeId, modulePort, fiberPool.create(), datagramGroup, l, this);
         startServiceModule(module);
         break;
       }
       case Replication: {
-        C5Module module = new ReplicatorService(bossGroup, workerGroup, modulePort, this);
+        C5Module module = new ReplicatorService(acceptGroup, replicationGroup, modulePort, this);
         startServiceModule(module);
         break;
       }
@@ -372,7 +386,7 @@ public class C5DB extends AbstractService implements C5Server {
         break;
       }
       case RegionServer: {
-        C5Module module = new RegionServerService(bossGroup, workerGroup, modulePort, this);
+        C5Module module = new RegionServerService(acceptGroup, regionServerGroup, modulePort, this);
         startServiceModule(module);
 
         break;
@@ -19,14 +19,35 @@ package c5db;
 
 public class C5ServerConstants {
   public static final int MSG_SIZE = 100;
+  public static final long SCAN_RESPONSE_MAX_BYTES = 2 * 1024 * 1024;
+  public static final long SCAN_RESPONSE_MAX_MILLIS = 100;
   public static final String LOG_NAME = "log";
   public static final String WAL_DIR = "wal";
   public static final String ARCHIVE_DIR = "old_wal";
   public static final int MAX_CALL_SIZE = Integer.MAX_VALUE;
+  public static final String MAX_REGION_CALL_SIZE_PROPERTY_NAME = "c5.maxRegionCallSize";
+  public static final int DEFAULT_MAX_REGION_CALL_SIZE = 64 * 1024 * 1024;
+  public static final byte[] BINARY_TRANSPORT_PREAMBLE = {'C', '5', 'B', 'T'};
+  public static final String NETTY_EPOLL_PROPERTY_NAME = "c5.netty.epoll";
+  public static final String WRITE_BUFFER_HIGH_WATER_MARK_PROPERTY_NAME = "c5.netty.writeBufferHighWaterMark";
+  public static final int DEFAULT_WRITE_BUFFER_HIGH_WATER_MARK = 64 * 1024;
+  public static final String WRITE_BUFFER_LOW_WATER_MARK_PROPERTY_NAME = "c5.netty.writeBufferLowWaterMark";
+  public static final int DEFAULT_WRITE_BUFFER_LOW_WATER_MARK = 32 * 1024;
+  public static final String REGION_SERVER_IO_THREADS_PROPERTY_NAME = "c5.regionServerIoThreads";
+  public static final String REPLICATION_IO_THREADS_PROPERTY_NAME = "c5.replicationIoThreads";
   public static final long MAX_CONTENT_LENGTH_HTTP_AGG = 8192;
   public static final String CLUSTER_NAME_PROPERTY_NAME = "clusterName";
   public static final String LOCALHOST = "localhost";
   public static final int WAL_THREAD_POOL_SIZE = 1;
+  public static final int MAX_QUEUED_REGION_READS = 100000;
+  public static final int MAX_QUEUED_REGION_WRITES = 100000;
+  public static final int MAX_IN_FLIGHT_CALLS_PER_CONNECTION = 20000;
+  public static final int SCANNER_PREFETCH_BUDGET_ROWS = 1000;
+  public static final long SCANNER_LEASE_MILLIS = 60000;
+  public static final int MAX_OPEN_SCANNERS = 10000;
+  public static final long MAX_SCANNER_BUFFERED_BYTES = 256 * 1024 * 1024;
+  public static final long SCANNER_BUFFER_FULL_RETRY_MILLIS = 10;
+  public static final int MAX_REGION_WRITE_BATCH_SIZE = 500;
 
   public static final byte[] META_ROW = {1, 2, 3, 4, 5};
 
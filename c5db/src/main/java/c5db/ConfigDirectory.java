@@ -32,6 +32,7 @@ public interface ConfigDirectory {
   String regionInfoFile = "region-info";
   String htableDescriptorFile = "htable-descriptor";
   String persisterFile = "replication-data";
+  String replicationInfoJournalFile = "replication-info.journal";
 
   /**
    * Get the contents of the node id config file
@@ -92,7 +92,8 @@ public class Main {
     StartModule startRegionServer = new StartModule(ModuleType.RegionServer, regionServerPort, "");
     instance.getCommandChannel().publish(new CommandRpcRequest<>(nodeId, startRegionServer));
 
-    StartModule webAdminService = new StartModule(ModuleType.WebAdmin, 31337, "");
+    StartModule webAdminService = new StartModule(ModuleType.WebAdmin,
+        Integer.parseInt(System.getProperty("webAdminPort", "31337")), "");
     instance.getCommandChannel().publish(new CommandRpcRequest<>(nodeId, webAdminService));
     return instance;
   }
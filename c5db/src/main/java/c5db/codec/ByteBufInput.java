@@ -14,7 +14,7 @@
  *  You should have received a copy of the GNU Affero General Public License
  *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
-package c5db.control;
+package c5db.codec;
 
 import io.netty.buffer.ByteBuf;
 import io.protostuff.ByteString;
@@ -39,6 +39,9 @@ import static io.protostuff.WireFormat.getTagFieldNumber;
 import static io.protostuff.WireFormat.getTagWireType;
 import static io.protostuff.WireFormat.makeTag;
 
+/**
+ * A protobuf Input reading from a netty ByteBuf. Bytes fields are read as views of the ByteBuf rather than copies.
+ */
 public final class ByteBufInput implements Input
 {
   static ProtobufException misreportedSize()
@@ -609,10 +612,21 @@ public final class ByteBufInput implements Input
   }
 
   /**
-   * Reads a byte array/ByteBuffer value.
+   * Reads a ByteBuffer value. Rather than a copy, the ByteBuffer is a view of the bytes in the underlying buffer, so
+   * it is valid only for as long as the underlying buffer is; and its array() is the whole of the underlying array,
+   * so it must be read using its arrayOffset(), position() and remaining().
    */
   public ByteBuffer readByteBuffer() throws IOException
   {
-    return ByteBuffer.wrap(readByteArray());
+    final int length = readRawVarint32();
+    if (length < 0)
+      throw negativeSize();
+
+    if (!buffer.isReadable(length))
+      throw misreportedSize();
+
+    final ByteBuffer view = buffer.nioBuffer(buffer.readerIndex(), length);
+    buffer.skipBytes(length);
+    return view;
   }
 }
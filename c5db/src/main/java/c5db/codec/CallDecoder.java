@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.codec;
+
+import c5db.client.generated.Call;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageDecoder;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Decodes a frame holding a single protostuff Call, for the region server's binary transport.
+ */
+public class CallDecoder extends MessageToMessageDecoder<ByteBuf> {
+
+  @Override
+  protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+    out.add(decodeCall(in));
+  }
+
+  /**
+   * Decode a Call from the readable bytes of a buffer.
+   * <p>
+   * The Call's bytes fields are views of the bytes it was decoded from, and the Call outlives the buffer, which is
+   * released as soon as it has been decoded. So decode from an array which the garbage collector will keep for as long
+   * as the Call refers to it, and which nothing will write over: the buffer's own array if decodesInPlace, or else a
+   * copy. A put's value is then copied once more on its way to the memstore, into its KeyValue; if the frame was copied
+   * too, twice.
+   */
+  public static Call decodeCall(ByteBuf in) throws IOException {
+    final ByteBuf content = decodesInPlace(in) ? in : Unpooled.copiedBuffer(in);
+
+    final Call call = Call.getSchema().newMessage();
+    Call.getSchema().mergeFrom(new ByteBufInput(content, false), call);
+    return call;
+  }
+
+  /**
+   * Whether decodeCall decodes from the buffer's own array rather than from a copy: true of unpooled heap buffers,
+   * whose arrays are not handed to another buffer once released. Their bytes must not change after they are decoded
+   * either, which is why Varint32FrameDecoder copies the frames out of any buffer whose bytes may yet be moved.
+   */
+  public static boolean decodesInPlace(ByteBuf in) {
+    return in.hasArray() && in.alloc() instanceof UnpooledByteBufAllocator;
+  }
+}
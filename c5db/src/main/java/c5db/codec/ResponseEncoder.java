@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.codec;
+
+import c5db.client.generated.Response;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageEncoder;
+import io.protostuff.LowCopyProtobufOutput;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Encodes a Response, or a ResultResponse, into a buffer holding just that message, for the region server's binary
+ * transport.
+ */
+public class ResponseEncoder extends MessageToMessageEncoder<Object> {
+
+  @Override
+  public boolean acceptOutboundMessage(Object msg) throws Exception {
+    return isResponse(msg);
+  }
+
+  @Override
+  protected void encode(ChannelHandlerContext ctx, Object msg, List<Object> out) throws Exception {
+    out.add(encodeResponse(ctx.alloc(), msg));
+  }
+
+  static boolean isResponse(Object msg) {
+    return msg instanceof Response || msg instanceof ResultResponse;
+  }
+
+  /**
+   * Encode a Response or a ResultResponse. ResultResponses write themselves into a buffer from the given allocator;
+   * Responses go through protostuff.
+   */
+  public static ByteBuf encodeResponse(ByteBufAllocator allocator, Object msg) throws IOException {
+    if (msg instanceof ResultResponse) {
+      return ((ResultResponse) msg).encode(allocator);
+    }
+    final LowCopyProtobufOutput lcpo = new LowCopyProtobufOutput();
+    Response.getSchema().writeTo(lcpo, (Response) msg);
+    final List<ByteBuffer> buffers = lcpo.buffer.finish();
+    return Unpooled.wrappedBuffer(buffers.toArray(new ByteBuffer[buffers.size()]));
+  }
+}
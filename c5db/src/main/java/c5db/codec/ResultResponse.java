@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.codec;
+
+import c5db.client.generated.Response;
+import c5db.interfaces.tablet.RegionDescription;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import org.apache.hadoop.hbase.Cell;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A Response to a GET or a SCAN, holding the region's own Cells rather than their protostuff equivalents. It is
+ * written straight from the Cells' backing arrays into a single ByteBuf, in the same protobuf format as the
+ * equivalent Response, so the client can not tell the difference; but no intermediate Result, Cell or ByteBuffer
+ * objects are created along the way.
+ * <p>
+ * Fields are written in the same order, and with the same values, as ReverseProtobufUtil.toResult and ScanRunnable
+ * used to give them.
+ */
+public final class ResultResponse {
+  // Field tags: (field number << 3) | wire type, where wire type 0 is a varint and 2 is length delimited.
+  private static final int RESPONSE_COMMAND = 1 << 3;
+  private static final int RESPONSE_COMMAND_ID = 2 << 3;
+  private static final int RESPONSE_GET = 3 << 3 | 2;
+  private static final int RESPONSE_SCAN = 5 << 3 | 2;
+  private static final int RESPONSE_REGION = 8 << 3 | 2;
+  private static final int GET_RESPONSE_RESULT = 1 << 3 | 2;
+  private static final int SCAN_RESPONSE_CELLS_PER_RESULT = 1 << 3;
+  private static final int SCAN_RESPONSE_SCANNER_ID = 2 << 3;
+  private static final int SCAN_RESPONSE_MORE_RESULTS = 3 << 3;
+  private static final int SCAN_RESPONSE_TTL = 4 << 3;
+  private static final int SCAN_RESPONSE_RESULTS = 5 << 3 | 2;
+  private static final int RESULT_CELL = 1 << 3 | 2;
+  private static final int RESULT_ASSOCIATED_CELL_COUNT = 2 << 3;
+  private static final int RESULT_EXISTS = 3 << 3;
+  private static final int CELL_ROW = 1 << 3 | 2;
+  private static final int CELL_FAMILY = 2 << 3 | 2;
+  private static final int CELL_QUALIFIER = 3 << 3 | 2;
+  private static final int CELL_TIMESTAMP = 4 << 3;
+  private static final int CELL_TYPE = 5 << 3;
+  private static final int CELL_VALUE = 6 << 3 | 2;
+  private static final Cell[] NO_CELLS = new Cell[0];
+
+  private final Response.Command command;
+  private final long commandId;
+  private final List<Cell[]> rows;
+
+  // For a GET
+  private final boolean exists;
+
+  // For a SCAN
+  private final long scannerId;
+  private final boolean moreResults;
+
+  // The region which served the call, if the call named its region by table and row; encoded once, by the region
+  private final byte[] region;
+
+  private final int serializedSize;
+
+  private ResultResponse(Response.Command command,
+                         long commandId,
+                         List<Cell[]> rows,
+                         boolean exists,
+                         long scannerId,
+                         boolean moreResults,
+                         RegionDescription region) {
+    this.command = command;
+    this.commandId = commandId;
+    this.rows = rows;
+    this.exists = exists;
+    this.scannerId = scannerId;
+    this.moreResults = moreResults;
+    this.region = region == null ? null : region.getEncoded();
+    this.serializedSize = computeSerializedSize();
+  }
+
+  /**
+   * @param cells         The cells the Get found, or null if there are none.
+   * @param exists        Whether the row exists; only meaningful for existence only Gets.
+   * @param existenceOnly If true, the response carries no cells, only whether the row exists.
+   * @param region        The region which served the Get, if it named its region by table and row; otherwise null.
+   */
+  public static ResultResponse forGet(long commandId,
+                                      Cell[] cells,
+                                      boolean exists,
+                                      boolean existenceOnly,
+                                      RegionDescription region) {
+    return new ResultResponse(Response.Command.GET, commandId,
+        Collections.singletonList(existenceOnly || cells == null ? NO_CELLS : cells),
+        exists, 0, false, region);
+  }
+
+  /**
+   * @param rows   The cells of each row being sent, one array per row.
+   * @param region The region being scanned, if the scan named its region by table and row; otherwise null.
+   */
+  public static ResultResponse forScan(long commandId,
+                                       long scannerId,
+                                       boolean moreResults,
+                                       List<Cell[]> rows,
+                                       RegionDescription region) {
+    return new ResultResponse(Response.Command.SCAN, commandId, rows, true, scannerId, moreResults, region);
+  }
+
+  public Response.Command getCommand() {
+    return command;
+  }
+
+  public long getCommandId() {
+    return commandId;
+  }
+
+  /**
+   * @return The number of bytes this response takes up once encoded.
+   */
+  public int getSerializedSize() {
+    return serializedSize;
+  }
+
+  /**
+   * Encode this response into a newly allocated buffer of exactly the right size.
+   */
+  public ByteBuf encode(ByteBufAllocator allocator) {
+    final ByteBuf buf = allocator.buffer(serializedSize, serializedSize);
+    writeVarint(buf, RESPONSE_COMMAND);
+    writeVarint(buf, command.getNumber());
+    writeVarint(buf, RESPONSE_COMMAND_ID);
+    writeVarint(buf, commandId);
+
+    if (command == Response.Command.GET) {
+      writeVarint(buf, RESPONSE_GET);
+      writeVarint(buf, getResponseSize());
+      writeVarint(buf, GET_RESPONSE_RESULT);
+      writeVarint(buf, getResultSize());
+      writeGetResult(buf);
+    } else {
+      writeVarint(buf, RESPONSE_SCAN);
+      writeVarint(buf, scanResponseSize());
+      writeScanResponse(buf);
+    }
+    if (region != null) {
+      writeVarint(buf, RESPONSE_REGION);
+      writeVarint(buf, region.length);
+      buf.writeBytes(region);
+    }
+    return buf;
+  }
+
+  /**
+   * @return The number of bytes a cell takes up once encoded within a Result, including its tag and length.
+   */
+  public static int cellSize(Cell cell) {
+    return lengthDelimitedSize(cellBodySize(cell));
+  }
+
+  private int computeSerializedSize() {
+    final int header = 1 + varintSize(command.getNumber()) + 1 + varintSize(commandId);
+    final int regionSize = region == null ? 0 : lengthDelimitedSize(region.length);
+    if (command == Response.Command.GET) {
+      return header + lengthDelimitedSize(getResponseSize()) + regionSize;
+    } else {
+      return header + lengthDelimitedSize(scanResponseSize()) + regionSize;
+    }
+  }
+
+  private int getResponseSize() {
+    return lengthDelimitedSize(getResultSize());
+  }
+
+  private int getResultSize() {
+    return resultSize(rows.get(0), 0, exists);
+  }
+
+  private void writeGetResult(ByteBuf buf) {
+    writeResult(buf, rows.get(0), 0, exists);
+  }
+
+  private int scanResponseSize() {
+    int size = 0;
+    for (Cell[] row : rows) {
+      size += 1 + varintSize(row.length);
+      size += lengthDelimitedSize(resultSize(row, row.length, true));
+    }
+    size += 1 + varintSize(scannerId);
+    size += 2; // more_results
+    size += 2; // ttl
+    return size;
+  }
+
+  private void writeScanResponse(ByteBuf buf) {
+    for (Cell[] row : rows) {
+      writeVarint(buf, SCAN_RESPONSE_CELLS_PER_RESULT);
+      writeVarint(buf, row.length);
+    }
+    writeVarint(buf, SCAN_RESPONSE_SCANNER_ID);
+    writeVarint(buf, scannerId);
+    writeVarint(buf, SCAN_RESPONSE_MORE_RESULTS);
+    writeVarint(buf, moreResults ? 1 : 0);
+    writeVarint(buf, SCAN_RESPONSE_TTL);
+    writeVarint(buf, 0);
+    for (Cell[] row : rows) {
+      writeVarint(buf, SCAN_RESPONSE_RESULTS);
+      writeVarint(buf, resultSize(row, row.length, true));
+      writeResult(buf, row, row.length, true);
+    }
+  }
+
+  private static int resultSize(Cell[] cells, int associatedCellCount, boolean exists) {
+    int size = 0;
+    for (Cell cell : cells) {
+      size += cellSize(cell);
+    }
+    size += 1 + varintSize(associatedCellCount);
+    size += 2; // exists
+    return size;
+  }
+
+  private static void writeResult(ByteBuf buf, Cell[] cells, int associatedCellCount, boolean exists) {
+    for (Cell cell : cells) {
+      writeVarint(buf, RESULT_CELL);
+      writeVarint(buf, cellBodySize(cell));
+      writeCell(buf, cell);
+    }
+    writeVarint(buf, RESULT_ASSOCIATED_CELL_COUNT);
+    writeVarint(buf, associatedCellCount);
+    writeVarint(buf, RESULT_EXISTS);
+    writeVarint(buf, exists ? 1 : 0);
+  }
+
+  private static int cellBodySize(Cell cell) {
+    return lengthDelimitedSize(cell.getRowLength())
+        + lengthDelimitedSize(cell.getFamilyLength())
+        + lengthDelimitedSize(cell.getQualifierLength())
+        + 1 + varintSize(cell.getTimestamp())
+        + 1 + varintSize(cellType(cell))
+        + lengthDelimitedSize(cell.getValueLength());
+  }
+
+  private static void writeCell(ByteBuf buf, Cell cell) {
+    writeVarint(buf, CELL_ROW);
+    writeVarint(buf, cell.getRowLength());
+    buf.writeBytes(cell.getRowArray(), cell.getRowOffset(), cell.getRowLength());
+    writeVarint(buf, CELL_FAMILY);
+    writeVarint(buf, cell.getFamilyLength());
+    buf.writeBytes(cell.getFamilyArray(), cell.getFamilyOffset(), cell.getFamilyLength());
+    writeVarint(buf, CELL_QUALIFIER);
+    writeVarint(buf, cell.getQualifierLength());
+    buf.writeBytes(cell.getQualifierArray(), cell.getQualifierOffset(), cell.getQualifierLength());
+    writeVarint(buf, CELL_TIMESTAMP);
+    writeVarint(buf, cell.getTimestamp());
+    writeVarint(buf, CELL_TYPE);
+    writeVarint(buf, cellType(cell));
+    writeVarint(buf, CELL_VALUE);
+    writeVarint(buf, cell.getValueLength());
+    buf.writeBytes(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength());
+  }
+
+  private static int cellType(Cell cell) {
+    return cell.getTypeByte() & 0xff;
+  }
+
+  /**
+   * @return The size of a length delimited field with a single byte tag and a body of the given length.
+   */
+  private static int lengthDelimitedSize(int bodyLength) {
+    return 1 + varintSize(bodyLength) + bodyLength;
+  }
+
+  private static int varintSize(long value) {
+    int size = 1;
+    while ((value & ~0x7FL) != 0) {
+      value >>>= 7;
+      size++;
+    }
+    return size;
+  }
+
+  private static void writeVarint(ByteBuf buf, long value) {
+    while ((value & ~0x7FL) != 0) {
+      buf.writeByte((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    buf.writeByte((int) value);
+  }
+}
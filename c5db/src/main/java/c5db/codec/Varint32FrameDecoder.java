@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
+
+import java.util.List;
+
+/**
+ * Splits a stream into frames, each prefixed by its length as a protobuf varint32, like netty's
+ * ProtobufVarint32FrameDecoder; but refuses frames longer than a given size. Since the stream can not be resynchronized
+ * after a frame is refused, the connection is closed.
+ * <p>
+ * When the received bytes hold only whole frames, each frame is passed on as a retained slice of them, and the buffer
+ * is let go once they have all been read. Otherwise each frame is passed on as a copy: ByteToMessageDecoder keeps the
+ * buffer for the incomplete frame at its end, and once no slice of it is retained, may move that frame's bytes to the
+ * front of it, over the bytes of the frames before. A copy's bytes never change, so a decoder may keep views of them
+ * after releasing it (see CallDecoder).
+ */
+public class Varint32FrameDecoder extends ByteToMessageDecoder {
+  private static final int MAX_VARINT32_BYTES = 5;
+
+  private final int maxFrameLength;
+
+  // Whether the bytes of scannedBuffer, from scannedFrom up to scannedTo, were found to hold only whole frames
+  private ByteBuf scannedBuffer;
+  private int scannedFrom;
+  private int scannedTo;
+  private boolean wholeFrames;
+
+  public Varint32FrameDecoder(int maxFrameLength) {
+    this.maxFrameLength = maxFrameLength;
+  }
+
+  @Override
+  protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+    final boolean holdsOnlyWholeFrames = holdsOnlyWholeFrames(in);
+    in.markReaderIndex();
+
+    int length = 0;
+    for (int i = 0; ; i++) {
+      if (!in.isReadable()) {
+        in.resetReaderIndex();
+        return;
+      }
+      if (i == MAX_VARINT32_BYTES) {
+        throw new CorruptedFrameException("Frame length is not a valid varint32");
+      }
+      final byte b = in.readByte();
+      length |= (b & 0x7F) << (7 * i);
+      if (b >= 0) {
+        break;
+      }
+    }
+
+    if (length < 0) {
+      throw new CorruptedFrameException("Negative frame length: " + length);
+    }
+    if (length > maxFrameLength) {
+      in.skipBytes(in.readableBytes());
+      ctx.close();
+      throw new TooLongFrameException("Frame of " + length + " bytes is longer than the limit of " + maxFrameLength);
+    }
+
+    if (in.readableBytes() < length) {
+      in.resetReaderIndex();
+      return;
+    }
+    if (holdsOnlyWholeFrames) {
+      out.add(in.readSlice(length).retain());
+    } else {
+      out.add(Unpooled.copiedBuffer(in.readSlice(length)));
+    }
+    scannedFrom = in.readerIndex();
+  }
+
+  /**
+   * Whether the readable bytes of a buffer are a run of whole frames. Frames are found one at a time, so remember the
+   * answer for the next frame of the same bytes, rather than scanning the rest of them again.
+   */
+  private boolean holdsOnlyWholeFrames(ByteBuf in) {
+    if (in != scannedBuffer || in.readerIndex() != scannedFrom || in.writerIndex() != scannedTo) {
+      scannedBuffer = in;
+      scannedFrom = in.readerIndex();
+      scannedTo = in.writerIndex();
+      wholeFrames = endsOnAFrameBoundary(in);
+    }
+    return wholeFrames;
+  }
+
+  private static boolean endsOnAFrameBoundary(ByteBuf in) {
+    int index = in.readerIndex();
+    while (index < in.writerIndex()) {
+      int length = 0;
+      for (int i = 0; ; i++) {
+        if (index == in.writerIndex() || i == MAX_VARINT32_BYTES) {
+          return false;
+        }
+        final byte b = in.getByte(index++);
+        length |= (b & 0x7F) << (7 * i);
+        if (b >= 0) {
+          break;
+        }
+      }
+      if (length < 0 || length > in.writerIndex() - index) {
+        return false;
+      }
+      index += length;
+    }
+    return true;
+  }
+}
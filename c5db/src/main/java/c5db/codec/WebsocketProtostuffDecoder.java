@@ -17,12 +17,10 @@
 
 package c5db.codec;
 
-import c5db.client.generated.Call;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
-import io.protostuff.ByteBufferInput;
 
 import java.util.List;
 
@@ -40,10 +38,7 @@ public class WebsocketProtostuffDecoder extends WebSocketServerProtocolHandler {
   @Override
   protected void decode(ChannelHandlerContext ctx, WebSocketFrame frame, List<Object> out) throws Exception {
     if (frame instanceof BinaryWebSocketFrame) {
-      final ByteBufferInput input = new ByteBufferInput(frame.content().nioBuffer(), false);
-      final Call newMsg = Call.getSchema().newMessage();
-      Call.getSchema().mergeFrom(input, newMsg);
-      out.add(newMsg);
+      out.add(CallDecoder.decodeCall(frame.content()));
     } else {
       super.decode(ctx, frame, out);
     }
@@ -18,62 +18,64 @@
 package c5db.codec;
 
 import c5db.C5ServerConstants;
-import c5db.client.generated.Response;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToMessageEncoder;
 import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketFrame;
-import io.protostuff.LowCopyProtobufOutput;
 
-import java.nio.ByteBuffer;
 import java.util.List;
 
 /**
  * A specialized Protostuff encoder used to serialize Protostuff into a WebSocketStream and map them to a Response
  * object. Special care must be paid to handle chunking websocket files transparently for the user.
+ * <p>
+ * ResultResponses, which carry the results of gets and scans, skip protostuff and write themselves directly into
+ * a buffer from the channel's allocator. Large messages are split into frames which share the encoded buffer.
  */
-public class WebsocketProtostuffEncoder extends MessageToMessageEncoder<Response> {
+public class WebsocketProtostuffEncoder extends MessageToMessageEncoder<Object> {
 
   private static final long MAX_SIZE = C5ServerConstants.MAX_CONTENT_LENGTH_HTTP_AGG;
 
+  @Override
+  public boolean acceptOutboundMessage(Object msg) throws Exception {
+    return ResponseEncoder.isResponse(msg);
+  }
+
   @Override
   protected void encode(ChannelHandlerContext channelHandlerContext,
-                        Response response,
+                        Object msg,
                         List<Object> objects) throws Exception {
-    final LowCopyProtobufOutput lcpo = new LowCopyProtobufOutput();
-    Response.getSchema().writeTo(lcpo, response);
-    final long size = lcpo.buffer.size();
-    final List<ByteBuffer> buffers = lcpo.buffer.finish();
-    final ByteBuf byteBuf = Unpooled.wrappedBuffer(buffers.toArray(new ByteBuffer[buffers.size()]));
+    final ByteBuf byteBuf = ResponseEncoder.encodeResponse(channelHandlerContext.alloc(), msg);
+    final int size = byteBuf.readableBytes();
 
     if (size < MAX_SIZE) {
       final BinaryWebSocketFrame frame = new BinaryWebSocketFrame(byteBuf);
       objects.add(frame);
     } else {
-      long remaining = size;
+      int remaining = size;
       boolean first = true;
       while (remaining > 0) {
         WebSocketFrame frame;
         if (remaining > MAX_SIZE) {
+          final ByteBuf slice = byteBuf.slice(size - remaining, (int) MAX_SIZE).retain();
           if (first) {
-            final ByteBuf slice = byteBuf.copy((int) (size - remaining), (int) MAX_SIZE);
             frame = new BinaryWebSocketFrame(false, 0, slice);
             first = false;
           } else {
-            final ByteBuf slice = byteBuf.copy((int) (size - remaining), (int) MAX_SIZE);
             frame = new ContinuationWebSocketFrame(false, 0, slice);
           }
           remaining -= MAX_SIZE;
         } else {
-          final ByteBuf slice = byteBuf.copy((int) (size - remaining), (int) remaining);
+          final ByteBuf slice = byteBuf.slice(size - remaining, remaining).retain();
           frame = new ContinuationWebSocketFrame(true, 0, slice);
           remaining = 0;
         }
         objects.add(frame);
       }
+      // Each frame holds its own reference to the buffer
+      byteBuf.release();
     }
   }
 }
@@ -17,12 +17,14 @@
 
 package c5db.interfaces;
 
+import c5db.interfaces.tablet.RegionDescription;
 import c5db.interfaces.tablet.Tablet;
 import c5db.interfaces.tablet.TabletStateChange;
 import c5db.messages.generated.ModuleType;
 import org.apache.hadoop.hbase.regionserver.HRegion;
 import org.jetlang.channels.Channel;
 
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
@@ -40,7 +42,42 @@ import java.util.concurrent.ExecutionException;
 @ModuleTypeBinding(ModuleType.Tablet)
 public interface TabletModule extends C5Module {
 
-  public HRegion getTablet(String tabletName);
+  /**
+   * Find an online region by the name a request used for it: the region's full name, its encoded name, or the name of
+   * its table, meaning the table's first region. This is on the path of every request, so it takes constant time and
+   * allocates nothing.
+   *
+   * @param regionName The name; its remaining bytes are used, and its position is not changed
+   * @return The region, or null if it is not online here
+   */
+  public HRegion getOnlineRegion(ByteBuffer regionName);
+
+  /**
+   * Find the online tablet serving the given region, or null if there isn't one. Regions are named as for
+   * getOnlineRegion.
+   */
+  public Tablet getOnlineTablet(ByteBuffer regionName);
+
+  /**
+   * Find the description to give clients of an online region, or null if it is not online here. Regions are named as
+   * for getOnlineRegion. The description is made when the region's tablet changes state, not on each call.
+   */
+  public RegionDescription getOnlineRegionDescription(ByteBuffer regionName);
+
+  /**
+   * Find the online region of a table which holds a row. Like getOnlineRegion this takes constant time, apart from a
+   * binary search over the table's regions, and allocates nothing.
+   *
+   * @param tableName The table's name; its remaining bytes are used, and its position is not changed
+   * @param row       The row; likewise
+   * @return The region, or null if the region holding the row is not online here
+   */
+  public HRegion getOnlineRegionForRow(ByteBuffer tableName, ByteBuffer row);
+
+  /**
+   * Find the online tablet serving the region of a table which holds a row, or null if there isn't one.
+   */
+  public Tablet getOnlineTabletForRow(ByteBuffer tableName, ByteBuffer row);
 
   // TODO this interface is not strong enough. Need HRegionInfo etc.
   public void startTablet(List<Long> peers, String tabletName);
@@ -25,12 +25,15 @@ import c5db.replication.ReplicatorInstance;
 public class IndexCommitNotice {
   public final ReplicatorInstance replicatorInstance;
   public final long committedIndex;
+  // The replicator's term at the time the index became visible.
+  public final long term;
   public final QuorumConfiguration quorumConfig;
 
-  public IndexCommitNotice(ReplicatorInstance replicatorInstance, long committedIndex,
+  public IndexCommitNotice(ReplicatorInstance replicatorInstance, long committedIndex, long term,
                            QuorumConfiguration quorumConfig) {
     this.replicatorInstance = replicatorInstance;
     this.committedIndex = committedIndex;
+    this.term = term;
     this.quorumConfig = quorumConfig;
   }
 
@@ -39,6 +42,7 @@ public class IndexCommitNotice {
     return "IndexCommitNotice{" +
         "replicatorInstance=" + replicatorInstance +
         ", committedIndex=" + committedIndex +
+        ", term=" + term +
         ", quorumConfig=" + quorumConfig +
         '}';
   }
@@ -18,6 +18,7 @@
 package c5db.interfaces.replication;
 
 import c5db.replication.QuorumConfiguration;
+import c5db.replication.generated.LogEntry;
 import com.google.common.util.concurrent.ListenableFuture;
 import org.jetlang.channels.Channel;
 
@@ -61,6 +62,43 @@ public interface Replicator {
 
   boolean isLeader();
 
+  /**
+   * @return The id of the peer this replicator last heard from as the quorum's leader, or 0 if it has heard from none.
+   * A leader does not count itself, so check isLeader() first.
+   */
+  long getLeader();
+
+  /**
+   * Hand leadership of the quorum to another peer, e.g. before a planned restart. The leader stops
+   * accepting new data, waits for the target to catch up, then tells it to start an election at once.
+   * If that doesn't happen within an election timeout, the leader resumes accepting data.
+   *
+   * @param targetPeerId The peer to become leader, or 0 to pick the most up to date peer.
+   * @return a future which will return true once this replicator has stepped down, or false if it
+   * is not the leader, or the transfer could not be started or did not complete in time.
+   */
+  ListenableFuture<Boolean> transferLeadership(long targetPeerId);
+
+  /**
+   * How far behind the leader a reader of this replica could be, given that the local state machine
+   * has applied every entry up to and including appliedIndex.
+   *
+   * @param appliedIndex The last log index applied locally.
+   * @return 0 if this replicator is the leader; otherwise the number of milliseconds since the leader
+   * last reported a commit index no greater than appliedIndex, or Long.MAX_VALUE if that is unknown.
+   */
+  long getStalenessMillis(long appliedIndex);
+
+  /**
+   * Read back committed entries from the log, e.g. to apply them to a follower's state machine.
+   *
+   * @param start The first index to read (inclusive)
+   * @param end   The last index to read (exclusive)
+   * @return a future for the entries from start up to the lesser of end and the last committed index,
+   * in index order; empty if none of the range has been committed.
+   */
+  ListenableFuture<List<LogEntry>> getCommittedEntries(long start, long end);
+
   void start();
 
   Channel<State> getStateChannel();
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.interfaces.tablet;
+
+import c5db.client.generated.RegionInfo;
+import io.protostuff.LinkedBuffer;
+import io.protostuff.ProtobufIOUtil;
+
+/**
+ * How an online region describes itself to clients, in responses to requests which named it by table and row: its
+ * key range, table, peers and leader. Made once each time the region's tablet changes state, and encoded at the same
+ * time, so that responses can carry it without building or encoding it again.
+ * <p>
+ * Neither the RegionInfo nor the encoding may be modified.
+ */
+public final class RegionDescription {
+  private final RegionInfo regionInfo;
+  private final byte[] encoded;
+
+  public RegionDescription(RegionInfo regionInfo) {
+    this.regionInfo = regionInfo;
+    this.encoded = ProtobufIOUtil.toByteArray(regionInfo, RegionInfo.getSchema(), LinkedBuffer.allocate(256));
+  }
+
+  public RegionInfo getRegionInfo() {
+    return regionInfo;
+  }
+
+  /**
+   * @return The RegionInfo, encoded as a protobuf message
+   */
+  public byte[] getEncoded() {
+    return encoded;
+  }
+}
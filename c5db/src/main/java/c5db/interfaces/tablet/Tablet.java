@@ -43,6 +43,18 @@ public interface Tablet {
 
   Region getRegion();
 
+  /**
+   * @return how many milliseconds behind the quorum leader reads against this tablet may be;
+   * 0 if this tablet is the leader, Long.MAX_VALUE if it is unknown.
+   */
+  long getStalenessMillis();
+
+  /**
+   * @return the node id of the quorum leader as this tablet last heard of it, or 0 if it has not heard of one; a
+   * tablet in the Leader state is its own leader, whatever this returns.
+   */
+  long getLeader();
+
   void setStateChangeChannel(Channel<TabletStateChange> stateChangeChannel);
 
   enum State {
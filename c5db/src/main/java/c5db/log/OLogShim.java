@@ -214,7 +214,8 @@ public class OLogShim implements Syncable, HLog {
           ByteBuffer.wrap(edit.getFamily()),
           ByteBuffer.wrap(edit.getQualifier()),
           ByteBuffer.wrap(edit.getValue()),
-          edit.getTimestamp());
+          edit.getTimestamp(),
+          edit.getTypeByte() & 0xff);
       try {
         // our replicator knows what quorumId/tabletId we are.
         replicatorInstance.logData(serializeEntry(entry));
@@ -21,126 +21,417 @@ import c5db.client.generated.Action;
 import c5db.client.generated.Call;
 import c5db.client.generated.Condition;
 import c5db.client.generated.Get;
-import c5db.client.generated.GetResponse;
-import c5db.client.generated.MultiRequest;
 import c5db.client.generated.MultiResponse;
 import c5db.client.generated.MutateRequest;
 import c5db.client.generated.MutateResponse;
 import c5db.client.generated.MutationProto;
+import c5db.client.generated.NameBytesPair;
 import c5db.client.generated.RegionAction;
+import c5db.client.generated.RegionActionResult;
+import c5db.client.generated.RegionInfo;
+import c5db.client.generated.RegionSpecifier;
 import c5db.client.generated.Response;
+import c5db.client.generated.ResultOrException;
 import c5db.client.generated.ScanRequest;
+import c5db.codec.ResultResponse;
+import c5db.interfaces.tablet.RegionDescription;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.NotServingRegionException;
+import org.apache.hadoop.hbase.client.Mutation;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.RowMutations;
 import org.apache.hadoop.hbase.filter.ByteArrayComparable;
 import org.apache.hadoop.hbase.filter.CompareFilter;
 import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.regionserver.OperationStatus;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.jetlang.channels.Channel;
 import org.jetlang.channels.MemoryChannel;
 import org.jetlang.fibers.Fiber;
-import org.jetlang.fibers.ThreadFiber;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * The main netty handler for the RegionServer functionality. Maps protocol buffer calls to an action against a HRegion
- * and then provides a response to the caller.
+ * and then provides a response to the caller. Gets and mutations are handed to a RegionRequestDispatcher rather than
+ * run on the netty event loop; scans already run on a fiber of their own. Each response is written as soon as its
+ * call completes, so responses may not be in the order the calls arrived; the caller matches them up by commandId.
  */
 public class C5ServerHandler extends SimpleChannelInboundHandler<Call> {
   private static final Logger LOG = LoggerFactory.getLogger(C5ServerHandler.class);
   private final RegionServerService regionServerService;
-  private final ScannerManager scanManager = ScannerManager.INSTANCE;
+  private final RegionRequestDispatcher dispatcher;
+  private final ScannerManager scanManager;
 
   public C5ServerHandler(RegionServerService myService) {
     this.regionServerService = myService;
+    this.dispatcher = myService.getRequestDispatcher();
+    this.scanManager = myService.getScannerManager();
   }
 
+  /**
+   * Every call gets a response, even one which could not be dispatched; CallFlowControlHandler counts a call as in
+   * flight until its response is written.
+   */
   @Override
   public void channelRead0(final ChannelHandlerContext ctx,
                            final Call call)
       throws Exception {
-    switch (call.getCommand()) {
-      case GET:
-        get(ctx, call);
-        break;
-      case MUTATE:
-        mutate(ctx, call);
-        break;
-      case SCAN:
-        scan(ctx, call);
-        break;
-      case MULTI:
-        multi(ctx, call);
-        break;
-      default:
-        LOG.error("Unsupported command:" + call.getCommand());
-        LOG.error("Call:" + call);
-        break;
+    try {
+      switch (call.getCommand()) {
+        case GET:
+          dispatcher.read(ctx, call, () -> get(call));
+          break;
+        case MUTATE:
+          dispatchMutate(ctx, call);
+          break;
+        case SCAN:
+          scan(ctx, call);
+          break;
+        case MULTI:
+          multi(ctx, call);
+          break;
+        default:
+          LOG.error("Unsupported command {} in call {}", call.getCommand(), call);
+          ctx.writeAndFlush(RegionRequestDispatcher.errorResponse(call,
+              new IOException("Unsupported command " + call.getCommand())));
+          break;
+      }
+    } catch (Exception e) {
+      LOG.error("Error dispatching {} {}", call.getCommand(), call.getCommandId(), e);
+      ctx.writeAndFlush(RegionRequestDispatcher.errorResponse(call, e));
+    }
+  }
+
+  /**
+   * Anything which reaches here could not be tied to a call, such as a message which could not be decoded; the
+   * connection can no longer be trusted, so close it.
+   */
+  @Override
+  public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+    LOG.error("Closing connection to {}", ctx.channel().remoteAddress(), cause);
+    ctx.close();
+  }
+
+  private static String regionName(RegionSpecifier regionSpecifier) {
+    return Bytes.toString(ReverseProtobufUtil.toBytes(regionSpecifier.getValue()));
+  }
+
+  /**
+   * Writes to a region are queued by its encoded name, which every way of naming the region resolves to, and which
+   * the region caches. Writes naming a region which is not online are queued by the name they used, and fail there.
+   */
+  private static String writeQueueName(HRegion region, RegionSpecifier regionSpecifier) {
+    return region == null ? regionName(regionSpecifier) : region.getRegionInfo().getEncodedName();
+  }
+
+  /**
+   * Each RegionAction in a multi is dispatched on its own, so that actions for different regions run in parallel;
+   * the response is sent once they have all finished, with one RegionActionResult per RegionAction, in order.
+   */
+  private void multi(ChannelHandlerContext ctx, Call call) {
+    final List<RegionAction> regionActions = call.getMulti().getRegionActionList();
+    final List<ListenableFuture<RegionActionResult>> resultFutures = new ArrayList<>();
+    if (regionActions != null) {
+      for (RegionAction regionAction : regionActions) {
+        resultFutures.add(dispatchRegionAction(regionAction));
+      }
+    }
+
+    final ListenableFuture<Response> responseFuture = Futures.transform(Futures.allAsList(resultFutures),
+        (Function<List<RegionActionResult>, Response>) results -> new Response(Response.Command.MULTI,
+            call.getCommandId(),
+            null,
+            null,
+            null,
+            new MultiResponse(results),
+            null,
+            null));
+    RegionRequestDispatcher.respondWhenDone(ctx, call, responseFuture);
+  }
+
+  /**
+   * A RegionAction naming its region by table may hold actions for rows in several of the table's regions, since the
+   * client may not know where their boundaries are. Unless it is atomic, which makes it a single row, its actions are
+   * grouped by the region holding each one's row, and each group is dispatched on its own; an action whose region is
+   * not online here fails with NotServingRegionException, so the client can send it elsewhere. The groups' results
+   * are put back together into one RegionActionResult, in the order the actions were given, describing every region
+   * the groups went to.
+   */
+  private ListenableFuture<RegionActionResult> dispatchRegionAction(RegionAction regionAction) {
+    final List<Action> actions = actionsOf(regionAction);
+    if (regionAction.getAtomic()
+        || regionAction.getRegion().getType() != RegionSpecifier.RegionSpecifierType.TABLE_NAME) {
+      return dispatchActions(regionAction, actions);
+    }
+
+    final Map<HRegion, List<Integer>> positionsByRegion = new LinkedHashMap<>();
+    for (int i = 0; i < actions.size(); i++) {
+      final HRegion region = regionServerService.getOnlineRegion(regionAction.getRegion(), rowOf(actions.get(i)));
+      positionsByRegion.computeIfAbsent(region, (key) -> new ArrayList<>()).add(i);
+    }
+    if (positionsByRegion.size() <= 1) {
+      return dispatchActions(regionAction, actions);
+    }
+
+    final List<List<Integer>> groups = new ArrayList<>(positionsByRegion.values());
+    final List<ListenableFuture<RegionActionResult>> groupResults = new ArrayList<>(groups.size());
+    for (List<Integer> positions : groups) {
+      final List<Action> groupActions = new ArrayList<>(positions.size());
+      for (int position : positions) {
+        groupActions.add(actions.get(position));
+      }
+      groupResults.add(dispatchActions(regionAction, groupActions));
+    }
+
+    return Futures.transform(Futures.allAsList(groupResults),
+        (Function<List<RegionActionResult>, RegionActionResult>) (results) -> {
+          final ResultOrException[] merged = new ResultOrException[actions.size()];
+          final List<RegionInfo> regions = new ArrayList<>();
+          for (int g = 0; g < groups.size(); g++) {
+            final RegionActionResult groupResult = results.get(g);
+            if (groupResult.getRegionList() != null) {
+              regions.addAll(groupResult.getRegionList());
+            }
+            final List<Integer> positions = groups.get(g);
+            for (int a = 0; a < positions.size(); a++) {
+              final int position = positions.get(a);
+              merged[position] = groupResult.getException() == null
+                  ? groupResult.getResultOrExceptionList().get(a)
+                  : new ResultOrException(actions.get(position).getIndex(), null, groupResult.getException());
+            }
+          }
+          return new RegionActionResult(Arrays.asList(merged), null, regions);
+        });
+  }
+
+  /**
+   * Actions containing any mutations run in the region's write queue; only gets run as a read. If they fail as a
+   * whole, the result carries the exception instead of per-action results. Either way, if the actions named their
+   * region by table, the result describes the region, naming its leader; so a client whose actions were refused by a
+   * follower, or went to a seed server, learns where to send them next.
+   */
+  private ListenableFuture<RegionActionResult> dispatchActions(RegionAction regionAction, List<Action> actions) {
+    final HRegion region = regionServerService.getOnlineRegion(regionAction.getRegion(), rowOf(actions));
+    final List<RegionInfo> regions = new ArrayList<>();
+    final RegionInfo description = regionInfo(regionServerService.describeRegion(regionAction.getRegion(), region));
+    if (description != null) {
+      regions.add(description);
+    }
+
+    final ListenableFuture<RegionActionResult> resultFuture;
+    if (actions.stream().anyMatch((action) -> action.getMutation() != null)) {
+      resultFuture = dispatcher.submitWrite(writeQueueName(region, regionAction.getRegion()),
+          () -> mutateRegion(regionAction, actions));
+    } else {
+      resultFuture = dispatcher.submitRead(() -> readRegion(regionAction, actions));
+    }
+
+    final ListenableFuture<RegionActionResult> describedFuture = Futures.transform(resultFuture,
+        (Function<RegionActionResult, RegionActionResult>) (result) ->
+            new RegionActionResult(result.getResultOrExceptionList(), result.getException(), regions));
+    return Futures.withFallback(describedFuture, (t) -> {
+      LOG.error("Error running actions against region {}", regionName(regionAction.getRegion()), t);
+      return Futures.immediateFuture(
+          new RegionActionResult(new ArrayList<>(), ReverseProtobufUtil.toException(t), regions));
+    });
+  }
+
+  private static List<Action> actionsOf(RegionAction regionAction) {
+    final List<Action> actions = regionAction.getActionList();
+    return actions == null ? new ArrayList<>() : actions;
+  }
+
+  /**
+   * The row which routes actions naming their region by table: that of the first. dispatchRegionAction has already
+   * grouped them by region, and the region rejects any action for a row outside it.
+   */
+  private static ByteBuffer rowOf(List<Action> actions) {
+    return actions.isEmpty() ? null : rowOf(actions.get(0));
+  }
+
+  private static ByteBuffer rowOf(Action action) {
+    if (action.getMutation() != null) {
+      return action.getMutation().getRow();
+    }
+    return action.getGet() == null ? null : action.getGet().getRow();
+  }
+
+  private RegionActionResult mutateRegion(RegionAction regionAction, List<Action> actions) throws IOException {
+    final HRegion region = regionServerService.getWritableRegion(regionAction.getRegion(), rowOf(actions));
+    if (regionAction.getAtomic()) {
+      return atomicMutateRow(region, actions);
+    } else {
+      return nonAtomicRegionAction(region, actions);
     }
   }
 
-  private void multi(ChannelHandlerContext ctx, Call call)
-      throws IOException {
-    final MultiRequest request = call.getMulti();
-    final MultiResponse multiResponse = new MultiResponse();
-    final List<MutationProto> mutations = new ArrayList<>();
+  private RegionActionResult readRegion(RegionAction regionAction, List<Action> actions) throws IOException {
+    final HRegion region = regionServerService.getReadableRegion(regionAction.getRegion(), rowOf(actions),
+        regionAction.getMaxStalenessMs());
+    return nonAtomicRegionAction(region, actions);
+  }
 
-    for (RegionAction regionAction : request.getRegionActionList()) {
-      for (Action actionUnion : regionAction.getActionList()) {
-        if (actionUnion.getMutation() != null) {
-          mutations.add(actionUnion.getMutation());
+  /**
+   * Apply all the mutations of an atomic RegionAction, which must all be puts or deletes to one row, together.
+   */
+  private static RegionActionResult atomicMutateRow(HRegion region, List<Action> actions) throws IOException {
+    final List<ResultOrException> results = new ArrayList<>();
+    RowMutations rm = null;
+    for (Action action : actions) {
+      final MutationProto mutate = action.getMutation();
+      if (mutate == null) {
+        throw new IOException("Unsupported atomic action type: " + action);
+      }
+      if (rm == null) {
+        rm = new RowMutations(ReverseProtobufUtil.toBytes(mutate.getRow()));
+      }
+      final MutationProto.MutationType type = mutate.getMutateType();
+      switch (type) {
+        case PUT:
+          rm.add(ReverseProtobufUtil.toPut(mutate));
+          break;
+        case DELETE:
+          rm.add(ReverseProtobufUtil.toDelete(mutate));
+          break;
+        default:
+          throw new IOException("mutate supports atomic put and/or delete, not " + type.name());
+      }
+      results.add(new ResultOrException(action.getIndex(), null, null));
+    }
+    if (rm != null) {
+      region.mutateRow(rm);
+    }
+    return new RegionActionResult(results, null, null);
+  }
+
+  /**
+   * Run each get as it comes, and apply all the mutations together in one batchMutate at the end, as HBase does for
+   * a non-atomic RegionAction. Each action gets its own result or exception, in the order the actions were given.
+   */
+  private static RegionActionResult nonAtomicRegionAction(HRegion region, List<Action> actions) {
+    final ResultOrException[] results = new ResultOrException[actions.size()];
+    final List<Integer> mutationPositions = new ArrayList<>();
+    final List<Mutation> mutations = new ArrayList<>();
+
+    for (int i = 0; i < actions.size(); i++) {
+      final Action action = actions.get(i);
+      try {
+        if (action.getMutation() != null) {
+          mutations.add(toMutation(action.getMutation()));
+          mutationPositions.add(i);
+        } else if (action.getGet() != null) {
+          results[i] = new ResultOrException(action.getIndex(), getFromRegion(region, action.getGet()), null);
         } else {
-          throw new IOException("Unsupported atomic action type: " + actionUnion);
+          throw new IOException("Action contains neither a get nor a mutation");
         }
+      } catch (IOException e) {
+        results[i] = new ResultOrException(action.getIndex(), null, ReverseProtobufUtil.toException(e));
       }
     }
+
     if (!mutations.isEmpty()) {
-      final MutationProto firstMutate = mutations.get(0);
-      final byte[] row = firstMutate.getRow().array();
-      final RowMutations rm = new RowMutations(row);
-      for (MutationProto mutate : mutations) {
-        final MutationProto.MutationType type = mutate.getMutateType();
-        switch (mutate.getMutateType()) {
-          case PUT:
-            rm.add(ReverseProtobufUtil.toPut(mutate));
-            break;
-          case DELETE:
-            rm.add(ReverseProtobufUtil.toDelete(mutate));
-            break;
-          default:
-            throw new RuntimeException(
-                "mutate supports atomic put and/or delete, not "
-                    + type.name()
-            );
+      OperationStatus[] statuses;
+      try {
+        statuses = region.batchMutate(mutations.toArray(new Mutation[mutations.size()]));
+      } catch (IOException e) {
+        statuses = null;
+        for (int position : mutationPositions) {
+          results[position] =
+              new ResultOrException(actions.get(position).getIndex(), null, ReverseProtobufUtil.toException(e));
         }
       }
-      final HRegion region = regionServerService.getOnlineRegion(request.getRegionActionList().get(0).getRegion());
-      region.mutateRow(rm);
+      for (int m = 0; statuses != null && m < statuses.length; m++) {
+        final int position = mutationPositions.get(m);
+        final NameBytesPair exception =
+            statuses[m].getOperationStatusCode() == HConstants.OperationStatusCode.SUCCESS
+                ? null
+                : ReverseProtobufUtil.toException(new IOException(statuses[m].getExceptionMsg()));
+        results[position] = new ResultOrException(actions.get(position).getIndex(), null, exception);
+      }
+    }
+
+    return new RegionActionResult(Arrays.asList(results), null, null);
+  }
+
+  private static Mutation toMutation(MutationProto mutate) throws IOException {
+    switch (mutate.getMutateType()) {
+      case PUT:
+        return ReverseProtobufUtil.toPut(mutate);
+      case DELETE:
+        return ReverseProtobufUtil.toDelete(mutate);
+      default:
+        throw new IOException("multi supports put and/or delete, not " + mutate.getMutateType().name());
+    }
+  }
+
+  /**
+   * Simple puts and deletes are handed to the dispatcher to be applied in a batch with any others queued for the
+   * same region; conditional mutations each need their own check, so they run one at a time, as do mutations of a
+   * region this node does not lead, for mutate() to reject.
+   */
+  private void dispatchMutate(ChannelHandlerContext ctx, Call call) {
+    final MutateRequest mutateIn = call.getMutate();
+    HRegion region;
+    try {
+      region = regionServerService.getWritableRegion(mutateIn.getRegion(), mutateIn.getMutation().getRow());
+    } catch (NotServingRegionException e) {
+      region = null;
+    }
+    final String regionName = writeQueueName(region, mutateIn.getRegion());
+    final Mutation mutation = region == null ? null : toSimpleMutation(mutateIn);
+
+    if (mutation != null) {
+      dispatcher.mutate(regionName, region, ctx, call, mutation,
+          regionInfo(regionServerService.describeRegion(mutateIn.getRegion(), region)));
+    } else {
+      dispatcher.write(regionName, ctx, call, () -> mutate(call));
+    }
+  }
+
+  /**
+   * @return The Put or Delete for an unconditional mutation, or null if the mutation is conditional or can
+   * not be converted (in which case mutate() reports the failure).
+   */
+  private static Mutation toSimpleMutation(MutateRequest mutateIn) {
+    if (mutateIn.getCondition().getRow() != null) {
+      return null;
+    }
+    try {
+      switch (mutateIn.getMutation().getMutateType()) {
+        case PUT:
+          return ReverseProtobufUtil.toPut(mutateIn.getMutation());
+        case DELETE:
+          return ReverseProtobufUtil.toDelete(mutateIn.getMutation());
+        default:
+          return null;
+      }
+    } catch (IOException e) {
+      return null;
     }
-    final Response response = new Response(Response.Command.MULTI,
-        call.getCommandId(),
-        null,
-        null,
-        null,
-        multiResponse);
-    ctx.writeAndFlush(response);
   }
 
-  private void mutate(ChannelHandlerContext ctx, Call call) {
+  private Response mutate(Call call) {
     boolean success;
     final MutateRequest mutateIn = call.getMutate();
     MutateResponse mutateResponse;
+    RegionInfo regionInfo = null;
     try {
-      final HRegion region = regionServerService.getOnlineRegion(call.getMutate().getRegion());
-      if (region == null) {
-        throw new IOException("Unable to find region");
-      }
+      final HRegion region =
+          regionServerService.getWritableRegion(mutateIn.getRegion(), mutateIn.getMutation().getRow());
       final MutationProto.MutationType type = mutateIn.getMutation().getMutateType();
       switch (type) {
         case PUT:
@@ -164,26 +455,34 @@ public class C5ServerHandler extends SimpleChannelInboundHandler<Call> {
           );
       }
       mutateResponse = new MutateResponse(null, success);
+      regionInfo = regionInfo(regionServerService.describeRegion(mutateIn.getRegion(), region));
+    } catch (NotServingRegionException e) {
+      return RegionRequestDispatcher.errorResponse(call, e);
     } catch (IOException e) {
       mutateResponse = new MutateResponse(null, false);
       LOG.error(e.getLocalizedMessage());
     }
 
-    final Response response = new Response(Response.Command.MUTATE,
+    return new Response(Response.Command.MUTATE,
         call.getCommandId(),
         null,
         mutateResponse,
         null,
-        null);
-    ctx.writeAndFlush(response);
+        null,
+        null,
+        regionInfo);
+  }
+
+  private static RegionInfo regionInfo(RegionDescription description) {
+    return description == null ? null : description.getRegionInfo();
   }
 
   private boolean checkAndDelete(MutateRequest mutateIn, HRegion region) throws IOException {
     boolean success;
     final Condition condition = mutateIn.getCondition();
-    final byte[] row = condition.getRow().array();
-    final byte[] cf = condition.getFamily().array();
-    final byte[] cq = condition.getQualifier().array();
+    final byte[] row = ReverseProtobufUtil.toBytes(condition.getRow());
+    final byte[] cf = ReverseProtobufUtil.toBytes(condition.getFamily());
+    final byte[] cq = ReverseProtobufUtil.toBytes(condition.getQualifier());
 
     final CompareFilter.CompareOp compareOp = CompareFilter.CompareOp.valueOf(condition.getCompareType().name());
     final ByteArrayComparable comparator = ReverseProtobufUtil.toComparator(condition.getComparator());
@@ -211,9 +510,9 @@ public class C5ServerHandler extends SimpleChannelInboundHandler<Call> {
   private boolean checkAndPut(MutateRequest mutateIn, HRegion region) throws IOException {
     boolean success;
     final Condition condition = mutateIn.getCondition();
-    final byte[] row = condition.getRow().array();
-    final byte[] cf = condition.getFamily().array();
-    final byte[] cq = condition.getQualifier().array();
+    final byte[] row = ReverseProtobufUtil.toBytes(condition.getRow());
+    final byte[] cf = ReverseProtobufUtil.toBytes(condition.getFamily());
+    final byte[] cq = ReverseProtobufUtil.toBytes(condition.getQualifier());
 
     final CompareFilter.CompareOp compareOp = CompareFilter.CompareOp.valueOf(condition.getCompareType().name());
     final ByteArrayComparable comparator = ReverseProtobufUtil.toComparator(condition.getComparator());
@@ -238,64 +537,80 @@ public class C5ServerHandler extends SimpleChannelInboundHandler<Call> {
     return true;
   }
 
-  private void scan(ChannelHandlerContext ctx, Call call) throws IOException {
+  /**
+   * Open a scanner, ask an open one for more rows, or close one early. Rows are sent by the scanner's ScanRunnable;
+   * errors in opening or finding the scanner are reported here.
+   */
+  private void scan(ChannelHandlerContext ctx, Call call) {
+    try {
+      openOrContinueScan(ctx, call);
+    } catch (IOException e) {
+      LOG.error("Error running scan {}", call.getCommandId(), e);
+      ctx.writeAndFlush(RegionRequestDispatcher.errorResponse(call, e));
+    }
+  }
+
+  private void openOrContinueScan(ChannelHandlerContext ctx, Call call) throws IOException {
     final ScanRequest scanIn = call.getScan();
-    final long scannerId;
-    scannerId = getScannerId(scanIn);
+    if (scanIn.getCloseScanner()) {
+      scanManager.closeScanner(scanIn.getScannerId());
+      return;
+    }
+
     final Integer numberOfRowsToSend = scanIn.getNumberOfRows();
-    Channel<Integer> channel = scanManager.getChannel(scannerId);
-    // New Scanner
-    if (null == channel) {
-      final Fiber fiber = new ThreadFiber();
-      fiber.start();
-      channel = new MemoryChannel<>();
-      HRegion region = regionServerService.getOnlineRegion(call.getScan().getRegion());
-      if (region == null) {
-        throw new IOException("Unable to find region");
+    if (scanIn.getScannerId() > 0) {
+      final Channel<Integer> channel = scanManager.getChannel(scanIn.getScannerId());
+      if (channel == null) {
+        throw new IOException("Unknown scanner " + scanIn.getScannerId() + "; it may have expired");
       }
-      final ScanRunnable scanRunnable = new ScanRunnable(ctx, call, scannerId, region);
-      channel.subscribe(fiber, scanRunnable);
-      scanManager.addChannel(scannerId, channel);
+      channel.publish(numberOfRowsToSend);
+      return;
     }
-    channel.publish(numberOfRowsToSend);
-  }
 
-  private long getScannerId(ScanRequest scanIn) {
-    long scannerId;
-    if (scanIn.getScannerId() > 0) {
-      scannerId = scanIn.getScannerId();
-    } else {
-      // Make a scanner with an Id not 0
-      do {
-        scannerId = System.currentTimeMillis();
-      } while (scannerId == 0);
+    // New Scanner
+    final long scannerId = scanManager.nextScannerId();
+    final ByteBuffer startRow = scanIn.getScan() == null ? null : scanIn.getScan().getStartRow();
+    final HRegion region = regionServerService.getReadableRegion(scanIn.getRegion(), startRow,
+        scanIn.getMaxStalenessMs());
+    final Fiber fiber = regionServerService.getScannerFiberFactory().create();
+    final ScanRunnable scanRunnable;
+    try {
+      scanRunnable = new ScanRunnable(ctx, call, scannerId, region, fiber, scanManager,
+          regionServerService.describeRegion(scanIn.getRegion(), region));
+    } catch (IOException e) {
+      fiber.dispose();
+      throw e;
+    }
+    final Channel<Integer> channel = new MemoryChannel<>();
+    if (!scanManager.addChannel(scannerId, channel, () -> fiber.execute(scanRunnable::closeScanner))) {
+      fiber.execute(scanRunnable::closeScanner);
+      fiber.start();
+      throw new IOException("Too many open scanners");
     }
-    return scannerId;
+    fiber.start();
+    channel.subscribe(fiber, scanRunnable);
+    channel.publish(numberOfRowsToSend);
   }
 
-  private void get(ChannelHandlerContext ctx, Call call) throws IOException {
+  private ResultResponse get(Call call) throws IOException {
     final Get getIn = call.getGet().getGet();
 
-    final HRegion region = regionServerService.getOnlineRegion(call.getGet().getRegion());
+    final HRegion region = regionServerService.getReadableRegion(call.getGet().getRegion(), getIn.getRow(),
+        call.getGet().getMaxStalenessMs());
+    final Result regionResult = region.get(ReverseProtobufUtil.toGet(getIn));
+    final boolean exists = regionResult.getExists() != null && regionResult.getExists();
+    return ResultResponse.forGet(call.getCommandId(), regionResult.rawCells(), exists, getIn.getExistenceOnly(),
+        regionServerService.describeRegion(call.getGet().getRegion(), region));
+  }
+
+  private static c5db.client.generated.Result getFromRegion(HRegion region, Get getIn) throws IOException {
     final org.apache.hadoop.hbase.client.Get serverGet = ReverseProtobufUtil.toGet(getIn);
-    if (region == null) {
-      throw new IOException("Unable to find region");
-    }
     final Result regionResult = region.get(serverGet);
-    final c5db.client.generated.Result result;
 
     if (getIn.getExistenceOnly()) {
-      result = new c5db.client.generated.Result(new ArrayList<>(), 0, regionResult.getExists());
+      return new c5db.client.generated.Result(new ArrayList<>(), 0, regionResult.getExists());
     } else {
-      result = ReverseProtobufUtil.toResult(regionResult);
+      return ReverseProtobufUtil.toResult(regionResult);
     }
-    final GetResponse getResponse = new GetResponse(result);
-    final Response response = new Response(Response.Command.GET, call.getCommandId(), getResponse, null, null, null);
-    ctx.writeAndFlush(response);
-  }
-
-  @Override
-  public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
-    ctx.flush();
   }
 }
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.regionserver;
+
+import c5db.client.generated.Call;
+import c5db.client.generated.Response;
+import c5db.codec.ResultResponse;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+/**
+ * Sits in front of C5ServerHandler to let one connection carry many calls at once. Responses complete out of order,
+ * on whichever thread ran the call, and each is written with writeAndFlush; this handler turns those flushes into
+ * one flush per batch of responses, and limits how many calls a connection may have in flight.
+ * <p>
+ * Flushes requested while the channel is reading are deferred until channelReadComplete; flushes requested at
+ * other times are deferred to the end of the event loop's current batch of tasks, so that responses written from
+ * worker threads at around the same time share a single flush.
+ * <p>
+ * Once a connection has maxInFlightCalls calls awaiting a response, it stops reading from the socket until
+ * half of them have been answered. Scans are not counted, as they are long-lived and produce any number of
+ * responses. All state is confined to the channel's event loop.
+ */
+public class CallFlowControlHandler extends ChannelDuplexHandler {
+  private final int maxInFlightCalls;
+  private final int resumeReadingAtInFlightCalls;
+
+  private int inFlightCalls = 0;
+  private boolean readInProgress = false;
+  private boolean flushPending = false;
+  private boolean flushScheduled = false;
+
+  public CallFlowControlHandler(int maxInFlightCalls) {
+    this.maxInFlightCalls = maxInFlightCalls;
+    this.resumeReadingAtInFlightCalls = maxInFlightCalls / 2;
+  }
+
+  @Override
+  public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+    readInProgress = true;
+    if (msg instanceof Call && ((Call) msg).getCommand() != Call.Command.SCAN) {
+      inFlightCalls++;
+      if (inFlightCalls >= maxInFlightCalls) {
+        ctx.channel().config().setAutoRead(false);
+      }
+    }
+    ctx.fireChannelRead(msg);
+  }
+
+  @Override
+  public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+    readInProgress = false;
+    if (flushPending) {
+      flushPending = false;
+      ctx.flush();
+    }
+    ctx.fireChannelReadComplete();
+  }
+
+  @Override
+  public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+    if (isResponseToCountedCall(msg)) {
+      inFlightCalls--;
+      if (inFlightCalls <= resumeReadingAtInFlightCalls && !ctx.channel().config().isAutoRead()) {
+        ctx.channel().config().setAutoRead(true);
+      }
+    }
+    ctx.write(msg, promise);
+  }
+
+  @Override
+  public void flush(ChannelHandlerContext ctx) throws Exception {
+    if (readInProgress) {
+      flushPending = true;
+      return;
+    }
+    if (flushScheduled) {
+      return;
+    }
+
+    // Any write task already queued on the event loop runs before this one, and so is covered by it.
+    flushScheduled = true;
+    ctx.executor().execute(() -> {
+      flushScheduled = false;
+      flushPending = false;
+      ctx.flush();
+    });
+  }
+
+  @Override
+  public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+    ctx.flush();
+    ctx.close(promise);
+  }
+
+  private static boolean isResponseToCountedCall(Object msg) {
+    if (msg instanceof Response) {
+      return ((Response) msg).getCommand() != Response.Command.SCAN;
+    } else if (msg instanceof ResultResponse) {
+      return ((ResultResponse) msg).getCommand() != Response.Command.SCAN;
+    }
+    return false;
+  }
+
+  int getInFlightCalls() {
+    return inFlightCalls;
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.regionserver;
+
+import c5db.interfaces.tablet.RegionDescription;
+import org.apache.hadoop.hbase.NotServingRegionException;
+
+/**
+ * Thrown when a request needs the region's leader, and this node serves the region as a follower. It carries the
+ * region's description, naming the leader where this node knows it, which goes back to the client in the error
+ * response so that the client can send the request on to the leader. To the client it is a NotServingRegionException.
+ */
+public class NotLeaderException extends NotServingRegionException {
+  private final RegionDescription region;
+
+  /**
+   * @param region The region's description, or null if the request did not name its region by table
+   */
+  public NotLeaderException(String message, RegionDescription region) {
+    super(message);
+    this.region = region;
+  }
+
+  public RegionDescription getRegion() {
+    return region;
+  }
+}
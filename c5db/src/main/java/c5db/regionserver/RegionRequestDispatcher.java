@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.regionserver;
+
+import c5db.client.generated.Call;
+import c5db.client.generated.MutateResponse;
+import c5db.client.generated.RegionInfo;
+import c5db.client.generated.Response;
+import c5db.interfaces.tablet.RegionDescription;
+import c5db.util.CheckedSupplier;
+import c5db.util.KeySerializingExecutor;
+import c5db.util.WrappingKeySerializingExecutor;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.netty.channel.ChannelHandlerContext;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.regionserver.OperationStatus;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs region operations on behalf of C5ServerHandler, off of the netty event loop, so that one slow
+ * operation (waiting on a row lock, or on a blocked memstore) can not stall every other connection
+ * served by the same loop.
+ * <p>
+ * Reads and writes are queued separately, so a backlog of one does not hold up the other. Reads run
+ * on a fixed pool of threads. Writes are serialized per region, in the order they arrive, which
+ * preserves the per-connection ordering the event loop used to provide for mutations to a region.
+ * Both queues are bounded; when one is full the request is failed immediately with an error
+ * response rather than being queued without limit.
+ * <p>
+ * Simple puts and deletes which arrive for a region while its earlier writes are still queued are
+ * coalesced into a single HRegion.batchMutate call, so that they share one pass through the region's
+ * locks and one WAL append, rather than each paying for them separately. Each mutation in the batch
+ * still gets its own response.
+ */
+public class RegionRequestDispatcher {
+  private static final Logger LOG = LoggerFactory.getLogger(RegionRequestDispatcher.class);
+  private static final long SHUTDOWN_TIMEOUT_SECONDS = 15;
+
+  private final ListeningExecutorService readExecutor;
+  private final KeySerializingExecutor writeExecutor;
+  private final Semaphore writePermits;
+  private final int maxWriteBatchSize;
+
+  /**
+   * Per region, the batch of simple mutations which is waiting its turn in the region's write queue, and
+   * which further mutations may still join. A batch is closed to newcomers by removing it from this map,
+   * which happens when it starts to run, when it is full, or when some other kind of write is queued
+   * behind it (so that the other write is not overtaken).
+   */
+  private final ConcurrentMap<String, MutationBatch> openBatches = new ConcurrentHashMap<>();
+
+  /**
+   * @param readThreads     Number of threads running reads
+   * @param maxQueuedReads  Number of reads which may be waiting for a thread before further reads are rejected
+   * @param writeThreads    Number of threads running writes; at most one per region at a time
+   * @param maxQueuedWrites Number of writes which may be queued or running, across all regions, before
+   *                        further writes are rejected
+   * @param maxWriteBatchSize Largest number of simple mutations to coalesce into one batchMutate call
+   */
+  public RegionRequestDispatcher(int readThreads,
+                                 int maxQueuedReads,
+                                 int writeThreads,
+                                 int maxQueuedWrites,
+                                 int maxWriteBatchSize) {
+    ThreadPoolExecutor readThreadPool = new ThreadPoolExecutor(readThreads, readThreads,
+        0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(maxQueuedReads),
+        namedDaemonThreads("region-read-%d"));
+    this.readExecutor = MoreExecutors.listeningDecorator(readThreadPool);
+    this.writeExecutor = new WrappingKeySerializingExecutor(
+        Executors.newFixedThreadPool(writeThreads, namedDaemonThreads("region-write-%d")));
+    this.writePermits = new Semaphore(maxQueuedWrites);
+    this.maxWriteBatchSize = maxWriteBatchSize;
+  }
+
+  /**
+   * Run a read, then write its response, or an error response if it fails, to the caller.
+   */
+  public <T> void read(ChannelHandlerContext ctx, Call call, CheckedSupplier<T, Exception> operation) {
+    respondWhenDone(ctx, call, submitRead(operation));
+  }
+
+  /**
+   * Run a write after all previously dispatched writes to the same region, then write its response, or an
+   * error response if it fails, to the caller.
+   */
+  public void write(String regionName,
+                    ChannelHandlerContext ctx,
+                    Call call,
+                    CheckedSupplier<Response, Exception> operation) {
+    respondWhenDone(ctx, call, submitWrite(regionName, operation));
+  }
+
+  /**
+   * Run a read, or some part of one.
+   *
+   * @return A future holding the result of the operation; it fails if the operation does, or if there are too
+   * many reads queued to accept another.
+   */
+  public <T> ListenableFuture<T> submitRead(CheckedSupplier<T, Exception> operation) {
+    try {
+      return readExecutor.submit(operation::get);
+    } catch (RejectedExecutionException e) {
+      return Futures.immediateFailedFuture(new IOException("Server is too busy to accept more reads"));
+    }
+  }
+
+  /**
+   * Run a write, or some part of one, after all previously dispatched writes to the same region.
+   *
+   * @return A future holding the result of the operation; it fails if the operation does, or if there are too
+   * many writes queued to accept another.
+   */
+  public <T> ListenableFuture<T> submitWrite(String regionName, CheckedSupplier<T, Exception> operation) {
+    if (!writePermits.tryAcquire()) {
+      return Futures.immediateFailedFuture(new IOException("Server is too busy to accept more writes"));
+    }
+
+    openBatches.remove(regionName);
+
+    final ListenableFuture<T> resultFuture;
+    try {
+      resultFuture = writeExecutor.submit(regionName, operation);
+    } catch (RejectedExecutionException e) {
+      writePermits.release();
+      return Futures.immediateFailedFuture(new IOException("Server is shutting down"));
+    }
+    resultFuture.addListener(writePermits::release, MoreExecutors.sameThreadExecutor());
+    return resultFuture;
+  }
+
+  /**
+   * Apply a simple (unconditional) put or delete to a region, after all previously dispatched writes to the
+   * same region, and then write a MutateResponse to the caller. The mutation may be applied together with
+   * other mutations to the region, in one batch; but not with another mutation of the same row, since every
+   * mutation in a batch gets the same timestamp, and a delete would then mask a later put of the row.
+   *
+   * @param regionInfo The region to describe in the response, or null
+   */
+  public void mutate(String regionName,
+                     HRegion region,
+                     ChannelHandlerContext ctx,
+                     Call call,
+                     Mutation mutation,
+                     RegionInfo regionInfo) {
+    if (!writePermits.tryAcquire()) {
+      ctx.writeAndFlush(errorResponse(call, new IOException("Server is too busy to accept more writes")));
+      return;
+    }
+
+    final PendingMutation pendingMutation = new PendingMutation(ctx, call, mutation, regionInfo);
+    final MutationBatch[] newBatch = new MutationBatch[1];
+
+    openBatches.compute(regionName, (key, batch) -> {
+      if (batch == null || batch.region != region || batch.rows.contains(mutation.getRow())) {
+        batch = new MutationBatch(region);
+        newBatch[0] = batch;
+      }
+      batch.mutations.add(pendingMutation);
+      batch.rows.add(mutation.getRow());
+      return batch.mutations.size() < maxWriteBatchSize ? batch : null;
+    });
+
+    if (newBatch[0] != null) {
+      final MutationBatch batch = newBatch[0];
+      try {
+        writeExecutor.submit(regionName, () -> applyBatch(regionName, batch));
+      } catch (RejectedExecutionException e) {
+        openBatches.remove(regionName, batch);
+        respondToBatch(batch, null, new IOException("Server is shutting down"));
+      }
+    }
+  }
+
+  /**
+   * Stop accepting requests, and wait for those already accepted to finish.
+   */
+  public void shutdown() {
+    readExecutor.shutdown();
+    try {
+      writeExecutor.shutdownAndAwaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      readExecutor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (InterruptedException | TimeoutException e) {
+      LOG.error("Region requests still running at shutdown", e);
+    }
+  }
+
+  /**
+   * Create a Response reporting that a call failed outright. If it failed because this node is not the leader of its
+   * region, the response carries the region's description, so that the client can find the leader.
+   */
+  static Response errorResponse(Call call, Throwable t) {
+    final RegionDescription region = t instanceof NotLeaderException ? ((NotLeaderException) t).getRegion() : null;
+    return new Response(Response.Command.valueOf(call.getCommand().name()),
+        call.getCommandId(),
+        null,
+        null,
+        null,
+        null,
+        ReverseProtobufUtil.toException(t),
+        region == null ? null : region.getRegionInfo());
+  }
+
+  private Void applyBatch(String regionName, MutationBatch batch) {
+    // Once the batch is out of openBatches no more mutations can join it, and the map's locking
+    // makes the mutations added so far visible to this thread.
+    openBatches.remove(regionName, batch);
+
+    final Mutation[] mutations = new Mutation[batch.mutations.size()];
+    for (int i = 0; i < mutations.length; i++) {
+      mutations[i] = batch.mutations.get(i).mutation;
+    }
+
+    try {
+      respondToBatch(batch, batch.region.batchMutate(mutations), null);
+    } catch (IOException e) {
+      LOG.error("Error applying a batch of {} mutations to region {}", mutations.length, regionName, e);
+      respondToBatch(batch, null, e);
+    }
+    return null;
+  }
+
+  /**
+   * Write a response for each mutation in the batch, according to its status; or, if the batch could not be
+   * applied at all, an unsuccessful MutateResponse for each.
+   */
+  private void respondToBatch(MutationBatch batch, OperationStatus[] statuses, IOException failure) {
+    for (int i = 0; i < batch.mutations.size(); i++) {
+      final PendingMutation pending = batch.mutations.get(i);
+      final boolean success = failure == null
+          && statuses[i].getOperationStatusCode() == HConstants.OperationStatusCode.SUCCESS;
+      if (failure == null && !success) {
+        LOG.error("Mutation for command {} failed: {}", pending.call.getCommandId(), statuses[i].getExceptionMsg());
+      }
+
+      pending.ctx.writeAndFlush(new Response(Response.Command.MUTATE,
+          pending.call.getCommandId(),
+          null,
+          new MutateResponse(null, success),
+          null,
+          null,
+          null,
+          pending.regionInfo));
+      writePermits.release();
+    }
+  }
+
+  /**
+   * Write the response to the caller once it is ready, or an error response if it fails.
+   */
+  static <T> void respondWhenDone(ChannelHandlerContext ctx,
+                                  Call call,
+                                  ListenableFuture<T> responseFuture) {
+    Futures.addCallback(responseFuture, new FutureCallback<T>() {
+      @Override
+      public void onSuccess(T response) {
+        ctx.writeAndFlush(response);
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        LOG.error("Error running {} {}", call.getCommand(), call.getCommandId(), t);
+        ctx.writeAndFlush(errorResponse(call, t));
+      }
+    });
+  }
+
+  private static class PendingMutation {
+    private final ChannelHandlerContext ctx;
+    private final Call call;
+    private final Mutation mutation;
+    private final RegionInfo regionInfo;
+
+    private PendingMutation(ChannelHandlerContext ctx, Call call, Mutation mutation, RegionInfo regionInfo) {
+      this.ctx = ctx;
+      this.call = call;
+      this.mutation = mutation;
+      this.regionInfo = regionInfo;
+    }
+  }
+
+  private static class MutationBatch {
+    private final HRegion region;
+    private final List<PendingMutation> mutations = new ArrayList<>();
+    private final Set<byte[]> rows = new TreeSet<>(Bytes.BYTES_COMPARATOR);
+
+    private MutationBatch(HRegion region) {
+      this.region = region;
+    }
+  }
+
+  private static ThreadFactory namedDaemonThreads(String nameFormat) {
+    return new ThreadFactoryBuilder()
+        .setNameFormat(nameFormat)
+        .setDaemon(true)
+        .build();
+  }
+}
@@ -19,6 +19,9 @@ package c5db.regionserver;
 
 import c5db.C5ServerConstants;
 import c5db.client.generated.RegionSpecifier;
+import c5db.codec.CallDecoder;
+import c5db.codec.ResponseEncoder;
+import c5db.codec.Varint32FrameDecoder;
 import c5db.codec.WebsocketProtostuffDecoder;
 import c5db.codec.WebsocketProtostuffEncoder;
 import c5db.interfaces.C5Module;
@@ -26,55 +29,75 @@ import c5db.interfaces.C5Server;
 import c5db.interfaces.RegionServerModule;
 import c5db.interfaces.TabletModule;
 import c5db.interfaces.server.CommandRpcRequest;
+import c5db.interfaces.tablet.RegionDescription;
+import c5db.interfaces.tablet.Tablet;
 import c5db.messages.generated.ModuleSubCommand;
 import c5db.messages.generated.ModuleType;
 import c5db.util.C5FiberFactory;
+import c5db.util.NettyTransport;
+import c5db.util.PoolFiberFactoryWithExecutor;
 import com.google.common.util.concurrent.AbstractService;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
-import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpServerCodec;
 import io.netty.handler.codec.http.websocketx.WebSocketFrameAggregator;
+import io.netty.handler.codec.protobuf.ProtobufVarint32LengthFieldPrepender;
 import io.protostuff.ByteString;
 import org.apache.hadoop.hbase.HColumnDescriptor;
 import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.NotServingRegionException;
 import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.regionserver.HRegion;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.jetlang.fibers.Fiber;
+import org.jetlang.fibers.PoolFiberFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import sun.misc.BASE64Encoder;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 /**
  * The service handler for the RegionServer class. Responsible for handling the internal lifecycle
  * and attaching the netty infrastructure to the region server.
  */
 public class RegionServerService extends AbstractService implements RegionServerModule {
   private static final Logger LOG = LoggerFactory.getLogger(RegionServerService.class);
+  private static final ByteBuffer NO_ROW = ByteBuffer.wrap(new byte[0]);
 
   private final C5FiberFactory fiberFactory;
   private final Fiber fiber;
-  private final NioEventLoopGroup acceptGroup;
-  private final NioEventLoopGroup workerGroup;
+  private final EventLoopGroup acceptGroup;
+  private final EventLoopGroup workerGroup;
   private final int port;
   private final C5Server server;
   private final ServerBootstrap bootstrap = new ServerBootstrap();
+  private final RegionRequestDispatcher requestDispatcher;
+  private final ExecutorService scannerExecutor;
+  private final PoolFiberFactory scannerFiberPool;
+  private final C5FiberFactory scannerFiberFactory;
+  private final ScannerManager scannerManager = new ScannerManager();
+  private final int maxCallSize = Integer.getInteger(C5ServerConstants.MAX_REGION_CALL_SIZE_PROPERTY_NAME,
+      C5ServerConstants.DEFAULT_MAX_REGION_CALL_SIZE);
 
 
   TabletModule tabletModule;
 
-  public RegionServerService(NioEventLoopGroup acceptGroup,
-                             NioEventLoopGroup workerGroup,
+  public RegionServerService(EventLoopGroup acceptGroup,
+                             EventLoopGroup workerGroup,
                              int port,
                              C5Server server) {
     this.acceptGroup = acceptGroup;
@@ -84,6 +107,20 @@ public class RegionServerService extends AbstractService implements RegionServer
     this.fiberFactory = server.getFiberFactory(this::notifyFailed);
 
     this.fiber = fiberFactory.create();
+
+    int cores = Runtime.getRuntime().availableProcessors();
+    this.requestDispatcher = new RegionRequestDispatcher(cores,
+        C5ServerConstants.MAX_QUEUED_REGION_READS,
+        cores,
+        C5ServerConstants.MAX_QUEUED_REGION_WRITES,
+        C5ServerConstants.MAX_REGION_WRITE_BATCH_SIZE);
+
+    // Scanners block on IO, so they get a pool of their own rather than sharing the server's fiber pool.
+    this.scannerExecutor = Executors.newFixedThreadPool(cores,
+        new ThreadFactoryBuilder().setNameFormat("region-scanner-%d").setDaemon(true).build());
+    this.scannerFiberPool = new PoolFiberFactory(scannerExecutor);
+    this.scannerFiberFactory = PoolFiberFactoryWithExecutor.factoryWithExceptionHandler(scannerFiberPool,
+        (t) -> LOG.error("Error running scanner", t));
   }
 
   @Override
@@ -97,20 +134,13 @@ public class RegionServerService extends AbstractService implements RegionServer
         @Override
         public void onSuccess(C5Module result) {
           tabletModule = (TabletModule) result;
-          bootstrap.group(acceptGroup, workerGroup)
-              .option(ChannelOption.SO_REUSEADDR, true)
-              .childOption(ChannelOption.TCP_NODELAY, true)
-              .channel(NioServerSocketChannel.class)
+          configureTransport(bootstrap.group(acceptGroup, workerGroup))
               .childHandler(new ChannelInitializer<SocketChannel>() {
                               @Override
                               protected void initChannel(SocketChannel ch) throws Exception {
-                                ChannelPipeline p = ch.pipeline();
-                                p.addLast("http-server-codec", new HttpServerCodec());
-                                p.addLast("http-agg", new HttpObjectAggregator(C5ServerConstants.MAX_CALL_SIZE));
-                                p.addLast("websocket-agg", new WebSocketFrameAggregator(C5ServerConstants.MAX_CALL_SIZE));
-                                p.addLast("decoder", new WebsocketProtostuffDecoder("/websocket"));
-                                p.addLast("encoder", new WebsocketProtostuffEncoder());
-                                p.addLast("handler", new C5ServerHandler(RegionServerService.this));
+                                ch.pipeline().addLast("transport-selection", new TransportSelectionHandler(
+                                    RegionServerService.this::addWebsocketTransport,
+                                    RegionServerService.this::addBinaryTransport));
                               }
                             }
               );
@@ -160,8 +190,50 @@ public class RegionServerService extends AbstractService implements RegionServer
     });
   }
 
+  /**
+   * Configure the transport of the region server's bootstrap. Its connections read into unpooled heap buffers, so that
+   * the binary transport's Calls are decoded from the bytes they were read into (see CallDecoder.decodesInPlace).
+   */
+  static ServerBootstrap configureTransport(ServerBootstrap bootstrap) {
+    return NettyTransport.readIntoHeapBuffers(NettyTransport.configure(bootstrap))
+        .option(ChannelOption.SO_REUSEADDR, true)
+        .childOption(ChannelOption.TCP_NODELAY, true);
+  }
+
+  /**
+   * Websocket transport, for browsers and the websocket client.
+   */
+  private void addWebsocketTransport(ChannelPipeline p) {
+    p.addLast("http-server-codec", new HttpServerCodec());
+    p.addLast("http-agg", new HttpObjectAggregator(maxCallSize));
+    p.addLast("websocket-agg", new WebSocketFrameAggregator(maxCallSize));
+    p.addLast("decoder", new WebsocketProtostuffDecoder("/websocket"));
+    p.addLast("encoder", new WebsocketProtostuffEncoder());
+    addCallHandlers(p);
+  }
+
+  /**
+   * Binary transport: each Call and Response is prefixed by its length as a varint32.
+   */
+  private void addBinaryTransport(ChannelPipeline p) {
+    p.addLast("frame-decoder", new Varint32FrameDecoder(maxCallSize));
+    p.addLast("decoder", new CallDecoder());
+    p.addLast("frame-encoder", new ProtobufVarint32LengthFieldPrepender());
+    p.addLast("encoder", new ResponseEncoder());
+    addCallHandlers(p);
+  }
+
+  private void addCallHandlers(ChannelPipeline p) {
+    p.addLast("flow-control", new CallFlowControlHandler(C5ServerConstants.MAX_IN_FLIGHT_CALLS_PER_CONNECTION));
+    p.addLast("handler", new C5ServerHandler(this));
+  }
+
   @Override
   protected void doStop() {
+    requestDispatcher.shutdown();
+    scannerFiberPool.dispose();
+    scannerExecutor.shutdown();
+    scannerManager.stop();
     notifyStopped();
   }
 
@@ -185,10 +257,110 @@ public class RegionServerService extends AbstractService implements RegionServer
     return null;
   }
 
-  public HRegion getOnlineRegion(RegionSpecifier regionSpecifier) {
-    String stringifiedRegion = Bytes.toString(regionSpecifier.getValue().array());
-    LOG.debug("get online region:" + stringifiedRegion);
-    return tabletModule.getTablet(stringifiedRegion);
+  public RegionRequestDispatcher getRequestDispatcher() {
+    return requestDispatcher;
+  }
+
+  public ScannerManager getScannerManager() {
+    return scannerManager;
+  }
+
+  public C5FiberFactory getScannerFiberFactory() {
+    return scannerFiberFactory;
+  }
+
+  /**
+   * Find the online region a request names, or null if it is not online here. A request names its region either
+   * directly, or by its table and the row it is for. This is on the path of every request, so it takes constant time
+   * and allocates nothing.
+   *
+   * @param regionSpecifier The region the request names
+   * @param row             The row the request is for; only used if the region is named by table. May be null, for
+   *                        the table's first region.
+   */
+  public HRegion getOnlineRegion(RegionSpecifier regionSpecifier, ByteBuffer row) {
+    if (regionSpecifier.getType() == RegionSpecifier.RegionSpecifierType.TABLE_NAME) {
+      return tabletModule.getOnlineRegionForRow(regionSpecifier.getValue(), row == null ? NO_ROW : row);
+    }
+    return tabletModule.getOnlineRegion(regionSpecifier.getValue());
+  }
+
+  private Tablet getOnlineTablet(RegionSpecifier regionSpecifier, ByteBuffer row) {
+    if (regionSpecifier.getType() == RegionSpecifier.RegionSpecifierType.TABLE_NAME) {
+      return tabletModule.getOnlineTabletForRow(regionSpecifier.getValue(), row == null ? NO_ROW : row);
+    }
+    return tabletModule.getOnlineTablet(regionSpecifier.getValue());
+  }
+
+  /**
+   * Find a region which may serve a read.  The leader for a region can always serve reads; a follower may
+   * serve them only if the caller accepts some staleness, and the follower's view is within that bound.
+   *
+   * @param regionSpecifier The region to read from
+   * @param row             The row to read, as for getOnlineRegion
+   * @param maxStalenessMs  How many milliseconds behind the leader the caller is willing to read; 0 for leader-only
+   * @return The region to read from
+   * @throws NotServingRegionException if the region is not online here
+   * @throws NotLeaderException         if this node is not its leader and the caller wants no staleness
+   * @throws IOException                if this node is a follower further behind than the caller accepts
+   */
+  public HRegion getReadableRegion(RegionSpecifier regionSpecifier, ByteBuffer row, long maxStalenessMs)
+      throws IOException {
+    HRegion region = getOnlineRegion(regionSpecifier, row);
+    Tablet tablet = getOnlineTablet(regionSpecifier, row);
+    if (region == null || tablet == null) {
+      throw new NotServingRegionException("Unable to find region");
+    }
+
+    if (tablet.getTabletState() == Tablet.State.Leader) {
+      return region;
+    }
+    if (maxStalenessMs > 0) {
+      long staleness = tablet.getStalenessMillis();
+      if (staleness <= maxStalenessMs) {
+        return region;
+      }
+      throw new IOException("Region " + region.getRegionNameAsString() + " is " + staleness
+          + "ms stale, more than the requested " + maxStalenessMs + "ms");
+    }
+    throw new NotLeaderException("Not the leader for region " + region.getRegionNameAsString(),
+        describeRegion(regionSpecifier, region));
+  }
+
+  /**
+   * Find a region which may take a write: only its leader may.
+   *
+   * @param regionSpecifier The region to write to
+   * @param row             The row to write, as for getOnlineRegion
+   * @return The region to write to
+   * @throws NotServingRegionException if the region is not online here
+   * @throws NotLeaderException        if this node is not its leader
+   */
+  public HRegion getWritableRegion(RegionSpecifier regionSpecifier, ByteBuffer row) throws NotServingRegionException {
+    HRegion region = getOnlineRegion(regionSpecifier, row);
+    Tablet tablet = getOnlineTablet(regionSpecifier, row);
+    if (region == null || tablet == null) {
+      throw new NotServingRegionException("Unable to find region");
+    }
+    if (tablet.getTabletState() != Tablet.State.Leader) {
+      throw new NotLeaderException("Not the leader for region " + region.getRegionNameAsString(),
+          describeRegion(regionSpecifier, region));
+    }
+    return region;
+  }
+
+  /**
+   * Describe the region which served a request, for the request's response, so that the client can send later
+   * requests for rows in the region's key range straight to it. Only requests which named their region by table get
+   * a description; for the others this returns null, since the client already knew which region it wanted.
+   *
+   * @return The region's description, made when its tablet last changed state and shared by every response
+   */
+  public RegionDescription describeRegion(RegionSpecifier regionSpecifier, HRegion region) {
+    if (region == null || regionSpecifier.getType() != RegionSpecifier.RegionSpecifierType.TABLE_NAME) {
+      return null;
+    }
+    return tabletModule.getOnlineRegionDescription(ByteBuffer.wrap(region.getRegionInfo().getEncodedNameAsBytes()));
   }
 
   public String toString() {
@@ -20,11 +20,14 @@ package c5db.regionserver;
 
 import c5db.client.generated.CellType;
 import c5db.client.generated.Comparator;
+import c5db.client.generated.NameBytesPair;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.DoNotRetryIOException;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.NotServingRegionException;
 import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.Durability;
 import org.apache.hadoop.hbase.client.Get;
@@ -50,6 +53,7 @@ import java.util.List;
  */
 public class ReverseProtobufUtil {
   private static final Logger LOG = LoggerFactory.getLogger(ReverseProtobufUtil.class);
+  private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.wrap(HConstants.EMPTY_BYTE_ARRAY);
 
   /**
    * Dynamic class loader to load filter/comparators
@@ -94,7 +98,7 @@ public class ReverseProtobufUtil {
   }
 
   public static c5db.client.generated.Cell toCell(final Cell kv) {
-    ByteBuffer row = ByteBuffer.wrap(kv.getFamilyArray(), kv.getRowOffset(), kv.getRowLength());
+    ByteBuffer row = ByteBuffer.wrap(kv.getRowArray(), kv.getRowOffset(), kv.getRowLength());
     ByteBuffer family = ByteBuffer.wrap(kv.getFamilyArray(), kv.getFamilyOffset(), kv.getFamilyLength());
     ByteBuffer qualifier = ByteBuffer.wrap(kv.getQualifierArray(), kv.getQualifierOffset(), kv.getQualifierLength());
     long timestamp = kv.getTimestamp();
@@ -115,7 +119,7 @@ public class ReverseProtobufUtil {
     if (proto == null) {
       return null;
     }
-    byte[] row = proto.getRow().array();
+    byte[] row = toBytes(proto.getRow());
     Get get = new Get(row);
     get.setCacheBlocks(proto.getCacheBlocks());
     // TODO we probably need a better way of managing these.
@@ -144,14 +148,14 @@ public class ReverseProtobufUtil {
       get.setFilter(toFilter(filter));
     }
     for (c5db.client.generated.NameBytesPair attribute : proto.getAttributeList()) {
-      get.setAttribute(attribute.getName(), attribute.getValue().array());
+      get.setAttribute(attribute.getName(), toBytes(attribute.getValue()));
     }
     if (proto.getColumnList() != null && proto.getColumnList().size() > 0) {
       for (c5db.client.generated.Column column : proto.getColumnList()) {
-        byte[] family = column.getFamily().array();
+        byte[] family = toBytes(column.getFamily());
 
         for (ByteBuffer qualifier : column.getQualifierList()) {
-          get.addColumn(family, qualifier.array());
+          get.addColumn(family, toBytes(qualifier));
         }
         get.addFamily(family);
 
@@ -174,7 +178,7 @@ public class ReverseProtobufUtil {
    */
   private static Filter toFilter(c5db.client.generated.Filter proto) throws IOException {
     String type = proto.getName();
-    final byte[] value = proto.getSerializedFilter().array();
+    final byte[] value = toBytes(proto.getSerializedFilter());
     String funcName = "parseFrom";
     try {
       Class<? extends Filter> c =
@@ -201,10 +205,10 @@ public class ReverseProtobufUtil {
     byte[] startRow = HConstants.EMPTY_START_ROW;
     byte[] stopRow = HConstants.EMPTY_END_ROW;
     if (proto.getStartRow() != null) {
-      startRow = proto.getStartRow().array();
+      startRow = toBytes(proto.getStartRow());
     }
     if (proto.getStopRow() != null) {
-      stopRow = proto.getStopRow().array();
+      stopRow = toBytes(proto.getStopRow());
     }
     Scan scan = new Scan(startRow, stopRow);
     scan.setCacheBlocks(proto.getCacheBlocks());
@@ -229,13 +233,13 @@ public class ReverseProtobufUtil {
     scan.setMaxResultSize(proto.getMaxResultSize());
     scan.setSmall(proto.getSmall());
     for (c5db.client.generated.NameBytesPair attribute : proto.getAttributeList()) {
-      scan.setAttribute(attribute.getName(), attribute.getValue().array());
+      scan.setAttribute(attribute.getName(), toBytes(attribute.getValue()));
     }
 
     for (c5db.client.generated.Column column : proto.getColumnList()) {
-      byte[] family = column.getFamily().array();
+      byte[] family = toBytes(column.getFamily());
       for (ByteBuffer qualifier : column.getQualifierList()) {
-        scan.addColumn(family, qualifier.array());
+        scan.addColumn(family, toBytes(qualifier));
       }
       scan.addFamily(family);
     }
@@ -250,30 +254,37 @@ public class ReverseProtobufUtil {
    * @throws IOException
    */
   public static Put toPut(final c5db.client.generated.MutationProto proto) throws IOException {
-    // TODO: Server-side at least why do we convert back to the Client types?  Why not just pb it?
     c5db.client.generated.MutationProto.MutationType type = proto.getMutateType();
     assert type == c5db.client.generated.MutationProto.MutationType.PUT : type.name();
-    byte[] row = proto.getRow() != null ? proto.getRow().array() : null;
+    final ByteBuffer row = proto.getRow();
+    if (row == null) {
+      throw new DoNotRetryIOException("Missing required field: row");
+    }
     long timestamp = proto.getTimestamp();
-    Put put = new Put(row, timestamp);
-    // The proto has the metadata and the data itself
+    Put put = new Put(row.array(), offsetOf(row), row.remaining(), timestamp);
+    // Each KeyValue is built straight from the request's bytes, which are copied only the once, into the KeyValue.
     for (c5db.client.generated.MutationProto.ColumnValue column : proto.getColumnValueList()) {
-      byte[] family = column.getFamily().array();
+      final ByteBuffer family = column.getFamily();
       for (c5db.client.generated.MutationProto.ColumnValue.QualifierValue qv : column.getQualifierValueList()) {
-        byte[] qualifier = qv.getQualifier().array();
+        final ByteBuffer qualifier = qv.getQualifier() != null ? qv.getQualifier() : EMPTY_BUFFER;
         if (qv.getValue() == null) {
           throw new DoNotRetryIOException("Missing required field: qualifier value");
         }
-        byte[] value = qv.getValue().array();
+        final ByteBuffer value = qv.getValue();
         long ts = qv.getTimestamp();
-        put.add(family, qualifier, ts, value);
+        put.add(new KeyValue(
+            row.array(), offsetOf(row), row.remaining(),
+            family.array(), offsetOf(family), family.remaining(),
+            qualifier.array(), offsetOf(qualifier), qualifier.remaining(),
+            ts, KeyValue.Type.Put,
+            value.array(), offsetOf(value), value.remaining()));
       }
     }
 
 
     put.setDurability(toDurability(proto.getDurability()));
     for (c5db.client.generated.NameBytesPair attribute : proto.getAttributeList()) {
-      put.setAttribute(attribute.getName(), attribute.getValue().array());
+      put.setAttribute(attribute.getName(), toBytes(attribute.getValue()));
     }
     return put;
   }
@@ -287,17 +298,17 @@ public class ReverseProtobufUtil {
   public static Delete toDelete(final c5db.client.generated.MutationProto proto) {
     c5db.client.generated.MutationProto.MutationType type = proto.getMutateType();
     assert type == c5db.client.generated.MutationProto.MutationType.DELETE : type.name();
-    byte[] row = proto.getRow() != null ? proto.getRow().array() : null;
+    byte[] row = proto.getRow() != null ? toBytes(proto.getRow()) : null;
     long timestamp = proto.getTimestamp();
 
     Delete delete = new Delete(row, timestamp);
     for (c5db.client.generated.MutationProto.ColumnValue column : proto.getColumnValueList()) {
-      byte[] family = column.getFamily().array();
+      byte[] family = toBytes(column.getFamily());
       for (c5db.client.generated.MutationProto.ColumnValue.QualifierValue qv : column.getQualifierValueList()) {
         c5db.client.generated.MutationProto.DeleteType deleteType = qv.getDeleteType();
         byte[] qualifier = null;
         if (qv.getQualifier() != null) {
-          qualifier = qv.getQualifier().array();
+          qualifier = toBytes(qv.getQualifier());
         }
         long ts = qv.getTimestamp();
 
@@ -315,7 +326,7 @@ public class ReverseProtobufUtil {
 
     delete.setDurability(toDurability(proto.getDurability()));
     for (c5db.client.generated.NameBytesPair attribute : proto.getAttributeList()) {
-      delete.setAttribute(attribute.getName(), attribute.getValue().array());
+      delete.setAttribute(attribute.getName(), toBytes(attribute.getValue()));
     }
     return delete;
   }
@@ -337,6 +348,27 @@ public class ReverseProtobufUtil {
     }
   }
 
+  /**
+   * Get the contents of a bytes field of a request. The request's ByteBuffers are views of the bytes it was decoded
+   * from, so the array backing one may hold much more than the field itself; that array is returned as is only if
+   * it holds exactly the field, and otherwise the field is copied out of it.
+   */
+  public static byte[] toBytes(final ByteBuffer buffer) {
+    if (buffer.hasArray()
+        && buffer.arrayOffset() == 0
+        && buffer.position() == 0
+        && buffer.remaining() == buffer.array().length) {
+      return buffer.array();
+    }
+    final byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return bytes;
+  }
+
+  private static int offsetOf(final ByteBuffer buffer) {
+    return buffer.arrayOffset() + buffer.position();
+  }
+
   /**
    * Print out some subset of a MutationProto rather than all of it and its data
    *
@@ -344,17 +376,34 @@ public class ReverseProtobufUtil {
    * @return Short String of mutation proto
    */
   static String toShortString(final c5db.client.generated.MutationProto proto) {
-    return "row=" + Bytes.toString(proto.getRow().array()) +
+    return "row=" + Bytes.toString(toBytes(proto.getRow())) +
         ", type=" + proto.getMutateType().toString();
   }
 
+  /**
+   * Convert an exception to a protocol buffer NameBytesPair, keyed by the exception's class name, whose value is its
+   * stringified message.
+   *
+   * @param t the exception to convert
+   * @return the converted protocol buffer NameBytesPair
+   */
+  /**
+   * Clients recognize a NotServingRegionException by name, so its subclasses are named as one.
+   */
+  public static NameBytesPair toException(final Throwable t) {
+    final String name = t instanceof NotServingRegionException
+        ? NotServingRegionException.class.getName()
+        : t.getClass().getName();
+    return new NameBytesPair(name, ByteBuffer.wrap(Bytes.toBytes(String.valueOf(t.getMessage()))));
+  }
+
   //TODO support more than byte comparable
   public static ByteArrayComparable toComparator(Comparator comparator) {
-    byte[] serializedArray = comparator.getSerializedComparator().array();
+    byte[] serializedArray = toBytes(comparator.getSerializedComparator());
     c5db.client.generated.ByteArrayComparable byteArrayComparable =
         new c5db.client.generated.ByteArrayComparable(ByteBuffer.wrap(serializedArray));
     c5db.client.generated.BinaryComparator binaryComparator
         = new c5db.client.generated.BinaryComparator(byteArrayComparable);
-    return new BinaryComparator(binaryComparator.getComparable().getValue().array());
+    return new BinaryComparator(toBytes(binaryComparator.getComparable().getValue()));
   }
 }
@@ -20,102 +20,188 @@ package c5db.regionserver;
 
 import c5db.C5ServerConstants;
 import c5db.client.generated.Call;
-import c5db.client.generated.Response;
-import c5db.client.generated.Result;
-import c5db.client.generated.ScanResponse;
+import c5db.codec.ResultResponse;
+import c5db.interfaces.tablet.RegionDescription;
 import io.netty.channel.ChannelHandlerContext;
 import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.regionserver.HRegion;
 import org.apache.hadoop.hbase.regionserver.RegionScanner;
 import org.jetlang.core.Callback;
+import org.jetlang.fibers.Fiber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Creates a runnable in the background so that the regionserver always has a setup of scanner results
  * ready to send back to the user. It directly sends the data back through netty back to the user.
+ * <p>
+ * The client grants the scanner credit, in rows, with each request for more; the scanner sends up to its credit and
+ * then waits for more, so a client is never sent more rows than it has room for. Rows which a filter leaves empty are
+ * not sent, and do not use credit.
+ * <p>
+ * Each scanner runs on its own pool fiber, so many scanners share a fixed number of threads. To keep one
+ * scanner from holding a thread for a long time, it reads at most SCANNER_PREFETCH_BUDGET_ROWS rows per
+ * turn; if it has credit left, it queues another turn behind whatever else is waiting for the pool. Once the
+ * scan is finished, the scanner is removed from its server's ScannerManager and its fiber is disposed.
+ * <p>
+ * Rows are sent in responses bounded by row count, by size and by time, so that wide rows or large values do not
+ * build up into one huge response, and sparse results are not held back waiting for a full one.
  */
 public class ScanRunnable implements Callback<Integer> {
+  private static final Logger LOG = LoggerFactory.getLogger(ScanRunnable.class);
   private final long scannerId;
   private final Call call;
   private final ChannelHandlerContext ctx;
   private final RegionScanner scanner;
+  private final Fiber fiber;
+  private final ScannerManager scannerManager;
+  /**
+   * Described in the scanner's first response only; null once that has been sent, or if there is nothing to describe.
+   */
+  private RegionDescription regionDescription;
+  /**
+   * Reused for every row read; only touched on the scanner's fiber.
+   */
+  private final List<Cell> rawCells = new ArrayList<>();
   private boolean close;
+  /**
+   * Rows the client has asked for which have not yet been sent; only touched on the scanner's fiber.
+   */
+  private int credit = 0;
+  /**
+   * Whether a turn is already queued on the fiber, to spend credit granted meanwhile; only touched on the fiber.
+   */
+  private boolean turnQueued = false;
 
   public ScanRunnable(final ChannelHandlerContext ctx,
                       final Call call,
                       final long scannerId,
-                      final HRegion region) throws IOException {
+                      final HRegion region,
+                      final Fiber fiber,
+                      final ScannerManager scannerManager,
+                      final RegionDescription regionDescription) throws IOException {
     super();
     Scan scan = ReverseProtobufUtil.toScan(call.getScan().getScan());
     this.ctx = ctx;
     this.call = call;
     this.scannerId = scannerId;
     this.scanner = region.getScanner(scan);
+    this.fiber = fiber;
+    this.scannerManager = scannerManager;
+    this.regionDescription = regionDescription;
     this.close = false;
   }
 
+  /**
+   * Add the client's grant of rows to the scanner's credit, and start sending if the scanner was waiting for it.
+   */
   @Override
-  public void onMessage(Integer numberOfMessagesToSend) {
+  public void onMessage(Integer rowsGranted) {
     if (this.close) {
       return;
     }
-    long numberOfMsgsLeft = numberOfMessagesToSend;
-    List<Result> scanResults = new ArrayList<>();
-    List<Integer> cellsPerResult = new ArrayList<>();
-    ByteBuffer previousRow = null;
-    while (!this.close && numberOfMsgsLeft > 0) {
-      int rowsToSend = 0;
+    credit += rowsGranted;
+    if (!turnQueued) {
+      takeTurn();
+    }
+  }
+
+  private void takeTurn() {
+    turnQueued = false;
+    if (this.close || credit <= 0) {
+      return;
+    }
+    if (scannerManager.isBufferFull()) {
+      // Clients are not keeping up with what scanners have already written them; try again shortly.
+      turnQueued = true;
+      fiber.schedule(this::takeTurn, C5ServerConstants.SCANNER_BUFFER_FULL_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+      return;
+    }
+    sendRows(C5ServerConstants.SCANNER_PREFETCH_BUDGET_ROWS);
+
+    if (credit > 0 && !this.close) {
+      turnQueued = true;
+      fiber.execute(this::takeTurn);
+    }
+  }
+
+  /**
+   * Read up to rowsToRead rows, and send those which are not empty, until the credit runs out. Rows are sent in
+   * responses of at most MSG_SIZE rows and SCAN_RESPONSE_MAX_BYTES bytes; a response is also sent early if
+   * SCAN_RESPONSE_MAX_MILLIS pass while it is being filled, so that a scan which filters out most rows still streams
+   * what it finds rather than going quiet; even with no rows, a response tells the client the scan is progressing.
+   */
+  private void sendRows(int rowsToRead) {
+    int rowsRead = 0;
+    while (!this.close && credit > 0 && rowsRead < rowsToRead) {
+      final List<Cell[]> rows = new ArrayList<>();
+      final long deadline = System.nanoTime()
+          + TimeUnit.MILLISECONDS.toNanos(C5ServerConstants.SCAN_RESPONSE_MAX_MILLIS);
+      long bytesToSend = 0;
       boolean moreResults;
       do {
-        List<Cell> rawCells = new ArrayList<>();
-
+        rawCells.clear();
         try {
           moreResults = scanner.nextRaw(rawCells);
-          if (!moreResults) {
-            this.scanner.close();
-            this.close = true;
-          }
         } catch (IOException e) {
-          e.printStackTrace();
+          LOG.error("Error reading from scanner {}", scannerId, e);
+          closeScanner();
           return;
         }
 
-        List<c5db.client.generated.Cell> cells = new ArrayList<>();
-        for (Cell cell : rawCells) {
-          ByteBuffer cellBufferRow = ByteBuffer.wrap(cell.getRowArray(), cell.getRowOffset(), cell.getRowLength());
-          // If we are not the first one and we are a different row than the previous
-          cells.add(ReverseProtobufUtil.toCell(cell));
-
-          if (!(previousRow == null || previousRow.compareTo(cellBufferRow) == 0)) {
-            cellsPerResult.add(cells.size());
-            scanResults.add(new Result(cells, cells.size(), cells.size() > 0));
-            cells = new ArrayList<>();
+        // nextRaw returns the cells of a single row, so each call makes one Result. The cells are not copied
+        // until they are encoded, straight from the KeyValues' own backing arrays.
+        if (!rawCells.isEmpty()) {
+          for (Cell cell : rawCells) {
+            bytesToSend += ResultResponse.cellSize(cell);
           }
-          previousRow = ByteBuffer.wrap(cell.getRowArray(), cell.getRowOffset(), cell.getRowLength());
-        }
-        // Add the last one
-        if (cells.size() > 0) {
-          cellsPerResult.add(cells.size());
-          scanResults.add(new Result(cells, cells.size(), cells.size() > 0));
+          rows.add(rawCells.toArray(new Cell[rawCells.size()]));
         }
-
-        rowsToSend++;
-
+        rowsRead++;
       } while (moreResults
-          && rowsToSend < C5ServerConstants.MSG_SIZE
-          && numberOfMessagesToSend - rowsToSend > 0);
-
-      ScanResponse scanResponse = new ScanResponse(cellsPerResult, scannerId, moreResults, 0, scanResults);
-      Response response = new Response(Response.Command.SCAN, call.getCommandId(), null, null, scanResponse, null);
+          && rows.size() < C5ServerConstants.MSG_SIZE
+          && rows.size() < credit
+          && rowsRead < rowsToRead
+          && bytesToSend < C5ServerConstants.SCAN_RESPONSE_MAX_BYTES
+          && System.nanoTime() - deadline < 0);
+
+      if (!moreResults) {
+        closeScanner();
+      }
+
+      final ResultResponse response =
+          ResultResponse.forScan(call.getCommandId(), scannerId, moreResults, rows, regionDescription);
+      regionDescription = null;
+      final long responseBytes = response.getSerializedSize();
+      scannerManager.addBufferedBytes(responseBytes);
+      ctx.writeAndFlush(response).addListener(
+          (future) -> scannerManager.releaseBufferedBytes(responseBytes));
+      credit -= rows.size();
+    }
+  }
 
-      ctx.writeAndFlush(response);
-      numberOfMsgsLeft -= rowsToSend;
+  /**
+   * Close the scanner and release its resources. Must be run on the scanner's fiber; does nothing if the
+   * scanner is already closed.
+   */
+  void closeScanner() {
+    if (this.close) {
+      return;
+    }
+    this.close = true;
+    try {
+      this.scanner.close();
+    } catch (IOException e) {
+      LOG.error("Error closing scanner {}", scannerId, e);
     }
+    scannerManager.removeChannel(scannerId);
+    fiber.dispose();
   }
 
 }
@@ -17,26 +17,194 @@
 
 package c5db.regionserver;
 
+import c5db.C5ServerConstants;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
 import org.jetlang.channels.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * A JVM wide mapping from scannerIds to netty channels so that a user can access the scanner channels.
+ * A region server's mapping from scannerIds to netty channels so that a user can access the scanner channels. Each
+ * RegionServerService has its own, so servers sharing a JVM do not share leases or limits.
+ * <p>
+ * Every scanner holds a lease, which is renewed each time the client asks it for more rows. A scanner
+ * whose lease runs out (say, because the client went away without closing it) is closed, releasing the
+ * RegionScanner and whatever memstore and store file references it holds. Leases are checked on a timer
+ * wheel, so that keeping track of them costs next to nothing per request.
+ * <p>
+ * This also limits the number of scanners open at once, and keeps count of the bytes scanners have
+ * written to clients' connections and are waiting to be sent, so that scanners can hold off once that
+ * passes a limit.
  */
-public enum ScannerManager {
-  INSTANCE;
+public final class ScannerManager {
+  private static final Logger LOG = LoggerFactory.getLogger(ScannerManager.class);
 
-  private ConcurrentHashMap<Long, Channel<Integer>> scannerMap = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<Long, Lease> scannerMap = new ConcurrentHashMap<>();
+  private final AtomicLong nextScannerId = new AtomicLong(System.currentTimeMillis());
+  private final AtomicLong bufferedBytes = new AtomicLong(0);
+  /**
+   * Scanners open, or reserved by an addChannel in progress; kept apart from scannerMap so the limit can be checked
+   * and taken in one step.
+   */
+  private final AtomicInteger openScanners = new AtomicInteger(0);
+  private final HashedWheelTimer leaseTimer = new HashedWheelTimer(
+      new ThreadFactoryBuilder().setNameFormat("scanner-lease-timer-%d").setDaemon(true).build(),
+      100, TimeUnit.MILLISECONDS);
 
-  ScannerManager() {
+  private final long leaseMillis;
+  private final int maxOpenScanners;
+  private final long maxBufferedBytes;
+
+  public ScannerManager() {
+    this(C5ServerConstants.SCANNER_LEASE_MILLIS,
+        C5ServerConstants.MAX_OPEN_SCANNERS,
+        C5ServerConstants.MAX_SCANNER_BUFFERED_BYTES);
+  }
+
+  ScannerManager(long leaseMillis, int maxOpenScanners, long maxBufferedBytes) {
+    this.leaseMillis = leaseMillis;
+    this.maxOpenScanners = maxOpenScanners;
+    this.maxBufferedBytes = maxBufferedBytes;
   }
 
+  /**
+   * @return An id not used by any other scanner since this server started.
+   */
+  public long nextScannerId() {
+    return nextScannerId.incrementAndGet();
+  }
+
+  /**
+   * Get the channel of an open scanner, renewing its lease.
+   *
+   * @return The channel, or null if there is no such scanner open.
+   */
   public Channel<Integer> getChannel(long scannerId) {
-    return scannerMap.get(scannerId);
+    final Lease lease = scannerMap.get(scannerId);
+    if (lease == null) {
+      return null;
+    }
+    lease.renew();
+    return lease.channel;
+  }
+
+  /**
+   * Register a newly opened scanner, and start its lease.
+   *
+   * @param closer Closes the scanner, releasing its resources; run if its lease expires or the client closes it.
+   * @return false if there are already too many scanners open, in which case the scanner was not added.
+   */
+  public boolean addChannel(long scannerId, Channel<Integer> channel, Runnable closer) {
+    if (openScanners.incrementAndGet() > maxOpenScanners) {
+      openScanners.decrementAndGet();
+      return false;
+    }
+    final Lease lease = new Lease(scannerId, channel, closer);
+    scannerMap.put(scannerId, lease);
+    lease.schedule(leaseMillis);
+    return true;
+  }
+
+  /**
+   * Forget a scanner which has closed itself.
+   */
+  public void removeChannel(long scannerId) {
+    final Lease lease = scannerMap.remove(scannerId);
+    if (lease != null) {
+      openScanners.decrementAndGet();
+      lease.cancel();
+    }
+  }
+
+  /**
+   * Close a scanner on behalf of the client, before it has run out of rows.
+   */
+  public void closeScanner(long scannerId) {
+    final Lease lease = scannerMap.remove(scannerId);
+    if (lease != null) {
+      openScanners.decrementAndGet();
+      lease.cancel();
+      lease.closer.run();
+    }
+  }
+
+  public int getOpenScanners() {
+    return openScanners.get();
   }
 
-  public void addChannel(long scannerId, Channel<Integer> channel) {
-    scannerMap.put(scannerId, channel);
+  /**
+   * Stop checking leases; for when the server stops.
+   */
+  public void stop() {
+    leaseTimer.stop();
+  }
+
+  public void addBufferedBytes(long bytes) {
+    bufferedBytes.addAndGet(bytes);
+  }
+
+  public void releaseBufferedBytes(long bytes) {
+    bufferedBytes.addAndGet(-bytes);
+  }
+
+  /**
+   * @return true if scanners have so many bytes waiting to be sent that they should not produce any more for now.
+   */
+  public boolean isBufferFull() {
+    return bufferedBytes.get() >= maxBufferedBytes;
+  }
+
+  private class Lease {
+    private final long scannerId;
+    private final Channel<Integer> channel;
+    private final Runnable closer;
+    private volatile long lastRenewedNanos = System.nanoTime();
+    private volatile Timeout timeout;
+
+    private Lease(long scannerId, Channel<Integer> channel, Runnable closer) {
+      this.scannerId = scannerId;
+      this.channel = channel;
+      this.closer = closer;
+    }
+
+    private void renew() {
+      lastRenewedNanos = System.nanoTime();
+    }
+
+    /**
+     * Rather than cancelling and rescheduling the timeout on every renewal, let it fire, and then reschedule it
+     * for the rest of the lease if the lease has been renewed in the meantime.
+     */
+    private void schedule(long delayMillis) {
+      timeout = leaseTimer.newTimeout((t) -> checkExpiry(), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void checkExpiry() {
+      if (scannerMap.get(scannerId) != this) {
+        return;
+      }
+      final long idleMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastRenewedNanos);
+      if (idleMillis < leaseMillis) {
+        schedule(leaseMillis - idleMillis);
+      } else if (scannerMap.remove(scannerId, this)) {
+        openScanners.decrementAndGet();
+        LOG.info("Closing scanner {}, idle for {}ms", scannerId, idleMillis);
+        closer.run();
+      }
+    }
+
+    private void cancel() {
+      final Timeout currentTimeout = timeout;
+      if (currentTimeout != null) {
+        currentTimeout.cancel();
+      }
+    }
   }
 }
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.regionserver;
+
+import c5db.C5ServerConstants;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.codec.ByteToMessageDecoder;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * The first handler on every region server connection. It looks at the first bytes the client sends to decide which
+ * transport the connection uses, sets up the pipeline for that transport, and then removes itself, passing on
+ * whatever it has read.
+ * <p>
+ * Clients using the binary transport open the connection with BINARY_TRANSPORT_PREAMBLE, and then send
+ * varint-length-prefixed Calls. Anything else is taken to be an HTTP request to upgrade to a websocket; the preamble
+ * can not be mistaken for one, as no HTTP method begins with it.
+ */
+public class TransportSelectionHandler extends ByteToMessageDecoder {
+  private static final byte[] PREAMBLE = C5ServerConstants.BINARY_TRANSPORT_PREAMBLE;
+
+  private final Consumer<ChannelPipeline> websocketTransport;
+  private final Consumer<ChannelPipeline> binaryTransport;
+
+  /**
+   * @param websocketTransport Adds the handlers for the websocket transport to the end of a pipeline
+   * @param binaryTransport    Adds the handlers for the binary transport to the end of a pipeline
+   */
+  public TransportSelectionHandler(Consumer<ChannelPipeline> websocketTransport,
+                                   Consumer<ChannelPipeline> binaryTransport) {
+    this.websocketTransport = websocketTransport;
+    this.binaryTransport = binaryTransport;
+  }
+
+  @Override
+  protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+    final int bytesToCheck = Math.min(in.readableBytes(), PREAMBLE.length);
+    for (int i = 0; i < bytesToCheck; i++) {
+      if (in.getByte(in.readerIndex() + i) != PREAMBLE[i]) {
+        websocketTransport.accept(ctx.pipeline());
+        ctx.pipeline().remove(this);
+        return;
+      }
+    }
+
+    if (bytesToCheck == PREAMBLE.length) {
+      in.skipBytes(PREAMBLE.length);
+      binaryTransport.accept(ctx.pipeline());
+      ctx.pipeline().remove(this);
+    }
+  }
+}
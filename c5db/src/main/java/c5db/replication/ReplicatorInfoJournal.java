@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.replication;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Persists the current term and vote of every quorum on this node in a single append-only journal.
+ * <p/>
+ * Each write appends a small checksummed binary record. Concurrent writers are group committed:
+ * one thread writes everything pending with one fsync, while the rest wait for it, so an election
+ * across many quorums costs about one IO instead of one file rewrite per quorum. A write does not
+ * return until its record is durable.
+ * <p/>
+ * When the journal grows large it is compacted by writing the latest record for each quorum to a
+ * new file, then atomically renaming it over the old one. On open, a torn or corrupt record at the
+ * tail is discarded.
+ * <p/>
+ * Quorums which have no record in the journal fall back to a legacy store, so that state written
+ * by the old one-file-per-quorum {@link Persister} is still honored.
+ */
+class ReplicatorInfoJournal implements ReplicatorInfoPersistence {
+  private static final Logger LOG = LoggerFactory.getLogger(ReplicatorInfoJournal.class);
+
+  // quorumId length + term + votedFor + crc, not counting the quorumId itself
+  private static final int RECORD_OVERHEAD = 4 + 8 + 8 + 4;
+  private static final long MIN_COMPACTION_SIZE = 1024 * 1024;
+  private static final int MAX_QUORUM_ID_LENGTH = 64 * 1024;
+
+  private final Path journalPath;
+  private final ReplicatorInfoPersistence legacy;
+
+  private final Object lock = new Object();
+
+  // All guarded by lock
+  private final Map<String, TermAndVote> latest = new HashMap<>();
+  private List<ByteBuffer> pending = new ArrayList<>();
+  private long enqueuedSeq = 0;
+  private long durableSeq = 0;
+  private boolean flushing = false;
+  private IOException failure = null;
+  private boolean opened = false;
+
+  // Only touched by the thread which is flushing, or under lock while no thread is: when opening, and when closing,
+  // which waits for writes in progress to be flushed.
+  private FileChannel channel;
+
+  ReplicatorInfoJournal(Path journalPath, ReplicatorInfoPersistence legacy) {
+    this.journalPath = journalPath;
+    this.legacy = legacy;
+  }
+
+  @Override
+  public long readCurrentTerm(String quorumId) throws IOException {
+    TermAndVote termAndVote = getLatest(quorumId);
+    return termAndVote == null ? legacy.readCurrentTerm(quorumId) : termAndVote.term;
+  }
+
+  @Override
+  public long readVotedFor(String quorumId) throws IOException {
+    TermAndVote termAndVote = getLatest(quorumId);
+    return termAndVote == null ? legacy.readVotedFor(quorumId) : termAndVote.votedFor;
+  }
+
+  @Override
+  public void writeCurrentTermAndVotedFor(String quorumId, long currentTerm, long votedFor) throws IOException {
+    final long mySeq;
+    synchronized (lock) {
+      ensureOpen();
+      latest.put(quorumId, new TermAndVote(currentTerm, votedFor));
+      pending.add(encodeRecord(quorumId, currentTerm, votedFor));
+      mySeq = ++enqueuedSeq;
+    }
+
+    while (true) {
+      final List<ByteBuffer> batch;
+      final long batchSeq;
+
+      synchronized (lock) {
+        while (flushing && durableSeq < mySeq && failure == null) {
+          try {
+            lock.wait();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for term and vote to be persisted");
+          }
+        }
+        if (durableSeq >= mySeq) {
+          return;
+        }
+        if (failure != null) {
+          throw new IOException("replication info journal has failed", failure);
+        }
+
+        flushing = true;
+        batch = pending;
+        batchSeq = enqueuedSeq;
+        pending = new ArrayList<>();
+      }
+
+      IOException error = null;
+      try {
+        writeAndSync(batch);
+      } catch (IOException e) {
+        error = e;
+      }
+
+      synchronized (lock) {
+        flushing = false;
+        if (error == null) {
+          durableSeq = batchSeq;
+        } else {
+          failure = error;
+        }
+        lock.notifyAll();
+      }
+
+      if (error != null) {
+        throw error;
+      }
+    }
+  }
+
+  /**
+   * Close the journal, once every write already begun has been flushed; a flush is never cut off, nor left to write
+   * to a closed channel. A write begun later opens the journal again.
+   */
+  public void close() throws IOException {
+    synchronized (lock) {
+      while (flushing || (durableSeq < enqueuedSeq && failure == null)) {
+        try {
+          lock.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("interrupted waiting for term and vote writes to be persisted");
+        }
+      }
+      if (channel != null) {
+        channel.close();
+        channel = null;
+      }
+      opened = false;
+    }
+  }
+
+  private TermAndVote getLatest(String quorumId) throws IOException {
+    synchronized (lock) {
+      ensureOpen();
+      return latest.get(quorumId);
+    }
+  }
+
+  /**
+   * Open the journal and replay it into memory.  Must hold lock.
+   */
+  private void ensureOpen() throws IOException {
+    if (opened) {
+      return;
+    }
+
+    Files.createDirectories(journalPath.getParent());
+    channel = FileChannel.open(journalPath, CREATE, READ, WRITE);
+
+    long validLength = replay();
+    if (validLength < channel.size()) {
+      LOG.warn("discarding {} bytes of torn or corrupt records at the end of {}",
+          channel.size() - validLength, journalPath);
+      channel.truncate(validLength);
+      channel.force(true);
+    }
+    channel.position(validLength);
+    opened = true;
+  }
+
+  private long replay() throws IOException {
+    ByteBuffer contents = ByteBuffer.allocate((int) channel.size());
+    while (contents.hasRemaining()) {
+      if (channel.read(contents, contents.position()) < 0) {
+        break;
+      }
+    }
+    contents.flip();
+
+    long validLength = 0;
+    while (contents.remaining() >= RECORD_OVERHEAD) {
+      int start = contents.position();
+      int quorumIdLength = contents.getInt();
+      if (quorumIdLength < 0 || quorumIdLength > MAX_QUORUM_ID_LENGTH
+          || contents.remaining() < quorumIdLength + RECORD_OVERHEAD - 4) {
+        break;
+      }
+
+      byte[] quorumIdBytes = new byte[quorumIdLength];
+      contents.get(quorumIdBytes);
+      long term = contents.getLong();
+      long votedFor = contents.getLong();
+      int crc = contents.getInt();
+
+      if (crc != crcOf(contents, start, contents.position() - 4)) {
+        break;
+      }
+
+      latest.put(new String(quorumIdBytes, StandardCharsets.UTF_8), new TermAndVote(term, votedFor));
+      validLength = contents.position();
+    }
+    return validLength;
+  }
+
+  /**
+   * Called by the single flushing thread, without holding lock.
+   */
+  private void writeAndSync(List<ByteBuffer> batch) throws IOException {
+    ByteBuffer[] buffers = batch.toArray(new ByteBuffer[batch.size()]);
+    long remaining = 0;
+    for (ByteBuffer buffer : buffers) {
+      remaining += buffer.remaining();
+    }
+    while (remaining > 0) {
+      remaining -= channel.write(buffers);
+    }
+    channel.force(false);
+
+    if (channel.size() > compactionThreshold()) {
+      compact();
+    }
+  }
+
+  private long compactionThreshold() {
+    synchronized (lock) {
+      return Math.max(MIN_COMPACTION_SIZE, 4L * latest.size() * (RECORD_OVERHEAD + 64));
+    }
+  }
+
+  /**
+   * Rewrite the journal with only the latest record for each quorum.
+   */
+  private void compact() throws IOException {
+    List<ByteBuffer> snapshot = new ArrayList<>();
+    synchronized (lock) {
+      for (Map.Entry<String, TermAndVote> entry : latest.entrySet()) {
+        snapshot.add(encodeRecord(entry.getKey(), entry.getValue().term, entry.getValue().votedFor));
+      }
+    }
+
+    Path compactedPath = journalPath.resolveSibling(journalPath.getFileName() + ".compacting");
+    try (FileChannel compacted = FileChannel.open(compactedPath, CREATE, WRITE, TRUNCATE_EXISTING)) {
+      for (ByteBuffer record : snapshot) {
+        while (record.hasRemaining()) {
+          compacted.write(record);
+        }
+      }
+      compacted.force(true);
+    }
+
+    Files.move(compactedPath, journalPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    // The rename is only durable once the directory is; until then a crash could bring back the old journal.
+    syncDirectory(journalPath.toAbsolutePath().getParent());
+
+    FileChannel oldChannel = channel;
+    channel = FileChannel.open(journalPath, READ, WRITE);
+    channel.position(channel.size());
+    oldChannel.close();
+  }
+
+  private static void syncDirectory(Path directory) throws IOException {
+    try (FileChannel directoryChannel = FileChannel.open(directory, READ)) {
+      directoryChannel.force(true);
+    }
+  }
+
+  private static ByteBuffer encodeRecord(String quorumId, long term, long votedFor) {
+    byte[] quorumIdBytes = quorumId.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer record = ByteBuffer.allocate(RECORD_OVERHEAD + quorumIdBytes.length);
+    record.putInt(quorumIdBytes.length);
+    record.put(quorumIdBytes);
+    record.putLong(term);
+    record.putLong(votedFor);
+    record.putInt(crcOf(record, 0, record.position()));
+    record.flip();
+    return record;
+  }
+
+  private static int crcOf(ByteBuffer buffer, int from, int to) {
+    CRC32 crc = new CRC32();
+    for (int i = from; i < to; i++) {
+      crc.update(buffer.get(i));
+    }
+    return (int) crc.getValue();
+  }
+
+  private static class TermAndVote {
+    final long term;
+    final long votedFor;
+
+    TermAndVote(long term, long votedFor) {
+      this.term = term;
+      this.votedFor = votedFor;
+    }
+  }
+}
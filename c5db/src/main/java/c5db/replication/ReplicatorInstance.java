@@ -27,6 +27,8 @@ import c5db.replication.generated.AppendEntriesReply;
 import c5db.replication.generated.LogEntry;
 import c5db.replication.generated.RequestVote;
 import c5db.replication.generated.RequestVoteReply;
+import c5db.replication.generated.TimeoutNow;
+import c5db.replication.generated.TimeoutNowReply;
 import c5db.replication.rpc.RpcReply;
 import c5db.replication.rpc.RpcRequest;
 import c5db.replication.rpc.RpcWireReply;
@@ -62,6 +64,8 @@ import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.TimeUnit;
 
 
@@ -105,6 +109,24 @@ public class ReplicatorInstance implements Replicator {
   private long myFirstIndexAsLeader;
   private long lastCommittedIndex;
 
+  // Leadership transfer in progress: the peer being handed leadership, or 0 if none. While this is
+  // set the leader refuses new writes, so the target can catch up and then take over.
+  private volatile long transferTarget = 0;
+  private long transferStartTime;
+  private boolean transferTimeoutNowSent;
+  private SettableFuture<Boolean> transferFuture;
+
+  /**
+   * state used by follower
+   */
+
+  // How many commit indexes behind the leader's latest we bother remembering receipt times for.
+  private static final long MAX_TRACKED_LEADER_COMMITS = 1000;
+
+  // Leader commit index -> the most recent time we heard the leader report it. Written only from
+  // the fiber, read by other threads through getStalenessMillis.
+  private final ConcurrentNavigableMap<Long, Long> leaderCommitReceiptTimes = new ConcurrentSkipListMap<>();
+
   /**
    * state, in theory persistent
    */
@@ -118,11 +140,13 @@ public class ReplicatorInstance implements Replicator {
    * state, not persistent
    */
 
-  State myState = State.FOLLOWER;
+  volatile State myState = State.FOLLOWER;
 
   // Election timers, etc.
   private long lastRPC;
-  private long whosLeader = 0;
+  private volatile long whosLeader = 0;
+  // Earliest time we may start another pre-vote after the last one failed.
+  private long nextPreVoteTime = 0;
   @SuppressWarnings("UnusedDeclaration")
   private final Disposable electionChecker;
 
@@ -268,6 +292,11 @@ public class ReplicatorInstance implements Replicator {
       return null;
     }
 
+    if (transferTarget != 0) {
+      logger.debug("attempted to logData while transferring leadership to {}", transferTarget);
+      return null;
+    }
+
     InternalReplicationRequest req = InternalReplicationRequest.toLogData(data);
     logRequests.put(req);
 
@@ -285,6 +314,45 @@ public class ReplicatorInstance implements Replicator {
     return myState == State.LEADER;
   }
 
+  @Override
+  public long getLeader() {
+    return whosLeader;
+  }
+
+  @Override
+  public ListenableFuture<List<LogEntry>> getCommittedEntries(long start, long end) {
+    final SettableFuture<List<LogEntry>> future = SettableFuture.create();
+    fiber.execute(() -> {
+      long committedEnd = Math.min(end, lastCommittedIndex + 1);
+      if (committedEnd <= start) {
+        future.set(Collections.emptyList());
+        return;
+      }
+      C5Futures.addCallback(log.getLogEntries(start, committedEnd), future::set, future::setException, fiber);
+    });
+    return future;
+  }
+
+  @Override
+  public ListenableFuture<Boolean> transferLeadership(long targetPeerId) {
+    final SettableFuture<Boolean> future = SettableFuture.create();
+    fiber.execute(() -> startLeadershipTransfer(targetPeerId, future));
+    return future;
+  }
+
+  @Override
+  public long getStalenessMillis(long appliedIndex) {
+    if (isLeader()) {
+      return 0;
+    }
+
+    Map.Entry<Long, Long> receipt = leaderCommitReceiptTimes.floorEntry(appliedIndex);
+    if (receipt == null) {
+      return Long.MAX_VALUE;
+    }
+    return Math.max(0, info.currentTimeMillis() - receipt.getValue());
+  }
+
   @Override
   public void start() {
     logger.debug("started {} with election timeout {}", this.quorumId, this.myElectionTimeout);
@@ -431,6 +499,9 @@ public class ReplicatorInstance implements Replicator {
       } else if (req.isAppendMessage()) {
         doAppendMessage(message);
 
+      } else if (req.isTimeoutNowMessage()) {
+        doTimeoutNow(message);
+
       } else {
         logger.warn("got a message of protobuf type I don't know: {}", req);
       }
@@ -444,6 +515,11 @@ public class ReplicatorInstance implements Replicator {
   private void doRequestVote(Request<RpcWireRequest, RpcReply> message) {
     RequestVote msg = message.getRequest().getRequestVoteMessage();
 
+    if (msg.getPreVote()) {
+      doPreVote(message);
+      return;
+    }
+
     // 1. Return if term < currentTerm (sec 5.1)
     if (msg.getTerm() < currentTerm) {
       RequestVoteReply m = new RequestVoteReply(currentTerm, false);
@@ -470,9 +546,7 @@ public class ReplicatorInstance implements Replicator {
     // and reset election timeout.
 
     boolean vote = false;
-    if ((log.getLastTerm() <= msg.getLastLogTerm())
-        &&
-        log.getLastIndex() <= msg.getLastLogIndex()) {
+    if (candidateLogIsUpToDate(msg)) {
       // we can vote for this because the candidate's log is at least as
       // complete as the local log.
 
@@ -489,6 +563,55 @@ public class ReplicatorInstance implements Replicator {
     message.reply(reply);
   }
 
+  /**
+   * Answer a pre-vote, without changing our term or vote. We would vote for the candidate only if
+   * its log is up to date and we have not heard from a leader within an election timeout; so a peer
+   * which has merely lost contact with a healthy leader can't push the quorum into a new term.
+   */
+  @FiberOnly
+  private void doPreVote(Request<RpcWireRequest, RpcReply> message) {
+    RequestVote msg = message.getRequest().getRequestVoteMessage();
+
+    boolean vote = msg.getTerm() > currentTerm
+        && candidateLogIsUpToDate(msg)
+        && myState != State.LEADER
+        && lastRPC + myElectionTimeout < info.currentTimeMillis();
+
+    logger.debug("sending pre-vote reply to {} for term {}, vote = {}",
+        message.getRequest().from, msg.getTerm(), vote);
+    RequestVoteReply m = new RequestVoteReply(currentTerm, vote);
+    message.reply(new RpcReply(m));
+  }
+
+  private boolean candidateLogIsUpToDate(RequestVote msg) {
+    return log.getLastTerm() <= msg.getLastLogTerm()
+        && log.getLastIndex() <= msg.getLastLogIndex();
+  }
+
+  /**
+   * The leader is handing leadership to us: it has stopped taking writes and we have its whole log,
+   * so start an election right away rather than waiting to time out.
+   */
+  @FiberOnly
+  private void doTimeoutNow(Request<RpcWireRequest, RpcReply> message) {
+    TimeoutNow msg = message.getRequest().getTimeoutNowMessage();
+
+    boolean willCampaign = msg.getTerm() == currentTerm
+        && msg.getLeaderId() == whosLeader
+        && myState == State.FOLLOWER
+        && quorumConfig.allPeers().contains(myId);
+
+    message.reply(new RpcReply(new TimeoutNowReply(currentTerm, willCampaign)));
+
+    if (willCampaign) {
+      logger.info("leader {} is transferring leadership to me, starting an election", whosLeader);
+      doElection();
+    } else {
+      logger.warn("ignoring TimeoutNow from {} in term {}; currentTerm {}, leader {}, state {}",
+          message.getRequest().from, msg.getTerm(), currentTerm, whosLeader, myState);
+    }
+  }
+
   @FiberOnly
   private void doAppendMessage(final Request<RpcWireRequest, RpcReply> request) {
     final AppendEntries appendMessage = request.getRequest().getAppendMessage();
@@ -511,6 +634,7 @@ public class ReplicatorInstance implements Replicator {
 
     // 4. reset election timeout
     lastRPC = info.currentTimeMillis();
+    recordLeaderCommitIndex(appendMessage.getCommitIndex(), lastRPC);
 
     long theLeader = appendMessage.getLeaderId();
     if (whosLeader != theLeader) {
@@ -574,6 +698,16 @@ public class ReplicatorInstance implements Replicator {
         }, fiber);
   }
 
+  /**
+   * Remember when the leader told us about a given commit index. As long as we have applied
+   * everything up through that index, our reads are no older than that moment.
+   */
+  @FiberOnly
+  private void recordLeaderCommitIndex(long leaderCommitIndex, long receiptTime) {
+    leaderCommitReceiptTimes.put(leaderCommitIndex, receiptTime);
+    leaderCommitReceiptTimes.headMap(leaderCommitIndex - MAX_TRACKED_LEADER_COMMITS).clear();
+  }
+
   private void appendReply(Request<RpcWireRequest, RpcReply> request, boolean success) {
     AppendEntriesReply m = new AppendEntriesReply(currentTerm, success, 0);
     RpcReply reply = new RpcReply(m);
@@ -675,6 +809,64 @@ public class ReplicatorInstance implements Replicator {
     if (lastRPC + this.myElectionTimeout < info.currentTimeMillis()
         && quorumConfig.allPeers().contains(myId)) {
       logger.trace("timed out checking on election, try new election");
+      startPreVote();
+    }
+  }
+
+  /**
+   * Before bumping the term and calling an election, ask the peers whether they would vote for us.
+   * Only if a majority would do we start the real election (sec 9.6 of the Raft thesis). A peer that
+   * was partitioned away therefore can't disrupt the quorum when it comes back.
+   */
+  @FiberOnly
+  private void startPreVote() {
+    final long now = info.currentTimeMillis();
+    if (now < nextPreVoteTime) {
+      return;
+    }
+    nextPreVoteTime = now + myElectionTimeout;
+
+    final long termOfPreVote = currentTerm;
+    final Set<Long> votes = new HashSet<>();
+    RequestVote msg = new RequestVote(currentTerm + 1, myId, log.getLastIndex(), log.getLastTerm(), true);
+
+    logger.debug("starting pre-vote for term: {}", currentTerm + 1);
+
+    for (long peer : quorumConfig.allPeers()) {
+      RpcRequest req = new RpcRequest(peer, myId, quorumId, msg);
+      AsyncRequest.withOneReply(fiber, sendRpcChannel, req,
+          message -> handlePreVoteReply(message, termOfPreVote, votes),
+          1, TimeUnit.SECONDS, () -> logger.trace("pre-vote request to {} timed out", peer));
+    }
+  }
+
+  @FiberOnly
+  private void handlePreVoteReply(RpcWireReply message, long termOfPreVote, Set<Long> votes) {
+    if (message == null) {
+      logger.warn("got a NULL pre-vote reply, that's unfortunate");
+      return;
+    }
+
+    // An election (ours or someone else's) has happened since, so this pre-vote is moot.
+    if (currentTerm != termOfPreVote || myState == State.LEADER) {
+      return;
+    }
+
+    RequestVoteReply reply = message.getRequestVoteReplyMessage();
+
+    if (reply.getTerm() > currentTerm) {
+      logger.debug("pre-vote reply from {} has term {} > currentTerm {}, updating currentTerm",
+          message.from, reply.getTerm(), currentTerm);
+      setCurrentTerm(reply.getTerm());
+      return;
+    }
+
+    if (reply.getVoteGranted()) {
+      votes.add(message.from);
+    }
+
+    if (votesConstituteMajority(votes)) {
+      logger.debug("won pre-vote for term {}, starting election", currentTerm + 1);
       doElection();
     }
   }
@@ -697,7 +889,7 @@ public class ReplicatorInstance implements Replicator {
     setCurrentTerm(currentTerm + 1);
     myState = State.CANDIDATE;
 
-    RequestVote msg = new RequestVote(currentTerm, myId, log.getLastIndex(), log.getLastTerm());
+    RequestVote msg = new RequestVote(currentTerm, myId, log.getLastIndex(), log.getLastTerm(), false);
 
     logger.debug("starting election for currentTerm: {}", currentTerm);
 
@@ -815,6 +1007,7 @@ public class ReplicatorInstance implements Replicator {
     myState = State.FOLLOWER;
 
     if (wasLeader) {
+      stateMemoryChannel.publish(State.FOLLOWER);
       stateChangeChannel.publish(
           new ReplicatorInstanceEvent(
               ReplicatorInstanceEvent.EventType.LEADER_DEPOSED,
@@ -826,6 +1019,7 @@ public class ReplicatorInstance implements Replicator {
     }
 
     stopQueueConsumer();
+    finishLeadershipTransfer(true);
   }
 
   @FiberOnly
@@ -841,6 +1035,7 @@ public class ReplicatorInstance implements Replicator {
     logger.warn("I AM THE LEADER NOW, commence AppendEntries RPCs term = {}", currentTerm);
 
     myState = State.LEADER;
+    leaderCommitReceiptTimes.clear();
     stateMemoryChannel.publish(State.LEADER);
 
     // Page 7, para 5
@@ -875,6 +1070,7 @@ public class ReplicatorInstance implements Replicator {
       try {
         consumeQueue();
         checkOnQuorumChange();
+        checkOnLeadershipTransfer();
       } catch (Throwable t) {
         logger.error("Exception in consumeQueue: ", t);
         failReplicatorInstance(t);
@@ -882,6 +1078,97 @@ public class ReplicatorInstance implements Replicator {
     }, 0, info.groupCommitDelay(), TimeUnit.MILLISECONDS);
   }
 
+  @FiberOnly
+  private void startLeadershipTransfer(long targetPeerId, SettableFuture<Boolean> future) {
+    if (myState != State.LEADER || transferTarget != 0) {
+      logger.debug("unable to transfer leadership: state {}, transfer target {}", myState, transferTarget);
+      future.set(false);
+      return;
+    }
+
+    final long target = targetPeerId == 0 ? mostUpToDatePeer() : targetPeerId;
+    if (target == 0 || target == myId || !quorumConfig.allPeers().contains(target)) {
+      logger.warn("unable to transfer leadership to {}, not another peer in {}", target, quorumConfig);
+      future.set(false);
+      return;
+    }
+
+    logger.info("transferring leadership to {}", target);
+    transferTarget = target;
+    transferFuture = future;
+    transferStartTime = info.currentTimeMillis();
+    transferTimeoutNowSent = false;
+
+    checkOnLeadershipTransfer();
+  }
+
+  /**
+   * Once the transfer target has acknowledged our whole log, tell it to start an election. Give up
+   * and resume taking writes if that hasn't happened within an election timeout.
+   */
+  @FiberOnly
+  private void checkOnLeadershipTransfer() {
+    if (transferTarget == 0) {
+      return;
+    }
+
+    if (info.currentTimeMillis() > transferStartTime + myElectionTimeout) {
+      logger.warn("leadership transfer to {} timed out", transferTarget);
+      finishLeadershipTransfer(false);
+      return;
+    }
+
+    if (!transferTimeoutNowSent
+        && peersLastAckedIndex.getOrDefault(transferTarget, 0L) >= log.getLastIndex()) {
+      sendTimeoutNow(transferTarget);
+    }
+  }
+
+  @FiberOnly
+  private void sendTimeoutNow(long target) {
+    transferTimeoutNowSent = true;
+
+    TimeoutNow msg = new TimeoutNow(currentTerm, myId);
+    RpcRequest request = new RpcRequest(target, myId, quorumId, msg);
+    AsyncRequest.withOneReply(fiber, sendRpcChannel, request, message -> {
+      TimeoutNowReply reply = message.getTimeoutNowReplyMessage();
+      if (!reply.getSuccess() && transferTarget == target) {
+        logger.warn("peer {} refused to take over leadership, its term is {}", target, reply.getTerm());
+        finishLeadershipTransfer(false);
+      }
+    }, 1, TimeUnit.SECONDS, () ->
+        // The transfer's own timeout will take care of it.
+        logger.trace("TimeoutNow to peer {} timed out", target));
+  }
+
+  /**
+   * @param steppedDown true if we are no longer the leader.
+   */
+  @FiberOnly
+  private void finishLeadershipTransfer(boolean steppedDown) {
+    if (transferTarget == 0) {
+      return;
+    }
+
+    SettableFuture<Boolean> future = transferFuture;
+    transferTarget = 0;
+    transferFuture = null;
+    future.set(steppedDown);
+  }
+
+  private long mostUpToDatePeer() {
+    long bestPeer = 0;
+    long bestIndex = -1;
+    for (long peer : allPeersExceptMe()) {
+      long ackedIndex = peersLastAckedIndex.getOrDefault(peer, 0L);
+      if (ackedIndex > bestIndex) {
+        bestPeer = peer;
+        bestIndex = ackedIndex;
+      }
+    }
+    return bestPeer;
+  }
+
   @FiberOnly
   private void consumeQueue() {
     // retrieve as many items as possible. send rpc.
@@ -1054,6 +1341,7 @@ public class ReplicatorInstance implements Replicator {
         peersLastAckedIndex.put(peer, lastIndexSent);
 
         checkIfMajorityCanCommit(lastIndexSent);
+        checkOnLeadershipTransfer();
       }
     }, 5, TimeUnit.SECONDS, () ->
         // Do nothing -> let next timeout handle things.
@@ -1124,9 +1412,9 @@ public class ReplicatorInstance implements Replicator {
 
   private void notifyLastCommitted() {
     if (lastCommittedIndex >= quorumConfigIndex) {
-      commitNoticeChannel.publish(new IndexCommitNotice(this, lastCommittedIndex, quorumConfig));
+      commitNoticeChannel.publish(new IndexCommitNotice(this, lastCommittedIndex, currentTerm, quorumConfig));
     } else {
-      commitNoticeChannel.publish(new IndexCommitNotice(this, lastCommittedIndex, null));
+      commitNoticeChannel.publish(new IndexCommitNotice(this, lastCommittedIndex, currentTerm, null));
     }
   }
 
@@ -17,6 +17,7 @@
 
 package c5db.replication;
 
+import c5db.ConfigDirectory;
 import c5db.codec.ProtostuffDecoder;
 import c5db.codec.ProtostuffEncoder;
 import c5db.interfaces.C5Module;
@@ -36,7 +37,9 @@ import c5db.replication.rpc.RpcReply;
 import c5db.replication.rpc.RpcRequest;
 import c5db.replication.rpc.RpcWireReply;
 import c5db.replication.rpc.RpcWireRequest;
+import c5db.util.C5Futures;
 import c5db.util.FiberOnly;
+import c5db.util.NettyTransport;
 import com.google.common.util.concurrent.AbstractService;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
@@ -52,13 +55,11 @@ import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.group.DefaultChannelGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.codec.protobuf.ProtobufVarint32FrameDecoder;
 import io.netty.handler.codec.protobuf.ProtobufVarint32LengthFieldPrepender;
 import io.netty.util.concurrent.Future;
@@ -76,6 +77,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -209,8 +211,8 @@ public class ReplicatorService extends AbstractService implements ReplicationMod
   private final int port;
   private final C5Server server;
   private final Fiber fiber;
-  private final NioEventLoopGroup bossGroup;
-  private final NioEventLoopGroup workerGroup;
+  private final EventLoopGroup bossGroup;
+  private final EventLoopGroup workerGroup;
 
   private final Map<Long, Channel> connections = new HashMap<>();
   private final Map<String, ReplicatorInstance> replicatorInstances = new HashMap<>();
@@ -221,7 +223,7 @@ public class ReplicatorService extends AbstractService implements ReplicationMod
   private final Map<Session, Long> outstandingRPCbySession = new HashMap<>();
 
   private final RequestChannel<RpcRequest, RpcWireReply> outgoingRequests = new MemoryRequestChannel<>();
-  private final Persister persister;
+  private final ReplicatorInfoJournal persister;
 
   private ServerBootstrap serverBootstrap;
   private Bootstrap outgoingBootstrap;
@@ -233,8 +235,8 @@ public class ReplicatorService extends AbstractService implements ReplicationMod
 
   private long messageIdGen = 1;
 
-  public ReplicatorService(NioEventLoopGroup bossGroup,
-                           NioEventLoopGroup workerGroup,
+  public ReplicatorService(EventLoopGroup bossGroup,
+                           EventLoopGroup workerGroup,
                            int port, C5Server server) {
     this.bossGroup = bossGroup;
     this.workerGroup = workerGroup;
@@ -243,7 +245,10 @@ public class ReplicatorService extends AbstractService implements ReplicationMod
     this.fiber = server.getFiberFactory(this::failModule).create();
     this.allChannels = new DefaultChannelGroup(workerGroup.next());
 
-    this.persister = new Persister(server.getConfigDirectory());
+    ConfigDirectory configDirectory = server.getConfigDirectory();
+    this.persister = new ReplicatorInfoJournal(
+        configDirectory.getBaseConfigPath().resolve(ConfigDirectory.replicationInfoJournalFile),
+        new Persister(configDirectory));
   }
 
   /**
@@ -514,8 +519,7 @@ public class ReplicatorService extends AbstractService implements ReplicationMod
               };
 
               serverBootstrap = new ServerBootstrap();
-              serverBootstrap.group(bossGroup, workerGroup)
-                  .channel(NioServerSocketChannel.class)
+              NettyTransport.configure(serverBootstrap.group(bossGroup, workerGroup))
                   .option(ChannelOption.SO_REUSEADDR, true)
                   .option(ChannelOption.SO_BACKLOG, 100)
                   .childOption(ChannelOption.TCP_NODELAY, true)
@@ -532,8 +536,7 @@ public class ReplicatorService extends AbstractService implements ReplicationMod
               });
 
               outgoingBootstrap = new Bootstrap();
-              outgoingBootstrap.group(workerGroup)
-                  .channel(NioSocketChannel.class)
+              NettyTransport.configure(outgoingBootstrap.group(workerGroup))
                   .option(ChannelOption.SO_REUSEADDR, true)
                   .option(ChannelOption.TCP_NODELAY, true)
                   .handler(initer);
@@ -598,23 +601,43 @@ public class ReplicatorService extends AbstractService implements ReplicationMod
 
   @Override
   protected void doStop() {
-    fiber.execute(new Runnable() {
-      @Override
-      public void run() {
-        final AtomicInteger countDown = new AtomicInteger(1);
-        GenericFutureListener<? extends Future<? super Void>> listener = future -> {
-          if (countDown.decrementAndGet() == 0) {
-            notifyStopped();
-          }
-
-        };
-        if (listenChannel != null) {
-          countDown.incrementAndGet();
-          listenChannel.close().addListener(listener);
+    fiber.execute(() -> {
+      // Hand off leadership of our quorums first, so that a planned restart doesn't leave them
+      // without a leader (and unable to take writes) until an election timeout passes.
+      List<ListenableFuture<Boolean>> transfers = new ArrayList<>();
+      for (ReplicatorInstance instance : replicatorInstances.values()) {
+        if (instance.isLeader()) {
+          transfers.add(instance.transferLeadership(0));
         }
-
-        allChannels.close().addListener(listener);
       }
+
+      C5Futures.addCallback(Futures.successfulAsList(transfers),
+          (ignore) -> closeChannelsAndStop(),
+          (t) -> closeChannelsAndStop(),
+          fiber);
     });
   }
+
+  @FiberOnly
+  private void closeChannelsAndStop() {
+    final AtomicInteger countDown = new AtomicInteger(1);
+    GenericFutureListener<? extends Future<? super Void>> listener = future -> {
+      if (countDown.decrementAndGet() == 0) {
+        notifyStopped();
+      }
+
+    };
+    if (listenChannel != null) {
+      countDown.incrementAndGet();
+      listenChannel.close().addListener(listener);
+    }
+
+    allChannels.close().addListener(listener);
+
+    try {
+      persister.close();
+    } catch (IOException e) {
+      LOG.error("unable to close replication info journal", e);
+    }
+  }
 }
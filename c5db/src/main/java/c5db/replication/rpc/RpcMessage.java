@@ -22,6 +22,8 @@ import c5db.replication.generated.AppendEntriesReply;
 import c5db.replication.generated.ReplicationWireMessage;
 import c5db.replication.generated.RequestVote;
 import c5db.replication.generated.RequestVoteReply;
+import c5db.replication.generated.TimeoutNow;
+import c5db.replication.generated.TimeoutNowReply;
 import io.protostuff.Message;
 
 /**
@@ -72,6 +74,14 @@ public class RpcMessage {
       return wireMessage.getRequestVoteReply();
     }
 
+    if (wireMessage.getTimeoutNow() != null) {
+      return wireMessage.getTimeoutNow();
+    }
+
+    if (wireMessage.getTimeoutNowReply() != null) {
+      return wireMessage.getTimeoutNowReply();
+    }
+
     return null;
   }
 
@@ -95,7 +105,9 @@ public class RpcMessage {
         getRequestVoteMessage(),
         getRequestVoteReplyMessage(),
         getAppendMessage(),
-        getAppendReplyMessage()
+        getAppendReplyMessage(),
+        getTimeoutNowMessage(),
+        getTimeoutNowReplyMessage()
     );
   }
 
@@ -116,6 +128,14 @@ public class RpcMessage {
     return message instanceof RequestVoteReply;
   }
 
+  public boolean isTimeoutNowMessage() {
+    return message instanceof TimeoutNow;
+  }
+
+  public boolean isTimeoutNowReplyMessage() {
+    return message instanceof TimeoutNowReply;
+  }
+
   public AppendEntries getAppendMessage() {
     if (isAppendMessage()) {
       return (AppendEntries) message;
@@ -143,4 +163,18 @@ public class RpcMessage {
     }
     return null;
   }
+
+  public TimeoutNow getTimeoutNowMessage() {
+    if (isTimeoutNowMessage()) {
+      return (TimeoutNow) message;
+    }
+    return null;
+  }
+
+  public TimeoutNowReply getTimeoutNowReplyMessage() {
+    if (isTimeoutNowReplyMessage()) {
+      return (TimeoutNowReply) message;
+    }
+    return null;
+  }
 }
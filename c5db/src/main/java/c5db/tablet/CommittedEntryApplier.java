@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.tablet;
+
+import c5db.generated.RegionWalEntry;
+import c5db.interfaces.replication.IndexCommitNotice;
+import c5db.interfaces.replication.Replicator;
+import c5db.replication.generated.LogEntry;
+import c5db.util.C5Futures;
+import c5db.util.FiberOnly;
+import io.protostuff.ByteBufferInput;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Durability;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.jetlang.fibers.Fiber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Applies committed log entries to a tablet's region, so a follower's region keeps up with its
+ * leader's and can take over without replaying the log.
+ * <p/>
+ * Entries are read back from the replicator in batches and written to the region with a single
+ * batchMutate, skipping the WAL (the replicated log already holds them). Entries which this node
+ * wrote itself as leader are already in the region, and are only counted as applied.
+ * <p/>
+ * Everything except getLastAppliedIndex must run on the tablet's fiber.
+ */
+public class CommittedEntryApplier {
+  private static final Logger LOG = LoggerFactory.getLogger(CommittedEntryApplier.class);
+
+  // Upper bound on the number of entries read back from the log and applied at once.
+  static final int MAX_ENTRIES_PER_BATCH = 1000;
+
+  private final Replicator replicator;
+  private final Region region;
+  private final Fiber fiber;
+  private final Consumer<Throwable> failureHandler;
+
+  private volatile long lastAppliedIndex = 0;
+  private long lastAppliedTerm = 0;
+  private long lastCommittedIndex = 0;
+  // The term in which this node is leader, or 0 if it is not the leader.
+  private long leaderTerm = 0;
+  private boolean applyInProgress = false;
+
+  public CommittedEntryApplier(Replicator replicator,
+                               Region region,
+                               Fiber fiber,
+                               Consumer<Throwable> failureHandler) {
+    this.replicator = replicator;
+    this.region = region;
+    this.fiber = fiber;
+    this.failureHandler = failureHandler;
+  }
+
+  /**
+   * @return the index of the last log entry reflected in the region.
+   */
+  public long getLastAppliedIndex() {
+    return lastAppliedIndex;
+  }
+
+  @FiberOnly
+  public void onCommitNotice(IndexCommitNotice notice, boolean isLeader) {
+    lastCommittedIndex = Math.max(lastCommittedIndex, notice.committedIndex);
+    leaderTerm = isLeader ? notice.term : 0;
+    maybeApplyMore();
+  }
+
+  @FiberOnly
+  private void maybeApplyMore() {
+    if (applyInProgress || lastAppliedIndex >= lastCommittedIndex) {
+      return;
+    }
+
+    // Log terms never decrease, so once we reach an entry from our own leadership, everything
+    // after it is from our own leadership too, and is already in the region.
+    if (leaderTerm != 0 && lastAppliedTerm >= leaderTerm) {
+      lastAppliedIndex = lastCommittedIndex;
+      return;
+    }
+
+    long start = lastAppliedIndex + 1;
+    long end = Math.min(lastCommittedIndex, lastAppliedIndex + MAX_ENTRIES_PER_BATCH) + 1;
+    applyInProgress = true;
+    C5Futures.addCallback(replicator.getCommittedEntries(start, end),
+        this::applyEntries,
+        this::applyFailed,
+        fiber);
+  }
+
+  @FiberOnly
+  private void applyEntries(List<LogEntry> entries) {
+    applyInProgress = false;
+    if (entries.isEmpty()) {
+      return;
+    }
+
+    try {
+      List<Mutation> mutations = toMutations(entries);
+      if (!mutations.isEmpty()) {
+        region.batchMutate(mutations.toArray(new Mutation[mutations.size()]));
+      }
+    } catch (IOException e) {
+      applyFailed(e);
+      return;
+    }
+
+    LogEntry lastEntry = entries.get(entries.size() - 1);
+    lastAppliedIndex = lastEntry.getIndex();
+    lastAppliedTerm = lastEntry.getTerm();
+    LOG.trace("applied committed entries up to {}", lastAppliedIndex);
+
+    maybeApplyMore();
+  }
+
+  @FiberOnly
+  private void applyFailed(Throwable t) {
+    applyInProgress = false;
+    LOG.error("unable to apply committed entries after index {}", lastAppliedIndex, t);
+    failureHandler.accept(t);
+  }
+
+  /**
+   * Turn log entries into mutations, merging runs of cells for the same row and of the same kind
+   * into a single mutation.
+   */
+  private List<Mutation> toMutations(List<LogEntry> entries) throws IOException {
+    List<Mutation> mutations = new ArrayList<>();
+    Mutation current = null;
+
+    for (LogEntry entry : entries) {
+      if (leaderTerm != 0 && entry.getTerm() >= leaderTerm) {
+        continue;
+      }
+      if (entry.getDataList().isEmpty()) {
+        // quorum configuration entry; nothing to apply to the region
+        continue;
+      }
+
+      KeyValue kv = toKeyValue(decodeEntry(entry.getDataList()));
+      boolean isDelete = kv.isDelete();
+      if (current == null
+          || isDelete != (current instanceof Delete)
+          || !Bytes.equals(current.getRow(), kv.getRow())) {
+        current = isDelete ? new Delete(kv.getRow()) : new Put(kv.getRow());
+        current.setDurability(Durability.SKIP_WAL);
+        mutations.add(current);
+      }
+
+      if (isDelete) {
+        ((Delete) current).addDeleteMarker(kv);
+      } else {
+        ((Put) current).add(kv);
+      }
+    }
+    return mutations;
+  }
+
+  static RegionWalEntry decodeEntry(List<ByteBuffer> data) throws IOException {
+    ByteBuffer buffer;
+    if (data.size() == 1) {
+      buffer = data.get(0).duplicate();
+    } else {
+      int length = 0;
+      for (ByteBuffer piece : data) {
+        length += piece.remaining();
+      }
+      buffer = ByteBuffer.allocate(length);
+      for (ByteBuffer piece : data) {
+        buffer.put(piece.duplicate());
+      }
+      buffer.flip();
+    }
+
+    RegionWalEntry entry = new RegionWalEntry();
+    RegionWalEntry.getSchema().mergeFrom(new ByteBufferInput(buffer, true), entry);
+    return entry;
+  }
+
+  static KeyValue toKeyValue(RegionWalEntry entry) {
+    // Entries logged before the type was recorded are all puts.
+    KeyValue.Type type = entry.getType() == 0 ? KeyValue.Type.Put : KeyValue.Type.codeToType((byte) entry.getType());
+    return new KeyValue(
+        toBytes(entry.getKey()),
+        toBytes(entry.getFamily()),
+        toBytes(entry.getColumn()),
+        entry.getTs(),
+        type,
+        toBytes(entry.getValue()));
+  }
+
+  private static byte[] toBytes(ByteBuffer buffer) {
+    return buffer == null ? HConstants.EMPTY_BYTE_ARRAY : Bytes.getBytes(buffer);
+  }
+}
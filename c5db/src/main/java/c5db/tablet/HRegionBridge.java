@@ -19,12 +19,15 @@ package c5db.tablet;
 
 import c5db.regionserver.HRegionServicesBridge;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Mutation;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.regionserver.OperationStatus;
 import org.apache.hadoop.hbase.regionserver.wal.HLog;
 
 import java.io.IOException;
@@ -71,6 +74,17 @@ public class HRegionBridge implements Region {
     theRegion.put(put);
   }
 
+  @Override
+  public void batchMutate(final Mutation[] mutations) throws IOException {
+    OperationStatus[] statuses = theRegion.batchMutate(mutations);
+    for (OperationStatus status : statuses) {
+      if (status.getOperationStatusCode() != HConstants.OperationStatusCode.SUCCESS) {
+        throw new IOException("Unable to apply mutation: " + status.getOperationStatusCode()
+            + " " + status.getExceptionMsg());
+      }
+    }
+  }
+
   HRegion getTheRegion() {
     return theRegion;
   }
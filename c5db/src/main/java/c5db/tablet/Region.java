@@ -21,6 +21,7 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Mutation;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.regionserver.wal.HLog;
@@ -45,6 +46,13 @@ public interface Region {
 
   void put(Put put) throws IOException;
 
+  /**
+   * Apply a group of mutations in one pass over the region.
+   *
+   * @throws IOException if any of the mutations could not be applied
+   */
+  void batchMutate(Mutation[] mutations) throws IOException;
+
   /**
    * Constructor arguments basically.
    */
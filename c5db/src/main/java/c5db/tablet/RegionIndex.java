@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.tablet;
+
+import c5db.interfaces.tablet.RegionDescription;
+import c5db.interfaces.tablet.Tablet;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of the regions online on this server, indexed for routing requests to them. A region can be
+ * found by its full name, by its encoded name, or, for the region holding a given row, by its table's name. Lookups
+ * are constant time, apart from a binary search over a table's regions when routing by row, and allocate nothing:
+ * names are looked up with the ByteBuffer a request was decoded into.
+ * <p>
+ * Changing the set of online regions makes a new index; whoever holds the current one publishes the new one in its
+ * place, so that readers never see a partial update.
+ */
+final class RegionIndex {
+  static final RegionIndex EMPTY = new RegionIndex(ImmutableList.of());
+
+  private static final Comparator<OnlineRegion> BY_START_KEY =
+      (left, right) -> Bytes.compareTo(left.regionInfo.getStartKey(), right.regionInfo.getStartKey());
+
+  private final ImmutableList<OnlineRegion> regions;
+  private final ImmutableMap<ByteBuffer, OnlineRegion> regionsByName;
+  private final ImmutableMap<ByteBuffer, TableRegions> regionsByTable;
+
+  /**
+   * A region which is online, with the tablet serving it and the description of it given to clients as of the
+   * tablet's last change of state.
+   */
+  static final class OnlineRegion {
+    final HRegionInfo regionInfo;
+    final HRegion region;
+    final Tablet tablet;
+    final RegionDescription description;
+
+    OnlineRegion(HRegionInfo regionInfo, HRegion region, Tablet tablet, RegionDescription description) {
+      this.regionInfo = regionInfo;
+      this.region = region;
+      this.tablet = tablet;
+      this.description = description;
+    }
+  }
+
+  /**
+   * The online regions of one table, sorted by start key.
+   */
+  private static final class TableRegions {
+    private final OnlineRegion[] regions;
+
+    TableRegions(List<OnlineRegion> regions) {
+      this.regions = regions.toArray(new OnlineRegion[regions.size()]);
+      Arrays.sort(this.regions, BY_START_KEY);
+    }
+
+    OnlineRegion first() {
+      return regions[0];
+    }
+
+    /**
+     * Binary search for the last region starting at or before the row, which holds the row unless it ends first.
+     */
+    OnlineRegion regionForRow(byte[] row, int offset, int length) {
+      int low = 0;
+      int high = regions.length - 1;
+      int found = -1;
+      while (low <= high) {
+        final int mid = (low + high) >>> 1;
+        final byte[] startKey = regions[mid].regionInfo.getStartKey();
+        if (Bytes.compareTo(startKey, 0, startKey.length, row, offset, length) <= 0) {
+          found = mid;
+          low = mid + 1;
+        } else {
+          high = mid - 1;
+        }
+      }
+      if (found == -1) {
+        return null;
+      }
+      final byte[] endKey = regions[found].regionInfo.getEndKey();
+      if (endKey.length > 0 && Bytes.compareTo(row, offset, length, endKey, 0, endKey.length) >= 0) {
+        return null;
+      }
+      return regions[found];
+    }
+  }
+
+  private RegionIndex(ImmutableList<OnlineRegion> regions) {
+    this.regions = regions;
+
+    final Map<ByteBuffer, OnlineRegion> byName = new HashMap<>();
+    final Map<ByteBuffer, List<OnlineRegion>> byTable = new HashMap<>();
+    for (OnlineRegion region : regions) {
+      byName.put(ByteBuffer.wrap(region.regionInfo.getRegionName()), region);
+      byName.put(ByteBuffer.wrap(region.regionInfo.getEncodedNameAsBytes()), region);
+      byTable.computeIfAbsent(ByteBuffer.wrap(region.regionInfo.getTable().getName()), (table) -> new ArrayList<>())
+          .add(region);
+    }
+
+    final ImmutableMap.Builder<ByteBuffer, TableRegions> tables = ImmutableMap.builder();
+    byTable.forEach((tableName, tableRegions) -> {
+      final TableRegions sorted = new TableRegions(tableRegions);
+      tables.put(tableName, sorted);
+      // Clients which don't know a table's regions name the table itself, and get its first region. Region names
+      // always contain a comma, and table names never do, so the two can not collide.
+      byName.putIfAbsent(tableName, sorted.first());
+    });
+
+    this.regionsByName = ImmutableMap.copyOf(byName);
+    this.regionsByTable = tables.build();
+  }
+
+  /**
+   * @return A new index holding the regions of this one and the given region; replacing any region of the same name.
+   */
+  RegionIndex withRegion(OnlineRegion region) {
+    final ImmutableList.Builder<OnlineRegion> newRegions = ImmutableList.builder();
+    for (OnlineRegion existing : regions) {
+      if (!Bytes.equals(existing.regionInfo.getRegionName(), region.regionInfo.getRegionName())) {
+        newRegions.add(existing);
+      }
+    }
+    return new RegionIndex(newRegions.add(region).build());
+  }
+
+  /**
+   * @return A new index holding the regions of this one except the region with the given name.
+   */
+  RegionIndex withoutRegion(byte[] regionName) {
+    final ImmutableList.Builder<OnlineRegion> newRegions = ImmutableList.builder();
+    for (OnlineRegion existing : regions) {
+      if (!Bytes.equals(existing.regionInfo.getRegionName(), regionName)) {
+        newRegions.add(existing);
+      }
+    }
+    return new RegionIndex(newRegions.build());
+  }
+
+  /**
+   * Find a region by the name a request used for it: its full name, its encoded name, or its table's name, meaning
+   * the table's first region.
+   *
+   * @param name The name; its remaining bytes are used, and its position is not changed
+   * @return The region, or null if no region by that name is online
+   */
+  OnlineRegion get(ByteBuffer name) {
+    return regionsByName.get(name);
+  }
+
+  /**
+   * Find the region of a table which holds a row.
+   *
+   * @param tableName The table's name; its remaining bytes are used, and its position is not changed
+   * @param row       The row; likewise. Rows of requests are views of the array the request was decoded from, so
+   *                  this only has to copy a row which is not backed by an array.
+   * @return The region, or null if the region holding the row is not online here
+   */
+  OnlineRegion getForRow(ByteBuffer tableName, ByteBuffer row) {
+    final TableRegions tableRegions = regionsByTable.get(tableName);
+    if (tableRegions == null) {
+      return null;
+    }
+    if (row.hasArray()) {
+      return tableRegions.regionForRow(row.array(), row.arrayOffset() + row.position(), row.remaining());
+    }
+    final byte[] rowBytes = new byte[row.remaining()];
+    row.duplicate().get(rowBytes);
+    return tableRegions.regionForRow(rowBytes, 0, rowBytes.length);
+  }
+}
@@ -19,6 +19,7 @@ package c5db.tablet;
 
 import c5db.interfaces.C5Server;
 import c5db.interfaces.ReplicationModule;
+import c5db.interfaces.replication.IndexCommitNotice;
 import c5db.interfaces.replication.Replicator;
 import c5db.interfaces.tablet.TabletStateChange;
 import c5db.log.OLogShim;
@@ -73,7 +74,9 @@ public class ReplicatedTablet implements c5db.interfaces.tablet.Tablet {
 
   private Region region;
 
-  private Replicator replicator;
+  private volatile Replicator replicator;
+
+  private volatile CommittedEntryApplier committedEntryApplier;
 
   public void setStateChangeChannel(Channel<TabletStateChange> stateChangeChannel) {
     this.stateChangeChannel = stateChangeChannel;
@@ -135,10 +138,22 @@ public class ReplicatedTablet implements c5db.interfaces.tablet.Tablet {
 
     try {
       region = regionCreator.getHRegion(basePath, regionInfo, tableDescriptor, shim, conf);
-      setTabletState(State.Open);
     } catch (IOException e) {
       handleFail(e);
+      return;
     }
+
+    committedEntryApplier = new CommittedEntryApplier(replicator, region, tabletFiber, this::handleFail);
+    replicationModule.getIndexCommitNotices().subscribe(tabletFiber, this::commitNoticeCallback);
+    setTabletState(State.Open);
+  }
+
+  @FiberOnly
+  private void commitNoticeCallback(IndexCommitNotice notice) {
+    if (notice.replicatorInstance != replicator) {
+      return;
+    }
+    committedEntryApplier.onCommitNotice(notice, tabletState == State.Leader);
   }
 
   private void tabletStateChangeCallback(Replicator.State state) {
@@ -155,6 +170,8 @@ public class ReplicatedTablet implements c5db.interfaces.tablet.Tablet {
       } else {
         this.setTabletState(State.Leader);
       }
+    } else if (state.equals(Replicator.State.FOLLOWER) && tabletState == State.Leader) {
+      this.setTabletState(State.Open);
     }
   }
 
@@ -187,6 +204,22 @@ public class ReplicatedTablet implements c5db.interfaces.tablet.Tablet {
     return tabletState;
   }
 
+  @Override
+  public long getStalenessMillis() {
+    Replicator replicator = this.replicator;
+    CommittedEntryApplier applier = this.committedEntryApplier;
+    if (replicator == null || applier == null) {
+      return Long.MAX_VALUE;
+    }
+    return replicator.getStalenessMillis(applier.getLastAppliedIndex());
+  }
+
+  @Override
+  public long getLeader() {
+    Replicator replicator = this.replicator;
+    return replicator == null ? 0 : replicator.getLeader();
+  }
+
   public void dispose() {
     this.tabletFiber.dispose();
   }
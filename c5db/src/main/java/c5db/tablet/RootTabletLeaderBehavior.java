@@ -80,7 +80,9 @@ public class RootTabletLeaderBehavior implements TabletLeaderBehavior {
         ByteBuffer.wrap(C5ServerConstants.META_START_KEY),
         ByteBuffer.wrap(C5ServerConstants.META_END_KEY),
         true,
-        false);
+        false,
+        null,
+        0);
     put.add(HConstants.CATALOG_FAMILY,
         HConstants.REGIONINFO_QUALIFIER,
         ProtobufIOUtil.toByteArray(regionInfo, RegionInfo.getSchema(), LinkedBuffer.allocate(512)));
@@ -23,7 +23,12 @@ import c5db.interfaces.C5Server;
 import c5db.interfaces.DiscoveryModule;
 import c5db.interfaces.ReplicationModule;
 import c5db.interfaces.TabletModule;
+import c5db.client.generated.RegionInfo;
+import c5db.client.generated.TableName;
 import c5db.interfaces.discovery.NodeInfo;
+import c5db.interfaces.discovery.NodeInfoReply;
+import c5db.interfaces.replication.ReplicatorInstanceEvent;
+import c5db.interfaces.tablet.RegionDescription;
 import c5db.interfaces.tablet.Tablet;
 import c5db.interfaces.tablet.TabletStateChange;
 import c5db.messages.generated.ModuleType;
@@ -53,14 +58,14 @@ import org.slf4j.LoggerFactory;
 import sun.misc.BASE64Decoder;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
 
 
 /**
@@ -69,14 +74,11 @@ import java.util.concurrent.ExecutionException;
  */
 public class TabletService extends AbstractService implements TabletModule {
   private static final Logger LOG = LoggerFactory.getLogger(TabletService.class);
-  private static final int INITIALIZATION_TIME = 1000;
 
   private final C5FiberFactory fiberFactory;
   private final Fiber fiber;
   private final C5Server server;
-  // TODO bring this into this class, and not have an external class.
-  //private final OnlineRegions onlineRegions = OnlineRegions.INSTANCE;
-  private final Map<String, HRegion> onlineRegions = new HashMap<>();
+  private final AtomicReference<RegionIndex> regionIndex = new AtomicReference<>(RegionIndex.EMPTY);
   private final Configuration conf;
   private final Channel<TabletStateChange> tabletStateChangeChannel = new MemoryChannel<>();
   private ReplicationModule replicationModule = null;
@@ -94,34 +96,33 @@ public class TabletService extends AbstractService implements TabletModule {
   }
 
   @Override
-  public HRegion getTablet(String tabletName) {
-    // TODO ugly hack fix eventually
-    while (onlineRegions.size() == 0) {
-      try {
-        LOG.error("Waiting for regions to come online");
-        Thread.sleep(INITIALIZATION_TIME);
-      } catch (InterruptedException e) {
-        e.printStackTrace();
-      }
-    }
-    HRegion region = onlineRegions.get(tabletName);
-    // TODO remove
-    if (region == null) {
-      // Always return the first region which matches
-      Optional<String> maybeFoundRegion = onlineRegions
-          .keySet()
-          .stream()
-          .filter(s -> s.startsWith(tabletName))
-          .findFirst();
-      if (maybeFoundRegion.isPresent()) {
-        return onlineRegions.get(maybeFoundRegion.get());
-      } else {
-        LOG.error("Region not found: " + tabletName);
-        return null;
-      }
-    }
+  public HRegion getOnlineRegion(ByteBuffer regionName) {
+    final RegionIndex.OnlineRegion onlineRegion = regionIndex.get().get(regionName);
+    return onlineRegion == null ? null : onlineRegion.region;
+  }
 
-    return region;
+  @Override
+  public Tablet getOnlineTablet(ByteBuffer regionName) {
+    final RegionIndex.OnlineRegion onlineRegion = regionIndex.get().get(regionName);
+    return onlineRegion == null ? null : onlineRegion.tablet;
+  }
+
+  @Override
+  public RegionDescription getOnlineRegionDescription(ByteBuffer regionName) {
+    final RegionIndex.OnlineRegion onlineRegion = regionIndex.get().get(regionName);
+    return onlineRegion == null ? null : onlineRegion.description;
+  }
+
+  @Override
+  public HRegion getOnlineRegionForRow(ByteBuffer tableName, ByteBuffer row) {
+    final RegionIndex.OnlineRegion onlineRegion = regionIndex.get().getForRow(tableName, row);
+    return onlineRegion == null ? null : onlineRegion.region;
+  }
+
+  @Override
+  public Tablet getOnlineTabletForRow(ByteBuffer tableName, ByteBuffer row) {
+    final RegionIndex.OnlineRegion onlineRegion = regionIndex.get().getForRow(tableName, row);
+    return onlineRegion == null ? null : onlineRegion.tablet;
   }
 
   @Override
@@ -149,6 +150,7 @@ public class TabletService extends AbstractService implements TabletModule {
               replicationModule,
               ReplicatedTablet::new,
               HRegionBridge::new);
+          replicationModule.getReplicatorEventChannel().subscribe(fiber, TabletService.this::onReplicatorEvent);
           fiber.execute(() -> {
             try {
               startBootstrap();
@@ -240,29 +242,103 @@ public class TabletService extends AbstractService implements TabletModule {
   ) throws IOException, InterruptedException {
     LOG.debug("Opening replicator for region {} peers {}", regionInfo, peers);
 
-    String quorumId = regionInfo.getRegionNameAsString();
-
     final c5db.interfaces.tablet.Tablet tablet = tabletRegistry.startTablet(regionInfo, tableDescriptor, peers);
     Channel<TabletStateChange> tabletChannel = tablet.getStateChangeChannel();
     Fiber tabletCallbackFiber = fiberFactory.create();
     tabletCallbackFiber.start();
-    tabletChannel.subscribe(tabletCallbackFiber, message -> {
-      //getTabletStateChanges().publish(message);
-      if (message.state.equals(c5db.interfaces.tablet.Tablet.State.Open) || message.state.equals(c5db.interfaces.tablet.Tablet.State.Leader)) {
-        HRegion hregion = ((HRegionBridge) tablet.getRegion()).getTheRegion();
-        onlineRegions.put(quorumId, hregion);
-        tabletCallbackFiber.dispose();
+    tabletChannel.subscribe(tabletCallbackFiber, message -> updateRegionIndex(tablet, message.state));
+    updateRegionIndex(tablet, tablet.getTabletState());
+  }
+
+  /**
+   * Publish a new region index in which the tablet's region is online if the tablet can serve requests, and offline
+   * if it has failed. Tablets change state on their own fibers, so swap the index atomically. Becoming or ceasing to
+   * be the leader is a change of state, so the region's description is made afresh here; then the leader's address is
+   * looked up, and the description replaced by one which carries it.
+   */
+  private void updateRegionIndex(Tablet tablet, Tablet.State state) {
+    final HRegionInfo regionInfo = tablet.getRegionInfo();
+    if (state == Tablet.State.Open || state == Tablet.State.Leader) {
+      final HRegion hregion = ((HRegionBridge) tablet.getRegion()).getTheRegion();
+      final long leader = state == Tablet.State.Leader ? server.getNodeId() : tablet.getLeader();
+      final RegionIndex.OnlineRegion onlineRegion =
+          new RegionIndex.OnlineRegion(regionInfo, hregion, tablet, describeRegion(tablet, leader, null, 0));
+      regionIndex.updateAndGet((index) -> index.withRegion(onlineRegion));
+      if (leader != 0) {
+        resolveLeader(onlineRegion, leader);
       }
-    });
-    if (tablet.getTabletState().equals(c5db.interfaces.tablet.Tablet.State.Open)
-        || tablet.getTabletState().equals(c5db.interfaces.tablet.Tablet.State.Leader)) {
-      tabletCallbackFiber.dispose();
-      HRegion hregion = ((HRegionBridge) tablet.getRegion()).getTheRegion();
-      onlineRegions.put(quorumId, hregion);
-      //getTabletStateChanges().publish(new TabletStateChange(tablet, c5db.interfaces.tablet.Tablet.State.Open, null));
+    } else if (state == Tablet.State.Failed) {
+      regionIndex.updateAndGet((index) -> index.withoutRegion(regionInfo.getRegionName()));
     }
   }
 
+  /**
+   * Find where the leader's region server is, and describe the region with that address; unless the region has been
+   * indexed again in the mean time, in which case that newer description stands.
+   */
+  private void resolveLeader(RegionIndex.OnlineRegion onlineRegion, long leader) {
+    Futures.addCallback(discoveryModule.getNodeInfo(leader, ModuleType.RegionServer),
+        new FutureCallback<NodeInfoReply>() {
+          @Override
+          public void onSuccess(NodeInfoReply reply) {
+            if (!reply.found || reply.addresses == null || reply.addresses.isEmpty()) {
+              LOG.debug("No region server address known for node {}, the leader of {}", leader,
+                  onlineRegion.regionInfo.getRegionNameAsString());
+              return;
+            }
+            final RegionIndex.OnlineRegion resolved = new RegionIndex.OnlineRegion(onlineRegion.regionInfo,
+                onlineRegion.region,
+                onlineRegion.tablet,
+                describeRegion(onlineRegion.tablet, leader, reply.addresses.get(0), reply.port));
+            final ByteBuffer regionName = ByteBuffer.wrap(onlineRegion.regionInfo.getRegionName());
+            regionIndex.updateAndGet(
+                (index) -> index.get(regionName) == onlineRegion ? index.withRegion(resolved) : index);
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            LOG.warn("Unable to look up the region server of node {}", leader, t);
+          }
+        }, fiber);
+  }
+
+  /**
+   * A follower hears of a new leader without changing state, so its region's description is made again.
+   */
+  @FiberOnly
+  private void onReplicatorEvent(ReplicatorInstanceEvent event) {
+    if (event.eventType != ReplicatorInstanceEvent.EventType.LEADER_ELECTED) {
+      return;
+    }
+    final Tablet tablet = tabletRegistry.getTablets().get(event.instance.getQuorumId());
+    if (tablet != null) {
+      updateRegionIndex(tablet, tablet.getTabletState());
+    }
+  }
+
+  /**
+   * @param leader     The node id of the region's leader, or 0 if it is not known
+   * @param leaderHost Where to reach the leader's region server, or null if that is not known; clients can only use
+   *                   the leader's node id with its address, so without one only this node names itself as leader
+   * @param leaderPort Likewise
+   * @return The region's key range, table, peers and leader
+   */
+  private RegionDescription describeRegion(Tablet tablet, long leader, String leaderHost, int leaderPort) {
+    final HRegionInfo regionInfo = tablet.getRegionInfo();
+    final boolean leaderKnown = leaderHost != null || leader == server.getNodeId();
+    return new RegionDescription(new RegionInfo(regionInfo.getRegionId(),
+        new TableName(ByteBuffer.wrap(regionInfo.getTable().getNamespace()),
+            ByteBuffer.wrap(regionInfo.getTable().getQualifier())),
+        new ArrayList<>(tablet.getPeers()),
+        leaderKnown ? leader : 0,
+        ByteBuffer.wrap(regionInfo.getStartKey()),
+        ByteBuffer.wrap(regionInfo.getEndKey()),
+        false,
+        false,
+        leaderHost,
+        leaderPort));
+  }
+
   @Override
   protected void doStop() {
     // TODO close regions.
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.util;
+
+import c5db.C5ServerConstants;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.AdaptiveRecvByteBufAllocator;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.RecvByteBufAllocator;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.function.BiConsumer;
+
+/**
+ * Chooses and configures the netty transport used by the server's TCP services: the native epoll transport where it
+ * is available, and NIO otherwise; with pooled buffers, and with write buffer water marks set from system properties.
+ * Services which decode requests in place can have their channels read into unpooled heap buffers instead.
+ * <p>
+ * The epoll classes are looked up by name, so that this builds and runs against netty versions that do not have
+ * them; on those, and wherever the native library can not be loaded, the NIO transport is used. Setting
+ * c5.netty.epoll to false forces NIO. Datagram services are not covered, and stay on NIO.
+ */
+public final class NettyTransport {
+  private static final Logger LOG = LoggerFactory.getLogger(NettyTransport.class);
+
+  private static final String EPOLL_PACKAGE = "io.netty.channel.epoll.";
+  private static final boolean USE_EPOLL;
+  private static final Class<? extends ServerChannel> SERVER_CHANNEL_CLASS;
+  private static final Class<? extends SocketChannel> SOCKET_CHANNEL_CLASS;
+
+  private static final ByteBufAllocator ALLOCATOR = PooledByteBufAllocator.DEFAULT;
+  private static final RecvByteBufAllocator HEAP_READS = new HeapRecvByteBufAllocator();
+  private static final int WRITE_BUFFER_HIGH_WATER_MARK = Integer.getInteger(
+      C5ServerConstants.WRITE_BUFFER_HIGH_WATER_MARK_PROPERTY_NAME,
+      C5ServerConstants.DEFAULT_WRITE_BUFFER_HIGH_WATER_MARK);
+  private static final int WRITE_BUFFER_LOW_WATER_MARK = Integer.getInteger(
+      C5ServerConstants.WRITE_BUFFER_LOW_WATER_MARK_PROPERTY_NAME,
+      C5ServerConstants.DEFAULT_WRITE_BUFFER_LOW_WATER_MARK);
+
+  static {
+    Class<? extends ServerChannel> serverChannelClass = NioServerSocketChannel.class;
+    Class<? extends SocketChannel> socketChannelClass = NioSocketChannel.class;
+    boolean useEpoll = false;
+
+    if (Boolean.parseBoolean(System.getProperty(C5ServerConstants.NETTY_EPOLL_PROPERTY_NAME, "true"))) {
+      try {
+        if ((Boolean) Class.forName(EPOLL_PACKAGE + "Epoll").getMethod("isAvailable").invoke(null)) {
+          serverChannelClass = Class.forName(EPOLL_PACKAGE + "EpollServerSocketChannel")
+              .asSubclass(ServerChannel.class);
+          socketChannelClass = Class.forName(EPOLL_PACKAGE + "EpollSocketChannel")
+              .asSubclass(SocketChannel.class);
+          useEpoll = true;
+        }
+      } catch (ReflectiveOperationException | LinkageError | ClassCastException e) {
+        LOG.debug("Native epoll transport not available, using NIO", e);
+      }
+    }
+
+    USE_EPOLL = useEpoll;
+    SERVER_CHANNEL_CLASS = serverChannelClass;
+    SOCKET_CHANNEL_CLASS = socketChannelClass;
+
+    if (WRITE_BUFFER_LOW_WATER_MARK > WRITE_BUFFER_HIGH_WATER_MARK) {
+      throw new IllegalArgumentException("Write buffer low water mark " + WRITE_BUFFER_LOW_WATER_MARK
+          + " is above the high water mark " + WRITE_BUFFER_HIGH_WATER_MARK);
+    }
+    LOG.info("Using the {} transport", USE_EPOLL ? "epoll" : "NIO");
+  }
+
+  private NettyTransport() {
+  }
+
+  public static boolean isEpoll() {
+    return USE_EPOLL;
+  }
+
+  /**
+   * Create an event loop group for the chosen transport.
+   *
+   * @param threads The number of event loops, or 0 for netty's default of twice the number of cores
+   */
+  public static EventLoopGroup newEventLoopGroup(int threads) {
+    if (USE_EPOLL) {
+      try {
+        return (EventLoopGroup) Class.forName(EPOLL_PACKAGE + "EpollEventLoopGroup")
+            .getConstructor(int.class)
+            .newInstance(threads);
+      } catch (ReflectiveOperationException e) {
+        throw new IllegalStateException("Unable to create an epoll event loop group", e);
+      }
+    }
+    return new NioEventLoopGroup(threads);
+  }
+
+  public static Class<? extends ServerChannel> serverChannelClass() {
+    return SERVER_CHANNEL_CLASS;
+  }
+
+  public static Class<? extends SocketChannel> socketChannelClass() {
+    return SOCKET_CHANNEL_CLASS;
+  }
+
+  /**
+   * Set the channel class, allocator, and write buffer water marks of a server bootstrap and of the channels it
+   * accepts. The bootstrap's groups must have come from newEventLoopGroup.
+   */
+  public static ServerBootstrap configure(ServerBootstrap bootstrap) {
+    bootstrap.channel(SERVER_CHANNEL_CLASS)
+        .option(ChannelOption.ALLOCATOR, ALLOCATOR)
+        .childOption(ChannelOption.ALLOCATOR, ALLOCATOR);
+    forEachWaterMark(bootstrap::childOption);
+    return bootstrap;
+  }
+
+  /**
+   * Have the channels a server bootstrap accepts read into unpooled heap buffers, sized as netty's adaptive allocator
+   * would size them, rather than into buffers from the pool; everything else they allocate, such as the buffers they
+   * write, still comes from the pool. A request decoded in place may then keep views of the bytes it was read into,
+   * which the garbage collector frees once they are no longer used, where a pooled buffer would have to be copied
+   * or kept from going back to the pool. NIO reads into a heap buffer through a direct buffer of its own.
+   */
+  public static ServerBootstrap readIntoHeapBuffers(ServerBootstrap bootstrap) {
+    return bootstrap.childOption(ChannelOption.RCVBUF_ALLOCATOR, HEAP_READS);
+  }
+
+  /**
+   * Set the channel class, allocator, and write buffer water marks of a client bootstrap. The bootstrap's group must
+   * have come from newEventLoopGroup.
+   */
+  public static Bootstrap configure(Bootstrap bootstrap) {
+    bootstrap.channel(SOCKET_CHANNEL_CLASS)
+        .option(ChannelOption.ALLOCATOR, ALLOCATOR);
+    forEachWaterMark(bootstrap::option);
+    return bootstrap;
+  }
+
+  /**
+   * Netty refuses a high water mark below the current low one, or a low one above the current high one; so apply
+   * them in whichever order keeps them consistent with netty's defaults in between.
+   */
+  private static void forEachWaterMark(BiConsumer<ChannelOption<Integer>, Integer> setOption) {
+    if (WRITE_BUFFER_HIGH_WATER_MARK >= C5ServerConstants.DEFAULT_WRITE_BUFFER_LOW_WATER_MARK) {
+      setOption.accept(ChannelOption.WRITE_BUFFER_HIGH_WATER_MARK, WRITE_BUFFER_HIGH_WATER_MARK);
+      setOption.accept(ChannelOption.WRITE_BUFFER_LOW_WATER_MARK, WRITE_BUFFER_LOW_WATER_MARK);
+    } else {
+      setOption.accept(ChannelOption.WRITE_BUFFER_LOW_WATER_MARK, WRITE_BUFFER_LOW_WATER_MARK);
+      setOption.accept(ChannelOption.WRITE_BUFFER_HIGH_WATER_MARK, WRITE_BUFFER_HIGH_WATER_MARK);
+    }
+  }
+
+  private static class HeapRecvByteBufAllocator implements RecvByteBufAllocator {
+    @Override
+    public Handle newHandle() {
+      final Handle sizes = AdaptiveRecvByteBufAllocator.DEFAULT.newHandle();
+      return new Handle() {
+        @Override
+        public ByteBuf allocate(ByteBufAllocator alloc) {
+          return UnpooledByteBufAllocator.DEFAULT.heapBuffer(sizes.guess());
+        }
+
+        @Override
+        public int guess() {
+          return sizes.guess();
+        }
+
+        @Override
+        public void record(int actualReadBytes) {
+          sizes.record(actualReadBytes);
+        }
+      };
+    }
+  }
+}
@@ -58,6 +58,13 @@ public class RpcMatchers {
               .appendText("an AppendEntries request"));
     }
 
+    public static RequestMatcher aPreVoteRequest() {
+      return new RequestMatcher().addCriterion(
+          RpcMatchers::isAPreVoteRequest,
+          (description) -> description
+              .appendText("a pre-vote RequestVote request"));
+    }
+
     public RequestMatcher from(long peerId) {
       return addCriterion(
           (request) ->
@@ -169,6 +176,11 @@ public class RpcMatchers {
     return request.getRequest().getAppendMessage() != null;
   }
 
+  private static boolean isAPreVoteRequest(Request<RpcRequest, RpcWireReply> request) {
+    return request.getRequest().getRequestVoteMessage() != null
+        && request.getRequest().getRequestVoteMessage().getPreVote();
+  }
+
   private static List<LogEntry> entryList(Request<RpcRequest, RpcWireReply> request) {
     return request.getRequest().getAppendMessage().getEntriesList();
   }
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.codec;
+
+import c5db.client.generated.RegionInfo;
+import c5db.client.generated.Response;
+import c5db.client.generated.Result;
+import c5db.client.generated.ScanResponse;
+import c5db.client.generated.TableName;
+import c5db.interfaces.tablet.RegionDescription;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.protostuff.ByteBufferInput;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class ResultResponseTest {
+  private static final Cell FIRST_CELL = new KeyValue(Bytes.toBytes("row1"), Bytes.toBytes("cf"),
+      Bytes.toBytes("q1"), 1000L, KeyValue.Type.Put, Bytes.toBytes("value1"));
+  private static final Cell SECOND_CELL = new KeyValue(Bytes.toBytes("row1"), Bytes.toBytes("cf"),
+      Bytes.toBytes("q2"), 2000L, KeyValue.Type.Delete, new byte[300]);
+  private static final Cell OTHER_ROW_CELL = new KeyValue(Bytes.toBytes("row2"), Bytes.toBytes("cf"),
+      Bytes.toBytes("q1"), 3000L, KeyValue.Type.Put, Bytes.toBytes("value3"));
+
+  private static final RegionDescription A_REGION = new RegionDescription(new RegionInfo(7,
+      new TableName(ByteBuffer.wrap(Bytes.toBytes("default")), ByteBuffer.wrap(Bytes.toBytes("aTable"))),
+      Arrays.asList(1L, 2L, 3L),
+      1,
+      ByteBuffer.wrap(Bytes.toBytes("row0")),
+      ByteBuffer.wrap(Bytes.toBytes("row5")),
+      false,
+      false,
+      null,
+      0));
+
+  @Test
+  public void encodesAGetResponseWhichDecodesAsAResponse() throws Exception {
+    final ResultResponse resultResponse =
+        ResultResponse.forGet(17, new Cell[]{FIRST_CELL, SECOND_CELL}, false, false, null);
+
+    final Response response = decode(resultResponse);
+
+    assertThat(response.getCommand(), is(Response.Command.GET));
+    assertThat(response.getCommandId(), is(equalTo(17L)));
+    final Result result = response.getGet().getResult();
+    assertThat(result.getCellList().size(), is(equalTo(2)));
+    assertSameCell(result.getCellList().get(0), FIRST_CELL);
+    assertSameCell(result.getCellList().get(1), SECOND_CELL);
+    assertThat(response.getScan(), is(nullValue()));
+  }
+
+  @Test
+  public void encodesAnExistenceOnlyGetWithoutItsCells() throws Exception {
+    final Response response = decode(ResultResponse.forGet(18, new Cell[]{FIRST_CELL}, true, true, null));
+
+    final Result result = response.getGet().getResult();
+    assertThat(result.getCellList().isEmpty(), is(true));
+    assertThat(result.getExists(), is(true));
+  }
+
+  @Test
+  public void encodesAScanResponseWithOneResultPerRow() throws Exception {
+    final ResultResponse resultResponse = ResultResponse.forScan(19, 123456789L, true,
+        Arrays.asList(new Cell[]{FIRST_CELL, SECOND_CELL}, new Cell[]{OTHER_ROW_CELL}), null);
+
+    final Response response = decode(resultResponse);
+
+    assertThat(response.getCommand(), is(Response.Command.SCAN));
+    final ScanResponse scan = response.getScan();
+    assertThat(scan.getScannerId(), is(equalTo(123456789L)));
+    assertThat(scan.getMoreResults(), is(true));
+    assertThat(scan.getCellsPerResultList(), contains(2, 1));
+    assertThat(scan.getResultsList().size(), is(equalTo(2)));
+    assertSameCell(scan.getResultsList().get(1).getCellList().get(0), OTHER_ROW_CELL);
+  }
+
+  @Test
+  public void reportsItsEncodedSizeExactly() {
+    final ResultResponse resultResponse = ResultResponse.forScan(20, 1L, false,
+        Arrays.asList(new Cell[]{FIRST_CELL, SECOND_CELL}, new Cell[]{OTHER_ROW_CELL}), A_REGION);
+
+    final ByteBuf buf = resultResponse.encode(UnpooledByteBufAllocator.DEFAULT);
+
+    assertThat(buf.readableBytes(), is(equalTo(resultResponse.getSerializedSize())));
+    buf.release();
+  }
+
+  @Test
+  public void carriesTheRegionWhichServedTheCall() throws Exception {
+    final Response response = decode(ResultResponse.forGet(21, new Cell[]{FIRST_CELL}, false, false, A_REGION));
+
+    assertThat(response.getRegion().getRegionId(), is(equalTo(7L)));
+    assertThat(response.getRegion().getStartKey(), is(equalTo(ByteBuffer.wrap(Bytes.toBytes("row0")))));
+    assertThat(response.getRegion().getEndKey(), is(equalTo(ByteBuffer.wrap(Bytes.toBytes("row5")))));
+    assertThat(response.getRegion().getLeader(), is(equalTo(1L)));
+    assertThat(response.getGet().getResult().getCellList().size(), is(equalTo(1)));
+  }
+
+  private static Response decode(ResultResponse resultResponse) throws Exception {
+    final ByteBuf buf = resultResponse.encode(UnpooledByteBufAllocator.DEFAULT);
+    final Response response = new Response();
+    Response.getSchema().mergeFrom(new ByteBufferInput(buf.nioBuffer(), false), response);
+    buf.release();
+    return response;
+  }
+
+  private static void assertSameCell(c5db.client.generated.Cell decoded, Cell expected) {
+    assertThat(decoded.getRow(), is(equalTo(ByteBuffer.wrap(expected.getRowArray(),
+        expected.getRowOffset(), expected.getRowLength()))));
+    assertThat(decoded.getFamily(), is(equalTo(ByteBuffer.wrap(expected.getFamilyArray(),
+        expected.getFamilyOffset(), expected.getFamilyLength()))));
+    assertThat(decoded.getQualifier(), is(equalTo(ByteBuffer.wrap(expected.getQualifierArray(),
+        expected.getQualifierOffset(), expected.getQualifierLength()))));
+    assertThat(decoded.getTimestamp(), is(equalTo(expected.getTimestamp())));
+    assertThat(decoded.getCellType().getNumber(), is(equalTo((int) expected.getTypeByte())));
+    assertThat(decoded.getValue(), is(equalTo(ByteBuffer.wrap(expected.getValueArray(),
+        expected.getValueOffset(), expected.getValueLength()))));
+  }
+}
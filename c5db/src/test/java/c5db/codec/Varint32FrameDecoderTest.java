@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.TooLongFrameException;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class Varint32FrameDecoderTest {
+  private final EmbeddedChannel channel = new EmbeddedChannel(new Varint32FrameDecoder(200));
+
+  @Test
+  public void splitsTheStreamIntoFrames() {
+    channel.writeInbound(Unpooled.wrappedBuffer(new byte[]{2, 10, 11, 1, 12}));
+
+    assertThat(readFrame(), is(equalTo(new byte[]{10, 11})));
+    assertThat(readFrame(), is(equalTo(new byte[]{12})));
+    assertThat(channel.readInbound(), is(nullValue()));
+  }
+
+  @Test
+  public void passesOnSlicesOfBytesHoldingOnlyWholeFrames() {
+    channel.writeInbound(Unpooled.wrappedBuffer(new byte[]{2, 10, 11, 1, 12}));
+
+    assertThat(isSlice((ByteBuf) channel.readInbound()), is(true));
+    assertThat(isSlice((ByteBuf) channel.readInbound()), is(true));
+  }
+
+  @Test
+  public void passesOnCopiesOfFramesReceivedWithPartOfAnother() {
+    channel.writeInbound(Unpooled.wrappedBuffer(new byte[]{2, 10, 11, 2, 12}));
+
+    final ByteBuf frame = (ByteBuf) channel.readInbound();
+    assertThat(CallDecoder.decodesInPlace(frame), is(true));
+    assertThat(isSlice(frame), is(false));
+    assertThat(channel.readInbound(), is(nullValue()));
+  }
+
+  @Test
+  public void waitsForTheRestOfAFrameAndOfItsLength() {
+    // 150 is 0x96 0x01 as a varint
+    channel.writeInbound(Unpooled.wrappedBuffer(new byte[]{(byte) 0x96}));
+    assertThat(channel.readInbound(), is(nullValue()));
+
+    channel.writeInbound(Unpooled.wrappedBuffer(new byte[]{0x01}), Unpooled.wrappedBuffer(new byte[100]));
+    assertThat(channel.readInbound(), is(nullValue()));
+
+    channel.writeInbound(Unpooled.wrappedBuffer(new byte[50]));
+    assertThat(readFrame().length, is(equalTo(150)));
+  }
+
+  @Test(expected = TooLongFrameException.class)
+  public void refusesFramesLongerThanTheLimit() {
+    // 300 is 0xAC 0x02 as a varint
+    channel.writeInbound(Unpooled.wrappedBuffer(new byte[]{(byte) 0xAC, 0x02}));
+    channel.checkException();
+  }
+
+  @Test
+  public void closesTheConnectionAfterRefusingAFrame() {
+    try {
+      channel.writeInbound(Unpooled.wrappedBuffer(new byte[]{(byte) 0xAC, 0x02}));
+      channel.checkException();
+    } catch (TooLongFrameException ignored) {
+    }
+
+    assertThat(channel.isOpen(), is(false));
+  }
+
+  private static boolean isSlice(ByteBuf frame) {
+    final boolean isSlice = frame.unwrap() != null;
+    frame.release();
+    return isSlice;
+  }
+
+  private byte[] readFrame() {
+    final ByteBuf frame = (ByteBuf) channel.readInbound();
+    final byte[] bytes = new byte[frame.readableBytes()];
+    frame.readBytes(bytes);
+    frame.release();
+    return bytes;
+  }
+}
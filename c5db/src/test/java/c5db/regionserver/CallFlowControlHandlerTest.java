@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.regionserver;
+
+import c5db.client.generated.Call;
+import c5db.client.generated.Response;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class CallFlowControlHandlerTest {
+  private final CallFlowControlHandler handler = new CallFlowControlHandler(4);
+  private final EmbeddedChannel channel = new EmbeddedChannel(handler);
+
+  @Test
+  public void stopsReadingOnceTheConnectionHasTooManyCallsInFlight() {
+    channel.writeInbound(aCall(Call.Command.GET, 1), aCall(Call.Command.MUTATE, 2), aCall(Call.Command.MULTI, 3));
+    assertThat(channel.config().isAutoRead(), is(true));
+
+    channel.writeInbound(aCall(Call.Command.GET, 4));
+    assertThat(channel.config().isAutoRead(), is(false));
+    assertThat(handler.getInFlightCalls(), is(equalTo(4)));
+  }
+
+  @Test
+  public void resumesReadingOnceHalfTheCallsInFlightHaveBeenAnswered() {
+    channel.writeInbound(aCall(Call.Command.GET, 1), aCall(Call.Command.GET, 2),
+        aCall(Call.Command.GET, 3), aCall(Call.Command.GET, 4));
+
+    channel.writeOutbound(aResponse(Response.Command.GET, 3));
+    assertThat(channel.config().isAutoRead(), is(false));
+
+    channel.writeOutbound(aResponse(Response.Command.GET, 1));
+    assertThat(channel.config().isAutoRead(), is(true));
+  }
+
+  @Test
+  public void doesNotCountScans() {
+    channel.writeInbound(aCall(Call.Command.SCAN, 1), aCall(Call.Command.SCAN, 1),
+        aCall(Call.Command.SCAN, 1), aCall(Call.Command.SCAN, 1));
+    assertThat(channel.config().isAutoRead(), is(true));
+
+    channel.writeOutbound(aResponse(Response.Command.SCAN, 1));
+    assertThat(handler.getInFlightCalls(), is(equalTo(0)));
+  }
+
+  @Test
+  public void responsesWrittenOutsideOfAReadAreFlushedOnceTheEventLoopGetsToThem() {
+    final Response response = aResponse(Response.Command.GET, 1);
+    channel.writeInbound(aCall(Call.Command.GET, 1));
+
+    channel.writeOutbound(response);
+
+    assertThat(channel.readOutbound(), is(sameInstance(response)));
+  }
+
+  private static Call aCall(Call.Command command, long commandId) {
+    return new Call(command, commandId, null, null, null, null);
+  }
+
+  private static Response aResponse(Response.Command command, long commandId) {
+    return new Response(command, commandId, null, null, null, null, null, null);
+  }
+}
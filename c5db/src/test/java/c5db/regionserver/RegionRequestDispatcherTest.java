@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.regionserver;
+
+import c5db.client.generated.Call;
+import c5db.client.generated.Response;
+import io.netty.channel.ChannelHandlerContext;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.regionserver.OperationStatus;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.hamcrest.Description;
+import org.hamcrest.Matcher;
+import org.hamcrest.TypeSafeMatcher;
+import org.jmock.Expectations;
+import org.jmock.Sequence;
+import org.jmock.States;
+import org.jmock.integration.junit4.JUnitRuleMockery;
+import org.jmock.lib.concurrent.Synchroniser;
+import org.jmock.lib.legacy.ClassImposteriser;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+
+public class RegionRequestDispatcherTest {
+  private static final long TIMEOUT = 2000; // millis
+
+  private final Synchroniser synchroniser = new Synchroniser();
+
+  @Rule
+  public final JUnitRuleMockery context = new JUnitRuleMockery() {{
+    setThreadingPolicy(synchroniser);
+    setImposteriser(ClassImposteriser.INSTANCE);
+  }};
+
+  private final ChannelHandlerContext ctx = context.mock(ChannelHandlerContext.class);
+  private final HRegion region = context.mock(HRegion.class);
+  private final States responses = context.states("responses").startsAs("none");
+
+  private final RegionRequestDispatcher dispatcher = new RegionRequestDispatcher(2, 10, 2, 2, 10);
+  private final CountDownLatch releaseSlowWrite = new CountDownLatch(1);
+
+  @After
+  public void shutdownDispatcher() {
+    releaseSlowWrite.countDown();
+    dispatcher.shutdown();
+  }
+
+  @Test(timeout = TIMEOUT)
+  public void writesToTheSameRegionRunOneAtATimeInTheOrderTheyArrive() throws Exception {
+    final List<Long> order = Collections.synchronizedList(new ArrayList<>());
+
+    context.checking(new Expectations() {{
+      oneOf(ctx).writeAndFlush(with(aResponseTo(1)));
+      oneOf(ctx).writeAndFlush(with(aResponseTo(2)));
+      then(responses.is("written"));
+    }});
+
+    dispatcher.write("region", ctx, aCall(1), () -> {
+      releaseSlowWrite.await();
+      order.add(1L);
+      return aResponse(1);
+    });
+    dispatcher.write("region", ctx, aCall(2), () -> {
+      order.add(2L);
+      return aResponse(2);
+    });
+    releaseSlowWrite.countDown();
+
+    synchroniser.waitUntil(responses.is("written"));
+    assertThat(order, contains(1L, 2L));
+  }
+
+  @Test(timeout = TIMEOUT)
+  public void aSlowWriteDoesNotHoldUpReads() throws Exception {
+    context.checking(new Expectations() {{
+      oneOf(ctx).writeAndFlush(with(aResponseTo(2)));
+      then(responses.is("written"));
+
+      oneOf(ctx).writeAndFlush(with(aResponseTo(1)));
+      when(responses.is("written"));
+    }});
+
+    dispatcher.write("region", ctx, aCall(1), () -> {
+      releaseSlowWrite.await();
+      return aResponse(1);
+    });
+    dispatcher.read(ctx, aCall(2), () -> aResponse(2));
+
+    synchroniser.waitUntil(responses.is("written"));
+  }
+
+  @Test(timeout = TIMEOUT)
+  public void writesBeyondTheQueueLimitAreRejectedWithAnErrorResponse() throws Exception {
+    context.checking(new Expectations() {{
+      oneOf(ctx).writeAndFlush(with(anErrorResponseTo(3)));
+      then(responses.is("rejected"));
+
+      allowing(ctx).writeAndFlush(with(aResponseTo(1)));
+      allowing(ctx).writeAndFlush(with(aResponseTo(2)));
+    }});
+
+    dispatcher.write("region", ctx, aCall(1), () -> {
+      releaseSlowWrite.await();
+      return aResponse(1);
+    });
+    dispatcher.write("region", ctx, aCall(2), () -> aResponse(2));
+    dispatcher.write("region", ctx, aCall(3), () -> aResponse(3));
+
+    synchroniser.waitUntil(responses.is("rejected"));
+  }
+
+  @Test(timeout = TIMEOUT)
+  public void anOperationWhichThrowsProducesAnErrorResponse() throws Exception {
+    context.checking(new Expectations() {{
+      oneOf(ctx).writeAndFlush(with(anErrorResponseTo(1)));
+      then(responses.is("written"));
+    }});
+
+    dispatcher.read(ctx, aCall(1), () -> {
+      throw new IOException("Unable to find region");
+    });
+
+    synchroniser.waitUntil(responses.is("written"));
+  }
+
+  @Test(timeout = TIMEOUT)
+  public void mutationsQueuedBehindAnotherWriteAreAppliedInOneBatchWithIndividualResponses() throws Exception {
+    context.checking(new Expectations() {{
+      oneOf(ctx).writeAndFlush(with(aResponseTo(1)));
+
+      oneOf(region).batchMutate(with(anArrayOfLength(3)));
+      will(returnValue(new OperationStatus[]{
+          new OperationStatus(HConstants.OperationStatusCode.SUCCESS),
+          new OperationStatus(HConstants.OperationStatusCode.FAILURE),
+          new OperationStatus(HConstants.OperationStatusCode.SUCCESS)}));
+
+      oneOf(ctx).writeAndFlush(with(aMutateResponseTo(2, true)));
+      oneOf(ctx).writeAndFlush(with(aMutateResponseTo(3, false)));
+      oneOf(ctx).writeAndFlush(with(aMutateResponseTo(4, true)));
+      then(responses.is("written"));
+    }});
+
+    dispatcher.write("region", ctx, aCall(1), () -> {
+      releaseSlowWrite.await();
+      return aResponse(1);
+    });
+    dispatcher.mutate("region", region, ctx, aCall(2), new Put(Bytes.toBytes("a")), null);
+    dispatcher.mutate("region", region, ctx, aCall(3), new Delete(Bytes.toBytes("b")), null);
+    dispatcher.mutate("region", region, ctx, aCall(4), new Put(Bytes.toBytes("c")), null);
+    releaseSlowWrite.countDown();
+
+    synchroniser.waitUntil(responses.is("written"));
+  }
+
+  @Test(timeout = TIMEOUT)
+  public void aMutationOfARowAlreadyInTheOpenBatchStartsANewBatch() throws Exception {
+    final Sequence batches = context.sequence("batches");
+    context.checking(new Expectations() {{
+      oneOf(ctx).writeAndFlush(with(aResponseTo(1)));
+
+      oneOf(region).batchMutate(with(anArrayOf(Delete.class)));
+      inSequence(batches);
+      will(returnValue(new OperationStatus[]{new OperationStatus(HConstants.OperationStatusCode.SUCCESS)}));
+      oneOf(region).batchMutate(with(anArrayOf(Put.class)));
+      inSequence(batches);
+      will(returnValue(new OperationStatus[]{new OperationStatus(HConstants.OperationStatusCode.SUCCESS)}));
+
+      oneOf(ctx).writeAndFlush(with(aMutateResponseTo(2, true)));
+      oneOf(ctx).writeAndFlush(with(aMutateResponseTo(3, true)));
+      then(responses.is("written"));
+    }});
+
+    dispatcher.write("region", ctx, aCall(1), () -> {
+      releaseSlowWrite.await();
+      return aResponse(1);
+    });
+    dispatcher.mutate("region", region, ctx, aCall(2), new Delete(Bytes.toBytes("a")), null);
+    dispatcher.mutate("region", region, ctx, aCall(3), new Put(Bytes.toBytes("a")), null);
+    releaseSlowWrite.countDown();
+
+    synchroniser.waitUntil(responses.is("written"));
+  }
+
+  private static Call aCall(long commandId) {
+    return new Call(Call.Command.GET, commandId, null, null, null, null);
+  }
+
+  private static Response aResponse(long commandId) {
+    return new Response(Response.Command.GET, commandId, null, null, null, null, null, null);
+  }
+
+  private static Matcher<Object> aResponseTo(long commandId) {
+    return new TypeSafeMatcher<Object>() {
+      @Override
+      protected boolean matchesSafely(Object item) {
+        return item instanceof Response
+            && ((Response) item).getCommandId() == commandId
+            && ((Response) item).getException() == null;
+      }
+
+      @Override
+      public void describeTo(Description description) {
+        description.appendText("a successful response to command ").appendValue(commandId);
+      }
+    };
+  }
+
+  private static Matcher<Object> aMutateResponseTo(long commandId, boolean processed) {
+    return new TypeSafeMatcher<Object>() {
+      @Override
+      protected boolean matchesSafely(Object item) {
+        return item instanceof Response
+            && ((Response) item).getCommandId() == commandId
+            && ((Response) item).getMutate() != null
+            && ((Response) item).getMutate().getProcessed() == processed;
+      }
+
+      @Override
+      public void describeTo(Description description) {
+        description.appendText("a mutate response to command ").appendValue(commandId)
+            .appendText(" with processed ").appendValue(processed);
+      }
+    };
+  }
+
+  private static Matcher<Mutation[]> anArrayOfLength(int length) {
+    return new TypeSafeMatcher<Mutation[]>() {
+      @Override
+      protected boolean matchesSafely(Mutation[] item) {
+        return item.length == length;
+      }
+
+      @Override
+      public void describeTo(Description description) {
+        description.appendText("an array of ").appendValue(length).appendText(" mutations");
+      }
+    };
+  }
+
+  private static Matcher<Mutation[]> anArrayOf(Class<? extends Mutation> type) {
+    return new TypeSafeMatcher<Mutation[]>() {
+      @Override
+      protected boolean matchesSafely(Mutation[] item) {
+        return item.length == 1 && type.isInstance(item[0]);
+      }
+
+      @Override
+      public void describeTo(Description description) {
+        description.appendText("an array of one ").appendText(type.getSimpleName());
+      }
+    };
+  }
+
+    private static Matcher<Object> anErrorResponseTo(long commandId) {
+    return new TypeSafeMatcher<Object>() {
+      @Override
+      protected boolean matchesSafely(Object item) {
+        return item instanceof Response
+            && ((Response) item).getCommandId() == commandId
+            && ((Response) item).getException() != null;
+      }
+
+      @Override
+      public void describeTo(Description description) {
+        description.appendText("an error response to command ").appendValue(commandId);
+      }
+    };
+  }
+}
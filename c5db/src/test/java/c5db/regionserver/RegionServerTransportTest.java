@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.regionserver;
+
+import c5db.codec.CallDecoder;
+import c5db.codec.Varint32FrameDecoder;
+import c5db.util.NettyTransport;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Reads frames through a server bootstrap configured as the region server configures its own, to find out whether
+ * CallDecoder decodes them in place.
+ */
+public class RegionServerTransportTest {
+  private final EventLoopGroup group = NettyTransport.newEventLoopGroup(1);
+  private final BlockingQueue<Boolean> framesDecodedInPlace = new LinkedBlockingQueue<>();
+  private Channel serverChannel;
+
+  @Before
+  public void bind() throws Exception {
+    serverChannel = RegionServerService.configureTransport(new ServerBootstrap().group(group, group))
+        .childHandler(new ChannelInitializer<SocketChannel>() {
+          @Override
+          protected void initChannel(SocketChannel ch) throws Exception {
+            ch.pipeline().addLast(new Varint32FrameDecoder(1024), new ChannelInboundHandlerAdapter() {
+              @Override
+              public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+                final ByteBuf frame = (ByteBuf) msg;
+                framesDecodedInPlace.add(CallDecoder.decodesInPlace(frame));
+                frame.release();
+              }
+            });
+          }
+        })
+        .bind(0).sync().channel();
+  }
+
+  @After
+  public void close() throws Exception {
+    serverChannel.close().sync();
+    group.shutdownGracefully().sync();
+  }
+
+  @Test(timeout = 10000)
+  public void callsAreDecodedFromTheBytesTheyWereReadInto() throws Exception {
+    try (Socket socket = new Socket("localhost", ((InetSocketAddress) serverChannel.localAddress()).getPort())) {
+      final OutputStream out = socket.getOutputStream();
+      out.write(new byte[]{3, 1, 2, 3});
+      out.flush();
+      assertThat(framesDecodedInPlace.take(), is(true));
+
+      out.write(new byte[]{1, 4, 2, 5});
+      out.flush();
+      assertThat(framesDecodedInPlace.take(), is(true));
+      out.write(new byte[]{6});
+      out.flush();
+      assertThat(framesDecodedInPlace.take(), is(true));
+    }
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.regionserver;
+
+import c5db.client.generated.MutationProto;
+import c5db.codec.ByteBufInput;
+import io.netty.buffer.Unpooled;
+import io.protostuff.LowCopyProtobufOutput;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class ReverseProtobufUtilTest {
+  private static final byte[] ROW = Bytes.toBytes("row");
+  private static final byte[] FAMILY = Bytes.toBytes("cf");
+  private static final byte[] QUALIFIER = Bytes.toBytes("cq");
+  private static final byte[] VALUE = Bytes.toBytes("a value of some length");
+
+  @Test
+  public void bytesFieldsOfADecodedRequestAreViewsOfTheRequest() throws Exception {
+    final byte[] request = serialize(aPut());
+
+    final MutationProto decoded = decode(request);
+
+    final ByteBuffer value = decoded.getColumnValueList().get(0).getQualifierValueList().get(0).getValue();
+    assertThat(value.array(), is(sameInstance(request)));
+    assertThat(ReverseProtobufUtil.toBytes(value), is(equalTo(VALUE)));
+  }
+
+  @Test
+  public void convertsADecodedPutToTheSameCells() throws Exception {
+    final Put put = ReverseProtobufUtil.toPut(decode(serialize(aPut())));
+
+    assertThat(put.getRow(), is(equalTo(ROW)));
+    final List<Cell> cells = put.getFamilyCellMap().get(FAMILY);
+    assertThat(cells.size(), is(equalTo(1)));
+    assertThat(CellUtil.cloneRow(cells.get(0)), is(equalTo(ROW)));
+    assertThat(CellUtil.cloneFamily(cells.get(0)), is(equalTo(FAMILY)));
+    assertThat(CellUtil.cloneQualifier(cells.get(0)), is(equalTo(QUALIFIER)));
+    assertThat(CellUtil.cloneValue(cells.get(0)), is(equalTo(VALUE)));
+    assertThat(cells.get(0).getTimestamp(), is(equalTo(1234L)));
+  }
+
+  @Test
+  public void toBytesReturnsAnArrayWhichHoldsExactlyTheFieldWithoutCopyingIt() {
+    final byte[] bytes = Bytes.toBytes("exactly");
+
+    assertThat(ReverseProtobufUtil.toBytes(ByteBuffer.wrap(bytes)), is(sameInstance(bytes)));
+    assertThat(ReverseProtobufUtil.toBytes(ByteBuffer.wrap(bytes, 1, 3)), is(not(sameInstance(bytes))));
+    assertThat(ReverseProtobufUtil.toBytes(ByteBuffer.wrap(bytes, 1, 3)), is(equalTo(Bytes.toBytes("xac"))));
+  }
+
+  private static MutationProto aPut() {
+    final MutationProto.ColumnValue.QualifierValue qualifierValue = new MutationProto.ColumnValue.QualifierValue(
+        ByteBuffer.wrap(QUALIFIER), ByteBuffer.wrap(VALUE), 1234L, null);
+    final MutationProto.ColumnValue columnValue =
+        new MutationProto.ColumnValue(ByteBuffer.wrap(FAMILY), Arrays.asList(qualifierValue));
+    return new MutationProto(ByteBuffer.wrap(ROW),
+        MutationProto.MutationType.PUT,
+        Arrays.asList(columnValue),
+        1234L,
+        new ArrayList<>(),
+        MutationProto.Durability.USE_DEFAULT,
+        new c5db.client.generated.TimeRange(),
+        1);
+  }
+
+  private static byte[] serialize(MutationProto proto) throws Exception {
+    final LowCopyProtobufOutput lcpo = new LowCopyProtobufOutput();
+    MutationProto.getSchema().writeTo(lcpo, proto);
+    final List<ByteBuffer> buffers = lcpo.buffer.finish();
+    final byte[] bytes = new byte[(int) lcpo.buffer.size()];
+    Unpooled.wrappedBuffer(buffers.toArray(new ByteBuffer[buffers.size()])).getBytes(0, bytes);
+    return bytes;
+  }
+
+  private static MutationProto decode(byte[] bytes) throws Exception {
+    final MutationProto proto = MutationProto.getSchema().newMessage();
+    MutationProto.getSchema().mergeFrom(new ByteBufInput(Unpooled.wrappedBuffer(bytes), false), proto);
+    return proto;
+  }
+}
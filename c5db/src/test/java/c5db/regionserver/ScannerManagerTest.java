@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.regionserver;
+
+import org.jetlang.channels.MemoryChannel;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+public class ScannerManagerTest {
+  private static final long TIMEOUT = 5000; // millis
+
+  @Test
+  public void handsOutADifferentIdToEachScanner() {
+    final ScannerManager manager = new ScannerManager(60000, 10, 1000);
+
+    assertThat(manager.nextScannerId(), is(not(equalTo(manager.nextScannerId()))));
+  }
+
+  @Test
+  public void refusesScannersBeyondTheLimit() {
+    final ScannerManager manager = new ScannerManager(60000, 2, 1000);
+
+    assertThat(manager.addChannel(1, new MemoryChannel<>(), () -> {}), is(true));
+    assertThat(manager.addChannel(2, new MemoryChannel<>(), () -> {}), is(true));
+    assertThat(manager.addChannel(3, new MemoryChannel<>(), () -> {}), is(false));
+
+    manager.removeChannel(1);
+    assertThat(manager.addChannel(3, new MemoryChannel<>(), () -> {}), is(true));
+  }
+
+  @Test(timeout = TIMEOUT)
+  public void concurrentOpensDoNotExceedTheLimit() throws Exception {
+    final ScannerManager manager = new ScannerManager(60000, 10, 1000);
+    final AtomicInteger added = new AtomicInteger(0);
+    final CountDownLatch start = new CountDownLatch(1);
+    final List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      final long scannerId = i;
+      final Thread thread = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        if (manager.addChannel(scannerId, new MemoryChannel<>(), () -> {})) {
+          added.incrementAndGet();
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertThat(added.get(), is(equalTo(10)));
+    assertThat(manager.getOpenScanners(), is(equalTo(10)));
+  }
+
+  @Test
+  public void closingAScannerRunsItsCloserOnce() {
+    final ScannerManager manager = new ScannerManager(60000, 10, 1000);
+    final AtomicInteger timesClosed = new AtomicInteger(0);
+    manager.addChannel(1, new MemoryChannel<>(), timesClosed::incrementAndGet);
+
+    manager.closeScanner(1);
+    manager.closeScanner(1);
+
+    assertThat(timesClosed.get(), is(equalTo(1)));
+    assertThat(manager.getChannel(1), is(nullValue()));
+  }
+
+  @Test(timeout = TIMEOUT)
+  public void closesAScannerWhoseLeaseRunsOut() throws Exception {
+    final ScannerManager manager = new ScannerManager(200, 10, 1000);
+    final CountDownLatch closed = new CountDownLatch(1);
+    manager.addChannel(1, new MemoryChannel<>(), closed::countDown);
+
+    closed.await();
+    assertThat(manager.getChannel(1), is(nullValue()));
+    assertThat(manager.getOpenScanners(), is(equalTo(0)));
+  }
+
+  @Test(timeout = TIMEOUT)
+  public void usingAScannerRenewsItsLease() throws Exception {
+    final ScannerManager manager = new ScannerManager(500, 10, 1000);
+    final CountDownLatch closed = new CountDownLatch(1);
+    manager.addChannel(1, new MemoryChannel<>(), closed::countDown);
+
+    for (int i = 0; i < 8; i++) {
+      Thread.sleep(100);
+      assertThat(manager.getChannel(1), is(notNullValue()));
+    }
+
+    closed.await();
+  }
+
+  @Test
+  public void reportsTheBufferFullUntilEnoughBytesAreReleased() {
+    final ScannerManager manager = new ScannerManager(60000, 10, 1000);
+
+    manager.addBufferedBytes(600);
+    assertThat(manager.isBufferFull(), is(false));
+
+    manager.addBufferedBytes(600);
+    assertThat(manager.isBufferFull(), is(true));
+
+    manager.releaseBufferedBytes(600);
+    assertThat(manager.isBufferFull(), is(false));
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.regionserver;
+
+import c5db.C5ServerConstants;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.CharsetUtil;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class TransportSelectionHandlerTest {
+  private final List<String> transportsChosen = new ArrayList<>();
+  private final EmbeddedChannel channel = new EmbeddedChannel(new TransportSelectionHandler(
+      (pipeline) -> chose("websocket", pipeline),
+      (pipeline) -> chose("binary", pipeline)));
+
+  @Test
+  public void choosesTheWebsocketTransportForAnHttpRequest() {
+    channel.writeInbound(bytes("GET /websocket HTTP/1.1\r\n"));
+
+    assertThat(transportsChosen, contains("websocket"));
+    assertThat(readInboundString(), is(equalTo("GET /websocket HTTP/1.1\r\n")));
+    assertThat(channel.pipeline().get(TransportSelectionHandler.class), is(nullValue()));
+  }
+
+  @Test
+  public void choosesTheBinaryTransportForAConnectionOpeningWithThePreamble() {
+    channel.writeInbound(Unpooled.wrappedBuffer(C5ServerConstants.BINARY_TRANSPORT_PREAMBLE), bytes("call"));
+
+    assertThat(transportsChosen, contains("binary"));
+    assertThat(readInboundString(), is(equalTo("call")));
+  }
+
+  @Test
+  public void waitsForTheWholePreambleBeforeChoosing() {
+    channel.writeInbound(Unpooled.wrappedBuffer(C5ServerConstants.BINARY_TRANSPORT_PREAMBLE, 0, 2));
+    assertThat(transportsChosen, is(empty()));
+
+    channel.writeInbound(Unpooled.wrappedBuffer(C5ServerConstants.BINARY_TRANSPORT_PREAMBLE, 2, 2));
+    assertThat(transportsChosen, contains("binary"));
+  }
+
+  private void chose(String transport, ChannelPipeline pipeline) {
+    transportsChosen.add(transport);
+  }
+
+  private String readInboundString() {
+    final StringBuilder received = new StringBuilder();
+    for (Object msg = channel.readInbound(); msg != null; msg = channel.readInbound()) {
+      received.append(((ByteBuf) msg).toString(CharsetUtil.UTF_8));
+      ((ByteBuf) msg).release();
+    }
+    return received.toString();
+  }
+
+  private static ByteBuf bytes(String string) {
+    return Unpooled.copiedBuffer(string, CharsetUtil.UTF_8);
+  }
+}
@@ -52,6 +52,7 @@ import java.util.function.Predicate;
 
 import static c5db.AsyncChannelAsserts.ChannelHistoryMonitor;
 import static c5db.RpcMatchers.RequestMatcher;
+import static c5db.RpcMatchers.RequestMatcher.aPreVoteRequest;
 import static c5db.RpcMatchers.RequestMatcher.anAppendRequest;
 import static c5db.interfaces.replication.Replicator.State.FOLLOWER;
 import static c5db.replication.ReplicationMatchers.aNoticeMatchingPeerAndCommitIndex;
@@ -62,7 +63,6 @@ import static c5db.replication.ReplicationMatchers.theLeader;
 import static c5db.replication.ReplicationMatchers.willCommitEntriesUpTo;
 import static c5db.replication.ReplicationMatchers.willRespondToAnAppendRequest;
 import static c5db.replication.ReplicationMatchers.willSend;
-import static org.hamcrest.CoreMatchers.anyOf;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.hasItem;
 import static org.hamcrest.CoreMatchers.is;
@@ -195,17 +195,46 @@ public class InRamTest {
   }
 
   @Test
-  public void aFollowerWillStageANewElectionIfItTimesOutWaitingToHearFromTheLeader() throws Exception {
+  public void aFollowerWhichLosesContactWithTheLeaderWillNotDisruptTheRestOfTheQuorum() throws Throwable {
     havingElectedALeaderAtOrAfter(term(1));
     final long firstLeaderTerm = currentTerm();
+    final LeaderController firstLeader = leader();
 
     PeerController follower = pickFollower();
 
     follower.willDropIncomingAppendsUntil(leader(), is(not(theLeader())));
     follower.allowToTimeout();
 
-    waitForALeader(firstLeaderTerm + 1);
-    assertThat(follower, anyOf(is(theLeader()), willRespondToAnAppendRequest()));
+    // The follower asks whether it could win an election; the rest of the quorum still hears from
+    // the leader, so they refuse, and nobody's term changes.
+    follower.waitForRequest(aPreVoteRequest());
+    leader().log(someData());
+    allPeersExceptLeader((peer) -> {
+      if (peer.id != follower.id) {
+        peer.waitForCommit(lastIndexLogged());
+      }
+    });
+
+    assertThat(leader().id, is(equalTo(firstLeader.id)));
+    assertThat(firstLeader.instance.currentTerm, is(equalTo(firstLeaderTerm)));
+    assertThat(follower.instance.currentTerm, is(equalTo(firstLeaderTerm)));
+  }
+
+  @Test
+  public void aLeaderCanHandLeadershipToAFollowerWithoutWaitingForAnElectionTimeout() throws Throwable {
+    havingElectedALeaderAtOrAfter(term(1));
+    final long firstLeaderTerm = currentTerm();
+    leader().log(someData());
+
+    PeerController target = pickFollower();
+    ListenableFuture<Boolean> transfer = leader().instance.transferLeadership(target.id);
+
+    // Only the leader's clock is running, so the target can only be elected because it was told to.
+    eventMonitor.waitFor(leaderElectedEvent(equalTo(target.id), greaterThanOrEqualTo(firstLeaderTerm + 1)));
+    assertThat(transfer.get(TEST_TIMEOUT, TimeUnit.SECONDS), is(true));
+
+    leader().log(someData());
+    allPeers((peer) -> assertThat(peer, willCommitEntriesUpTo(lastIndexLogged())));
   }
 
   @Test
@@ -0,0 +1,754 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.replication;
+
+import c5db.interfaces.replication.IndexCommitNotice;
+import c5db.interfaces.replication.Replicator;
+import c5db.interfaces.replication.ReplicatorInstanceEvent;
+import c5db.log.InRamLog;
+import c5db.log.ReplicatorLog;
+import c5db.replication.generated.AppendEntries;
+import c5db.replication.generated.LogEntry;
+import c5db.replication.rpc.RpcRequest;
+import c5db.replication.rpc.RpcWireReply;
+import c5db.replication.rpc.RpcWireRequest;
+import c5db.util.C5Futures;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import io.protostuff.Message;
+import org.jetlang.channels.AsyncRequest;
+import org.jetlang.channels.MemoryChannel;
+import org.jetlang.channels.MemoryRequestChannel;
+import org.jetlang.channels.Request;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A deterministic simulation of many quorums of ReplicatorInstances spread over a set of nodes, run
+ * in virtual time, for measuring how changes to replication (batching, heartbeats, elections, ...)
+ * affect commit latency and message traffic without needing a physical cluster.
+ * <p/>
+ * As in {@link InRamSim}, replicators talk over in-RAM channels and keep their logs in InRamLogs.
+ * Unlike it, every fiber runs on a single {@link VirtualTimeScheduler}; messages between nodes are
+ * subject to latency, per-node bandwidth, and loss; and log writes complete only after a simulated,
+ * group-committed disk sync on their node. Each quorum has an open-loop client logging writes to its
+ * leader. Given the same {@link Parameters}, two runs produce identical {@link Report}s.
+ */
+public class ReplicationSimulation {
+  // Rough framing and header costs, used to estimate message sizes on the wire.
+  private static final long MESSAGE_OVERHEAD_BYTES = 64;
+  private static final long ENTRY_OVERHEAD_BYTES = 24;
+
+  // ReplicatorInstance queues at most this many log requests; more would block the simulation.
+  private static final int MAX_OUTSTANDING_WRITES_PER_QUORUM = 100;
+
+  public static class Parameters {
+    private long seed = 1;
+
+    private int numNodes = 9;
+    private int numQuorums = 1000;
+    private int peersPerQuorum = 3;
+
+    private long electionTimeoutMillis = 1000;
+    private long electionCheckRateMillis = 100;
+    private long groupCommitDelayMillis = 50;
+
+    private long oneWayLatencyMicros = 250;
+    private long latencyJitterMicros = 100;
+    private long bandwidthBytesPerSecond = 125_000_000;
+    private double messageLossProbability = 0;
+
+    private long diskSyncMicros = 2000;
+
+    private double writesPerSecondPerQuorum = 10;
+    private int writeSizeBytes = 512;
+    private int maxOutstandingWritesPerQuorum = 32;
+
+    private long warmUpMillis = 5000;
+    private long measurementMillis = 10000;
+
+    public Parameters setSeed(long seed) {
+      this.seed = seed;
+      return this;
+    }
+
+    public Parameters setNumNodes(int numNodes) {
+      this.numNodes = numNodes;
+      return this;
+    }
+
+    public Parameters setNumQuorums(int numQuorums) {
+      this.numQuorums = numQuorums;
+      return this;
+    }
+
+    public Parameters setPeersPerQuorum(int peersPerQuorum) {
+      this.peersPerQuorum = peersPerQuorum;
+      return this;
+    }
+
+    /**
+     * The minimum election timeout; each replicator picks its own between this and twice this.
+     */
+    public Parameters setElectionTimeoutMillis(long electionTimeoutMillis) {
+      this.electionTimeoutMillis = electionTimeoutMillis;
+      return this;
+    }
+
+    public Parameters setElectionCheckRateMillis(long electionCheckRateMillis) {
+      this.electionCheckRateMillis = electionCheckRateMillis;
+      return this;
+    }
+
+    /**
+     * How often leaders batch up queued writes and send AppendEntries, which is also the heartbeat.
+     */
+    public Parameters setGroupCommitDelayMillis(long groupCommitDelayMillis) {
+      this.groupCommitDelayMillis = groupCommitDelayMillis;
+      return this;
+    }
+
+    public Parameters setOneWayLatencyMicros(long oneWayLatencyMicros) {
+      this.oneWayLatencyMicros = oneWayLatencyMicros;
+      return this;
+    }
+
+    /**
+     * Each message's latency is increased by a uniformly random amount up to this.
+     */
+    public Parameters setLatencyJitterMicros(long latencyJitterMicros) {
+      this.latencyJitterMicros = latencyJitterMicros;
+      return this;
+    }
+
+    /**
+     * Outgoing bandwidth of each node, shared by all its quorums.
+     */
+    public Parameters setBandwidthBytesPerSecond(long bandwidthBytesPerSecond) {
+      this.bandwidthBytesPerSecond = bandwidthBytesPerSecond;
+      return this;
+    }
+
+    /**
+     * Probability that any one request or reply between nodes is lost.
+     */
+    public Parameters setMessageLossProbability(double messageLossProbability) {
+      this.messageLossProbability = messageLossProbability;
+      return this;
+    }
+
+    /**
+     * How long a disk sync takes. Each node syncs all its quorums' pending writes together.
+     */
+    public Parameters setDiskSyncMicros(long diskSyncMicros) {
+      this.diskSyncMicros = diskSyncMicros;
+      return this;
+    }
+
+    public Parameters setWritesPerSecondPerQuorum(double writesPerSecondPerQuorum) {
+      this.writesPerSecondPerQuorum = writesPerSecondPerQuorum;
+      return this;
+    }
+
+    public Parameters setWriteSizeBytes(int writeSizeBytes) {
+      this.writeSizeBytes = writeSizeBytes;
+      return this;
+    }
+
+    /**
+     * Writes arriving while a quorum has this many uncommitted writes are rejected.
+     */
+    public Parameters setMaxOutstandingWritesPerQuorum(int maxOutstandingWritesPerQuorum) {
+      this.maxOutstandingWritesPerQuorum = maxOutstandingWritesPerQuorum;
+      return this;
+    }
+
+    public Parameters setWarmUpMillis(long warmUpMillis) {
+      this.warmUpMillis = warmUpMillis;
+      return this;
+    }
+
+    public Parameters setMeasurementMillis(long measurementMillis) {
+      this.measurementMillis = measurementMillis;
+      return this;
+    }
+
+    @Override
+    public String toString() {
+      return "Parameters{" +
+          "seed=" + seed +
+          ", numNodes=" + numNodes +
+          ", numQuorums=" + numQuorums +
+          ", peersPerQuorum=" + peersPerQuorum +
+          ", electionTimeoutMillis=" + electionTimeoutMillis +
+          ", electionCheckRateMillis=" + electionCheckRateMillis +
+          ", groupCommitDelayMillis=" + groupCommitDelayMillis +
+          ", oneWayLatencyMicros=" + oneWayLatencyMicros +
+          ", latencyJitterMicros=" + latencyJitterMicros +
+          ", bandwidthBytesPerSecond=" + bandwidthBytesPerSecond +
+          ", messageLossProbability=" + messageLossProbability +
+          ", diskSyncMicros=" + diskSyncMicros +
+          ", writesPerSecondPerQuorum=" + writesPerSecondPerQuorum +
+          ", writeSizeBytes=" + writeSizeBytes +
+          ", maxOutstandingWritesPerQuorum=" + maxOutstandingWritesPerQuorum +
+          ", warmUpMillis=" + warmUpMillis +
+          ", measurementMillis=" + measurementMillis +
+          '}';
+    }
+  }
+
+  /**
+   * The results of the measured part of a simulation run.
+   */
+  public static class Report {
+    public final long measurementMillis;
+    public final long commits;
+    public final long rejectedWrites;
+    public final long abandonedWrites;
+    public final long electionsStarted;
+    public final long leadersElected;
+    public final long messages;
+    public final long bytes;
+    public final long diskSyncs;
+    public final int quorumsWithALeader;
+    private final long[] sortedLatencyNanos;
+
+    private Report(long measurementMillis, Stats stats, int quorumsWithALeader) {
+      this.measurementMillis = measurementMillis;
+      this.commits = stats.commits;
+      this.rejectedWrites = stats.rejectedWrites;
+      this.abandonedWrites = stats.abandonedWrites;
+      this.electionsStarted = stats.electionsStarted;
+      this.leadersElected = stats.leadersElected;
+      this.messages = stats.messages;
+      this.bytes = stats.bytes;
+      this.diskSyncs = stats.diskSyncs;
+      this.quorumsWithALeader = quorumsWithALeader;
+      this.sortedLatencyNanos = Arrays.copyOf(stats.latencyNanos, stats.commits);
+      Arrays.sort(sortedLatencyNanos);
+    }
+
+    public double commitsPerSecond() {
+      return commits * 1000.0 / measurementMillis;
+    }
+
+    public double messagesPerCommit() {
+      return commits == 0 ? Double.NaN : (double) messages / commits;
+    }
+
+    public double bytesPerCommit() {
+      return commits == 0 ? Double.NaN : (double) bytes / commits;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     */
+    public double commitLatencyMillis(double percentile) {
+      if (sortedLatencyNanos.length == 0) {
+        return Double.NaN;
+      }
+      int rank = (int) Math.ceil(percentile / 100 * sortedLatencyNanos.length) - 1;
+      int index = Math.min(sortedLatencyNanos.length - 1, Math.max(0, rank));
+      return sortedLatencyNanos[index] / 1e6;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "commits: %d (%.1f/s), rejected writes: %d, abandoned writes: %d%n" +
+              "commit latency ms: p50 %.3f, p90 %.3f, p99 %.3f, p99.9 %.3f, max %.3f%n" +
+              "elections started: %d, leaders elected: %d, quorums with a leader at end: %d%n" +
+              "messages: %d (%.2f per commit), bytes: %d (%.1f per commit), disk syncs: %d",
+          commits, commitsPerSecond(), rejectedWrites, abandonedWrites,
+          commitLatencyMillis(50), commitLatencyMillis(90), commitLatencyMillis(99),
+          commitLatencyMillis(99.9), commitLatencyMillis(100),
+          electionsStarted, leadersElected, quorumsWithALeader,
+          messages, messagesPerCommit(), bytes, bytesPerCommit(), diskSyncs);
+    }
+  }
+
+  private final Parameters params;
+  private final Random random;
+  private final VirtualTimeScheduler scheduler = new VirtualTimeScheduler();
+  private final VirtualTimeFiber simulationFiber = new VirtualTimeFiber(scheduler);
+
+  private final Map<Long, SimulatedNode> nodes = new HashMap<>();
+  private final Map<String, Map<Long, ReplicatorInstance>> replicators = new HashMap<>();
+  private final Map<String, QuorumWorkload> workloads = new HashMap<>();
+  private final MemoryChannel<IndexCommitNotice> commitNotices = new MemoryChannel<>();
+  private final MemoryChannel<ReplicatorInstanceEvent> stateChanges = new MemoryChannel<>();
+
+  private final ByteBuffer payload;
+  private Stats stats = new Stats();
+  private long measurementStartNanos = Long.MAX_VALUE;
+
+  public ReplicationSimulation(Parameters params) {
+    if (params.peersPerQuorum > params.numNodes) {
+      throw new IllegalArgumentException("can't place " + params.peersPerQuorum + " peers on "
+          + params.numNodes + " nodes");
+    }
+    if (params.maxOutstandingWritesPerQuorum > MAX_OUTSTANDING_WRITES_PER_QUORUM) {
+      throw new IllegalArgumentException("at most " + MAX_OUTSTANDING_WRITES_PER_QUORUM
+          + " outstanding writes per quorum are supported");
+    }
+
+    this.params = params;
+    this.random = new Random(params.seed);
+
+    byte[] payloadBytes = new byte[params.writeSizeBytes];
+    random.nextBytes(payloadBytes);
+    this.payload = ByteBuffer.wrap(payloadBytes);
+  }
+
+  /**
+   * Bootstrap every quorum, run for the warm-up period, then measure for the measurement period.
+   */
+  public Report run() {
+    setUp();
+
+    scheduler.runFor(params.warmUpMillis, TimeUnit.MILLISECONDS);
+
+    stats = new Stats();
+    measurementStartNanos = scheduler.nanoTime();
+    scheduler.runFor(params.measurementMillis, TimeUnit.MILLISECONDS);
+
+    int quorumsWithALeader = 0;
+    for (QuorumWorkload workload : workloads.values()) {
+      if (workload.leader != null && workload.leader.isLeader()) {
+        quorumsWithALeader++;
+      }
+    }
+    return new Report(params.measurementMillis, stats, quorumsWithALeader);
+  }
+
+  long getEventsRun() {
+    return scheduler.getEventsRun();
+  }
+
+  private void setUp() {
+    simulationFiber.start();
+    commitNotices.subscribe(simulationFiber, this::onCommitNotice);
+    stateChanges.subscribe(simulationFiber, this::onStateChange);
+
+    for (long nodeId = 1; nodeId <= params.numNodes; nodeId++) {
+      SimulatedNode node = new SimulatedNode(nodeId);
+      node.outgoing.subscribe(simulationFiber, (request) -> send(node, request));
+      nodes.put(nodeId, node);
+    }
+
+    for (int quorumNumber = 1; quorumNumber <= params.numQuorums; quorumNumber++) {
+      String quorumId = String.format("quorum-%05d", quorumNumber);
+      List<Long> peers = choosePeers();
+
+      Map<Long, ReplicatorInstance> quorumReplicators = new HashMap<>();
+      for (long peerId : peers) {
+        quorumReplicators.put(peerId, createReplicator(nodes.get(peerId), quorumId));
+      }
+      replicators.put(quorumId, quorumReplicators);
+
+      for (ReplicatorInstance replicator : quorumReplicators.values()) {
+        replicator.bootstrapQuorum(peers);
+      }
+
+      QuorumWorkload workload = new QuorumWorkload();
+      workloads.put(quorumId, workload);
+      workload.scheduleNextWrite();
+    }
+  }
+
+  private List<Long> choosePeers() {
+    List<Long> allNodes = new ArrayList<>();
+    for (long nodeId = 1; nodeId <= params.numNodes; nodeId++) {
+      allNodes.add(nodeId);
+    }
+    // Partial Fisher-Yates shuffle, for a uniformly random placement.
+    for (int i = 0; i < params.peersPerQuorum; i++) {
+      int j = i + random.nextInt(allNodes.size() - i);
+      Long chosen = allNodes.get(j);
+      allNodes.set(j, allNodes.get(i));
+      allNodes.set(i, chosen);
+    }
+    return new ArrayList<>(allNodes.subList(0, params.peersPerQuorum));
+  }
+
+  private ReplicatorInstance createReplicator(SimulatedNode node, String quorumId) {
+    // Randomize the election timeout the same way ReplicatorInstance does, but from our seeded source.
+    long electionTimeout = params.electionTimeoutMillis + random.nextInt((int) params.electionTimeoutMillis);
+
+    ReplicatorInstance replicator = new ReplicatorInstance(
+        new VirtualTimeFiber(scheduler),
+        node.id,
+        quorumId,
+        new SimulatedDiskLog(node),
+        new VirtualTimeInfo(electionTimeout),
+        new InRamSim.Persister(),
+        node.outgoing,
+        stateChanges,
+        commitNotices,
+        0,
+        Replicator.State.FOLLOWER,
+        0,
+        0,
+        0);
+    replicator.start();
+    return replicator;
+  }
+
+  /**
+   * Network
+   */
+
+  private void send(SimulatedNode from, Request<RpcRequest, RpcWireReply> request) {
+    RpcRequest rpc = request.getRequest();
+    if (rpc.to == rpc.from) {
+      // e.g. a candidate voting for itself; this never touches the network.
+      deliver(request);
+      return;
+    }
+
+    long arrivalTime = transmit(from, rpc.to, rpc.message);
+    if (arrivalTime >= 0) {
+      scheduler.at(arrivalTime, () -> deliver(request));
+    }
+  }
+
+  private void deliver(Request<RpcRequest, RpcWireReply> request) {
+    final RpcRequest rpc = request.getRequest();
+    final ReplicatorInstance destination = replicators.get(rpc.quorumId).get(rpc.to);
+    if (destination == null) {
+      return;
+    }
+
+    RpcWireRequest wireRequest = new RpcWireRequest(rpc.from, rpc.quorumId, rpc.message);
+    AsyncRequest.withOneReply(simulationFiber, destination.getIncomingChannel(), wireRequest, reply -> {
+      RpcWireReply wireReply = new RpcWireReply(rpc.to, rpc.quorumId, reply.message);
+      if (rpc.to == rpc.from) {
+        request.reply(wireReply);
+        return;
+      }
+
+      long arrivalTime = transmit(nodes.get(rpc.to), rpc.from, reply.message);
+      if (arrivalTime >= 0) {
+        scheduler.at(arrivalTime, () -> request.reply(wireReply));
+      }
+    });
+  }
+
+  /**
+   * Account for sending a message from one node to another.
+   *
+   * @return the time the message arrives, or -1 if it is lost.
+   */
+  private long transmit(SimulatedNode from, long to, Message message) {
+    long size = estimateSize(message);
+    stats.messages++;
+    stats.bytes += size;
+
+    long now = scheduler.nanoTime();
+    long transmissionNanos = size * TimeUnit.SECONDS.toNanos(1) / params.bandwidthBytesPerSecond;
+    from.linkFreeAtNanos = Math.max(now, from.linkFreeAtNanos) + transmissionNanos;
+
+    long jitterNanos = (long) (random.nextDouble() * TimeUnit.MICROSECONDS.toNanos(params.latencyJitterMicros));
+    long arrivalTime = from.linkFreeAtNanos + TimeUnit.MICROSECONDS.toNanos(params.oneWayLatencyMicros) + jitterNanos;
+
+    // Connections between nodes deliver in order, whatever the jitter.
+    arrivalTime = Math.max(arrivalTime, from.lastArrivalNanos.getOrDefault(to, 0L));
+    from.lastArrivalNanos.put(to, arrivalTime);
+
+    if (random.nextDouble() < params.messageLossProbability) {
+      return -1;
+    }
+    return arrivalTime;
+  }
+
+  private static long estimateSize(Message message) {
+    long size = MESSAGE_OVERHEAD_BYTES;
+    if (message instanceof AppendEntries) {
+      for (LogEntry entry : ((AppendEntries) message).getEntriesList()) {
+        size += ENTRY_OVERHEAD_BYTES;
+        if (entry.getDataList() != null) {
+          for (ByteBuffer buffer : entry.getDataList()) {
+            size += buffer.remaining();
+          }
+        }
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Workload and measurement
+   */
+
+  private void onCommitNotice(IndexCommitNotice notice) {
+    QuorumWorkload workload = workloads.get(notice.replicatorInstance.getQuorumId());
+    if (workload != null && notice.replicatorInstance == workload.leader) {
+      workload.committed(notice.committedIndex);
+    }
+  }
+
+  private void onStateChange(ReplicatorInstanceEvent event) {
+    switch (event.eventType) {
+      case ELECTION_TIMEOUT:
+        stats.electionsStarted++;
+        break;
+      case LEADER_ELECTED:
+        if (event.newLeader == event.instance.getId()) {
+          stats.leadersElected++;
+          workloads.get(event.instance.getQuorumId()).leaderChanged((ReplicatorInstance) event.instance);
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  private class QuorumWorkload {
+    private final NavigableMap<Long, Long> uncommittedSubmitTimes = new TreeMap<>();
+    private ReplicatorInstance leader;
+    private long leaderGeneration = 0;
+    private long lastCommittedIndex = 0;
+    private int outstanding = 0;
+
+    private void scheduleNextWrite() {
+      double meanNanos = TimeUnit.SECONDS.toNanos(1) / params.writesPerSecondPerQuorum;
+      long delay = (long) (-Math.log(1 - random.nextDouble()) * meanNanos);
+      scheduler.schedule(this::write, delay, TimeUnit.NANOSECONDS);
+    }
+
+    private void write() {
+      scheduleNextWrite();
+
+      if (leader == null || !leader.isLeader() || outstanding >= params.maxOutstandingWritesPerQuorum) {
+        stats.rejectedWrites++;
+        return;
+      }
+
+      final ListenableFuture<Long> indexFuture;
+      try {
+        indexFuture = leader.logData(Lists.newArrayList(payload.duplicate()));
+      } catch (InterruptedException e) {
+        throw new IllegalStateException("simulation never blocks", e);
+      }
+      if (indexFuture == null) {
+        stats.rejectedWrites++;
+        return;
+      }
+
+      outstanding++;
+      final long submitTime = scheduler.nanoTime();
+      final long generation = leaderGeneration;
+      C5Futures.addCallback(indexFuture,
+          (index) -> {
+            if (generation != leaderGeneration) {
+              return; // already counted as abandoned
+            }
+            uncommittedSubmitTimes.put(index, submitTime);
+            committed(lastCommittedIndex);
+          },
+          (t) -> {
+            throw new IllegalStateException(t);
+          },
+          simulationFiber);
+    }
+
+    private void committed(long committedIndex) {
+      lastCommittedIndex = Math.max(lastCommittedIndex, committedIndex);
+      NavigableMap<Long, Long> nowCommitted = uncommittedSubmitTimes.headMap(lastCommittedIndex, true);
+      for (long submitTime : nowCommitted.values()) {
+        outstanding--;
+        if (submitTime >= measurementStartNanos) {
+          stats.recordCommit(scheduler.nanoTime() - submitTime);
+        }
+      }
+      nowCommitted.clear();
+    }
+
+    /**
+     * Writes in flight when leadership changes might or might not be committed by the new leader,
+     * and there's no telling which from here, so they are counted separately.
+     */
+    private void leaderChanged(ReplicatorInstance newLeader) {
+      stats.abandonedWrites += outstanding;
+      outstanding = 0;
+      uncommittedSubmitTimes.clear();
+      lastCommittedIndex = 0;
+      leaderGeneration++;
+      leader = newLeader;
+    }
+  }
+
+  private static class Stats {
+    private long commits = 0;
+    private long rejectedWrites = 0;
+    private long abandonedWrites = 0;
+    private long electionsStarted = 0;
+    private long leadersElected = 0;
+    private long messages = 0;
+    private long bytes = 0;
+    private long diskSyncs = 0;
+    private long[] latencyNanos = new long[1024];
+
+    private void recordCommit(long latency) {
+      if (commits == latencyNanos.length) {
+        latencyNanos = Arrays.copyOf(latencyNanos, latencyNanos.length * 2);
+      }
+      latencyNanos[(int) commits] = latency;
+      commits++;
+    }
+  }
+
+  /**
+   * Nodes and their disks
+   */
+
+  private class SimulatedNode {
+    private final long id;
+    private final MemoryRequestChannel<RpcRequest, RpcWireReply> outgoing = new MemoryRequestChannel<>();
+    private final Map<Long, Long> lastArrivalNanos = new HashMap<>();
+    private long linkFreeAtNanos = 0;
+
+    // Writes waiting for the next sync, and whether one is under way.
+    private List<SettableFuture<Boolean>> pendingWrites = new ArrayList<>();
+    private boolean syncing = false;
+
+    private SimulatedNode(long id) {
+      this.id = id;
+    }
+
+    private ListenableFuture<Boolean> write() {
+      SettableFuture<Boolean> future = SettableFuture.create();
+      pendingWrites.add(future);
+      if (!syncing) {
+        sync();
+      }
+      return future;
+    }
+
+    private void sync() {
+      final List<SettableFuture<Boolean>> batch = pendingWrites;
+      pendingWrites = new ArrayList<>();
+      syncing = true;
+      stats.diskSyncs++;
+
+      scheduler.schedule(() -> {
+        syncing = false;
+        batch.forEach((future) -> future.set(true));
+        if (!pendingWrites.isEmpty()) {
+          sync();
+        }
+      }, params.diskSyncMicros, TimeUnit.MICROSECONDS);
+    }
+  }
+
+  /**
+   * An InRamLog whose writes are only reported durable once the node's disk has synced.
+   */
+  private static class SimulatedDiskLog implements ReplicatorLog {
+    private final ReplicatorLog log = new InRamLog();
+    private final SimulatedNode node;
+
+    private SimulatedDiskLog(SimulatedNode node) {
+      this.node = node;
+    }
+
+    @Override
+    public ListenableFuture<Boolean> logEntries(List<LogEntry> entries) {
+      log.logEntries(entries);
+      return node.write();
+    }
+
+    @Override
+    public ListenableFuture<LogEntry> getLogEntry(long index) {
+      return log.getLogEntry(index);
+    }
+
+    @Override
+    public ListenableFuture<List<LogEntry>> getLogEntries(long start, long end) {
+      return log.getLogEntries(start, end);
+    }
+
+    @Override
+    public long getLogTerm(long index) {
+      return log.getLogTerm(index);
+    }
+
+    @Override
+    public long getLastTerm() {
+      return log.getLastTerm();
+    }
+
+    @Override
+    public long getLastIndex() {
+      return log.getLastIndex();
+    }
+
+    @Override
+    public ListenableFuture<Boolean> truncateLog(long entryIndex) {
+      return log.truncateLog(entryIndex);
+    }
+
+    @Override
+    public QuorumConfiguration getLastConfiguration() {
+      return log.getLastConfiguration();
+    }
+
+    @Override
+    public long getLastConfigurationIndex() {
+      return log.getLastConfigurationIndex();
+    }
+  }
+
+  private class VirtualTimeInfo implements ReplicatorInformationInterface {
+    private final long electionTimeout;
+
+    private VirtualTimeInfo(long electionTimeout) {
+      this.electionTimeout = electionTimeout;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+      return scheduler.currentTimeMillis();
+    }
+
+    @Override
+    public long electionCheckRate() {
+      return params.electionCheckRateMillis;
+    }
+
+    @Override
+    public long electionTimeout() {
+      return electionTimeout;
+    }
+
+    @Override
+    public long groupCommitDelay() {
+      return params.groupCommitDelayMillis;
+    }
+  }
+}
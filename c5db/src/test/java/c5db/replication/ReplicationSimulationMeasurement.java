@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.replication;
+
+/**
+ * Runs {@link ReplicationSimulation} over a range of configurations, printing commit latency
+ * percentiles, election counts, and message counts per commit for each.
+ * <p>
+ * Because the simulation runs in virtual time, the results depend only on the parameters and not on
+ * the machine running it; the wall clock time is printed only to show how long the simulation took.
+ * Edit the scenarios in {@link #main(String[])} to evaluate a particular change.
+ */
+public class ReplicationSimulationMeasurement {
+
+  private static final int NUM_NODES = 15;
+  private static final int NUM_QUORUMS = 2000;
+
+  public static void main(String[] args) {
+    // Batching and heartbeat interval: fewer, larger AppendEntries against commit latency.
+    for (long groupCommitDelay : new long[]{5, 10, 20, 50, 100}) {
+      measure("group commit delay " + groupCommitDelay + " ms",
+          baseline().setGroupCommitDelayMillis(groupCommitDelay));
+    }
+
+    // Disk sync cost, e.g. SSD against spinning disk.
+    for (long diskSyncMicros : new long[]{100, 2000, 10000}) {
+      measure("disk sync " + diskSyncMicros + " us",
+          baseline().setDiskSyncMicros(diskSyncMicros));
+    }
+
+    // An unreliable network, which should show up as elections and lost writes.
+    for (double loss : new double[]{0.001, 0.01, 0.05}) {
+      measure("message loss " + loss,
+          baseline().setMessageLossProbability(loss));
+    }
+
+    // Election timeout against heartbeat interval, under loss.
+    for (long electionTimeout : new long[]{150, 300, 1000}) {
+      measure("election timeout " + electionTimeout + " ms, 1% loss",
+          baseline()
+              .setElectionTimeoutMillis(electionTimeout)
+              .setMessageLossProbability(0.01));
+    }
+  }
+
+  private static ReplicationSimulation.Parameters baseline() {
+    return new ReplicationSimulation.Parameters()
+        .setNumNodes(NUM_NODES)
+        .setNumQuorums(NUM_QUORUMS);
+  }
+
+  private static void measure(String description, ReplicationSimulation.Parameters parameters) {
+    long startTime = System.nanoTime();
+    ReplicationSimulation simulation = new ReplicationSimulation(parameters);
+    ReplicationSimulation.Report report = simulation.run();
+    long elapsedMillis = (System.nanoTime() - startTime) / 1000000;
+
+    System.out.println("=== " + description);
+    System.out.println(parameters);
+    System.out.println(report);
+    System.out.println("(simulated " + simulation.getEventsRun() + " events in " + elapsedMillis + " ms)");
+    System.out.println();
+  }
+}
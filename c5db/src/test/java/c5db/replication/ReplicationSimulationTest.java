@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.replication;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+public class ReplicationSimulationTest {
+
+  private static ReplicationSimulation.Parameters smallSimulation() {
+    return new ReplicationSimulation.Parameters()
+        .setNumNodes(5)
+        .setNumQuorums(20)
+        .setWarmUpMillis(3000)
+        .setMeasurementMillis(3000);
+  }
+
+  @Test(timeout = 30000)
+  public void everyQuorumElectsALeaderAndCommitsWrites() throws Exception {
+    ReplicationSimulation.Report report = new ReplicationSimulation(smallSimulation()).run();
+
+    assertThat(report.quorumsWithALeader, is(equalTo(20)));
+    assertThat(report.commits, is(greaterThan(0L)));
+    assertThat(report.abandonedWrites, is(equalTo(0L)));
+    assertThat(report.messagesPerCommit(), is(greaterThan(0.0)));
+  }
+
+  @Test(timeout = 60000)
+  public void runsWithTheSameParametersProduceTheSameResults() throws Exception {
+    ReplicationSimulation.Parameters lossyNetwork = smallSimulation()
+        .setMessageLossProbability(0.05)
+        .setElectionTimeoutMillis(200);
+
+    String firstReport = new ReplicationSimulation(lossyNetwork).run().toString();
+    String secondReport = new ReplicationSimulation(lossyNetwork).run().toString();
+
+    assertThat(secondReport, is(equalTo(firstReport)));
+  }
+}
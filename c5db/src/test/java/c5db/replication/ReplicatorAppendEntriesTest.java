@@ -283,6 +283,24 @@ public class ReplicatorAppendEntriesTest {
     assertThatReplicatorWillCommitUpToIndex(receivedCommitIndex);
   }
 
+  @Test
+  public void reportsItsStalenessRelativeToTheCommitIndexesItHasHeardFromTheLeader() throws Exception {
+    final long receivedCommitIndex = 3;
+
+    havingLogged(
+        entries().term(1).indexes(1, 2, 3, 4));
+
+    havingReceived(
+        anAppendEntriesRequest()
+            .withPrevLogTerm(1).withPrevLogIndex(1)
+            .withNoEntries()
+            .withCommitIndex(receivedCommitIndex));
+
+    assertThat(reply(), is(anAppendReply().withResult(true)));
+    assertThat(replicatorInstance.getStalenessMillis(receivedCommitIndex), is(equalTo(0L)));
+    assertThat(replicatorInstance.getStalenessMillis(receivedCommitIndex - 1), is(equalTo(Long.MAX_VALUE)));
+  }
+
   @Test
   public void willLogANewQuorumConfigurationItReceivesAndUpdateItsCurrentConfiguration() throws Exception {
     final QuorumConfiguration configuration = aNewConfiguration();
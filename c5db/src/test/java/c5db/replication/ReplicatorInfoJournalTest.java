@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.replication;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+public class ReplicatorInfoJournalTest {
+  private static final String QUORUM_ID = "ReplicatorInfoJournalTest-quorumId";
+  private static final String OTHER_QUORUM_ID = "ReplicatorInfoJournalTest-otherQuorumId";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final InRamSim.Persister legacy = new InRamSim.Persister();
+  private Path journalPath;
+  private ReplicatorInfoJournal journal;
+
+  @Before
+  public void openJournal() throws Exception {
+    journalPath = folder.getRoot().toPath().resolve("replication-info.journal");
+    journal = new ReplicatorInfoJournal(journalPath, legacy);
+  }
+
+  @After
+  public void closeJournal() throws Exception {
+    journal.close();
+  }
+
+  @Test
+  public void readsBackTheLatestTermAndVoteForEachQuorumAfterReopening() throws Exception {
+    journal.writeCurrentTermAndVotedFor(QUORUM_ID, 1, 1);
+    journal.writeCurrentTermAndVotedFor(OTHER_QUORUM_ID, 7, 3);
+    journal.writeCurrentTermAndVotedFor(QUORUM_ID, 2, 0);
+
+    reopen();
+
+    assertThat(journal.readCurrentTerm(QUORUM_ID), is(equalTo(2L)));
+    assertThat(journal.readVotedFor(QUORUM_ID), is(equalTo(0L)));
+    assertThat(journal.readCurrentTerm(OTHER_QUORUM_ID), is(equalTo(7L)));
+    assertThat(journal.readVotedFor(OTHER_QUORUM_ID), is(equalTo(3L)));
+  }
+
+  @Test
+  public void fallsBackToTheLegacyStoreForQuorumsItHasNoRecordOf() throws Exception {
+    legacy.writeCurrentTermAndVotedFor(QUORUM_ID, 5, 2);
+
+    assertThat(journal.readCurrentTerm(QUORUM_ID), is(equalTo(5L)));
+    assertThat(journal.readVotedFor(QUORUM_ID), is(equalTo(2L)));
+  }
+
+  @Test
+  public void discardsATornRecordAtTheEndOfTheJournal() throws Exception {
+    journal.writeCurrentTermAndVotedFor(QUORUM_ID, 3, 1);
+    journal.writeCurrentTermAndVotedFor(QUORUM_ID, 4, 2);
+    journal.close();
+
+    try (FileChannel channel = FileChannel.open(journalPath, WRITE)) {
+      channel.truncate(channel.size() - 3);
+    }
+    reopen();
+
+    assertThat(journal.readCurrentTerm(QUORUM_ID), is(equalTo(3L)));
+    assertThat(journal.readVotedFor(QUORUM_ID), is(equalTo(1L)));
+
+    journal.writeCurrentTermAndVotedFor(QUORUM_ID, 5, 0);
+    reopen();
+    assertThat(journal.readCurrentTerm(QUORUM_ID), is(equalTo(5L)));
+  }
+
+  @Test
+  public void persistsEveryWriteFromConcurrentWriters() throws Exception {
+    final int numQuorums = 50;
+    final int termsPerQuorum = 20;
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int q = 0; q < numQuorums; q++) {
+        final String quorumId = "quorum-" + q;
+        futures.add(executor.submit(() -> {
+          for (long term = 1; term <= termsPerQuorum; term++) {
+            journal.writeCurrentTermAndVotedFor(quorumId, term, term % 3);
+          }
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    reopen();
+    for (int q = 0; q < numQuorums; q++) {
+      assertThat(journal.readCurrentTerm("quorum-" + q), is(equalTo((long) termsPerQuorum)));
+      assertThat(journal.readVotedFor("quorum-" + q), is(equalTo((long) termsPerQuorum % 3)));
+    }
+  }
+
+  @Test
+  public void closingWaitsForWritesInProgressToBeFlushed() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int q = 0; q < 4; q++) {
+        final String quorumId = "quorum-" + q;
+        futures.add(executor.submit(() -> {
+          for (long term = 1; term <= 50; term++) {
+            journal.writeCurrentTermAndVotedFor(quorumId, term, 0);
+          }
+          return null;
+        }));
+      }
+      for (int i = 0; i < 20; i++) {
+        journal.close();
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    reopen();
+    for (int q = 0; q < 4; q++) {
+      assertThat(journal.readCurrentTerm("quorum-" + q), is(equalTo(50L)));
+    }
+  }
+
+  private void reopen() throws IOException {
+    journal.close();
+    journal = new ReplicatorInfoJournal(journalPath, legacy);
+  }
+}
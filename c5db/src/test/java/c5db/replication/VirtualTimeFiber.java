@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.replication;
+
+import org.jetlang.core.Disposable;
+import org.jetlang.fibers.Fiber;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A Fiber whose tasks and timers all run on a {@link VirtualTimeScheduler}, so that code written
+ * against jetlang fibers (e.g. ReplicatorInstance) can be run in virtual time. Everything runs on the
+ * thread calling the scheduler, which trivially satisfies fiber confinement.
+ * <p/>
+ * As with jetlang's fibers, tasks submitted before start() are held until it is called, and once
+ * disposed a fiber silently drops everything, including its timers.
+ */
+class VirtualTimeFiber implements Fiber {
+  private final VirtualTimeScheduler scheduler;
+  private final List<Runnable> queuedBeforeStart = new ArrayList<>();
+  private final List<Disposable> disposables = new ArrayList<>();
+  private boolean started = false;
+  private boolean disposed = false;
+
+  VirtualTimeFiber(VirtualTimeScheduler scheduler) {
+    this.scheduler = scheduler;
+  }
+
+  @Override
+  public void start() {
+    if (started) {
+      return;
+    }
+    started = true;
+    queuedBeforeStart.forEach(this::execute);
+    queuedBeforeStart.clear();
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    if (disposed) {
+      return;
+    }
+    if (!started) {
+      queuedBeforeStart.add(command);
+      return;
+    }
+    scheduler.schedule(() -> runOnFiber(command), 0, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public Disposable schedule(Runnable command, long delay, TimeUnit unit) {
+    return scheduler.schedule(() -> runOnFiber(command), delay, unit);
+  }
+
+  @Override
+  public Disposable scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+    // Tasks take no virtual time, so fixed delay and fixed rate are the same thing.
+    return scheduleAtFixedRate(command, initialDelay, delay, unit);
+  }
+
+  @Override
+  public Disposable scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+    if (period <= 0) {
+      throw new IllegalArgumentException("period must be positive: " + period);
+    }
+    RecurringTask task = new RecurringTask(command, unit.toNanos(period));
+    task.scheduleAfter(unit.toNanos(initialDelay));
+    return task;
+  }
+
+  @Override
+  public void add(Disposable disposable) {
+    disposables.add(disposable);
+  }
+
+  @Override
+  public boolean remove(Disposable disposable) {
+    return disposables.remove(disposable);
+  }
+
+  @Override
+  public int size() {
+    return queuedBeforeStart.size();
+  }
+
+  @Override
+  public void dispose() {
+    if (disposed) {
+      return;
+    }
+    disposed = true;
+    queuedBeforeStart.clear();
+    for (Disposable disposable : new ArrayList<>(disposables)) {
+      disposable.dispose();
+    }
+    disposables.clear();
+  }
+
+  private void runOnFiber(Runnable command) {
+    if (disposed) {
+      return;
+    }
+    if (!started) {
+      queuedBeforeStart.add(command);
+      return;
+    }
+    command.run();
+  }
+
+  private class RecurringTask implements Runnable, Disposable {
+    private final Runnable command;
+    private final long periodNanos;
+    private Disposable next;
+    private boolean cancelled = false;
+
+    private RecurringTask(Runnable command, long periodNanos) {
+      this.command = command;
+      this.periodNanos = periodNanos;
+    }
+
+    private void scheduleAfter(long delayNanos) {
+      next = scheduler.schedule(this, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void run() {
+      if (cancelled || disposed) {
+        return;
+      }
+      runOnFiber(command);
+      if (!cancelled && !disposed) {
+        scheduleAfter(periodNanos);
+      }
+    }
+
+    @Override
+    public void dispose() {
+      cancelled = true;
+      if (next != null) {
+        next.dispose();
+      }
+    }
+  }
+}
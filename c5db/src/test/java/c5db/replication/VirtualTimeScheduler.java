@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.replication;
+
+import org.jetlang.core.Disposable;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single-threaded discrete event scheduler with a virtual clock. Tasks run in order of their
+ * scheduled time, and tasks scheduled for the same time run in the order they were scheduled, so a
+ * simulation driven only by this scheduler (and a seeded random source) is deterministic.
+ * <p/>
+ * Time only advances when {@link #runUntil(long)} takes the next task off the queue; running a task
+ * takes no virtual time at all.
+ */
+class VirtualTimeScheduler {
+  private final PriorityQueue<Event> events = new PriorityQueue<>();
+  private long nowNanos = 0;
+  private long nextSequenceNumber = 0;
+  private long eventsRun = 0;
+
+  long nanoTime() {
+    return nowNanos;
+  }
+
+  long currentTimeMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(nowNanos);
+  }
+
+  long getEventsRun() {
+    return eventsRun;
+  }
+
+  Disposable schedule(Runnable task, long delay, TimeUnit unit) {
+    return at(nowNanos + unit.toNanos(Math.max(0, delay)), task);
+  }
+
+  Disposable at(long timeNanos, Runnable task) {
+    Event event = new Event(Math.max(timeNanos, nowNanos), nextSequenceNumber++, task);
+    events.add(event);
+    return event;
+  }
+
+  /**
+   * Run every task scheduled up to and including the given time, including tasks those tasks
+   * schedule in turn; then leave the clock at that time.
+   */
+  void runUntil(long timeNanos) {
+    while (!events.isEmpty() && events.peek().timeNanos <= timeNanos) {
+      Event event = events.poll();
+      nowNanos = event.timeNanos;
+      if (!event.cancelled) {
+        eventsRun++;
+        event.task.run();
+      }
+    }
+    nowNanos = Math.max(nowNanos, timeNanos);
+  }
+
+  void runFor(long duration, TimeUnit unit) {
+    runUntil(nowNanos + unit.toNanos(duration));
+  }
+
+  private static class Event implements Comparable<Event>, Disposable {
+    private final long timeNanos;
+    private final long sequenceNumber;
+    private final Runnable task;
+    private boolean cancelled = false;
+
+    private Event(long timeNanos, long sequenceNumber, Runnable task) {
+      this.timeNanos = timeNanos;
+      this.sequenceNumber = sequenceNumber;
+      this.task = task;
+    }
+
+    @Override
+    public int compareTo(Event other) {
+      if (timeNanos != other.timeNanos) {
+        return Long.compare(timeNanos, other.timeNanos);
+      }
+      return Long.compare(sequenceNumber, other.sequenceNumber);
+    }
+
+    @Override
+    public void dispose() {
+      cancelled = true;
+    }
+  }
+}
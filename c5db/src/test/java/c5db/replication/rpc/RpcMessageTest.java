@@ -34,7 +34,7 @@ import static org.junit.Assert.assertNotEquals;
 public class RpcMessageTest {
   @Test
   public void testGetWireMessageFragment() throws Exception {
-    RequestVote requestVote = new RequestVote(22, 1, 42, 43);
+    RequestVote requestVote = new RequestVote(22, 1, 42, 43, false);
 
     RpcMessage msg = new RpcMessage(0, 0, "quorumId", requestVote);
 
@@ -33,8 +33,8 @@ public class RpcWireRequestTest {
   public void testGetSubMsg() throws Exception {
     ReplicationWireMessage wireMessage = new ReplicationWireMessage(
         1, 42, 42, "quorum", false,
-        new RequestVote(33, 1, 22, 33),
-        null, null, null
+        new RequestVote(33, 1, 22, 33, false),
+        null, null, null, null, null
     );
 
     RpcWireRequest rpcMsg = new RpcWireRequest(wireMessage);
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.tablet;
+
+import c5db.generated.RegionWalEntry;
+import c5db.interfaces.replication.IndexCommitNotice;
+import c5db.interfaces.replication.Replicator;
+import c5db.replication.generated.LogEntry;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import io.protostuff.LinkBuffer;
+import io.protostuff.LowCopyProtostuffOutput;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.hamcrest.Description;
+import org.hamcrest.Matcher;
+import org.hamcrest.TypeSafeMatcher;
+import org.jetlang.fibers.Fiber;
+import org.jetlang.fibers.ThreadFiber;
+import org.jmock.Expectations;
+import org.jmock.States;
+import org.jmock.integration.junit4.JUnitRuleMockery;
+import org.jmock.lib.concurrent.Synchroniser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Consumer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+public class CommittedEntryApplierTest {
+  private static final long TIMEOUT = 2000; // millis
+  private static final byte[] ROW = Bytes.toBytes("row");
+  private static final byte[] FAMILY = Bytes.toBytes("cf");
+
+  private final Synchroniser synchroniser = new Synchroniser();
+
+  @Rule
+  public final JUnitRuleMockery context = new JUnitRuleMockery() {{
+    setThreadingPolicy(synchroniser);
+  }};
+
+  private final Replicator replicator = context.mock(Replicator.class);
+  private final Region region = context.mock(Region.class);
+  @SuppressWarnings("unchecked")
+  private final Consumer<Throwable> failureHandler = context.mock(Consumer.class);
+  private final States applied = context.states("applied").startsAs("no");
+
+  private final Fiber tabletFiber = new ThreadFiber();
+  private final CommittedEntryApplier applier =
+      new CommittedEntryApplier(replicator, region, tabletFiber, failureHandler);
+
+  @Before
+  public void startFiber() {
+    tabletFiber.start();
+  }
+
+  @After
+  public void disposeFiber() {
+    tabletFiber.dispose();
+  }
+
+  @Test(timeout = TIMEOUT)
+  public void appliesCommittedEntriesToTheRegionInOneBatchAsAFollower() throws Exception {
+    final List<LogEntry> entries = Lists.newArrayList(
+        anEntry(1, 1, KeyValue.Type.Put, "a"),
+        anEntry(1, 2, KeyValue.Type.Put, "b"),
+        anEntry(1, 3, KeyValue.Type.DeleteColumn, "a"));
+
+    context.checking(new Expectations() {{
+      oneOf(replicator).getCommittedEntries(1, 4);
+      will(returnValue(Futures.immediateFuture(entries)));
+
+      oneOf(region).batchMutate(with(aPutThenADeleteOfRow(ROW)));
+      then(applied.is("yes"));
+    }});
+
+    tabletFiber.execute(() -> applier.onCommitNotice(aCommitNotice(3, 1), false));
+
+    synchroniser.waitUntil(applied.is("yes"));
+    waitForFiber();
+    assertThat(applier.getLastAppliedIndex(), is(equalTo(3L)));
+  }
+
+  @Test(timeout = TIMEOUT)
+  public void doesNotReapplyEntriesItWroteAsLeader() throws Exception {
+    final long leaderTerm = 2;
+    final List<LogEntry> entries = Lists.newArrayList(
+        anEntry(leaderTerm, 1, KeyValue.Type.Put, "a"),
+        anEntry(leaderTerm, 2, KeyValue.Type.Put, "b"));
+
+    context.checking(new Expectations() {{
+      oneOf(replicator).getCommittedEntries(1, 3);
+      will(returnValue(Futures.immediateFuture(entries)));
+      then(applied.is("yes"));
+
+      never(region).batchMutate(with(any(Mutation[].class)));
+    }});
+
+    tabletFiber.execute(() -> applier.onCommitNotice(aCommitNotice(2, leaderTerm), true));
+    synchroniser.waitUntil(applied.is("yes"));
+    waitForFiber();
+    assertThat(applier.getLastAppliedIndex(), is(equalTo(2L)));
+
+    // Later entries are known to be this leader's own, so they need not be read back at all.
+    tabletFiber.execute(() -> applier.onCommitNotice(aCommitNotice(10, leaderTerm), true));
+    waitForFiber();
+    assertThat(applier.getLastAppliedIndex(), is(equalTo(10L)));
+  }
+
+  private void waitForFiber() throws InterruptedException {
+    final CountDownLatch latch = new CountDownLatch(1);
+    tabletFiber.execute(latch::countDown);
+    latch.await();
+  }
+
+  private static IndexCommitNotice aCommitNotice(long index, long term) {
+    return new IndexCommitNotice(null, index, term, null);
+  }
+
+  private static LogEntry anEntry(long term, long index, KeyValue.Type type, String qualifier) throws IOException {
+    RegionWalEntry walEntry = new RegionWalEntry(
+        "region",
+        ByteBuffer.wrap(ROW),
+        ByteBuffer.wrap(FAMILY),
+        ByteBuffer.wrap(Bytes.toBytes(qualifier)),
+        ByteBuffer.wrap(Bytes.toBytes("value")),
+        index,
+        type.getCode() & 0xff);
+
+    LinkBuffer linkBuffer = new LinkBuffer();
+    RegionWalEntry.getSchema().writeTo(new LowCopyProtostuffOutput(linkBuffer), walEntry);
+    return new LogEntry(term, index, linkBuffer.finish(), null);
+  }
+
+  private static Matcher<Mutation[]> aPutThenADeleteOfRow(byte[] row) {
+    return new TypeSafeMatcher<Mutation[]>() {
+      @Override
+      protected boolean matchesSafely(Mutation[] mutations) {
+        return mutations.length == 2
+            && mutations[0] instanceof Put
+            && mutations[0].size() == 2
+            && mutations[1] instanceof Delete
+            && Bytes.equals(mutations[0].getRow(), row)
+            && Bytes.equals(mutations[1].getRow(), row);
+      }
+
+      @Override
+      public void describeTo(Description description) {
+        description.appendText("a two-cell Put followed by a Delete, of row ").appendValue(Bytes.toString(row));
+      }
+    };
+  }
+}
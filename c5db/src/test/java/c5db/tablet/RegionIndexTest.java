@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.tablet;
+
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class RegionIndexTest {
+  private static final TableName TABLE = TableName.valueOf("aTable");
+  private static final byte[] EMPTY = new byte[0];
+
+  private final RegionIndex.OnlineRegion firstRegion = onlineRegion(EMPTY, Bytes.toBytes("m"));
+  private final RegionIndex.OnlineRegion secondRegion = onlineRegion(Bytes.toBytes("m"), Bytes.toBytes("t"));
+  private final RegionIndex.OnlineRegion lastRegion = onlineRegion(Bytes.toBytes("t"), EMPTY);
+
+  private final RegionIndex index = RegionIndex.EMPTY
+      .withRegion(lastRegion)
+      .withRegion(firstRegion)
+      .withRegion(secondRegion);
+
+  @Test
+  public void findsARegionByItsFullOrEncodedName() {
+    assertThat(index.get(ByteBuffer.wrap(secondRegion.regionInfo.getRegionName())), is(sameInstance(secondRegion)));
+    assertThat(index.get(ByteBuffer.wrap(secondRegion.regionInfo.getEncodedNameAsBytes())),
+        is(sameInstance(secondRegion)));
+  }
+
+  @Test
+  public void findsARegionByTheRemainingBytesOfABufferViewingPartOfALargerArray() {
+    final byte[] name = secondRegion.regionInfo.getRegionName();
+    final byte[] request = new byte[name.length + 10];
+    System.arraycopy(name, 0, request, 5, name.length);
+
+    assertThat(index.get(ByteBuffer.wrap(request, 5, name.length)), is(sameInstance(secondRegion)));
+  }
+
+  @Test
+  public void findsTheFirstRegionOfATableByTheTablesName() {
+    assertThat(index.get(ByteBuffer.wrap(TABLE.getName())), is(sameInstance(firstRegion)));
+  }
+
+  @Test
+  public void routesRowsToTheRegionWhoseKeyRangeHoldsThem() {
+    final ByteBuffer table = ByteBuffer.wrap(TABLE.getName());
+
+    assertThat(index.getForRow(table, row("a")), is(sameInstance(firstRegion)));
+    assertThat(index.getForRow(table, row("m")), is(sameInstance(secondRegion)));
+    assertThat(index.getForRow(table, row("s")), is(sameInstance(secondRegion)));
+    assertThat(index.getForRow(table, row("z")), is(sameInstance(lastRegion)));
+  }
+
+  @Test
+  public void doesNotRouteRowsInAGapBetweenOnlineRegions() {
+    final RegionIndex withoutSecond = index.withoutRegion(secondRegion.regionInfo.getRegionName());
+
+    assertThat(withoutSecond.getForRow(ByteBuffer.wrap(TABLE.getName()), row("p")), is(nullValue()));
+    assertThat(withoutSecond.get(ByteBuffer.wrap(secondRegion.regionInfo.getRegionName())), is(nullValue()));
+    assertThat(index.get(ByteBuffer.wrap(secondRegion.regionInfo.getRegionName())), is(sameInstance(secondRegion)));
+  }
+
+  @Test
+  public void findsNothingForUnknownNames() {
+    assertThat(index.get(ByteBuffer.wrap(Bytes.toBytes("anotherTable"))), is(nullValue()));
+    assertThat(index.getForRow(ByteBuffer.wrap(Bytes.toBytes("anotherTable")), row("a")), is(nullValue()));
+  }
+
+  @Test
+  public void routesARowViewingPartOfALargerArray() {
+    final ByteBuffer row = ByteBuffer.wrap(Bytes.toBytes("xxmxx"), 2, 1);
+
+    assertThat(index.getForRow(ByteBuffer.wrap(TABLE.getName()), row), is(sameInstance(secondRegion)));
+  }
+
+  private static ByteBuffer row(String row) {
+    return ByteBuffer.wrap(Bytes.toBytes(row));
+  }
+
+  private static RegionIndex.OnlineRegion onlineRegion(byte[] startKey, byte[] endKey) {
+    return new RegionIndex.OnlineRegion(new HRegionInfo(TABLE, startKey, endKey, false, 1), null, null, null);
+  }
+}
@@ -137,6 +137,9 @@ public class ReplicatedTabletTest {
     context.checking(new Expectations() {{
       allowing(replicator).getStateChannel();
       will(returnValue(channel));
+
+      allowing(replicationModule).getIndexCommitNotices();
+      will(returnValue(new MemoryChannel<>()));
     }});
   }
 
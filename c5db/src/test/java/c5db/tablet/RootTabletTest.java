@@ -154,6 +154,9 @@ public class RootTabletTest {
     context.checking(new Expectations() {{
       allowing(replicator).getStateChannel();
       will(returnValue(stateMemoryChannel));
+
+      allowing(replicationModule).getIndexCommitNotices();
+      will(returnValue(new MemoryChannel<>()));
     }});
   }
 
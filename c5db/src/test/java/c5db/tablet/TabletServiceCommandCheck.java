@@ -147,6 +147,15 @@ public class TabletServiceCommandCheck {
 
       replicationServiceFuture.set(replicationModule);
 
+      allowing(replicationModule).getIndexCommitNotices();
+      will(returnValue(new MemoryChannel<>()));
+
+      allowing(replicationModule).getReplicatorEventChannel();
+      will(returnValue(new MemoryChannel<>()));
+
+      allowing(replicator).getLeader();
+      will(returnValue(0L));
+
       // Begin bootstrap
       oneOf(c5Server).isSingleNodeMode();
       will(returnValue(true));